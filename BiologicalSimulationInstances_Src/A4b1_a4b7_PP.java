@@ -1,8 +1,10 @@
 
 
-import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Random;
+
+import sim_platform.AdhesionExpressor;
+import sim_platform.AdhesionReceptor;
+import sim_platform.RandomStream;
 
 
 /**
@@ -12,7 +14,7 @@ import java.util.Random;
  * @author kieran
  *
  */
-public class A4b1_a4b7_PP 
+public class A4b1_a4b7_PP implements AdhesionReceptor
 {
 	
 	/**
@@ -45,30 +47,16 @@ public class A4b1_a4b7_PP
 	 * @param vcamSlope	The slope of VCAM expression - how this rises with each stable contact
 	 * @param maxVCAMeffectProbabilityCutoff	The maximum probability adhesion factors hold a cell in place around an LTo
 	 * @param randNum	Represents the probability calculated that the adhesion factor has an influence
+	 * @param random	The random number stream of the cell expressing this receptor
 	 * @return	Boolean determining whether the cell stays put or moves away
 	 */
-	public boolean examineVCAMEffect(Object expressor)
+	public boolean examineVCAMEffect(AdhesionExpressor expressor, RandomStream random)
 	{
-		Random rand = new Random();
-		//double probability = ppsim.random.nextDouble();
-		double probability = rand.nextDouble();
+		double probability = random.nextDouble();
 		
-		double expressionLevel=0;
-		double adhesionSlope=0;
-		try
-		{
-			// Get the expression level of the expressor
-			Method meth = expressor.getClass().getMethod("returnAdhesionExpressionLevel",new Class[]{});
-			expressionLevel = (Double)meth.invoke(expressor);
-			
-			// Get the adhesion expression slope from the expressor
-			Method getAdhesionSlope = expressor.getClass().getMethod("returnAdhesionSlope",new Class[]{});
-			adhesionSlope = (Double)getAdhesionSlope.invoke(expressor);
-		}
-		catch(Exception e)
-		{
-			e.printStackTrace();
-		}
+		// Get the expression level and the adhesion expression slope from the expressor
+		double expressionLevel = expressor.returnAdhesionExpressionLevel();
+		double adhesionSlope = expressor.returnAdhesionSlope();
 		
 		double probabilityProlongedAdhesion = adhesionSlope * expressionLevel;
     	
@@ -2,7 +2,9 @@
 
 import java.util.ArrayList;
 
-public class CXCL13_CCL19_CCL21_PP 
+import sim_platform.ChemokineExpressor;
+
+public class CXCL13_CCL19_CCL21_PP implements ChemokineExpressor
 {
 	/**
 	 * Stores the current Threshold used in the sigmoid function which determines chemokine diffusion from this cell - used for both CXCL13 & CCL21
@@ -57,6 +59,16 @@ public class CXCL13_CCL19_CCL21_PP
         this.maxChemokineExpressionValue = Double.parseDouble(expressorDetails.get(2));
   	}
 	
+	public double getChemoSigThreshold()
+	{
+		return this.chemoSigThreshold;
+	}
+	
+	public double getChemoLinearAdjust()
+	{
+		return this.chemoLinearAdjust;
+	}
+	
 	public void increaseChemokineExpression()
 	{
 		if(this.chemoLinearAdjust>this.maxChemokineExpressionValue)
@@ -64,5 +76,28 @@ public class CXCL13_CCL19_CCL21_PP
 			this.chemoLinearAdjust-=this.chemoLinearAdjustmentReducer;
 		}
 	}
+	
+	/* (non-Javadoc)
+	 * @see sim_platform.ChemokineExpressor#chemokineLevel(double)
+	 */
+	public double chemokineLevel(double distance)
+	{
+		// sigmoid function - same calculation as used by the receptor
+		return (1/( 1 + Math.pow(Math.E,-(-this.chemoLinearAdjust*distance+this.chemoSigThreshold))));
+	}
+	
+	/* (non-Javadoc)
+	 * @see sim_platform.ChemokineExpressor#expressionRadius(double)
+	 */
+	public double expressionRadius(double threshold)
+	{
+		// Solve the sigmoid for the distance at which it equals the threshold.  Where this cannot be done (the curve
+		// does not fall with distance, or the threshold is outside 0-1) be safe and cover everywhere
+		if(this.chemoLinearAdjust<=0 || threshold<=0 || threshold>=1)
+		{
+			return Double.POSITIVE_INFINITY;
+		}
+		return (this.chemoSigThreshold+Math.log(1/threshold-1))/this.chemoLinearAdjust;
+	}
 
 }
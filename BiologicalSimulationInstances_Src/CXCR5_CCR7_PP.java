@@ -1,13 +1,12 @@
 
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 import sim.util.Double2D;
-import sim.util.IntBag;
+import sim_platform.ChemokineGrid;
+import sim_platform.ChemokineReceptor;
 import sim_platform.PPatchSim;
+import sim_platform.RandomStream;
 
 /**
  * Models the chemokine receptor on each LTi cell.  Will determine if there is enough chemokine in the local environment to
@@ -15,12 +14,27 @@ import sim_platform.PPatchSim;
  * @author kieran
  *
  */
-public class CXCR5_CCR7_PP 
+public class CXCR5_CCR7_PP implements ChemokineReceptor
 {	
-	 /**
-     * A map to store the strength of the chemokine in all the grid squares around a cell location.  Sorted so that the highest can be quickly retrieved
+	/**
+	 * Direction code signifying that no square has been chosen, and a random angle should be taken
+	 */
+	public static final int RANDOM_DIRECTION = 99;
+	
+	/**
+	 * Reading signifying that no chemokine level high enough to act upon was sensed around the cell
+	 */
+	private static final int NO_CHEMOKINE_READING = -1;
+	
+    /**
+     * x coordinates of the squares in the Moore's Neighbourhood around the cell, filled each step
+     */
+    private int[] mooresX = new int[9];
+    
+    /**
+     * y coordinates of the squares in the Moore's Neighbourhood around the cell, filled each step
      */
-    public SortedMap<Double,Integer> chemomap = new TreeMap<Double,Integer>();
+    private int[] mooresY = new int[9];
     
     /**
 	 * <a name = "chemokineEffectThreshold"></a>
@@ -47,151 +61,133 @@ public class CXCR5_CCR7_PP
 		this.chemokineEffectThreshold = Double.parseDouble(receptorDetail.get(1));
 	}
 	
-	public double generateAngleThroughChemokineExpression(PPatchSim ppsim, Double2D cellLocation)
+	public double generateAngleThroughChemokineExpression(PPatchSim ppsim, double cellX, double cellY, RandomStream random)
 	{
-		int chosenDirection = Integer.parseInt(this.chemoEffect(ppsim, cellLocation));
+		int chosenDirection = this.chemoEffect(ppsim, cellX, cellY, random);
 		
 		// Now we have used the grid to find the direction of the chemokine distribution & generate probabilities,
 		// can use this to generate a random angle in that direction (see diagram for explanation)
-		// if chosenDirection = 99, a random angle between 0 and 360 will be returned
-		return this.calculateAngle(chosenDirection);
+		// if chosenDirection = RANDOM_DIRECTION (99), a random angle between 0 and 360 will be returned
+		return this.calculateAngle(chosenDirection, random);
 	}
 	
 	/**
-	 * Calculate the probabilities of the cell moving to within each grid square of the moore's neighbourhood around it
+	 * Calculate the probabilities of the cell moving to within each grid square of the moore's neighbourhood around it, and
+	 * choose the square to move to
+	 * 
+	 * @param ppsim	The current simulation state
+	 * @param agentX	x coordinate of where the LTi cell currently is
+	 * @param agentY	y coordinate of where the LTi cell currently is
+	 * @param random	The random number stream of the LTi cell
+	 * @return	The square chosen to move to (0-8), or RANDOM_DIRECTION
+	 */
+	public int chemoEffect(PPatchSim ppsim, double agentX, double agentY, RandomStream random)
+	{
+		return this.directionFromReading(this.senseChemokine(ppsim,agentX,agentY,this.mooresX,this.mooresY),random);
+	}
+	
+	/**
+	 * Chooses the square to move to from a reading taken by senseChemokine
+	 * 
+	 * @param reading	The reading
+	 * @param random	The random number stream of the LTi cell
+	 * @return	The square chosen to move to (0-8), or RANDOM_DIRECTION
+	 */
+	private int directionFromReading(int reading, RandomStream random)
+	{
+		if(reading==NO_CHEMOKINE_READING)
+		{
+			return RANDOM_DIRECTION;
+		}
+		else
+		{
+			return selectDirection(random,reading/9,reading%9);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see sim_platform.ChemokineReceptor#prepareSensing(sim_platform.PPatchSim)
+	 */
+	public void prepareSensing(PPatchSim ppsim)
+	{
+		ppsim.chemoGrid.stampToThreshold(this.chemokineEffectThreshold);
+	}
+	
+	/* (non-Javadoc)
+	 * @see sim_platform.ChemokineReceptor#generateAngleFromReading(sim_platform.PPatchSim, int, sim_platform.RandomStream)
+	 */
+	public double generateAngleFromReading(PPatchSim ppsim, int reading, RandomStream random)
+	{
+		return this.calculateAngle(this.directionFromReading(reading,random),random);
+	}
+	
+	/**
+	 * Senses the chemokine levels that determine the probabilities of the cell moving to within each grid square of the moore's neighbourhood around it
      * This takes into account both CCL19 and CCL13/21 diffusions.  The direction at which the strongest chemokine 
-     * strength is felt is returned, after a process which determines how likely the cell is to move in that direction
+     * strength is felt is returned, with how likely the cell is to move in that direction - the direction itself is chosen
+     * from this reading by directionFromReading
 	 *   
 	 * Assesses every 'square' around the LTi, and makes a decision based on the local expression level, then chooses an angle in that direction.
 	 * Should no level be detected, or it not be high enough, the cell will choose a random direction
 	 * 
 	 * @param ppsim	The current simulation state
-	 * @param agentLocation	Where the LTi cell currently is
-	 * @return	A string denoting the angle chosen to move
+	 * @param agentX	x coordinate of where the LTi cell currently is
+	 * @param agentY	y coordinate of where the LTi cell currently is
+	 * @param stencilX	Working array of at least 9, filled with the x coordinates of the neighbourhood
+	 * @param stencilY	Working array of at least 9, filled with the y coordinates of the neighbourhood
+	 * @return	The reading - the probability of following the strongest level and the square it is in, or NO_CHEMOKINE_READING
 	 */
-	public String chemoEffect(PPatchSim ppsim, Double2D agentLocation)
+	public int senseChemokine(PPatchSim ppsim, double agentX, double agentY, int[] stencilX, int[] stencilY)
 	{
-		IntBag mooresX;
-		IntBag mooresY;
-		
 		// Store the total of each of the probabilities - used in later calculations to standardise the probability
 		double totalchemoLevels=0;
 		
+		// The strongest level (as a percentage) seen in the neighbourhood, and the square it was seen in
+		double strongestLevel=-1;
+		int strongestSquare=-1;
+		
 		try
 		{
-			Double environmentLength = ppsim.intestine_env.getClass().getDeclaredField("currentGridLength").getDouble(ppsim.intestine_env);
-			Double environmentHeight = ppsim.intestine_env.getClass().getDeclaredField("currentGridHeight").getDouble(ppsim.intestine_env);
+			double environmentLength = ppsim.intestine_env.getCurrentGridLength();
+			double environmentHeight = ppsim.intestine_env.getCurrentGridHeight();
 			
 			// Firstly, calculate the moores neighbourhood around the cell
-			mooresX = ppsim.chemoGrid.generateMooresN(agentLocation.x,agentLocation.y,true,environmentLength,environmentHeight);
-			mooresY = ppsim.chemoGrid.generateMooresN(agentLocation.x,agentLocation.y,false,environmentLength,environmentHeight);
+			// FIX 170311 - DUE TO THE TOROIDAL NATURE OF NEIGHBOURS (AS THE CELLS CAN MOVE BOTTOM ROUND TO TOP, THEY WILL BE ABLE TO MOVE ROUND THE EDGES
+			// OF THE SCREEN (LEFT & RIGHT) - THIS NEEDS TO BE STOPPED - SO THE LEVEL OF CHEMOKINE FOR GRID SPACES THE OPPOSITE SIDE OF THE SCREEN IS NOT
+			// CALCULATED.  THE STENCIL MARKS THESE SQUARES AS ROLLED AROUND
+			int centre = ppsim.chemoGrid.generateMooresStencil(agentX,agentY,environmentLength,environmentHeight,ppsim.surfaceCellsGrid.getWidth(),stencilX,stencilY);
 		
-			// clear the map used to calculate the move
-			chemomap.clear();
-			
 			// Now go through each grid in the neighbourhood, excluding the centre where the cell is
-			for(int k=0;k<mooresX.size();k++)
+			for(int k=0;k<9;k++)
 			{
-				// FIX 170311 - DUE TO THE TOROIDAL NATURE OF NEIGHBOURS (AS THE CELLS CAN MOVE BOTTOM ROUND TO TOP, THEY WILL BE ABLE TO MOVE ROUND THE EDGES
-				// OF THE SCREEN (LEFT & RIGHT) - THIS NEEDS TO BE STOPPED - SO THE LEVEL OF CHEMOKINE FOR GRID SPACES THE OPPOSITE SIDE OF THE SCREEN IS NOT
-				// CALCULATED
-			
 				// ONLY LOOK AT THIS SQUARE IF NOT ROLLED AROUND THE SCREEN
-				boolean moveOk = checkRightLeftRollAround(ppsim,agentLocation,mooresX.get(k),environmentLength,environmentHeight);
-			
-				if(moveOk)
+				if(stencilX[k]!=ChemokineGrid.ROLLED_AROUND)
 				{
-					// store the highest effect for this cell
-					double chemoHighEffect = 0.0;
-		
+					double level;
+					
 					// Just check that this is not the middle cell of the neighbourhood (where the cell is)
-					if((mooresX.get(k)!=ppsim.chemoGrid.roundX(agentLocation.x, environmentLength)) || (mooresY.get(k)!=ppsim.chemoGrid.roundY(agentLocation.y, environmentHeight)))
+					if(k!=centre)
 					{
-						// Now look at each LTo Cell and examine the chemokine effect (Note, strongest may not be closest)
-						for(int l=0;l<ppsim.ltoCellsBag.size();l++)
-						{
-							Object expressingCell = ppsim.ltoCellsBag.get(l);
-							
-							try
-							{
-								// Get the state of this cell object
-								Field cellState = expressingCell.getClass().getDeclaredField("cellState");
-								// Get the simulation state (i.e. has the cell been stopped
-								Field cellStopped = expressingCell.getClass().getDeclaredField("stopped");
-								// Get the location of this cell object
-								Field cellLocField = expressingCell.getClass().getDeclaredField("agentLocation");
-								Double2D cellLocation = (Double2D)cellLocField.get(expressingCell);
-								@SuppressWarnings("unchecked")
-								ArrayList<Object> cellExpressors = (ArrayList<Object>)expressingCell.getClass().getDeclaredField("expressors").get(expressingCell);
-						
-								if((cellState.getInt(expressingCell)==3 || cellState.getInt(expressingCell)==9) && !cellStopped.getBoolean(expressingCell))       // i.e. the cell is expressing chemokine & has not yet been 'removed'
-								{
-									// Firstly calculate the distance from the LTo Cell - this is needed for all calculations
-									double distance = (Math.sqrt((Math.pow(mooresX.get(k)-cellLocation.x,2)+Math.pow(mooresY.get(k)-cellLocation.y,2))));
-							
-									
-									// Get the expressing cell chemokine levels - this however should again be moved for full separation, but here as an example
-									// PREVIOUSLY SUCCESSFUL CHEMOKINE BEFORE SPLIT OF EXPRESSOR:
-									/*Field cellChemoLinearAdjust = expressingCell.getClass().getDeclaredField("chemoLinearAdjust");
-									Field cellChemoSigThreshold = expressingCell.getClass().getDeclaredField("chemoSigThreshold");
-									double chemoEffect = calcChemoLevel(distance,cellChemoLinearAdjust.getDouble(expressingCell),cellChemoSigThreshold.getDouble(expressingCell),simParams.chemokineEffectThreshold);
-									
-									// determine if this is the highest effect seen, if so change the variable
-									if(chemoEffect>chemoHighEffect)
-										chemoHighEffect = chemoEffect;*/
-									
-									boolean chemoExpressorFound = false;
-										
-									for(int i=0;i<cellExpressors.size() && !chemoExpressorFound;i++)
-							    	{
-										try
-										{
-								    		// get the receptor
-								    		Object expressor = cellExpressors.get(i);
-								    			
-								    		Field cellChemoLinearAdjust = expressor.getClass().getDeclaredField("chemoLinearAdjust");
-											Field cellChemoSigThreshold = expressor.getClass().getDeclaredField("chemoSigThreshold");
-								    
-											double chemoEffect = calcChemoLevel(distance,cellChemoLinearAdjust.getDouble(expressor),cellChemoSigThreshold.getDouble(expressor),this.chemokineEffectThreshold);
-												
-											// determine if this is the highest effect seen, if so change the variable
-											if(chemoEffect>chemoHighEffect)
-												chemoHighEffect = chemoEffect;
-												
-											chemoExpressorFound=true;
-										}
-										catch(NoSuchFieldException e)
-										{
-											//e.printStackTrace();
-											// May not be the chemokine receptor - just catch and ignore
-										}
-										catch(Exception e)
-										{
-											e.printStackTrace();
-										}
-							    	}		
-										
-								}
-							}
-							catch(Exception e)
-							{
-								e.printStackTrace();
-							}
-							
-						} // has finished looking at each LTo
+						// The highest effect of any expressing LTo in this square is held on the chemokine grid (Note, strongest may not be closest)
+						double chemoHighEffect = ppsim.chemoGrid.getChemokineLevel(stencilX[k],stencilY[k],this.chemokineEffectThreshold);
 				
-						// Now for that square, add the level to the map for processing later in calculation of the move
-						chemomap.put(chemoHighEffect*100, k);
+						level = chemoHighEffect*100;
 						totalchemoLevels+=chemoHighEffect;
 					}
 				
 					else   // looking at the middle square, where the cell currently is
 					{
-						chemomap.put(0.0, k);
+						level = 0.0;
+					}
+					
+					// Keep the strongest square.  TIE-BREAK: WHERE SQUARES HAVE THE SAME LEVEL, THE LAST IN NEIGHBOURHOOD ORDER IS TAKEN
+					// (the order the squares were previously overwritten in the sorted map, so directions chosen are unchanged)
+					if(level>=strongestLevel)
+					{
+						strongestLevel = level;
+						strongestSquare = k;
 					}
 				}
-			
-
 			}  // has finished looking at every square
 			
 			
@@ -215,9 +211,9 @@ public class CXCR5_CCR7_PP
 		// Now determine if the cell is in the amplification range (i.e. being affected by the chemokine level)
 		if(totalchemoLevels>0)
 		{
-			if(chemomap.lastKey()>this.chemokineEffectThreshold)	// there is a strong chemokine in this area, the probability increases
+			if(strongestLevel>this.chemokineEffectThreshold)	// there is a strong chemokine in this area, the probability increases
 			{
-				adjuster = chemomap.lastKey().intValue();
+				adjuster = (int)strongestLevel;
 				// get the strength of the chemokine (used to calculate the probability)
 				// this is adjusted by a parameter which sets the strength of this chemokine
 			}
@@ -226,12 +222,12 @@ public class CXCR5_CCR7_PP
 		// Now determine what to make the cell do
 		if(adjuster>0)    // there is a chemokine level to act upon
 		{
-			//return Integer.toString(cxcl13map.get(cxcl13map.lastKey()));
-			return selectDirection(ppsim,adjuster,totalchemoLevels);
+			// THE ADJUSTER AND STRONGEST SQUARE ARE BOTH HELD IN THE READING - THE DIRECTION IS CHOSEN FROM THESE LATER
+			return adjuster*9+strongestSquare;
 		}
-		else   // no chemokine level, return 99 so a random move is made
+		else   // no chemokine level, so a random move is made
 		{
-			return "99";
+			return NO_CHEMOKINE_READING;
 		}
 	}
 	
@@ -311,24 +307,24 @@ public class CXCR5_CCR7_PP
      * This is done numerous ways to ensure that all cases where any of the chemokines are not present (level not high enough or has been knocked out) 
      * are taken into account.  Where the probability is that the cell will not necessarily follow the highest strength, a random square is returned
      * 
-     * @param ppsim	The current simulation state
+     * @param random	The random number stream of the LTi cell
      * @param adjuster	The calculated probability that the cell will move in the direction of the strongest chemokine
-     * @param chemoLev	The level of chemokine in the Moore's Neighbourhood around the cell
-     * @return String representing the square to move to (numbered between 0 and 8)
+     * @param strongestSquare	The square in the Moore's Neighbourhood with the strongest chemokine level
+     * @return The square to move to (numbered between 0 and 8)
      */
-    public String selectDirection(PPatchSim ppsim, int adjuster,double chemoLev)
+    public int selectDirection(RandomStream random, int adjuster,int strongestSquare)
     {
-    	int probability = ppsim.random.nextInt(100)+1;
+    	int probability = random.nextInt(100)+1;
     	
     	if(probability<adjuster)	// the cell will move in the direction of highest chemokine strength
     	{
-    			// return the square with highest level pointed at by the Chemo map
-    			return Integer.toString(chemomap.get(chemomap.lastKey()));
+    			// return the square with highest level
+    			return strongestSquare;
     	}
     	else		// the cell will move randomly
     	{
     		// return a random number square between 0 and 8
-			return Integer.toString(ppsim.random.nextInt(9));
+			return random.nextInt(9);
 		}
     }
     
@@ -338,9 +334,10 @@ public class CXCR5_CCR7_PP
      * This can be seen diagrammatically if required
      * 
      * @param chosenDirection	A number representing the cell in the moores neighbourhood that has been chosen to move to
+     * @param random	The random number stream of the LTi cell
      * @return	double angle	The angle at which the cell will move (in radians)
      */
-    public double calculateAngle(int chosenDirection)
+    public double calculateAngle(int chosenDirection, RandomStream random)
     {
     	double angle=0.0;
     	
@@ -348,26 +345,26 @@ public class CXCR5_CCR7_PP
     	// See diagram of how this was calculated if necessary
     	switch(chosenDirection)
 		{
-			case 0:angle = Math.toRadians(203 +(Math.random() * ((249 - 203) + 1)));break;
-			case 1:angle = Math.toRadians(158 +(Math.random() * ((202 - 158) + 1)));break;
-			case 2:angle = Math.toRadians(113 +(Math.random() * ((157 - 113) + 1)));break;
-			case 3:angle = Math.toRadians(250 +(Math.random() * ((292 - 250) + 1)));break;
+			case 0:angle = Math.toRadians(203 +(random.nextDouble() * ((249 - 203) + 1)));break;
+			case 1:angle = Math.toRadians(158 +(random.nextDouble() * ((202 - 158) + 1)));break;
+			case 2:angle = Math.toRadians(113 +(random.nextDouble() * ((157 - 113) + 1)));break;
+			case 3:angle = Math.toRadians(250 +(random.nextDouble() * ((292 - 250) + 1)));break;
 			// No case four as this is where the cell currently is
-			case 5:angle = Math.toRadians(68 +(Math.random() * ((112 - 68) + 1)));break;
-			case 6:angle = Math.toRadians(293 +(Math.random() * ((337 - 293) + 1)));break;
+			case 5:angle = Math.toRadians(68 +(random.nextDouble() * ((112 - 68) + 1)));break;
+			case 6:angle = Math.toRadians(293 +(random.nextDouble() * ((337 - 293) + 1)));break;
 			
 			// Note special case 7 as this involves angle range 338-360 and 0-22
-			case 7:angle = 0 +(Math.random() * ((45 - 0) + 1));
+			case 7:angle = 0 +(random.nextDouble() * ((45 - 0) + 1));
 				if(angle>22)
 					angle=angle+337;
 			
 				angle = Math.toRadians(angle);
 				break;
 			
-			case 8:angle = Math.toRadians(23 +(Math.random() * ((67 - 23) + 1)));break;
+			case 8:angle = Math.toRadians(23 +(random.nextDouble() * ((67 - 23) + 1)));break;
 			
 			// chosen square may also have been sent in as 99 - signifying a random angle should be chosen
-			case 99:angle = Math.toRadians(0 +(Math.random() * ((360) + 1)));break;
+			case RANDOM_DIRECTION:angle = Math.toRadians(0 +(random.nextDouble() * ((360) + 1)));break;
 		}
     	
     	return angle;
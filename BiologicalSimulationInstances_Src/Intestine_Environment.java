@@ -1,15 +1,22 @@
 import java.awt.Color;
 
-import sim.field.continuous.Continuous2D;
 import sim.util.Bag;
 import sim.util.Double2D;
+import sim.util.Int2D;
+import sim_platform.MigratoryCell;
+import sim_platform.NeighbourVisitor;
+import sim_platform.SimEnvironment;
+import sim_platform.StromalCell;
+import sim_platform.StromalLayer;
+import sim_platform.TractSpace;
 
-public class Intestine_Environment 
+public class Intestine_Environment implements SimEnvironment
 {
 	/**
 	 * <a name = "tract"></a>
 	 * <b>Description:<br></b> 
-	 * A Continuous grid representing the small intestine tract being modelled
+	 * A spatial grid representing the small intestine tract being modelled - open at the left and right, and wrapping 
+	 * around its circumference
 	 * <br><br>
 	 * <b>Restrictions:<br></b>
 	 * None
@@ -18,7 +25,22 @@ public class Intestine_Environment
 	 * The Environment 
 	 * <br><br>
 	 */
-	public Continuous2D tract = null;
+	public TractSpace tract = null;
+	
+	/**
+	 * <a name = "stromalLayer"></a>
+	 * <b>Description:<br></b> 
+	 * Lookup of the stromal cells on the tract surface.  These do not move, so are held on the lattice of sites they were 
+	 * placed on rather than on the tract with the migratory cells
+	 * <br><br>
+	 * <b>Restrictions:<br></b>
+	 * None
+	 * <br><br>
+	 * <b>Units & Representation:<br></b>
+	 * Sites of the stromal cell lattice
+	 * <br><br>
+	 */
+	public StromalLayer stromalLayer = null;
 	
 	/**
 	 * <a name = "initialGridHeight"></a>
@@ -153,7 +175,7 @@ public class Intestine_Environment
 		this.initialGridHeight = initGridHeight;
 		this.initialGridLength = initGridLength;
 		// 3: Set up the grid
-		tract = new Continuous2D(6.0,this.initialGridLength,this.initialGridHeight);
+		tract = new TractSpace(6.0,this.initialGridLength,this.initialGridHeight);
 		
 		// Store the current grid height & length as these will change throughout the simulation
 		currentGridLength = this.initialGridLength;
@@ -164,7 +186,7 @@ public class Intestine_Environment
 	
 	public Intestine_Environment()
 	{
-		tract = new Continuous2D(6.0,this.initialGridLength,this.initialGridHeight);
+		tract = new TractSpace(6.0,this.initialGridLength,this.initialGridHeight);
 		currentGridLength = this.initialGridLength;
 		currentGridHeight = this.initialGridHeight;
 	}
@@ -188,7 +210,7 @@ public class Intestine_Environment
 		currentGridHeight = this.initialGridHeight;
 		
 		// 3: Set up the grid
-		tract = new Continuous2D(6.0,this.initialGridLength,this.initialGridHeight);
+		tract = new TractSpace(6.0,this.initialGridLength,this.initialGridHeight);
 		
 		if(this.upperGridHeight > this.initialGridHeight)
 		{
@@ -201,8 +223,48 @@ public class Intestine_Environment
 		}
 	}
 	
+	public TractSpace getTract()
+	{
+		return this.tract;
+	}
+	
+	public StromalLayer getStromalLayer()
+	{
+		return this.stromalLayer;
+	}
+	
+	public void setStromalLayer(StromalLayer stromalLayer)
+	{
+		this.stromalLayer = stromalLayer;
+	}
+	
+	public double getInitialGridLength()
+	{
+		return this.initialGridLength;
+	}
+	
+	public double getInitialGridHeight()
+	{
+		return this.initialGridHeight;
+	}
+	
+	public double getCurrentGridLength()
+	{
+		return this.currentGridLength;
+	}
+	
+	public double getCurrentGridHeight()
+	{
+		return this.currentGridHeight;
+	}
+	
+	public Color getBackdrop()
+	{
+		return this.backdrop;
+	}
+	
 	/**
-	 * Set an object to a given location on the tract
+	 * Set a migratory cell to a given location on the tract
 	 * 
 	 * @param cellObject
 	 * @param location
@@ -213,28 +275,135 @@ public class Intestine_Environment
 	}
 	
 	/**
-	 * Get objects around another object on the tract
+	 * Set a migratory cell to a given location on the tract, from the coordinates held by the cell
+	 * 
+	 * @param cellObject
+	 * @param x
+	 * @param y
+	 */
+	public void setLocation(Object cellObject,double x,double y)
+	{
+		this.tract.setObjectLocation(cellObject,x,y);
+	}
+	
+	/**
+	 * Place a stromal cell on its site of the stromal cell lattice
+	 * 
+	 * @param cellObject
+	 * @param gridLocation
+	 * @param location
+	 */
+	public void placeStromalCell(Object cellObject,Int2D gridLocation,Double2D location)
+	{
+		this.stromalLayer.place(cellObject,gridLocation.x,gridLocation.y,location);
+	}
+	
+	/**
+	 * Get objects around another object on the tract - the migratory cells, followed by the stromal cells
 	 * @param position
 	 * @param distanceToCheck
 	 * @return
 	 */
 	public Bag getObjectsExactlyWithinDistance(Double2D position,double distanceToCheck)
 	{
-		return this.tract.getObjectsExactlyWithinDistance(position,distanceToCheck);
+		return this.addStromalCells(position,distanceToCheck,false,this.tract.getObjectsExactlyWithinDistance(position,distanceToCheck));
 	}
 	
 	public Bag getObjectsExactlyWithinDistanceWithFlag(Double2D position,double distanceToCheck,boolean tor)
 	{
-		return this.tract.getObjectsExactlyWithinDistance(position,distanceToCheck,tor);
+		return this.addStromalCells(position,distanceToCheck,tor,this.tract.getObjectsExactlyWithinDistance(position,distanceToCheck,tor));
+	}
+	
+	/**
+	 * Get objects around a position on the tract, placing them in a Bag supplied by the caller
+	 * @param position
+	 * @param distanceToCheck
+	 * @param result
+	 * @return
+	 */
+	public Bag getObjectsExactlyWithinDistance(Double2D position,double distanceToCheck,Bag result)
+	{
+		return this.addStromalCells(position,distanceToCheck,false,this.tract.getObjectsExactlyWithinDistance(position,distanceToCheck,false,result));
+	}
+	
+	/**
+	 * Get the stromal cells around a position on the tract, placing them in a Bag supplied by the caller
+	 * @param x
+	 * @param y
+	 * @param distanceToCheck
+	 * @param result
+	 * @return
+	 */
+	public Bag getStromalCellsExactlyWithinDistance(double x,double y,double distanceToCheck,Bag result)
+	{
+		result.clear();
+		if(this.stromalLayer!=null)
+			this.stromalLayer.getObjectsExactlyWithinDistance(x,y,distanceToCheck,false,result);
+		return result;
+	}
+	
+	/**
+	 * Visit the objects of a given type around a position on the tract.  As the migratory cells are held on the tract and the 
+	 * stromal cells on the stromal layer, only the one that can hold cells of that type is searched
+	 * @param position
+	 * @param distanceToCheck
+	 * @param tor
+	 * @param cellType
+	 * @param visitor
+	 * @return
+	 */
+	public boolean visitObjectsExactlyWithinDistance(Double2D position,double distanceToCheck,boolean tor,Class<?> cellType,NeighbourVisitor visitor)
+	{
+		return this.visitObjectsExactlyWithinDistance(position.x,position.y,distanceToCheck,tor,cellType,visitor);
+	}
+	
+	/**
+	 * Visit the objects of a given type around a position on the tract, given as coordinates
+	 * @param x
+	 * @param y
+	 * @param distanceToCheck
+	 * @param tor
+	 * @param cellType
+	 * @param visitor
+	 * @return
+	 */
+	public boolean visitObjectsExactlyWithinDistance(double x,double y,double distanceToCheck,boolean tor,Class<?> cellType,NeighbourVisitor visitor)
+	{
+		if(cellType==null || !StromalCell.class.isAssignableFrom(cellType))
+		{
+			if(this.tract.visitExactlyWithinDistance(x,y,distanceToCheck,tor,cellType,visitor))
+				return true;
+		}
+		if(this.stromalLayer!=null && (cellType==null || !MigratoryCell.class.isAssignableFrom(cellType)))
+		{
+			return this.stromalLayer.visitExactlyWithinDistance(x,y,distanceToCheck,tor,cellType,visitor);
+		}
+		return false;
+	}
+	
+	/**
+	 * Add the stromal cells around a position to a Bag of cells already found
+	 * @param position
+	 * @param distanceToCheck
+	 * @param tor
+	 * @param result
+	 * @return
+	 */
+	private Bag addStromalCells(Double2D position,double distanceToCheck,boolean tor,Bag result)
+	{
+		if(this.stromalLayer!=null)
+			this.stromalLayer.getObjectsExactlyWithinDistance(position,distanceToCheck,tor,result);
+		return result;
 	}
 	
 	/**
-	 * Remove an object from the tract
+	 * Remove an object from the tract, or from its site if a stromal cell
 	 * @param objToRemove
 	 */
 	public void remove(Object objToRemove)
 	{
-		this.tract.remove(this);
+		if(this.tract.remove(objToRemove)==null && this.stromalLayer!=null)
+			this.stromalLayer.remove(objToRemove);
 	}
 	
 }
@@ -2,22 +2,30 @@
 
 import java.awt.Graphics2D;
 import java.awt.geom.Ellipse2D;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Random;
 
-import sim.engine.Schedule;
 import sim.engine.SimState;
 import sim.engine.Steppable;
 import sim.engine.Stoppable;
-import sim.field.continuous.Continuous2D;
 import sim.portrayal.DrawInfo2D;
 import sim.portrayal.SimplePortrayal2D;
 import sim.util.Bag;
 import sim.util.Double2D;
+import sim_platform.AdhesionExpressor;
+import sim_platform.AdhesionReceptor;
+import sim_platform.Capability;
+import sim_platform.CapabilityIndex;
+import sim_platform.CellPopulation;
+import sim_platform.ChemokineReceptor;
+import sim_platform.MigratoryCell;
+import sim_platform.NeighbourVisitor;
 import sim_platform.PPatchSim;
+import sim_platform.PluginBinding;
+import sim_platform.PluginRegistry;
+import sim_platform.RandomStream;
+import sim_platform.StromalCell;
+import sim_platform.SweptCollisionPath;
+import sim_platform.TractSpace;
 
 /**
  * Class which defines the behaviour and attributes of the LTi Cell.
@@ -27,7 +35,7 @@ import sim_platform.PPatchSim;
  * @author Kieran Alden
  *
  */
-public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
+public class LTi extends SimplePortrayal2D implements Steppable,Stoppable,MigratoryCell
 {
 	/*************************************************************************************************
 	 * VARIABLE PARAMETERS (NEEDED FROM INPUT
@@ -39,24 +47,41 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 	 */
 	
 	/**
-	 * A Collection with an x and y value detailing the position of the cell
+	 * The x and y coordinates of the cell.  Held as primitives so moving the cell creates no objects - a Double2D is only
+	 * made where one is asked for (by the display, statistics and tracking output)
 	 */
-	public Double2D agentLocation; 
+	public double agentX;
+	public double agentY;
 	
 	/**
 	  Where the agent starts its move from.  Used in tracking cell movement
 	 */
-	public Double2D agentPreviousLocation;
+	public double agentPreviousX;
+	public double agentPreviousY;
 	
 	/**
 	 * Where the cell started in the tracking hour.  Used to calculate displacement and velocity
 	 */
-	public Double2D agentTrackStartLocation;
+	public double agentTrackStartX;
+	public double agentTrackStartY;
 	
 	/**
 	 * Where the cell ended in the tracking hour.  Used to calculate displacement and velocity
 	 */
-	public Double2D agentTrackEndLocation;
+	public double agentTrackEndX;
+	public double agentTrackEndY;
+	
+	/**
+	 * Whether the end of the tracking hour has been recorded for this cell
+	 */
+	public boolean agentTrackEndRecorded = false;
+	
+	/**
+	 * Coordinates worked out by the last call to calculateNewPosition (or rollAround), held here so no object is created for
+	 * each sub-step of a move
+	 */
+	private double newX;
+	private double newY;
 	
 	/**
 	 * How far the cell moved in the tracked hour
@@ -73,6 +98,12 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
      */
     public double cellSpeedSecond;
     
+    /**
+     * Stream of random numbers this cell makes all of its random choices from - split from the stream of the run when the
+     * cell is created
+     */
+    public RandomStream cellRandom;
+    
     /**
 	 * Representation of the state this cell is currently in. Used as a reference for cell colour on the display 
 	 */
@@ -89,6 +120,11 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
      */
     public ArrayList<Object> receptors = new ArrayList<Object>();
     
+    /**
+     * Capability descriptors for the receptors of this cell, built when the cell is created
+     */
+    public CapabilityIndex receptorCapabilities = CapabilityIndex.EMPTY;
+    
     /**
 	 * <a name = "HCELL_DIAMETER"></a>
 	 * <b>Description:<br></b> 
@@ -145,7 +181,42 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
      */
     public void setAgentTrackStartLocation()
     {
-    	this.agentTrackStartLocation = this.agentLocation;
+    	this.agentTrackStartX = this.agentX;
+    	this.agentTrackStartY = this.agentY;
+    }
+    
+    /**
+     * Sets the agent location at the end of the tracking period
+     */
+    public void setAgentTrackEndLocation()
+    {
+    	this.agentTrackEndX = this.agentX;
+    	this.agentTrackEndY = this.agentY;
+    	this.agentTrackEndRecorded = true;
+    }
+    
+    /**
+     * Clears the agent location at the end of the tracking period, as a new period begins
+     */
+    public void clearAgentTrackEndLocation()
+    {
+    	this.agentTrackEndRecorded = false;
+    }
+    
+    /* (non-Javadoc)
+	 * @see sim_platform.MigratoryCell#getTrackStartLocation()
+	 */
+    public Double2D getTrackStartLocation()
+    {
+    	return new Double2D(this.agentTrackStartX,this.agentTrackStartY);
+    }
+    
+    /* (non-Javadoc)
+	 * @see sim_platform.MigratoryCell#getTrackEndLocation()
+	 */
+    public Double2D getTrackEndLocation()
+    {
+    	return this.agentTrackEndRecorded ? new Double2D(this.agentTrackEndX,this.agentTrackEndY) : null;
     }
     
 	public Boolean getexpressingRETLigand()
@@ -153,6 +224,30 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 		return this.expressingRETLigand;
 	}
 	
+	/* (non-Javadoc)
+	 * @see sim_platform.MigratoryCell#isExpressingRETLigand()
+	 */
+	public boolean isExpressingRETLigand()
+	{
+		return this.expressingRETLigand;
+	}
+	
+	/* (non-Javadoc)
+	 * @see sim_platform.MigratoryCell#getLocation()
+	 */
+	public Double2D getLocation()
+	{
+		return new Double2D(this.agentX,this.agentY);
+	}
+	
+	/* (non-Javadoc)
+	 * @see sim_platform.MigratoryCell#getCellState()
+	 */
+	public int getCellState()
+	{
+		return this.cellState;
+	}
+	
 	
 	/**
 	 * Flag to show if this cell is expressing RET Ligand (chosen by probability by when the cell is created)
@@ -169,6 +264,42 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 	 */
 	public int timeTracked = 0;
 	
+	/**
+	 * Path used for swept collision detection, where this is enabled, so the environment need not be queried at each sub-step
+	 */
+	private SweptCollisionPath sweptPath = new SweptCollisionPath();
+	
+	/**
+	 * Bag reused to hold the cells found by each check for contact with a stromal cell
+	 */
+	private Bag cellsInRange = new Bag();
+	
+	/**
+	 * Stops a search at the first LTin/LTi cell other than this one, storing it as the cell in contact with
+	 */
+	private NeighbourVisitor migratoryContactFinder = new NeighbourVisitor()
+	{
+		public boolean visit(Object cell)
+		{
+			if(cell == LTi.this)
+				return true;
+			
+			LTi.this.contactedCell = cell;
+			return false;
+		}
+	};
+	
+	/**
+	 * Stops a search on finding the cell this cell is currently in contact with
+	 */
+	private NeighbourVisitor contactedCellFinder = new NeighbourVisitor()
+	{
+		public boolean visit(Object cell)
+		{
+			return cell != LTi.this.contactedCell;
+		}
+	};
+	
 	/**
 	 * Flag to show if this class has been stopped (when no longer needed)
 	 */
@@ -196,7 +327,8 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
     public LTi(PPatchSim ppsim,Double2D location,ArrayList<ArrayList<String>> cellReceptors)
 	{
 
-    	this.agentLocation = location;
+    	this.agentX = location.x;
+    	this.agentY = location.y;
 		
     	// Initialise the receptors
     	try
@@ -206,9 +338,8 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
     			// get the receptor
     			ArrayList<String> receptorDetail = cellReceptors.get(i);
     			
-    			Class<?> receptorType = Class.forName(receptorDetail.get(0));
-    			Constructor<?> con = receptorType.getConstructor(new Class[]{ArrayList.class});
-    			Object receptorObj = con.newInstance(receptorDetail);
+    			PluginBinding receptorType = PluginRegistry.get(receptorDetail.get(0));
+    			Object receptorObj = receptorType.newComponent(receptorDetail);
     			this.receptors.add(receptorObj);
     		}
     	}
@@ -216,16 +347,20 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
     	{
     		e.printStackTrace();
     	}
+    	
+    	// describe the receptors, so the right one can be used directly when needed
+    	this.receptorCapabilities = new CapabilityIndex(this.receptors);
 		
-		this.agentPreviousLocation = location;
+		this.agentPreviousX = location.x;
+		this.agentPreviousY = location.y;
 		
-		// generate speed of this cell
-		Random rnd = new Random();
+		// generate speed of this cell, from the cell's own stream of random numbers
+		this.cellRandom = ppsim.randomStreams.split();
 		
 		// while loop is used to ensure the cellspeed falls within the set range
         while(cellSpeed<ppsim.hemCells.cellSpeedLowBound || cellSpeed>ppsim.hemCells.cellSpeedUpBound)
 		{
-			cellSpeed = rnd.nextGaussian();
+			cellSpeed = this.cellRandom.nextGaussian();
 		}
         
         cellSpeedSecond = this.cellSpeed / ppsim.simulationSpec.secondsPerStep;
@@ -243,9 +378,9 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 		return "LTi";
 	}
 	
-	public void addToSchedule(Schedule sch)
+	public void addToPopulation(CellPopulation population)
 	{
-		this.setStopper(sch.scheduleRepeating(this));
+		this.setStopper(population.add(this));
 	}
 	
 	/* (non-Javadoc)
@@ -258,55 +393,23 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 		// Step while the simulation is running
 		if(ppsim.schedule.getSteps()*ppsim.simulationSpec.secondsPerStep < ((ppsim.simulationSpec.simulationTime*60)*60))
 		{
-			this.agentPreviousLocation = this.agentLocation;
+			this.agentPreviousX = this.agentX;
+			this.agentPreviousY = this.agentY;
 		
 			// check that the cell is still active and has not been stopped due to leaving the screen/tract
 			if(!this.stopped)
 			{
-				if(ppsim.simulationSpec.cellTrackingEnabled)
-				{
-					//if(ppsim.schedule.getSteps()==((60/simParams.secondsPerStep)*(simParams.trackingSnapStartHr*60)))
-					if(ppsim.schedule.getSteps()*ppsim.simulationSpec.secondsPerStep ==((ppsim.cellTrackStats.trackingSnapStartHr*60)*60))
-					{
-						this.agentTrackStartLocation = this.agentLocation;
-					}
-					//if(ppsim.schedule.getSteps()==((60/simParams.secondsPerStep)*(simParams.trackingSnapEndHr*60)))
-					if(ppsim.schedule.getSteps()*ppsim.simulationSpec.secondsPerStep ==((ppsim.cellTrackStats.trackingSnapEndHr*60)*60))
-					{
-						this.agentTrackEndLocation = this.agentLocation;
-					}
-				}
 			
 				double angle=0.0;
 				
 						
-				// Firstly need to discover if the cell expresses a chemokine receptor
-				boolean receptorFound = false;
-				for(int i=0;i<this.receptors.size() & !receptorFound;i++)
+				// Firstly need to discover if the cell expresses a chemokine receptor - found when the cell was created
+				// Each receptor expressed generates an angle, the last in the list giving the one moved along
+				Object[] chemokineReceptors = this.receptorCapabilities.all(Capability.CHEMOTAXIS);
+				for(int i=0;i<chemokineReceptors.length;i++)
 				{
-					try
-					{
-						// get the receptor
-						Object receptor = this.receptors.get(i);
-	    		
-						Class<?> cellType = receptor.getClass();
-						Method meth = cellType.getMethod("generateAngleThroughChemokineExpression",new Class[]{PPatchSim.class,Double2D.class});
-						angle = (Double)meth.invoke(receptor,ppsim,this.agentLocation);
-					}
-					catch(NoSuchMethodException e)
-					{
-						//e.printStackTrace();
-						// May not be the chemokine receptor - just catch and ignore
-					}
-					catch(Exception e)
-					{
-						e.printStackTrace();
-					}
-	    			
+					angle = ((ChemokineReceptor)chemokineReceptors[i]).generateAngleThroughChemokineExpression(ppsim,this.agentX,this.agentY,this.cellRandom);
 				}
-				
-				
-
 				// Now perform the move
 				// Should the cell also be in a location where VCAM would have an influence, this is taken care of in performMove3
 				this.performMove3(ppsim,angle);
@@ -314,43 +417,10 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 			}
 			else		// the cell has left the right or left of the screen/tract and will be stopped and removed from the simulation
 			{
-				// REMOVE USING ENVIRONMENT JAVA REFLECTION
-				try
-				{
-					Class<?> environmentClass = ppsim.intestine_env.getClass();
-					Method meth = environmentClass.getMethod("remove",new Class[]{Object.class});
-					meth.invoke(ppsim.intestine_env,this);
-					//ppsim.intestine_env.tract.remove(this);
-				}
-				catch(Exception e)
-				{
-					e.printStackTrace();
-				}
-				
-				this.stop();
-				
-				// decrease the cellularity
-				// get the current cellularity for this cell from the map
-				int cellCount = ppsim.simulatedCellCellularity.get(this.getClass().getName());
-				// decrease by one
-				cellCount--;
-				// remove the count from the map
-				ppsim.simulatedCellCellularity.remove(this.getClass().getName());
-				// add the new count back in
-				ppsim.simulatedCellCellularity.put(this.getClass().getName(),cellCount);
+				// REMOVE FROM THE ENVIRONMENT, THE SCHEDULE, THE CELLULARITY, ALL TRACKING AND THE LTI BAG
+				ppsim.cellLifecycle.remove(ppsim,this);
 				
 				//simParams.lTiCellularity--;
-			
-				// Remove from all tracking
-				if(ppsim.simulationSpec.cellTrackingEnabled)
-				{
-					if(ppsim.cellTrackStats.trackedCells_Away.contains(this))
-						ppsim.cellTrackStats.trackedCells_Away.remove(this);
-					if(ppsim.cellTrackStats.trackedCells_Close.contains(this))
-						ppsim.cellTrackStats.trackedCells_Close.remove(this);
-				}
-			
-				ppsim.allLTis.remove(this);
 			}
 		}
 		else
@@ -373,8 +443,8 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
     	double distanceToMove = this.cellSpeed;
 		double distanceMoved = 0;
 		
-		// position to move initialised to the agents current location incase the cellSpeed is zero
-		Double2D newPosition = this.agentLocation;
+		// any path planned for swept collision detection was for the previous step's angle
+		this.sweptPath.clear();
     	
 		// Now move the cell while it still has distance to move
 		while(distanceToMove>0)
@@ -396,37 +466,14 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 					}
 					else		// CELL IS AN LTo
 					{
-						// DETERMINE IF THE LTO CELL EXPRESSES ADHESION FACTORS - DOES THIS BY SEEKING A PARTICULAR METHOD
+						// DETERMINE IF THE LTO CELL EXPRESSES ADHESION FACTORS - DOES THIS BY SEEKING AN ADHESION EXPRESSOR
 						 // Set up the receptors for this object
 						boolean adhesionExpressed = false;
 				        try
 				    	{
-				        	// Get the expressors from the cell in contact with
-				        	Method getExpressors = contactedCellClass.getMethod("returnExpressors",new Class[]{});
-				        	ArrayList<String> expressors = (ArrayList<String>)getExpressors.invoke(contactedCell);
-				        	
-				        	// Determine if adhesion factors are expressed and act upon these
-				        	Object expressor = null;
-				        	
-				        	for(int i=0;i<expressors.size() & !adhesionExpressed;i++)
-				    		{
-				        		try
-				        		{
-				        			// get the receptor
-				        			expressor = expressors.get(i);
-				    		
-				        			Class<?> expressorType = expressor.getClass();
-				        			Method meth = expressorType.getMethod("returnAdhesionExpressionLevel",new Class[]{});
-				        			double adhesion = (Double)meth.invoke(expressor);
-				        			adhesionExpressed = true;
-				        		}
-				        		catch(NoSuchMethodException e)
-						        {
-						        	//e.printStackTrace();
-						        	// Ignore - may be wrong receptor
-						        }
-				    		}
-				    		
+				        	// Get the adhesion factor expressed by the cell in contact with, if any
+				        	AdhesionExpressor expressor = (AdhesionExpressor)((StromalCell)contactedCell).returnExpressorCapabilities().first(Capability.ADHESION_EXPRESSION);
+				        	adhesionExpressed = (expressor != null);
 				    		if(adhesionExpressed)
 				    		{
 				    			// check if prolonged contact should take place mediated by VCAM
@@ -435,24 +482,12 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 				    			// This should be worked out by the adhesion factor receptor of this cell, if expressed
 				    			// So, find the receptor
 				    			boolean stuck = false;
-				    			boolean receptorFound = false;
-				    			
-				    			for(int i=0;i<this.receptors.size() && !receptorFound;i++)
+				    			AdhesionReceptor adhesionReceptor = (AdhesionReceptor)this.receptorCapabilities.first(Capability.ADHESION);
+
+				    			if(adhesionReceptor != null)
 				    			{
-				    				try
-				    				{
-				    					Object receptor = this.receptors.get(i);
-				    				
-				    					Method vcamEffect = receptor.getClass().getMethod("examineVCAMEffect",new Class[]{Object.class});
-				    					stuck = (Boolean)vcamEffect.invoke(receptor,expressor);
-				    					receptorFound=true;
-				    				}
-				    				catch(NoSuchMethodException e)
-				    				{
-				    					// Ignore - will be a different receptor, not adhesion
-				    				}
+				    				stuck = adhesionReceptor.examineVCAMEffect(expressor,this.cellRandom);
 				    			}
-				    			
 				    			if(stuck)
 				    			{
 				    				distanceToMove = 0;
@@ -462,23 +497,15 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 				    				this.contactedCell = null;
 				    	    		
 				    	    		double angleToMove = this.avoidCellCollision(ppsim,distanceToMove);
-				    	    		newPosition = calculateNewPosition(this.agentLocation,distanceToMove,angleToMove,ppsim);
-				    	    		this.agentLocation = newPosition;
+				    	    		this.calculateNewPosition(this.agentX,this.agentY,distanceToMove,angleToMove,ppsim);
+				    	    		this.agentX = this.newX;
+				    	    		this.agentY = this.newY;
 				    	    		
 				    	    		// SET THE OBJECT LOCATION
-				    	    		try
-				    	    		{
-				    	    			Class<?> environmentClass = ppsim.intestine_env.getClass();
-				    	    			Method meth = environmentClass.getMethod("setLocation",new Class[]{Object.class,Double2D.class});
-				    	    			meth.invoke(ppsim.intestine_env,this,this.agentLocation);
-				    	    			
-				    	    			distanceMoved = distanceMoved+distanceToMove;
-				    	    			distanceToMove=0;
-				    	    		}
-				    	    		catch(Exception e)
-				    	    		{
-				    	    			e.printStackTrace();
-				    	    		}
+				    	    		ppsim.intestine_env.setLocation(this,this.agentX,this.agentY);
+
+				    	    		distanceMoved = distanceMoved+distanceToMove;
+				    	    		distanceToMove=0;
 				    			}
 				    		}
 				    	}
@@ -490,11 +517,19 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 				}
 				else
 				{			
+					// WITH SWEPT COLLISION DETECTION, WORK OUT ONCE WHICH CELLS CAN BE CONTACTED ALONG THE REST OF THE PATH, AND 
+					// HOW FAR ALONG IT THE FIRST CONTACT CAN HAPPEN. IF THE PATH ROLLS AROUND, EVERY SUB-STEP IS CHECKED AS BEFORE
+					if(ppsim.simulationSpec.sweptCollisionDetection && !this.sweptPath.isPlanned())
+					{
+						this.sweptPath.plan(ppsim.intestine_env,this,this.agentX,this.agentY,angle,distanceToMove,ppsim.lookupDistance,this.cell_diameter);
+					}
+					
 					// do the move, but do in small chunks of 0.1 (makes collision detection along the path easier)
 					if(distanceToMove>0.1)
 					{
 						// calculate the new position
-						newPosition = calculateNewPosition(this.agentLocation,0.1,angle,ppsim);
+						this.calculateNewPosition(this.agentX,this.agentY,0.1,angle,ppsim);
+						this.sweptPath.advance(this.newX,this.newY,0.1);
 						// reduce the distance moved
 						distanceToMove=distanceToMove-0.1;
 						distanceMoved=distanceMoved+0.1;
@@ -502,20 +537,29 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 					else
 					{
 						// This is the final move the cell will make in this step
-						newPosition = calculateNewPosition(this.agentLocation,distanceToMove,angle,ppsim);
+						this.calculateNewPosition(this.agentX,this.agentY,distanceToMove,angle,ppsim);
+						this.sweptPath.advance(this.newX,this.newY,distanceToMove);
 						distanceToMove=0;
 						distanceMoved+=distanceToMove;
 					}
 			
-					this.agentLocation = newPosition;
+					this.agentX = this.newX;
+					this.agentY = this.newY;
 				
 					// NOW check if there are any collisions on this move
 						
 					// first check if there is a collision with an LTo or Decoy Stromal Cell
-					boolean collision = collisionCheck2(ppsim);
+					// (on a swept path, only where a stromal cell is in range - elsewhere the check could find nothing)
+					boolean swept = this.sweptPath.isPlanned();
+					boolean collision = false;
+					if(!swept || this.sweptPath.stromalCellInRange())
+						collision = collisionCheck2(ppsim);
 				
 					if(collision)				// this collision will either be with an active LTo or Decoy - all movement should stop as a bind is assumed
 					{
+						// the contact can change the cell's path, so any swept path is planned again
+						this.sweptPath.clear();
+						
 						// ADD TO CELLS BEING TRACKED IF NOT YET IN THERE (WHERE TRACKING IS BASED ON CONTACT)
 						if(ppsim.simulationSpec.cellTrackingEnabled)
 						{
@@ -524,7 +568,7 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 								ppsim.cellTrackStats.trackedCells_Away.remove(this);
 								this.trackLength = 0;
 								this.timeTracked = 0;
-								this.agentTrackStartLocation = this.agentLocation;
+								this.setAgentTrackStartLocation();
 								ppsim.cellTrackStats.trackedCells_Close.add(this);
 							}
 						}
@@ -533,10 +577,13 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 					{
 						// Now need to check if there is a collision with an LTi/LTin
 						// also deals with checking if cell is a decoy ret ligand
-						collision = ltiltinCollision((Continuous2D)ppsim.intestine_env.getClass().getDeclaredField("tract").get(ppsim.intestine_env));
+						if(!swept || this.sweptPath.migratoryCellInRange())
+							collision = ltiltinCollision(ppsim.intestine_env.getTract());
 					
 						if(collision)
 						{
+							this.sweptPath.clear();
+							
 							// check whether the cell this is in contact with expresses RET Ligand
 							if(this.contactedCell.getClass().getName().equals("LTin"))
 							{
@@ -549,7 +596,7 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 									// SIMULATES A 'BIND STRENGTH
 									// 16/12/10
 									// FIRSTLY NEED TO CHECK WHETHER THIS CONTACT CHANGES STATE (BASED ON A PROBABILITY)
-									int probability = ppsim.random.nextInt(100)+1;
+									int probability = this.cellRandom.nextInt(100)+1;
 									
 									if(probability<=this.stableBindProbability)	// the cell will bind briefly & not complete the rest of its move
 									{
@@ -564,11 +611,12 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 								
 									while(collision)
 									{
-										angle = Math.toRadians(ppsim.random.nextDouble()*360);
+										angle = Math.toRadians(this.cellRandom.nextDouble()*360);
 										// 	calculate the new position
-										newPosition = calculateNewPosition(this.agentLocation,0.1,angle,ppsim);
-										this.agentLocation = newPosition;
-										collision = ltiltinCollision((Continuous2D)ppsim.intestine_env.getClass().getDeclaredField("tract").get(ppsim.intestine_env));
+										this.calculateNewPosition(this.agentX,this.agentY,0.1,angle,ppsim);
+										this.agentX = this.newX;
+										this.agentY = this.newY;
+										collision = ltiltinCollision(ppsim.intestine_env.getTract());
 										
 										//collision = ltiltinCollision(ppsim.intestine_env.tract);
 									}
@@ -590,7 +638,7 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 									// SIMULATES A 'BIND STRENGTH
 									// 16/12/10
 									// FIRSTLY NEED TO CHECK WHETHER THIS CONTACT CHANGES STATE (BASED ON A PROBABILITY)
-									int probability = ppsim.random.nextInt(100)+1;
+									int probability = this.cellRandom.nextInt(100)+1;
 									
 									if(probability<=this.stableBindProbability)	// the cell will bind briefly & not complete the rest of its move
 									{
@@ -605,12 +653,13 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 								
 									while(collision)
 									{
-										angle = Math.toRadians(ppsim.random.nextDouble()*360);
+										angle = Math.toRadians(this.cellRandom.nextDouble()*360);
 										// 	calculate the new position
-										newPosition = calculateNewPosition(this.agentLocation,0.1,angle,ppsim);
-										this.agentLocation = newPosition;
+										this.calculateNewPosition(this.agentX,this.agentY,0.1,angle,ppsim);
+										this.agentX = this.newX;
+										this.agentY = this.newY;
 										//collision = ltiltinCollision(ppsim.intestine_env.tract);
-										collision = ltiltinCollision((Continuous2D)ppsim.intestine_env.getClass().getDeclaredField("tract").get(ppsim.intestine_env));
+										collision = ltiltinCollision(ppsim.intestine_env.getTract());
 									}
 									this.contactedCell = null;
 								}
@@ -629,17 +678,7 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 		}
 	
 		// set the objects location on the tract
-		try
-		{
-			Class<?> environmentClass = ppsim.intestine_env.getClass();
-			Method meth = environmentClass.getMethod("setLocation",new Class[]{Object.class,Double2D.class});
-			meth.invoke(ppsim.intestine_env,this,this.agentLocation);
-			//ppsim.intestine_env.tract.setObjectLocation(this,this.agentLocation);
-		}
-		catch(Exception e)
-		{
-			e.printStackTrace();
-		}
+		ppsim.intestine_env.setLocation(this,this.agentX,this.agentY);
 		
 		
 		// update cell tracked length
@@ -657,7 +696,7 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 				else if(this.timeTracked == (3600/ppsim.simulationSpec.secondsPerStep))
 				{
 					// add the end point to work out displacement
-					this.agentTrackEndLocation = this.agentLocation;
+					this.setAgentTrackEndLocation();
 				}
 			
 			}
@@ -670,33 +709,13 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 	 * @param tract	The simulation environment
 	 * @return	Boolean stating whether there is contact with another LTin/LTi cell
 	 */
-	public boolean ltiltinCollision(Continuous2D tract)
+	public boolean ltiltinCollision(TractSpace tract)
 	{
-		Bag cellsInRange = tract.getObjectsExactlyWithinDistance(this.agentLocation,this.cell_diameter);
-		
-		if( cellsInRange != null )
-		{
-			// Now determine if there is contact with any other LTin/LTi cells
-			// go through all potential clashes, avoiding itself
-			for( int i = 0 ; i < cellsInRange.numObjs; i++ )
-			{
-				Object temp = cellsInRange.get(i);
-			
-				// check cell is not null or the cell is itself
-				if(temp!=null && temp != this)
-				{
-					if(temp.getClass().getName().equals("LTin") || temp.getClass().getName().equals("LTi"))
-					{
-						// there has been a collision - now determine if the cell is a 'decoy' - expressing RET Ligand as 
-						// an LTo is - if this is the case, the cell is assumed to have made contact for the surface adhesion step
-						this.contactedCell = temp;
-												
-						return true;
-					}
-				}
-			}
-		}
-		return false;
+		// Determine if there is contact with any other LTin/LTi cells, stopping at the first found (avoiding itself)
+		// If there is, the cell is stored as the contacted cell - should it be a 'decoy' expressing RET Ligand as an LTo
+		// is, the cell is assumed to have made contact for the surface adhesion step
+		// (where a broad phase has been built for the step, only this cell's candidate contacts are checked)
+		return tract.visitContactsOf(this,this.agentX,this.agentY,this.cell_diameter,MigratoryCell.class,this.migratoryContactFinder);
 	}
     
    
@@ -714,19 +733,8 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 		// HACKED VERSION
 		//Bag cellsInRange = ppsim.intestine_env.tract.getObjectsExactlyWithinDistance(this.agentLocation,ppsim.lookupDistance);
 		
-		Bag cellsInRange = null;
-		
-		try
-		{
-			Class<?> environmentClass = ppsim.intestine_env.getClass();
-			Method meth = environmentClass.getMethod("getObjectsExactlyWithinDistance",new Class[]{Double2D.class,double.class});
-			cellsInRange = (Bag)meth.invoke(ppsim.intestine_env,this.agentLocation,ppsim.lookupDistance);
-			// 2 - GO THROUGH THE LIST IF NOT NULL
-		}
-		catch(Exception e)
-		{
-			e.printStackTrace();
-		}
+		// 2 - GO THROUGH THE LIST IF NOT NULL
+		Bag cellsInRange = ppsim.intestine_env.getStromalCellsExactlyWithinDistance(this.agentX,this.agentY,ppsim.lookupDistance,this.cellsInRange);
 		
 		boolean collision = false;		// flag to return if there is a collision
 		
@@ -743,16 +751,15 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 				if(temp!=null && temp != this)
 				{
 					// check whether the cell is an immature LTo
-					//if(temp instanceof LTo)
-					if(temp.getClass().getName().equals("LTo"))
+					if(temp instanceof LTo)
 					{
 						//LTo ltoCell = (LTo)temp;
 						try
 						{
-							Field contactedCellState = temp.getClass().getDeclaredField("cellState");
-							Field contactedCellBindingProbability = temp.getClass().getDeclaredField("stableBindProbability");
+							StromalCell contactedStromalCell = (StromalCell)temp;
+							int contactedCellState = contactedStromalCell.getCellState();
 							
-							if(contactedCellState.getInt(temp)==0 && this.cellState==8)
+							if(contactedCellState==0 && this.cellState==8)
 							{
 								// here, an LTi that has been in contact with an LTo is in contact with an immature cell
 								// 	that it may activate (if within a certain distance). Call the method which increases
@@ -760,22 +767,22 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 								//System.out.println("temp cell state 0");
 								this.immatureLToActivation(ppsim,temp);
 							}
-							else if(contactedCellState.getInt(temp)>0 && contactedCellState.getInt(temp)!=9)
+							else if(contactedCellState>0 && contactedCellState!=9)
 							{
 								// NOW WORK OUT IF THIS CONTACT 'ACTIVATES' THE LTO
 								// SIMULATES A 'BIND STRENGTH
 								// 16/12/10
 								// FIRSTLY NEED TO CHECK WHETHER THIS CONTACT CHANGES STATE (BASED ON A PROBABILITY)
-								int probability = ppsim.random.nextInt(100)+1;
+								int probability = this.cellRandom.nextInt(100)+1;
 								
-								if(probability<=contactedCellBindingProbability.getDouble(temp))	// the cell will move but remain in contact, held by vcam
+								if(probability<=contactedStromalCell.getStableBindProbability())	// the cell will move but remain in contact, held by vcam
 								{
 									// THE BIND HOLDS
 									collision = true;
 								
 									//if(ltoCell.cellState>=2)			// LTi cells will stick if VCAM level high enough, & produce chemokines
 									//{
-									if(contactedCellState.getInt(temp)>=2)
+									if(contactedCellState>=2)
 									{
 										//this.alterLTiState(ppsim,(LTo)temp);
 										if(this.cellState==7)		// LTi cell is in initial state
@@ -791,7 +798,7 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 												ppsim.cellTrackStats.trackedCells_Away.remove(this);
 												this.trackLength = 0;
 												this.timeTracked = 0;
-												this.agentTrackStartLocation = this.agentLocation;
+												this.setAgentTrackStartLocation();
 												ppsim.cellTrackStats.trackedCells_Close.add(this);
 											}
 										}
@@ -804,6 +811,9 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 										// DEAL WITH LTo SIGNALLING & STATE CHANGES IF NECESSARY CAUSED BY BIND
 										this.updateLToState(this.contactedCell,(int)ppsim.schedule.getSteps());
 										
+										// THE CONTACT MAY HAVE STARTED OR INCREASED CHEMOKINE EXPRESSION - KEEP THE CHEMOKINE GRID UP TO DATE
+										ppsim.chemoGrid.updateExpressingCell((StromalCell)this.contactedCell);
+										
 									}
 								}
 								
@@ -817,15 +827,15 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 						
 						
 					// Now check if the cell is in contact with a decoy RET Ligand cell on the tract surface
-					else if(temp.getClass().getName().equals("RLNonStromal"))
+					else if(temp instanceof RLNonStromal)
 					{
 						try
 						{
-							int probability = ppsim.random.nextInt(100)+1;
+							int probability = this.cellRandom.nextInt(100)+1;
 							
-							Field contactedCellBindingProbability = temp.getClass().getDeclaredField("stableBindProbability");
+
 							
-							if(probability<=contactedCellBindingProbability.getDouble(temp))	// the cell will move but remain in contact, held by vcam
+							if(probability<=((StromalCell)temp).getStableBindProbability())	// the cell will move but remain in contact, held by vcam
 							{
 								collision = true;
 								// the cell will 'stick', so adjust the adhesion time & contact cell variables
@@ -856,16 +866,7 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 	 */
 	public void updateLToState(Object stromalCell,int timeStep)
 	{
-		try
-		{
-			Class<?> stromalCellClass = stromalCell.getClass();
-			Method upCount = stromalCellClass.getMethod("stableContact",new Class[]{Object.class,int.class});
-			upCount.invoke(stromalCell,this,timeStep);
-		}
-		catch(Exception e)
-		{
-			e.printStackTrace();
-		}
+		((StromalCell)stromalCell).stableContact(this,timeStep);
 	}
 	
 		
@@ -888,17 +889,15 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 			// now go through each LTo and work out where the nearest active LTo is
 			for(int l=0;l<ppsim.ltoCellsBag.size();l++)
 			{
-				Object ltoCell = ppsim.ltoCellsBag.get(l);
-				
-				Field ltoCellState = ltoCell.getClass().getDeclaredField("cellState");
-				
-				if(ltoCellState.getInt(ltoCell)>1)		// the LTo cell is active
+				StromalCell ltoCell = (StromalCell)ppsim.ltoCellsBag.get(l);
+
+				if(ltoCell.getCellState()>1)		// the LTo cell is active
 				{
 					// calculate the distance from this cell to the LTo
 					// Need to get the location of the lto cell
-					Double2D ltoLocation = (Double2D)ltoCell.getClass().getDeclaredField("agentLocation").get(ltoCell);
+					Double2D ltoLocation = ltoCell.getLocation();
 					// Get the location of the innactive LTo
-					Double2D inactiveltoLocation = (Double2D)inactivelto.getClass().getDeclaredField("agentLocation").get(inactivelto);
+					Double2D inactiveltoLocation = ((StromalCell)inactivelto).getLocation();
 					
 					distance = (Math.sqrt((Math.pow(inactiveltoLocation.x-ltoLocation.x,2)+Math.pow(inactiveltoLocation.y-ltoLocation.y,2))));
 					
@@ -912,9 +911,7 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 			// check whether the distance falls below the threshold set in the parameter list
 			if(closestLTo<this.ltoDistanceThreshold)
 			{
-				Class<?> inactiveltoClass = inactivelto.getClass();
-				Method upCount = inactiveltoClass.getMethod("incImLToCellContactCount",new Class[]{});
-				upCount.invoke(inactivelto);
+				((StromalCell)inactivelto).incImLToCellContactCount();
 	
 			}	
 		}
@@ -953,8 +950,7 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 	    	{
 	    	
 				// Find out if this cell is expressing RET ligand
-				Method expressingRETLigand = contactedCellClass.getMethod("getexpressingRETLigand",new Class[]{});
-				Boolean expressingRET = (Boolean)expressingRETLigand.invoke(ltinContactCell);
+				boolean expressingRET = ((MigratoryCell)ltinContactCell).isExpressingRETLigand();
 				
 				
 				if(expressingRET)
@@ -962,7 +958,7 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
     		
 					// collision was with a decoy - an LTin or LTi cell expressing RET Ligand - this should stick but there should be no
 					// prolonged contact - therefore the cell should move away
-					angleToMove = Math.toRadians(ppsim.random.nextInt(360)+1);
+					angleToMove = Math.toRadians(this.cellRandom.nextInt(360)+1);
 					this.contactedCell = null;
 			
 					//return angleToMove;
@@ -992,8 +988,7 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 	    	{
 	    	
 				// Find out if this cell is expressing RET ligand
-				Method expressingRETLigand = contactedCellClass.getMethod("getexpressingRETLigand",new Class[]{});
-				Boolean expressingRET = (Boolean)expressingRETLigand.invoke(ltiContactCell);
+				boolean expressingRET = ((MigratoryCell)ltiContactCell).isExpressingRETLigand();
 				
 				
 				if(expressingRET)
@@ -1001,7 +996,7 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
     	
 					// collision was with a decoy - an LTin or LTi cell expressing RET Ligand - this should stick but there should be no
 					// prolonged contact - therefore the cell should move away
-					angleToMove = Math.toRadians(ppsim.random.nextInt(360)+1);
+					angleToMove = Math.toRadians(this.cellRandom.nextInt(360)+1);
 					this.contactedCell = null;
 			
 					//return angleToMove;
@@ -1051,20 +1046,14 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 		for(int j=0;j<numAttempts && collide;j++)
 		{
 			// generate a random angle
-			angle = Math.toRadians(ppsim.random.nextInt(360)+1);
+			angle = Math.toRadians(this.cellRandom.nextInt(360)+1);
 			// work out where the cell would move to
-			Double2D newPosition = calculateNewPosition(this.agentLocation,distanceToMove,angle,ppsim);
+			this.calculateNewPosition(this.agentX,this.agentY,distanceToMove,angle,ppsim);
 		
 			try
 			{
-				// get the cells that would be in contact in this new position
-				Class<?> environmentClass = ppsim.intestine_env.getClass();
-				Method meth = environmentClass.getMethod("getObjectsExactlyWithinDistance",new Class[]{Double2D.class,double.class});
-				Bag cellsInRange = (Bag)meth.invoke(ppsim.intestine_env,newPosition,ppsim.lookupDistance);
-				//Bag cellsInRange = ppsim.intestine_env.tract.getObjectsExactlyWithinDistance(newPosition,ppsim.lookupDistance);
-				
-				// check whether the cell that was previously in contact is still in contact
-				if(cellsInRange.contains(this.contactedCell))
+				// check whether the cell that was previously in contact would still be in contact in this new position
+				if(ppsim.intestine_env.visitObjectsExactlyWithinDistance(this.newX,this.newY,ppsim.lookupDistance,false,null,this.contactedCellFinder))
 				{
 					collide = true;
 				}
@@ -1083,7 +1072,7 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
 		{
 			// a new position could not be found in the number of attempts given
 			// just move away at a random angle (that may still result in some contact unfortunately)
-			angle = Math.toRadians(ppsim.random.nextInt(360)+1);
+			angle = Math.toRadians(this.cellRandom.nextInt(360)+1);
 		}
 		
 		// return the angle so the move can be made
@@ -1094,51 +1083,49 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
     
     /**
      * Used within the performMove method, this takes a cell, a distance, and an angle, and will work out the cells new position.
-     * Will deal with any cases where the cell needs to be rolled around the top/bottom of the screen
+     * Will deal with any cases where the cell needs to be rolled around the top/bottom of the screen.  The new position is
+     * held in newX and newY rather than returned, so no object is created for each sub-step
      * 
-     * @param movingCellLoc	The currrent location of the cell that is moving
+     * @param movingCellX	The current x coordinate of the cell that is moving
+     * @param movingCellY	The current y coordinate of the cell that is moving
      * @param distanceToMove	The distance the cell should move
      * @param angle	The angle at which the cell should move
      * @param ppsim	The current state of the simulation
-     * @return	Double2D checkedLoc	The new location of this cell (after checking for roll around requirements)
      */
-	public Double2D calculateNewPosition(Double2D movingCellLoc,double distanceToMove, double angle,PPatchSim ppsim)
+	public void calculateNewPosition(double movingCellX,double movingCellY,double distanceToMove, double angle,PPatchSim ppsim)
     {
-		double newX,newY;
-		newX = (movingCellLoc.x + (distanceToMove * Math.cos(angle)));
-		newY = (movingCellLoc.y + (distanceToMove * Math.sin(angle)));
+		double x,y;
+		x = (movingCellX + (distanceToMove * Math.cos(angle)));
+		y = (movingCellY + (distanceToMove * Math.sin(angle)));
 		// check if the location needs to be rolled round the screen
-		Double2D checkedLoc = this.rollAround(newX,newY,ppsim);
-		
-		// return the checked position
-		return checkedLoc;	
+		this.rollAround(x,y,ppsim);
 	}
 	
 	/**
-     * Ensures that if a new coordinate is calculated which will be off the screen, the coordinate is rolled around to the opposite side
+     * Ensures that if a new coordinate is calculated which will be off the screen, the coordinate is rolled around to the opposite side.
+     * The checked coordinates are held in newX and newY
      * 
-     * @param newX	The x coordinate that has been calculated to be checked
-     * @param newY	The y coordinate that has been calculated to be checked
+     * @param x	The x coordinate that has been calculated to be checked
+     * @param y	The y coordinate that has been calculated to be checked
      * @param ppsim	The current state of the simulation
-     * @return	Double2D newLoc	The new cell location, whether changed or unchanged
      */
-    public Double2D rollAround(Double newX,Double newY,PPatchSim ppsim)
+    public void rollAround(double x,double y,PPatchSim ppsim)
     {
     	try
     	{
-	    	double currentGridLength = ppsim.intestine_env.getClass().getDeclaredField("currentGridLength").getDouble(ppsim.intestine_env);
-			double currentGridHeight = ppsim.intestine_env.getClass().getDeclaredField("currentGridHeight").getDouble(ppsim.intestine_env);
+	    	double currentGridLength = ppsim.intestine_env.getCurrentGridLength();
+	    	double currentGridHeight = ppsim.intestine_env.getCurrentGridHeight();
 	    	
-	    	if(newY>currentGridHeight)			// roll round so cell appears at top of screen
+	    	if(y>currentGridHeight)			// roll round so cell appears at top of screen
 			{
-				newY=0.0;
+				y=0.0;
 			}
-			else if(newY<0.0)                      // roll round so appears at bottom
+			else if(y<0.0)                      // roll round so appears at bottom
 			{
-				newY=currentGridHeight;
+				y=currentGridHeight;
 			}
 		
-	    	if(newX>currentGridLength || newX<0.0)   // if has left right or left, the cell is deemed dead, so stop from the schedule
+	    	if(x>currentGridLength || x<0.0)   // if has left right or left, the cell is deemed dead, so stop from the schedule
 	    	{
 	    		this.stopped = true;
 	    	}
@@ -1148,9 +1135,8 @@ public class LTi extends SimplePortrayal2D implements Steppable,Stoppable
     		e.printStackTrace();
     	}
     	
-		Double2D newLoc = new Double2D(newX,newY);
-		
-		return newLoc;
+		this.newX = x;
+		this.newY = y;
 	}
 	
 	/**
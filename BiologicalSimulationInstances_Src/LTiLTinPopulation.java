@@ -0,0 +1,1605 @@
+
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import sim.engine.Schedule;
+import sim.engine.SimState;
+import sim.engine.Stoppable;
+import sim.field.continuous.Continuous2D;
+import sim.util.Bag;
+import sim.util.Double2D;
+import sim.util.IntBag;
+import sim_platform.AdhesionExpressor;
+import sim_platform.AdhesionReceptor;
+import sim_platform.Capability;
+import sim_platform.CapabilityIndex;
+import sim_platform.ChemokineReceptor;
+import sim_platform.MigratoryPopulation;
+import sim_platform.PPatchSim;
+import sim_platform.PluginBinding;
+import sim_platform.PluginRegistry;
+import sim_platform.RandomStream;
+import sim_platform.StromalCell;
+import sim_platform.StromalLayer;
+
+/**
+ * Holds the LTi and LTin cells of the simulation as columns of primitive values - one row per cell - and steps them all in a
+ * single loop, rather than scheduling one object per cell.  The behaviour of each cell is that of the LTi and LTin classes:
+ * chemotaxis (or a random angle for LTin), the move in sub-steps of 0.1, the checks for contact with the stroma and with
+ * other migratory cells, adhesion, and tracking.  Cells are stepped in a new random order each step, as the schedule does for
+ * cells stepped as objects, so runs are statistically equivalent to (though not the same as) runs with cell objects.
+ *
+ * The migratory cells are held on a uniform grid of their own rather than on the tract.  Objects of the LTi and LTin classes
+ * are only made where something outside the population needs one: one per cell type, passed to the stromal cells on a stable
+ * contact, one per cell for the display (only once the display asks for them), and one per tracked cell when the tracks are
+ * output
+ *
+ * Where the simulation sets a number of parallelThreads, each step is split in two.  In the propose phase every cell senses
+ * the chemokine around it, in parallel on a fork-join pool, against the state at the start of the step.  Nothing is changed
+ * in this phase, and no random number is drawn.  In the commit phase the cells are moved one at a time in the shuffled
+ * order, drawing their direction from the reading and resolving contacts as before.  As the random numbers are all drawn in
+ * the commit phase, in the same order, the results do not depend on the number of threads
+ *
+ * Where the simulation also sets a stripDecomposition, the commit phase is split across vertical strips of the tract.  Each
+ * strip owns the cells within it at the start of the step, and the columns of the grid under it.  Alternate strips are moved
+ * at once - the even strips and then the odd - so the strips moving at the same time are always at least a strip apart, and
+ * each only reads the cells of its neighbours in a halo the width of the contact distance plus the furthest a cell can move.
+ * A cell crossing into a neighbouring strip is handed over to it at the start of the next step.  The effects of contacts on
+ * the stromal cells are held by each strip and made once all the strips have moved, in strip order, so the stroma is read
+ * as it was at the start of the step.  The results depend on the number of strips but not on the number of threads
+ *
+ * @author Kieran Alden
+ *
+ */
+public class LTiLTinPopulation implements MigratoryPopulation,Stoppable
+{
+	/**
+	 * States of the LTi cell - initial, and after a stable contact with an active LTo
+	 */
+	private static final int LTI_INITIAL_STATE = 7;
+	private static final int LTI_CONTACTED_STATE = 8;
+
+	/**
+	 * States of the LTin cell - initial, and after ARTN/RET signalling
+	 */
+	private static final int LTIN_INITIAL_STATE = 4;
+	private static final int LTIN_SIGNALLED_STATE = 5;
+
+	/**
+	 * Tracking status of a cell
+	 */
+	private static final int NOT_TRACKED = 0;
+	private static final int TRACKED_AWAY = 1;
+	private static final int TRACKED_CLOSE = 2;
+
+	/**
+	 * The current state of the simulation
+	 */
+	private PPatchSim ppsim;
+
+	/*************************************************************************************************
+	 * CELL TYPES - ONE ENTRY PER MIGRATORY CELL TYPE IN THE SIMULATION
+	 */
+
+	private int numTypes = 0;
+
+	/**
+	 * Binding and name of each cell type
+	 */
+	private PluginBinding[] typeBinding;
+	private String[] typeName;
+
+	/**
+	 * Whether the type is an LTi (chemotaxis, and activation of immature LTo) or an LTin (random movement)
+	 */
+	private boolean[] typeLTi;
+
+	/**
+	 * One object of each type, passed to the stromal cells on a stable contact as they react to the type of cell
+	 */
+	private Object[] typePrototype;
+
+	/**
+	 * Receptor details of each type, as given in the XML, used when an object is made for a cell
+	 */
+	private ArrayList<?>[] typeReceptors;
+
+	/**
+	 * Receptors of each type.  The receptors hold no state for a cell, so are shared by all cells of the type
+	 */
+	private ChemokineReceptor[] typeChemokineReceptor;
+	private AdhesionReceptor[] typeAdhesionReceptor;
+
+	/**
+	 * Diameter of each type, and distance from an active LTo within which an immature LTo can be activated
+	 */
+	private double[] typeDiameter;
+	private double[] typeLToDistanceThreshold;
+
+	/*************************************************************************************************
+	 * CELL COLUMNS - ONE ROW PER CELL
+	 */
+
+	private int numRows = 0;
+
+	private int[] cellType = new int[64];
+	private double[] x = new double[64];
+	private double[] y = new double[64];
+	private double[] previousX = new double[64];
+	private double[] previousY = new double[64];
+	private double[] speed = new double[64];
+	private int[] state = new int[64];
+
+	/**
+	 * Stromal layer site of the cell in contact with, or -1 if none
+	 */
+	private int[] contact = new int[64];
+
+	private boolean[] stopped = new boolean[64];
+	private boolean[] expressingRETLigand = new boolean[64];
+
+	/**
+	 * Step at which the cell was added - a cell is not stepped until the step after, as for a newly scheduled object
+	 */
+	private long[] addedAt = new long[64];
+
+	/**
+	 * Tracking columns
+	 */
+	private int[] tracked = new int[64];
+	private double[] trackStartX = new double[64];
+	private double[] trackStartY = new double[64];
+	private double[] trackEndX = new double[64];
+	private double[] trackEndY = new double[64];
+	private boolean[] trackEndRecorded = new boolean[64];
+	private double[] trackLength = new double[64];
+	private int[] timeTracked = new int[64];
+
+	/**
+	 * Stream of random numbers each cell makes all of its random choices from, as the cellRandom of a cell object
+	 */
+	private RandomStream[] cellRandom = new RandomStream[64];
+
+	/**
+	 * Stream the cells split their own streams from.  Split from the stream of the run as the population is created, so the
+	 * objects made for the display (which split streams from that of the run) do not change the streams of the cells
+	 */
+	private RandomStream rowStreams;
+
+	/**
+	 * Objects made for the display, one per row, or null until the display asks for them
+	 */
+	private Object[] views = null;
+
+	/*************************************************************************************************
+	 * GRID HOLDING THE CELLS - A LINKED LIST OF ROWS PER BUCKET
+	 */
+
+	private double bucketSize;
+	private int gridColumns;
+	private int gridRows;
+	private int[] bucketHead;
+
+	private int[] bucket = new int[64];
+	private int[] nextInBucket = new int[64];
+	private int[] previousInBucket = new int[64];
+
+	/**
+	 * Order the rows are stepped in, shuffled each step
+	 */
+	private int[] order = new int[64];
+
+	/**
+	 * Chemokine reading taken for each row in the propose phase, where the step is split into propose and commit phases
+	 */
+	private int[] reading = new int[64];
+
+	/**
+	 * Rows sensed by one task of the propose phase - a task with more rows is split in two
+	 */
+	private static final int PROPOSE_ROWS_PER_TASK = 32;
+
+	/**
+	 * Number of threads set in the simulation spec - 0 if the step is not split into propose and commit phases
+	 */
+	private int parallelThreads;
+
+	/**
+	 * Pool running the propose phase, or null where this is run on the simulation thread
+	 */
+	private ForkJoinPool proposePool = null;
+
+	/**
+	 * Kind of a held stromal contact effect where an LTi has contacted an immature LTo near an active one
+	 */
+	private static final int IMMATURE_LTO_CONTACT = -1;
+
+	/**
+	 * A vertical strip of the tract, holding the cells it moves this step and the working values used while moving them, so
+	 * that strips can be moved on different threads at once
+	 */
+	private static class Strip
+	{
+		/**
+		 * Coordinates worked out by the last call to calculateNewPosition, so no object is created for each sub-step of a move
+		 */
+		double newX;
+		double newY;
+
+		/**
+		 * Stromal sites found by each check for contact with a stromal cell
+		 */
+		IntBag sitesInRange = new IntBag();
+
+		/**
+		 * Rows of the cells owned by the strip this step, in the order they are stepped
+		 */
+		IntBag rows = new IntBag();
+
+		/**
+		 * Whether the effects of contacts on the stromal cells are held until all strips have moved, rather than made at once
+		 */
+		boolean holdStromalEffects;
+
+		/**
+		 * Furthest a cell can be moved away from the cells it collides with in one step - unbounded on the whole tract, but
+		 * bounded where strips move at once, so the cell cannot move beyond the halo of its strip
+		 */
+		double pushApartLimit = Double.POSITIVE_INFINITY;
+
+		/**
+		 * Stromal cells contacted, with the type of the contacting cell (or IMMATURE_LTO_CONTACT) - where effects are held
+		 */
+		Bag contactedStroma = new Bag();
+		IntBag contactKinds = new IntBag();
+	}
+
+	/**
+	 * Strip covering the whole tract, used where the step is not split across strips
+	 */
+	private Strip wholeTract = new Strip();
+
+	/**
+	 * Number of strips set in the simulation spec - 0 if the step is not split across strips
+	 */
+	private int stripDecomposition;
+
+	/**
+	 * The strips of the tract, where the step is split across strips
+	 */
+	private Strip[] strips = null;
+
+	/**
+	 * Whether cells crossing the left or right edge of the tract are handed to the process simulating the neighbouring strip,
+	 * rather than leaving the tract
+	 */
+	private boolean openLeft = false;
+	private boolean openRight = false;
+
+	/**
+	 * Cells of the neighbouring strip processes within the halo of an open edge, as at the end of their last step, in the
+	 * coordinates of this tract.  Only their location is held - they are checked for contact but are not moved
+	 */
+	private double[] haloX = new double[16];
+	private double[] haloY = new double[16];
+	private int numHalo = 0;
+
+	/**
+	 * Returned by firstCellWithin where the cell found is a halo cell of a neighbouring strip process
+	 */
+	private static final int HALO_CELL = Integer.MAX_VALUE;
+
+	/**
+	 * Continuous2D used by the graphical display, or null until the display asks for it
+	 */
+	private Continuous2D displayField = null;
+
+	/**
+	 * Flag to show if this class has been stopped (when no longer needed)
+	 */
+	private Stoppable stopper = null;
+
+	/**
+	 * Method to change the value of the stopper
+	 * @param stopper	Whether the class should be stopped or not
+	 */
+	public void setStopper(Stoppable stopper)   {this.stopper = stopper;}
+
+	/**
+	 * Method to stop the class where necessary
+	 */
+	public void stop()
+	{
+		stopper.stop();
+		if(this.proposePool!=null)
+			this.proposePool.shutdown();
+	}
+
+	/**
+	 * Creates the population for the LTi and LTin cells of the simulation.  Other migratory cell types are not held, and
+	 * are reported by holds()
+	 *
+	 * @param ppsim	The current simulation state
+	 * @param cells	The migratory cells given in the XML
+	 */
+	public LTiLTinPopulation(PPatchSim ppsim,ArrayList<ArrayList<Object>> cells)
+	{
+		this.ppsim = ppsim;
+
+		this.typeBinding = new PluginBinding[cells.size()];
+		this.typeName = new String[cells.size()];
+		this.typeLTi = new boolean[cells.size()];
+		this.typePrototype = new Object[cells.size()];
+		this.typeReceptors = new ArrayList<?>[cells.size()];
+		this.typeChemokineReceptor = new ChemokineReceptor[cells.size()];
+		this.typeAdhesionReceptor = new AdhesionReceptor[cells.size()];
+		this.typeDiameter = new double[cells.size()];
+		this.typeLToDistanceThreshold = new double[cells.size()];
+
+		double largestDiameter = 0;
+
+		try
+		{
+			for(int i=0;i<cells.size();i++)
+			{
+				ArrayList<Object> cellInfo = cells.get(i);
+				PluginBinding binding = PluginRegistry.get(cellInfo.get(0).toString());
+
+				boolean lti = LTi.class.isAssignableFrom(binding.pluginClass);
+				if(!lti && !LTin.class.isAssignableFrom(binding.pluginClass))
+					continue;
+
+				// ONE OBJECT OF THE TYPE - HOLDS THE RECEPTORS AND PARAMETERS SHARED BY ALL CELLS OF THE TYPE
+				Object prototype = binding.newMigratoryCell(ppsim,new Double2D(0,0),(ArrayList<?>)cellInfo.get(6));
+				CapabilityIndex receptorCapabilities;
+
+				if(lti)
+				{
+					receptorCapabilities = ((LTi)prototype).receptorCapabilities;
+					this.typeLToDistanceThreshold[this.numTypes] = ((LTi)prototype).ltoDistanceThreshold;
+				}
+				else
+				{
+					receptorCapabilities = ((LTin)prototype).receptorCapabilities;
+					this.typeLToDistanceThreshold[this.numTypes] = ((LTin)prototype).ltoDistanceThreshold;
+				}
+
+				this.typeBinding[this.numTypes] = binding;
+				this.typeName[this.numTypes] = binding.pluginClass.getName();
+				this.typeLTi[this.numTypes] = lti;
+				this.typePrototype[this.numTypes] = prototype;
+				this.typeReceptors[this.numTypes] = (ArrayList<?>)cellInfo.get(6);
+				// AS IN LTi, THE LAST CHEMOKINE RECEPTOR IN THE LIST GIVES THE ANGLE MOVED ALONG
+				this.typeChemokineReceptor[this.numTypes] = (ChemokineReceptor)receptorCapabilities.last(Capability.CHEMOTAXIS);
+				this.typeAdhesionReceptor[this.numTypes] = (AdhesionReceptor)receptorCapabilities.first(Capability.ADHESION);
+				this.typeDiameter[this.numTypes] = binding.cellDiameter;
+
+				largestDiameter = Math.max(largestDiameter,binding.cellDiameter);
+				this.numTypes++;
+			}
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+
+		// BUCKETS THE SIZE OF THE LARGEST CELL, SO A CONTACT CHECK ONLY NEEDS THE NEIGHBOURING BUCKETS
+		this.bucketSize = (largestDiameter>0) ? largestDiameter : ppsim.lookupDistance;
+		this.gridColumns = (int)Math.floor(ppsim.intestine_env.getCurrentGridLength()/this.bucketSize)+1;
+		this.gridRows = (int)Math.floor(ppsim.intestine_env.getCurrentGridHeight()/this.bucketSize)+1;
+		this.bucketHead = new int[this.gridColumns*this.gridRows];
+		Arrays.fill(this.bucketHead,-1);
+
+		this.rowStreams = ppsim.randomStreams.split();
+
+		this.parallelThreads = ppsim.simulationSpec.parallelThreads;
+		if(this.parallelThreads>1)
+			this.proposePool = new ForkJoinPool(this.parallelThreads);
+
+		this.stripDecomposition = ppsim.simulationSpec.stripDecomposition;
+		if(this.stripDecomposition>0)
+		{
+			this.strips = new Strip[this.stripDecomposition];
+			for(int s=0;s<this.stripDecomposition;s++)
+			{
+				this.strips[s] = new Strip();
+				this.strips[s].holdStromalEffects = true;
+			}
+		}
+	}
+
+	/**
+	 * @return	The index of the given cell type, or -1 if it is not held
+	 */
+	private int typeIndex(PluginBinding cellType)
+	{
+		for(int t=0;t<this.numTypes;t++)
+		{
+			if(this.typeBinding[t]==cellType)
+				return t;
+		}
+		return -1;
+	}
+
+	/* (non-Javadoc)
+	 * @see sim_platform.MigratoryPopulation#holds(sim_platform.PluginBinding)
+	 */
+	public boolean holds(PluginBinding cellType)
+	{
+		return this.typeIndex(cellType)>=0;
+	}
+
+	/* (non-Javadoc)
+	 * @see sim_platform.MigratoryPopulation#addCell(sim_platform.PPatchSim, sim_platform.PluginBinding, double, double)
+	 */
+	public int addCell(PPatchSim ppsim,PluginBinding cellType,double cellX,double cellY)
+	{
+		int row = this.addRow(ppsim,this.typeIndex(cellType),cellX,cellY);
+
+		// generate speed of this cell - a gaussian falling within the set range, from the cell's own stream of random numbers
+		this.cellRandom[row] = this.rowStreams.split();
+		double cellSpeed = 0;
+		while(cellSpeed<ppsim.hemCells.cellSpeedLowBound || cellSpeed>ppsim.hemCells.cellSpeedUpBound)
+		{
+			cellSpeed = this.cellRandom[row].nextGaussian();
+		}
+		this.speed[row] = cellSpeed;
+
+		return row;
+	}
+
+	/**
+	 * Adds a row for a new cell in its initial state, placing it on the grid.  The speed and stream of random numbers are
+	 * left for the caller to set
+	 *
+	 * @return	The row added
+	 */
+	private int addRow(PPatchSim ppsim,int t,double cellX,double cellY)
+	{
+		int row = this.numRows;
+		this.ensureCapacity(row+1);
+
+		this.cellType[row] = t;
+		this.x[row] = cellX;
+		this.y[row] = cellY;
+		this.previousX[row] = cellX;
+		this.previousY[row] = cellY;
+		this.state[row] = this.typeLTi[t] ? LTI_INITIAL_STATE : LTIN_INITIAL_STATE;
+		this.contact[row] = -1;
+		this.stopped[row] = false;
+		this.expressingRETLigand[row] = false;
+		this.addedAt[row] = ppsim.schedule.getSteps();
+		this.tracked[row] = NOT_TRACKED;
+		this.trackEndRecorded[row] = false;
+		this.trackLength[row] = 0;
+		this.timeTracked[row] = 0;
+		if(this.views!=null)
+			this.views[row] = null;
+
+		this.bucket[row] = -1;
+		this.place(row);
+
+		this.numRows++;
+		return row;
+	}
+
+	/* (non-Javadoc)
+	 * @see sim_platform.MigratoryPopulation#inContact(double, double, double)
+	 */
+	public boolean inContact(double cellX,double cellY,double distance)
+	{
+		return this.firstCellWithin(-1,cellX,cellY,distance)>=0;
+	}
+
+	/* (non-Javadoc)
+	 * @see sim_platform.MigratoryPopulation#size()
+	 */
+	public int size()
+	{
+		return this.numRows;
+	}
+
+	/* (non-Javadoc)
+	 * @see sim_platform.MigratoryPopulation#addToSchedule(sim.engine.Schedule)
+	 */
+	public void addToSchedule(Schedule sch)
+	{
+		this.setStopper(sch.scheduleRepeating(this));
+	}
+
+	/* (non-Javadoc)
+	 * @see sim.engine.Steppable#step(sim.engine.SimState)
+	 */
+	public void step(final SimState state)
+	{
+		PPatchSim ppsim = (PPatchSim)state;
+		long steps = ppsim.schedule.getSteps();
+
+		// Step while the simulation is running
+		if(steps*ppsim.simulationSpec.secondsPerStep < ((ppsim.simulationSpec.simulationTime*60)*60))
+		{
+			// CELLS THAT LEFT THE TRACT ARE REMOVED ON THEIR NEXT STEP, AS CELL OBJECTS ARE
+			this.removeStoppedCells(ppsim);
+
+			// SHUFFLE THE ORDER THE CELLS ARE STEPPED IN, AS THE SCHEDULE DOES FOR CELL OBJECTS.  CELLS ADDED THIS STEP ARE NOT
+			// STEPPED UNTIL THE NEXT
+			int count = 0;
+			for(int row=0;row<this.numRows;row++)
+			{
+				if(this.addedAt[row]<steps)
+					this.order[count++] = row;
+			}
+			for(int i=count-1;i>=1;i--)
+			{
+				int swap = ppsim.random.nextInt(i+1);
+				int temp = this.order[i];
+				this.order[i] = this.order[swap];
+				this.order[swap] = temp;
+			}
+
+			if(this.parallelThreads>0)
+			{
+				// PROPOSE PHASE - EVERY CELL SENSES THE CHEMOKINE AS IT IS AT THE START OF THE STEP
+				for(int t=0;t<this.numTypes;t++)
+				{
+					if(this.typeLTi[t] && this.typeChemokineReceptor[t] != null)
+						this.typeChemokineReceptor[t].prepareSensing(ppsim);
+				}
+
+				if(this.proposePool!=null)
+					this.proposePool.invoke(new ProposeTask(0,count));
+				else
+					this.propose(0,count,new int[9],new int[9]);
+			}
+
+			if(this.strips!=null)
+			{
+				this.stepStrips(ppsim,count);
+			}
+			else
+			{
+				for(int i=0;i<count;i++)
+				{
+					this.stepRow(ppsim,this.wholeTract,this.order[i]);
+				}
+			}
+		}
+		else
+		{
+			// Simulation is over so stop the population
+			this.stop();
+		}
+	}
+
+	/**
+	 * Steps one cell - working out the angle it moves at, and moving it
+	 *
+	 * @param ppsim	The current simulation state
+	 * @param strip	The strip moving the cell
+	 * @param row	The row of the cell
+	 */
+	private void stepRow(PPatchSim ppsim,Strip strip,int row)
+	{
+		this.previousX[row] = this.x[row];
+		this.previousY[row] = this.y[row];
+
+		if(this.stopped[row])
+			return;
+
+		double angle = 0.0;
+		int t = this.cellType[row];
+		if(this.typeLTi[t])
+		{
+			// LTi cells move by chemotaxis, where a chemokine receptor is expressed
+			if(this.typeChemokineReceptor[t] != null)
+			{
+				// WHERE SPLIT INTO PHASES, THE DIRECTION IS DRAWN FROM THE READING TAKEN IN THE PROPOSE PHASE
+				if(this.parallelThreads>0)
+					angle = this.typeChemokineReceptor[t].generateAngleFromReading(ppsim,this.reading[row],this.cellRandom[row]);
+				else
+					angle = this.typeChemokineReceptor[t].generateAngleThroughChemokineExpression(ppsim,this.x[row],this.y[row],this.cellRandom[row]);
+			}
+		}
+		else
+		{
+			// no attractive force for LTin Cells - random angle movement
+			angle = Math.toRadians(this.cellRandom[row].nextInt(360)+1);
+		}
+
+		this.performMove(ppsim,strip,row,angle);
+	}
+
+	/**
+	 * Steps the cells strip by strip.  The cells are handed to the strip they are in at the start of the step, keeping the
+	 * order they are stepped in.  The even strips are then moved at once, then the odd, and finally the effects each strip
+	 * held on the stroma are made, in strip order
+	 *
+	 * @param ppsim	The current simulation state
+	 * @param count	The number of cells in the step order
+	 */
+	private void stepStrips(final PPatchSim ppsim,int count)
+	{
+		// THE STRIPS MUST BE WIDE ENOUGH THAT STRIPS MOVING AT ONCE CANNOT REACH THE SAME CELLS OR GRID COLUMNS - EACH HALO
+		// COVERS THE CONTACT DISTANCE, THE FURTHEST A CELL MOVES AND THE FURTHEST IT CAN BE MOVED AWAY FROM THE CELLS IT
+		// COLLIDES WITH (A CELL DIAMETER), WITH A GRID COLUMN TO SPARE
+		double tractLength = ppsim.intestine_env.getCurrentGridLength();
+		double pushApartLimit = this.bucketSize;
+		double halo = Math.max(ppsim.lookupDistance,this.bucketSize)+ppsim.hemCells.cellSpeedUpBound+pushApartLimit+this.bucketSize;
+		final int numStrips = Math.max(1,Math.min(this.strips.length,(int)(tractLength/(2*halo))));
+		double stripWidth = tractLength/numStrips;
+
+		for(int s=0;s<numStrips;s++)
+		{
+			this.strips[s].rows.clear();
+			this.strips[s].pushApartLimit = pushApartLimit;
+		}
+		for(int i=0;i<count;i++)
+		{
+			int row = this.order[i];
+			int s = Math.max(0,Math.min(numStrips-1,(int)(this.x[row]/stripWidth)));
+			this.strips[s].rows.add(row);
+		}
+
+		for(int parity=0;parity<2;parity++)
+		{
+			if(this.proposePool!=null)
+			{
+				ArrayList<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+				for(int s=parity;s<numStrips;s+=2)
+				{
+					final Strip strip = this.strips[s];
+					tasks.add(new RecursiveAction()
+					{
+						private static final long serialVersionUID = 1L;
+
+						protected void compute()
+						{
+							moveStrip(ppsim,strip);
+						}
+					});
+				}
+				this.proposePool.invoke(new RecursiveAction()
+				{
+					private static final long serialVersionUID = 1L;
+
+					protected void compute()
+					{
+						invokeAll(tasks);
+					}
+				});
+			}
+			else
+			{
+				for(int s=parity;s<numStrips;s+=2)
+				{
+					this.moveStrip(ppsim,this.strips[s]);
+				}
+			}
+		}
+
+		// NOW ALL THE STRIPS HAVE MOVED, THE CONTACTS CAN CHANGE THE STROMA
+		for(int s=0;s<numStrips;s++)
+		{
+			this.makeStromalEffects(ppsim,this.strips[s]);
+		}
+	}
+
+	/**
+	 * Moves the cells owned by a strip, in the order they are stepped
+	 */
+	private void moveStrip(PPatchSim ppsim,Strip strip)
+	{
+		for(int i=0;i<strip.rows.numObjs;i++)
+		{
+			this.stepRow(ppsim,strip,strip.rows.objs[i]);
+		}
+	}
+
+	/**
+	 * Makes the effects on the stroma of the contacts held by a strip, in the order they were made
+	 */
+	private void makeStromalEffects(PPatchSim ppsim,Strip strip)
+	{
+		for(int i=0;i<strip.contactedStroma.numObjs;i++)
+		{
+			StromalCell contactedStromalCell = (StromalCell)strip.contactedStroma.objs[i];
+			int kind = strip.contactKinds.objs[i];
+
+			if(kind==IMMATURE_LTO_CONTACT)
+			{
+				contactedStromalCell.incImLToCellContactCount();
+			}
+			else
+			{
+				contactedStromalCell.stableContact(this.typePrototype[kind],(int)ppsim.schedule.getSteps());
+				ppsim.chemoGrid.updateExpressingCell(contactedStromalCell);
+			}
+		}
+		strip.contactedStroma.clear();
+		strip.contactKinds.clear();
+	}
+
+	/**
+	 * Takes the chemokine reading of each LTi cell in part of the step order.  Only reads the simulation state, and writes only
+	 * the readings of its own rows, so parts of the order can be proposed on different threads at once
+	 *
+	 * @param from	First position in the step order
+	 * @param to	Position in the step order after the last
+	 * @param stencilX	Working array of 9, used only by this call
+	 * @param stencilY	Working array of 9, used only by this call
+	 */
+	private void propose(int from,int to,int[] stencilX,int[] stencilY)
+	{
+		for(int i=from;i<to;i++)
+		{
+			int row = this.order[i];
+			int t = this.cellType[row];
+
+			if(!this.stopped[row] && this.typeLTi[t] && this.typeChemokineReceptor[t] != null)
+				this.reading[row] = this.typeChemokineReceptor[t].senseChemokine(this.ppsim,this.x[row],this.y[row],stencilX,stencilY);
+		}
+	}
+
+	/**
+	 * Fork-join task proposing part of the step order, splitting it in two until each part is small enough to propose
+	 */
+	private class ProposeTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private int from;
+		private int to;
+
+		public ProposeTask(int from,int to)
+		{
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute()
+		{
+			if(this.to-this.from<=PROPOSE_ROWS_PER_TASK)
+			{
+				propose(this.from,this.to,new int[9],new int[9]);
+			}
+			else
+			{
+				int middle = (this.from+this.to)>>>1;
+				invokeAll(new ProposeTask(this.from,middle),new ProposeTask(middle,this.to));
+			}
+		}
+	}
+
+	/**
+	 * Changes the location of the cell using the cells individual speed and a calculated angle, dealing with all collision
+	 * detection.  As LTi.performMove3, on the columns of one row
+	 *
+	 * @param ppsim	The current simulation state
+	 * @param strip	The strip moving the cell
+	 * @param row	The row of the cell to move
+	 * @param angle	The angle (in Radians) to move the cell on the tract
+	 */
+	private void performMove(PPatchSim ppsim,Strip strip,int row,double angle)
+	{
+		double distanceToMove = this.speed[row];
+		double distanceMoved = 0;
+		double distancePushedApart = 0;
+
+		while(distanceToMove>0)
+		{
+			try
+			{
+				if(this.contact[row]>=0)
+				{
+					// IN CONTACT WITH A STROMAL CELL - DETERMINE IF THE CELL EXPRESSES ADHESION FACTORS
+					StromalCell contactedCell = (StromalCell)ppsim.intestine_env.getStromalLayer().getCell(this.contact[row]);
+					AdhesionExpressor expressor = null;
+					if(contactedCell != null)
+						expressor = (AdhesionExpressor)contactedCell.returnExpressorCapabilities().first(Capability.ADHESION_EXPRESSION);
+
+					if(contactedCell == null)
+					{
+						// the stromal cell is no longer on its site
+						this.contact[row] = -1;
+					}
+					else if(expressor != null)
+					{
+						// check if prolonged contact should take place, worked out by the adhesion factor receptor of this cell
+						boolean stuck = false;
+						AdhesionReceptor adhesionReceptor = this.typeAdhesionReceptor[this.cellType[row]];
+						if(adhesionReceptor != null)
+						{
+							stuck = adhesionReceptor.examineVCAMEffect(expressor,this.cellRandom[row]);
+						}
+
+						if(stuck)
+						{
+							distanceToMove = 0;
+						}
+						else
+						{
+							this.contact[row] = -1;
+
+							double angleToMove = this.avoidCellCollision(ppsim,strip,row,distanceToMove);
+							this.calculateNewPosition(ppsim,strip,row,this.x[row],this.y[row],distanceToMove,angleToMove);
+							this.x[row] = strip.newX;
+							this.y[row] = strip.newY;
+
+							distanceMoved = distanceMoved+distanceToMove;
+							distanceToMove = 0;
+						}
+					}
+					else
+					{
+						// nothing to hold or release the cell - it remains in contact for this step
+						distanceToMove = 0;
+					}
+				}
+				else
+				{
+					// do the move, but do in small chunks of 0.1 (makes collision detection along the path easier)
+					if(distanceToMove>0.1)
+					{
+						this.calculateNewPosition(ppsim,strip,row,this.x[row],this.y[row],0.1,angle);
+						distanceToMove = distanceToMove-0.1;
+						distanceMoved = distanceMoved+0.1;
+					}
+					else
+					{
+						// This is the final move the cell will make in this step (not added to the distance moved, as in
+						// the cell classes)
+						this.calculateNewPosition(ppsim,strip,row,this.x[row],this.y[row],distanceToMove,angle);
+						distanceToMove = 0;
+					}
+
+					this.x[row] = strip.newX;
+					this.y[row] = strip.newY;
+
+					// first check if there is a collision with an LTo or Decoy Stromal Cell
+					if(this.collisionCheck(ppsim,strip,row))
+					{
+						this.trackClose(row);
+					}
+					else
+					{
+						// Now need to check if there is a collision with an LTi/LTin
+						int contactedRow = this.firstCellWithin(row,this.x[row],this.y[row],this.typeDiameter[this.cellType[row]]);
+
+						if(contactedRow>=0)
+						{
+							// NOTHING IS KNOWN OF THE LIGANDS OF A HALO CELL, SO IT IS MOVED AWAY FROM
+							if(contactedRow!=HALO_CELL && this.expressingRETLigand[contactedRow])
+							{
+								// the contact may 'activate' the ligand - the probability is drawn, though the bind is yet to
+								// be examined further (as in the cell classes)
+								this.cellRandom[row].nextInt(100);
+							}
+							else
+							{
+								// the cell is not expressing RET ligand - move the cell away at a random angle.  Where strips
+								// move at once, the cell is left where it is once moved as far as its strip allows
+								while(contactedRow>=0 && distancePushedApart<strip.pushApartLimit)
+								{
+									distancePushedApart = distancePushedApart+0.1;
+									angle = Math.toRadians(this.cellRandom[row].nextDouble()*360);
+									this.calculateNewPosition(ppsim,strip,row,this.x[row],this.y[row],0.1,angle);
+									this.x[row] = strip.newX;
+									this.y[row] = strip.newY;
+									contactedRow = this.firstCellWithin(row,this.x[row],this.y[row],this.typeDiameter[this.cellType[row]]);
+								}
+							}
+						}
+					}
+				}
+			}
+			catch(Exception e)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		// set the cell's location on the grid
+		this.place(row);
+
+		// update cell tracked length - only tracking each cell for an hour
+		if(this.tracked[row]!=NOT_TRACKED)
+		{
+			if(this.timeTracked[row]<(3600/ppsim.simulationSpec.secondsPerStep))
+			{
+				this.trackLength[row] = this.trackLength[row] + distanceMoved;
+				this.timeTracked[row]++;
+			}
+			else if(this.timeTracked[row] == (3600/ppsim.simulationSpec.secondsPerStep))
+			{
+				// add the end point to work out displacement
+				this.setTrackEndLocation(row);
+			}
+		}
+	}
+
+	/**
+	 * Determines if a cell is in contact with any cell on the stroma (i.e. inactive & active LTo's, and decoy RET Ligand
+	 * cells), dealing with any stable bind.  As collisionCheck2 of the cell classes
+	 *
+	 * @param ppsim	The current simulation state
+	 * @param strip	The strip moving the cell
+	 * @param row	The row of the moving cell
+	 * @return	Whether a bind holds the cell
+	 */
+	private boolean collisionCheck(PPatchSim ppsim,Strip strip,int row)
+	{
+		StromalLayer stroma = ppsim.intestine_env.getStromalLayer();
+		if(stroma==null)
+			return false;
+
+		stroma.getSitesExactlyWithinDistance(this.x[row],this.y[row],ppsim.lookupDistance,false,strip.sitesInRange);
+
+		boolean collision = false;
+		int t = this.cellType[row];
+
+		for(int i=0;i<strip.sitesInRange.numObjs;i++)
+		{
+			int site = strip.sitesInRange.objs[i];
+			Object temp = stroma.getCell(site);
+
+			try
+			{
+				if(temp instanceof LTo)
+				{
+					StromalCell contactedStromalCell = (StromalCell)temp;
+					int contactedCellState = contactedStromalCell.getCellState();
+
+					if(contactedCellState==0 && this.state[row]==LTI_CONTACTED_STATE)
+					{
+						// an LTi that has been in contact with an LTo is in contact with an immature cell it may activate
+						this.immatureLToActivation(ppsim,strip,row,contactedStromalCell);
+					}
+					else if(contactedCellState>0 && contactedCellState!=9)
+					{
+						// CHECK WHETHER THIS CONTACT RESULTS IN A STABLE BIND (BASED ON A PROBABILITY)
+						int probability = this.cellRandom[row].nextInt(100)+1;
+
+						if(probability<=contactedStromalCell.getStableBindProbability())
+						{
+							// THE BIND HOLDS
+							collision = true;
+
+							// LTi cells only react to LTo that are expressing VCAM - LTin cells react to any, through
+							// ARTN/RET signalling
+							if(!this.typeLTi[t] || contactedCellState>=2)
+							{
+								if(this.typeLTi[t])
+								{
+									if(this.state[row]==LTI_INITIAL_STATE)
+										this.state[row] = LTI_CONTACTED_STATE;
+								}
+								else
+								{
+									if(this.state[row]==LTIN_INITIAL_STATE)
+										this.state[row] = LTIN_SIGNALLED_STATE;
+								}
+
+								this.trackClose(row);
+
+								// store this as the cell in contact with - will need this to calculate VCAM in next step
+								this.contact[row] = site;
+
+								if(strip.holdStromalEffects)
+								{
+									// THE SIGNALLING IS MADE ONCE ALL THE STRIPS HAVE MOVED
+									strip.contactedStroma.add(contactedStromalCell);
+									strip.contactKinds.add(t);
+								}
+								else
+								{
+									// DEAL WITH LTo SIGNALLING & STATE CHANGES CAUSED BY THE BIND
+									contactedStromalCell.stableContact(this.typePrototype[t],(int)ppsim.schedule.getSteps());
+
+									// THE CONTACT MAY HAVE STARTED OR INCREASED CHEMOKINE EXPRESSION - KEEP THE CHEMOKINE GRID UP TO DATE
+									ppsim.chemoGrid.updateExpressingCell(contactedStromalCell);
+								}
+							}
+						}
+					}
+				}
+				// Now check if the cell is in contact with a decoy RET Ligand cell on the tract surface
+				else if(temp instanceof RLNonStromal)
+				{
+					int probability = this.cellRandom[row].nextInt(100)+1;
+
+					if(probability<=((StromalCell)temp).getStableBindProbability())
+					{
+						collision = true;
+						this.contact[row] = site;
+					}
+				}
+			}
+			catch(Exception e)
+			{
+				e.printStackTrace();
+			}
+		}
+		return collision;
+	}
+
+	/**
+	 * Takes an Immature LTo cell which is in contact with an LTi cell which has been in contact with an 'active' LTo and
+	 * increases its contact count if within the set distance of an active LTo
+	 *
+	 * @param ppsim	The current state of the simulation
+	 * @param strip	The strip moving the LTi cell
+	 * @param row	The row of the LTi cell
+	 * @param inactivelto	The immature LTo
+	 */
+	private void immatureLToActivation(PPatchSim ppsim,Strip strip,int row,StromalCell inactivelto)
+	{
+		double closestLTo = 100000.0;
+
+		Double2D inactiveltoLocation = inactivelto.getLocation();
+
+		for(int l=0;l<ppsim.ltoCellsBag.size();l++)
+		{
+			StromalCell ltoCell = (StromalCell)ppsim.ltoCellsBag.get(l);
+
+			if(ltoCell.getCellState()>1)		// the LTo cell is active
+			{
+				Double2D ltoLocation = ltoCell.getLocation();
+				double distance = (Math.sqrt((Math.pow(inactiveltoLocation.x-ltoLocation.x,2)+Math.pow(inactiveltoLocation.y-ltoLocation.y,2))));
+
+				if(distance<closestLTo)
+				{
+					closestLTo = distance;
+				}
+			}
+		}
+
+		if(closestLTo<this.typeLToDistanceThreshold[this.cellType[row]])
+		{
+			if(strip.holdStromalEffects)
+			{
+				strip.contactedStroma.add(inactivelto);
+				strip.contactKinds.add(IMMATURE_LTO_CONTACT);
+			}
+			else
+			{
+				inactivelto.incImLToCellContactCount();
+			}
+		}
+	}
+
+	/**
+	 * Works out the angle at which a cell moves away from the stromal cell it has been in contact with.  As in the cell
+	 * classes, the contact has already been cleared when the new positions are checked, so any cell within range of a new
+	 * position (including this cell, at its current position) counts as a collision
+	 *
+	 * @param ppsim	The current simulation state
+	 * @param strip	The strip moving the cell
+	 * @param row	The row of the moving cell
+	 * @param distanceToMove	The distance the cell is to move
+	 * @return	the angle at which the cell should move away
+	 */
+	private double avoidCellCollision(PPatchSim ppsim,Strip strip,int row,double distanceToMove)
+	{
+		boolean collide = true;
+		int numAttempts = 10;			// flag to make sure that an infinite loop is not created if no position found
+		double angle = 0.0;
+
+		for(int j=0;j<numAttempts && collide;j++)
+		{
+			angle = Math.toRadians(this.cellRandom[row].nextInt(360)+1);
+			this.calculateNewPosition(ppsim,strip,row,this.x[row],this.y[row],distanceToMove,angle);
+
+			collide = this.firstCellWithin(-1,strip.newX,strip.newY,ppsim.lookupDistance)>=0;
+			if(!collide && ppsim.intestine_env.getStromalLayer()!=null)
+			{
+				ppsim.intestine_env.getStromalLayer().getSitesExactlyWithinDistance(strip.newX,strip.newY,ppsim.lookupDistance,false,strip.sitesInRange);
+				collide = strip.sitesInRange.numObjs>0;
+			}
+		}
+
+		if(collide)
+		{
+			// a new position could not be found in the number of attempts given - just move away at a random angle
+			angle = Math.toRadians(this.cellRandom[row].nextInt(360)+1);
+		}
+		return angle;
+	}
+
+	/**
+	 * Works out the new position of a cell moving a distance at an angle, held in the newX and newY of the strip moving it.  A
+	 * position off the top or bottom of the tract is rolled around to the opposite side, and a cell moving off the left or
+	 * right is stopped
+	 */
+	private void calculateNewPosition(PPatchSim ppsim,Strip strip,int row,double cellX,double cellY,double distanceToMove,double angle)
+	{
+		double movedX = (cellX + (distanceToMove * Math.cos(angle)));
+		double movedY = (cellY + (distanceToMove * Math.sin(angle)));
+
+		double currentGridLength = ppsim.intestine_env.getCurrentGridLength();
+		double currentGridHeight = ppsim.intestine_env.getCurrentGridHeight();
+
+		if(movedY>currentGridHeight)			// roll round so cell appears at top of screen
+		{
+			movedY = 0.0;
+		}
+		else if(movedY<0.0)                      // roll round so appears at bottom
+		{
+			movedY = currentGridHeight;
+		}
+
+		if(movedX>currentGridLength || movedX<0.0)   // if has left right or left, the cell is deemed dead
+		{
+			this.stopped[row] = true;
+		}
+
+		strip.newX = movedX;
+		strip.newY = movedY;
+	}
+
+	/**
+	 * Finds the first cell (other than the given row) within a distance of a point
+	 *
+	 * @param self	Row to ignore, or -1 to consider every cell
+	 * @return	The row of the cell found, HALO_CELL if only a halo cell of a neighbouring strip process, or -1 if none
+	 */
+	private int firstCellWithin(int self,double pointX,double pointY,double distance)
+	{
+		int rings = (int)Math.ceil(distance/this.bucketSize);
+		int column = this.columnOf(pointX);
+		int gridRow = this.rowOf(pointY);
+		double distanceSq = distance*distance;
+
+		int lastColumn = Math.min(this.gridColumns-1,column+rings);
+		int lastRow = Math.min(this.gridRows-1,gridRow+rings);
+
+		for(int c=Math.max(0,column-rings);c<=lastColumn;c++)
+		{
+			for(int r=Math.max(0,gridRow-rings);r<=lastRow;r++)
+			{
+				for(int other=this.bucketHead[c*this.gridRows+r];other>=0;other=this.nextInBucket[other])
+				{
+					if(other==self)
+						continue;
+
+					double dx = pointX-this.x[other];
+					double dy = pointY-this.y[other];
+					if(dx*dx+dy*dy<=distanceSq)
+						return other;
+				}
+			}
+		}
+		for(int h=0;h<this.numHalo;h++)
+		{
+			double dx = pointX-this.haloX[h];
+			double dy = pointY-this.haloY[h];
+			if(dx*dx+dy*dy<=distanceSq)
+				return HALO_CELL;
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a cell that has been in contact with the stroma to the cells tracked close to it, if not already
+	 */
+	private void trackClose(int row)
+	{
+		if(this.ppsim.simulationSpec.cellTrackingEnabled && this.tracked[row]!=TRACKED_CLOSE)
+		{
+			this.tracked[row] = TRACKED_CLOSE;
+			this.trackLength[row] = 0;
+			this.timeTracked[row] = 0;
+			this.setTrackStartLocation(row);
+		}
+	}
+
+	private void setTrackStartLocation(int row)
+	{
+		this.trackStartX[row] = this.x[row];
+		this.trackStartY[row] = this.y[row];
+	}
+
+	private void setTrackEndLocation(int row)
+	{
+		this.trackEndX[row] = this.x[row];
+		this.trackEndY[row] = this.y[row];
+		this.trackEndRecorded[row] = true;
+	}
+
+	/* (non-Javadoc)
+	 * @see sim_platform.MigratoryPopulation#beginTracking(int)
+	 */
+	public void beginTracking(int row)
+	{
+		this.tracked[row] = TRACKED_AWAY;
+		this.setTrackStartLocation(row);
+	}
+
+	/* (non-Javadoc)
+	 * @see sim_platform.MigratoryPopulation#startTrackingPeriod()
+	 */
+	public void startTrackingPeriod()
+	{
+		for(int row=0;row<this.numRows;row++)
+		{
+			if(!this.stopped[row])
+				this.setTrackStartLocation(row);
+
+			if(this.tracked[row]!=NOT_TRACKED)
+			{
+				this.setTrackStartLocation(row);
+				this.trackEndRecorded[row] = false;
+				this.timeTracked[row] = 0;
+				this.trackLength[row] = 0;
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see sim_platform.MigratoryPopulation#endTrackingPeriod()
+	 */
+	public void endTrackingPeriod()
+	{
+		for(int row=0;row<this.numRows;row++)
+		{
+			if(!this.stopped[row] || (this.tracked[row]!=NOT_TRACKED && !this.trackEndRecorded[row]))
+				this.setTrackEndLocation(row);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see sim_platform.MigratoryPopulation#addTrackedCells(sim.util.Bag, sim.util.Bag)
+	 */
+	public void addTrackedCells(Bag close,Bag away)
+	{
+		for(int row=0;row<this.numRows;row++)
+		{
+			if(this.tracked[row]==TRACKED_CLOSE)
+				close.add(this.makeCellObject(row,null));
+			else if(this.tracked[row]==TRACKED_AWAY)
+				away.add(this.makeCellObject(row,null));
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see sim_platform.MigratoryPopulation#getDisplayField()
+	 */
+	public Continuous2D getDisplayField()
+	{
+		if(this.displayField==null)
+		{
+			this.displayField = new Continuous2D(6.0,this.ppsim.intestine_env.getCurrentGridLength(),this.ppsim.intestine_env.getCurrentGridHeight());
+			this.views = new Object[this.x.length];
+		}
+
+		for(int row=0;row<this.numRows;row++)
+		{
+			this.views[row] = this.makeCellObject(row,this.views[row]);
+			this.displayField.setObjectLocation(this.views[row],new Double2D(this.x[row],this.y[row]));
+		}
+		return this.displayField;
+	}
+
+	/**
+	 * Makes an object of the cell's class holding the values of its row, so it can be drawn, inspected or output
+	 *
+	 * @param row	The row of the cell
+	 * @param cell	An object made for the row earlier, to bring up to date, or null to make a new one
+	 * @return	The object
+	 */
+	private Object makeCellObject(int row,Object cell)
+	{
+		PluginBinding binding = this.typeBinding[this.cellType[row]];
+
+		if(cell==null)
+			cell = binding.newMigratoryCell(this.ppsim,new Double2D(this.x[row],this.y[row]),this.typeReceptors[this.cellType[row]]);
+
+		binding.setField(cell,"agentX",this.x[row]);
+		binding.setField(cell,"agentY",this.y[row]);
+		binding.setField(cell,"agentPreviousX",this.previousX[row]);
+		binding.setField(cell,"agentPreviousY",this.previousY[row]);
+		binding.setField(cell,"cellSpeed",this.speed[row]);
+		binding.setField(cell,"cellSpeedSecond",this.speed[row]/this.ppsim.simulationSpec.secondsPerStep);
+		binding.setField(cell,"cellState",this.state[row]);
+		binding.setField(cell,"stopped",this.stopped[row]);
+		binding.setField(cell,"expressingRETLigand",this.expressingRETLigand[row]);
+		binding.setField(cell,"contactedCell",(this.contact[row]>=0) ? this.ppsim.intestine_env.getStromalLayer().getCell(this.contact[row]) : null);
+		binding.setField(cell,"agentTrackStartX",this.trackStartX[row]);
+		binding.setField(cell,"agentTrackStartY",this.trackStartY[row]);
+		binding.setField(cell,"agentTrackEndX",this.trackEndX[row]);
+		binding.setField(cell,"agentTrackEndY",this.trackEndY[row]);
+		binding.setField(cell,"agentTrackEndRecorded",this.trackEndRecorded[row]);
+		binding.setField(cell,"trackLength",this.trackLength[row]);
+		binding.setField(cell,"timeTracked",this.timeTracked[row]);
+		return cell;
+	}
+
+	/* (non-Javadoc)
+	 * @see sim_platform.MigratoryPopulation#setOpenEdges(boolean, boolean)
+	 */
+	public void setOpenEdges(boolean left,boolean right)
+	{
+		this.openLeft = left;
+		this.openRight = right;
+	}
+
+	/* (non-Javadoc)
+	 * @see sim_platform.MigratoryPopulation#writeCrossingCells(sim_platform.PPatchSim, java.io.DataOutput, boolean)
+	 */
+	public int writeCrossingCells(PPatchSim ppsim,DataOutput out,boolean rightEdge) throws IOException
+	{
+		if(!(rightEdge ? this.openRight : this.openLeft))
+			return 0;
+
+		double tractLength = ppsim.intestine_env.getCurrentGridLength();
+		int written = 0;
+
+		for(int row=this.numRows-1;row>=0;row--)
+		{
+			if(!this.stopped[row] || (rightEdge ? this.x[row]<=tractLength : this.x[row]>=0))
+				continue;
+
+			// THE CELL CONTINUES IN THE NEIGHBOURING STRIP, WITH ITS OWN SPEED, STATE AND STREAM OF RANDOM NUMBERS
+			out.writeByte(this.cellType[row]);
+			out.writeByte(this.state[row]);
+			out.writeDouble(this.x[row]);
+			out.writeDouble(this.y[row]);
+			out.writeDouble(this.speed[row]);
+			out.writeLong(this.cellRandom[row].getState());
+			written++;
+
+			String name = this.typeName[this.cellType[row]];
+			ppsim.simulatedCellCellularity.put(name,ppsim.simulatedCellCellularity.get(name)-1);
+			this.removeRow(row);
+		}
+		return written;
+	}
+
+	/* (non-Javadoc)
+	 * @see sim_platform.MigratoryPopulation#readArrivingCell(sim_platform.PPatchSim, java.io.DataInput, double)
+	 */
+	public void readArrivingCell(PPatchSim ppsim,DataInput in,double shiftX) throws IOException
+	{
+		int t = in.readByte();
+		int cellState = in.readByte();
+		double cellX = in.readDouble()+shiftX;
+		double cellY = in.readDouble();
+		double cellSpeed = in.readDouble();
+		long stream = in.readLong();
+
+		int row = this.addRow(ppsim,t,cellX,cellY);
+		this.state[row] = cellState;
+		this.speed[row] = cellSpeed;
+		this.cellRandom[row] = new RandomStream(stream);
+
+		// ARRIVES BETWEEN STEPS, SO IS STEPPED IN THE NEXT ONE
+		this.addedAt[row] = ppsim.schedule.getSteps()-1;
+
+		String name = this.typeName[t];
+		ppsim.simulatedCellCellularity.put(name,ppsim.simulatedCellCellularity.get(name)+1);
+	}
+
+	/* (non-Javadoc)
+	 * @see sim_platform.MigratoryPopulation#writeHaloCells(sim_platform.PPatchSim, java.io.DataOutput, boolean)
+	 */
+	public int writeHaloCells(PPatchSim ppsim,DataOutput out,boolean rightEdge) throws IOException
+	{
+		if(!(rightEdge ? this.openRight : this.openLeft))
+			return 0;
+
+		// THE HALO COVERS THE FURTHEST AT WHICH A CELL CAN CONTACT ANOTHER
+		double halo = Math.max(ppsim.lookupDistance,this.bucketSize);
+		double tractLength = ppsim.intestine_env.getCurrentGridLength();
+		int written = 0;
+
+		for(int row=0;row<this.numRows;row++)
+		{
+			if(this.stopped[row] || (rightEdge ? this.x[row]<tractLength-halo : this.x[row]>halo))
+				continue;
+
+			out.writeDouble(this.x[row]);
+			out.writeDouble(this.y[row]);
+			written++;
+		}
+		return written;
+	}
+
+	/* (non-Javadoc)
+	 * @see sim_platform.MigratoryPopulation#clearHalo()
+	 */
+	public void clearHalo()
+	{
+		this.numHalo = 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see sim_platform.MigratoryPopulation#readHaloCell(java.io.DataInput, double)
+	 */
+	public void readHaloCell(DataInput in,double shiftX) throws IOException
+	{
+		if(this.numHalo==this.haloX.length)
+		{
+			this.haloX = Arrays.copyOf(this.haloX,this.numHalo*2);
+			this.haloY = Arrays.copyOf(this.haloY,this.numHalo*2);
+		}
+		this.haloX[this.numHalo] = in.readDouble()+shiftX;
+		this.haloY[this.numHalo] = in.readDouble();
+		this.numHalo++;
+	}
+
+	/**
+	 * Removes the cells that have left the left or right of the tract, decreasing the cellularity of their type
+	 */
+	private void removeStoppedCells(PPatchSim ppsim)
+	{
+		for(int row=this.numRows-1;row>=0;row--)
+		{
+			if(!this.stopped[row])
+				continue;
+
+			String name = this.typeName[this.cellType[row]];
+			ppsim.simulatedCellCellularity.put(name,ppsim.simulatedCellCellularity.get(name)-1);
+
+			this.removeRow(row);
+			ppsim.cellLifecycle.countRemoved();
+		}
+	}
+
+	/**
+	 * Removes a row, moving the last row into its place
+	 */
+	private void removeRow(int row)
+	{
+		this.unlink(row);
+		if(this.displayField!=null && this.views[row]!=null)
+			this.displayField.remove(this.views[row]);
+
+		int last = this.numRows-1;
+		if(row!=last)
+		{
+			boolean linked = (this.bucket[last]>=0);
+			this.unlink(last);
+
+			this.cellType[row] = this.cellType[last];
+			this.x[row] = this.x[last];
+			this.y[row] = this.y[last];
+			this.previousX[row] = this.previousX[last];
+			this.previousY[row] = this.previousY[last];
+			this.speed[row] = this.speed[last];
+			this.state[row] = this.state[last];
+			this.contact[row] = this.contact[last];
+			this.stopped[row] = this.stopped[last];
+			this.expressingRETLigand[row] = this.expressingRETLigand[last];
+			this.addedAt[row] = this.addedAt[last];
+			this.tracked[row] = this.tracked[last];
+			this.trackStartX[row] = this.trackStartX[last];
+			this.trackStartY[row] = this.trackStartY[last];
+			this.trackEndX[row] = this.trackEndX[last];
+			this.trackEndY[row] = this.trackEndY[last];
+			this.trackEndRecorded[row] = this.trackEndRecorded[last];
+			this.trackLength[row] = this.trackLength[last];
+			this.timeTracked[row] = this.timeTracked[last];
+			this.cellRandom[row] = this.cellRandom[last];
+			if(this.views!=null)
+				this.views[row] = this.views[last];
+
+			if(linked)
+				this.link(row,this.bucketOf(this.x[row],this.y[row]));
+		}
+		this.cellRandom[last] = null;
+		if(this.views!=null)
+			this.views[last] = null;
+		this.numRows--;
+	}
+
+	/**
+	 * Places a cell on the grid at its current location, taking it off if it has left the left or right of the tract
+	 */
+	private void place(int row)
+	{
+		if(this.x[row]<0 || this.x[row]>this.ppsim.intestine_env.getCurrentGridLength())
+		{
+			this.unlink(row);
+			return;
+		}
+
+		int cellBucket = this.bucketOf(this.x[row],this.y[row]);
+		if(cellBucket!=this.bucket[row])
+		{
+			this.unlink(row);
+			this.link(row,cellBucket);
+		}
+	}
+
+	private int columnOf(double pointX)
+	{
+		return Math.max(0,Math.min(this.gridColumns-1,(int)(pointX/this.bucketSize)));
+	}
+
+	private int rowOf(double pointY)
+	{
+		return Math.max(0,Math.min(this.gridRows-1,(int)(pointY/this.bucketSize)));
+	}
+
+	private int bucketOf(double pointX,double pointY)
+	{
+		return this.columnOf(pointX)*this.gridRows+this.rowOf(pointY);
+	}
+
+	/**
+	 * Adds a row to the front of a bucket's list
+	 */
+	private void link(int row,int cellBucket)
+	{
+		int head = this.bucketHead[cellBucket];
+		this.nextInBucket[row] = head;
+		this.previousInBucket[row] = -1;
+		if(head>=0)
+			this.previousInBucket[head] = row;
+		this.bucketHead[cellBucket] = row;
+		this.bucket[row] = cellBucket;
+	}
+
+	/**
+	 * Takes a row off its bucket's list, if on one
+	 */
+	private void unlink(int row)
+	{
+		int cellBucket = this.bucket[row];
+		if(cellBucket<0)
+			return;
+
+		int next = this.nextInBucket[row];
+		int previous = this.previousInBucket[row];
+		if(previous>=0)
+			this.nextInBucket[previous] = next;
+		else
+			this.bucketHead[cellBucket] = next;
+		if(next>=0)
+			this.previousInBucket[next] = previous;
+		this.bucket[row] = -1;
+	}
+
+	/**
+	 * Grows the columns to hold at least the given number of rows
+	 */
+	private void ensureCapacity(int size)
+	{
+		if(size<=this.x.length)
+			return;
+
+		int capacity = size*2;
+		this.cellType = Arrays.copyOf(this.cellType,capacity);
+		this.x = Arrays.copyOf(this.x,capacity);
+		this.y = Arrays.copyOf(this.y,capacity);
+		this.previousX = Arrays.copyOf(this.previousX,capacity);
+		this.previousY = Arrays.copyOf(this.previousY,capacity);
+		this.speed = Arrays.copyOf(this.speed,capacity);
+		this.state = Arrays.copyOf(this.state,capacity);
+		this.contact = Arrays.copyOf(this.contact,capacity);
+		this.stopped = Arrays.copyOf(this.stopped,capacity);
+		this.expressingRETLigand = Arrays.copyOf(this.expressingRETLigand,capacity);
+		this.addedAt = Arrays.copyOf(this.addedAt,capacity);
+		this.tracked = Arrays.copyOf(this.tracked,capacity);
+		this.trackStartX = Arrays.copyOf(this.trackStartX,capacity);
+		this.trackStartY = Arrays.copyOf(this.trackStartY,capacity);
+		this.trackEndX = Arrays.copyOf(this.trackEndX,capacity);
+		this.trackEndY = Arrays.copyOf(this.trackEndY,capacity);
+		this.trackEndRecorded = Arrays.copyOf(this.trackEndRecorded,capacity);
+		this.trackLength = Arrays.copyOf(this.trackLength,capacity);
+		this.timeTracked = Arrays.copyOf(this.timeTracked,capacity);
+		this.cellRandom = Arrays.copyOf(this.cellRandom,capacity);
+		this.bucket = Arrays.copyOf(this.bucket,capacity);
+		this.nextInBucket = Arrays.copyOf(this.nextInBucket,capacity);
+		this.previousInBucket = Arrays.copyOf(this.previousInBucket,capacity);
+		this.order = Arrays.copyOf(this.order,capacity);
+		this.reading = Arrays.copyOf(this.reading,capacity);
+		if(this.views!=null)
+			this.views = Arrays.copyOf(this.views,capacity);
+	}
+}
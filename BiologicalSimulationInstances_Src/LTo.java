@@ -2,15 +2,20 @@
 
 import java.awt.*;
 import java.awt.geom.Ellipse2D;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 
 import sim.engine.*;
 import sim.portrayal.*;
 import sim.util.*;
+import sim_platform.AdhesionExpressor;
+import sim_platform.Capability;
+import sim_platform.ChemokineExpressor;
+import sim_platform.CapabilityIndex;
 import sim_platform.PPatchSim;
+import sim_platform.PluginBinding;
+import sim_platform.PluginRegistry;
+import sim_platform.StromalCell;
+import sim_platform.StromalCellTimer;
   
 /**
  * Class which defines the behaviour and attributes of the LTo Cell.
@@ -20,7 +25,7 @@ import sim_platform.PPatchSim;
  * @author Kieran Alden
  *
  */
-public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
+public class LTo extends SimplePortrayal2D implements Steppable,Stoppable,StromalCell
 {
 	/**
 	 * <a name = "LTO_DIAMETER"></a>
@@ -74,14 +79,28 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
 	 */
     public void setStopper(Stoppable stopper)   {this.stopper = stopper;}
     
-    public void addToSchedule(Schedule sch)
-	{
-		this.setStopper(sch.scheduleRepeating(this));
-	}
+    /**
+     * Wakes the cell at the steps where it has something to do, rather than it being stepped every step
+     */
+    private StromalCellTimer timer = null;
     
     public void incImLToCellContactCount()
     {
     	this.imLToCellContactCount++;
+    	
+    	// AN IMMATURE CELL NOW WITH ENOUGH CONTACTS IS ACTIVATED AT THE NEXT STEP
+    	if(this.cellState==0 && this.imLToCellContactCount>this.numContactsActivateLTo)
+    	{
+    		this.wakeNextStep();
+    	}
+    }
+    
+    public void wakeNextStep()
+    {
+    	if(this.timer!=null)
+    	{
+    		this.timer.wakeNextStep();
+    	}
     }
     
     public ArrayList<Object> returnExpressors()
@@ -89,6 +108,26 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
     	return this.expressors;
     }
     
+    public Double2D getLocation()
+    {
+    	return this.agentLocation;
+    }
+    
+    public int getCellState()
+    {
+    	return this.cellState;
+    }
+    
+    public double getStableBindProbability()
+    {
+    	return this.stableBindProbability;
+    }
+    
+    public boolean isStopped()
+    {
+    	return this.stopped;
+    }
+    
     /**
      * Method to stop the class where necessary
      */
@@ -159,6 +198,12 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
 	 */
 	public int activeTime;
 	
+	/**
+	 * The step at which the LTo has been active for activeTime steps - the active time is only brought up to date when the
+	 * cell is stepped
+	 */
+	public long activeTimeStep;
+	
 	/**
 	 * Flag to show that the LTo has been removed as this did not differentiate by a set time
 	 */
@@ -188,6 +233,19 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
 	
 	public ArrayList<String> expressorNames = new ArrayList<String>();
 	
+	/**
+	 * Capability descriptors for the expressors of this cell, built when the cell is created
+	 */
+	public CapabilityIndex expressorCapabilities = CapabilityIndex.EMPTY;
+	
+	/* (non-Javadoc)
+	 * @see sim_platform.StromalCell#returnExpressorCapabilities()
+	 */
+	public CapabilityIndex returnExpressorCapabilities()
+	{
+		return this.expressorCapabilities;
+	}
+	
 	/**
      * Creates a new LTo Agent (or Cell), and assigns the cell a linear adjustment and CCL19 Expression level.
      * Currently these are set to be identical for each cell, but there is scope to change this
@@ -208,10 +266,9 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
     			// get the receptor
     			ArrayList<String> expressorDetail = cellExpressors.get(i);
     			
-    			Class<?> receptorType = Class.forName(expressorDetail.get(0));
+    			PluginBinding receptorType = PluginRegistry.get(expressorDetail.get(0));
     			this.expressorNames.add(expressorDetail.get(0));
-    			Constructor<?> con = receptorType.getConstructor(new Class[]{ArrayList.class});
-    			Object receptorObj = con.newInstance(expressorDetail);
+    			Object receptorObj = receptorType.newComponent(expressorDetail);
     			this.expressors.add(receptorObj);
 
     		}
@@ -220,6 +277,9 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
     	{
     		e.printStackTrace();
     	}
+    	
+    	// describe the expressors, so the right one can be used directly when needed
+    	this.expressorCapabilities = new CapabilityIndex(this.expressors);
         
         //this.startingVCAMExpressionLevel = this.vcamAdhesionEffect.vcamExpressionLevel * sp.adhesionFactorExpressionSlope;
           
@@ -248,6 +308,7 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
         
         // Just copy the receptors as this is a replicate of another LTo
         this.expressors = cellExpressors;
+        this.expressorCapabilities = new CapabilityIndex(this.expressors);
         
         if(ARTNExpression)
         {
@@ -297,25 +358,11 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
 			// Do however need to find the receptor
 			// Set up the receptors for this object
 	        
-			for(int i=0;i<this.expressors.size();i++)
-	    	{
-	    			
-	    			try
-	    	    	{
-	    				// get the receptor
-	    				Object receptor = this.expressors.get(i);
-	    				Method meth = receptor.getClass().getMethod("incrementAdhesionExpression",new Class[]{});
-	    				meth.invoke(receptor);
-	    	    	}
-	    			catch(NoSuchMethodException e)
-	    			{
-	    	        	// Ignore and carry on
-	    	        }
-	    	    	catch(Exception e)
-	    	    	{
-	    	    		e.printStackTrace();
-	    	    	}
-	    		}
+			Object[] adhesionExpressors = this.expressorCapabilities.all(Capability.ADHESION_EXPRESSION);
+			for(int i=0;i<adhesionExpressors.length;i++)
+			{
+				((AdhesionExpressor)adhesionExpressors[i]).incrementAdhesionExpression();
+			}
 	    	}	        
 			
     		
@@ -339,27 +386,11 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
 			// increase level of chemokine expression by LTo - a chemokine is being expressed
 			// 	CHEMOKINES - ADJUST SIGMOID FUNCTION PARAMETERS - IN TURN INCREASING DISTANCE AFFECTED BY CHEMOKINES
 			
-			for(int i=0;i<this.expressors.size();i++)
-    		{
-				try
-				{
-	    			// get the receptor
-	    			Object expressor = this.expressors.get(i);
-	    			
-	    			Class<?> cellType = expressor.getClass();
-					Method meth = cellType.getMethod("increaseChemokineExpression",new Class[]{});
-					meth.invoke(expressor);
-				}
-				catch(NoSuchMethodException e)
-				{
-					//e.printStackTrace();
-					// May not be the chemokine receptor - just catch and ignore
-				}
-				catch(Exception e)
-				{
-					e.printStackTrace();
-				}
-    		}		
+			Object[] chemokineExpressors = this.expressorCapabilities.all(Capability.CHEMOKINE_EXPRESSION);
+			for(int i=0;i<chemokineExpressors.length;i++)
+			{
+				((ChemokineExpressor)chemokineExpressors[i]).increaseChemokineExpression();
+			}
 		}
     }
     
@@ -373,8 +404,16 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
     	// step while the simulation is running
     	if(ppsim.schedule.getSteps()*ppsim.simulationSpec.secondsPerStep < ((ppsim.simulationSpec.simulationTime*60)*60))
 		{
-    		if(!this.stopped)
+    		if(!this.stopped && ppsim.schedule.getSteps()<this.activeTimeStep)
     		{
+    			// CONVERTED BY A CELL DIVIDING EARLIER IN THIS STEP - THE ACTIVE TIME IT WAS GIVEN STARTS AT THE NEXT STEP
+    			this.timer.wakeAt(this.activeTimeStep);
+    		}
+    		else if(!this.stopped)
+    		{
+    			// BRING THE ACTIVE TIME UP TO THIS STEP - IT COUNTS EVERY STEP, NOT ONLY THOSE THE CELL IS WOKEN AT
+    			this.activeTime += (int)(ppsim.schedule.getSteps()-this.activeTimeStep);
+    			
     			// Firstly, check the state of the LTo - if still in initial state after set amount of time, cell will die
     			// With standardised time variables in hours, need to convert to minutes for comparison
     			//if(this.cellState==0 && this.activeTime>((60/simParams.secondsPerStep)*(simParams.imLToActiveTime*60)))
@@ -382,20 +421,8 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
     			{
     				this.stopped=true;
     				
-    				// REMOVE USING ENVIRONMENT JAVA REFLECTION
-    				try
-    				{
-    					Class<?> environmentClass = ppsim.intestine_env.getClass();
-    					Method meth = environmentClass.getMethod("remove",new Class[]{Object.class});
-    					meth.invoke(ppsim.intestine_env,this);
-    					//ppsim.intestine_env.tract.remove(this);
-    				}
-    				catch(Exception e)
-    				{
-    					e.printStackTrace();
-    				}
-    				
-    				this.stop();
+    				// REMOVE FROM THE ENVIRONMENT AND THE SCHEDULE - NO LONGER EXPRESSING ANYTHING ONTO THE CHEMOKINE GRID
+    				ppsim.cellLifecycle.remove(ppsim,this);
     			}
     			else if(activeTime%(this.lToDivisionTime*60)*60==0)
     			{
@@ -434,12 +461,20 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
     					}	
     				}
    				}
+    			
+    			// THE ACTIVE TIME NOW HELD IS THAT AT THE NEXT STEP - SLEEP UNTIL THE CELL NEXT HAS SOMETHING TO DO
+    			if(!this.stopped)
+    			{
+    				this.activeTimeStep = ppsim.schedule.getSteps()+1;
+    				this.timer.wakeAt(this.nextWakeStep(ppsim));
+    			}
    			}
    			
    		}
     	else
     	{
-    		System.exit(0);
+    		// THE SIMULATION TIME HAS BEEN REACHED - PPatchSim ENDS THE RUN ONCE THIS STEP IS COMPLETE, SO THE CELL ONLY STOPS
+    		this.stop();
     		
     		
     		
@@ -459,6 +494,35 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
     	}
     }
     
+    /**
+     * Works out the next step at which the cell needs stepping: the next step at which it checks whether to divide, or the step at 
+     * which an immature cell would be removed.  An immature cell with enough contacts to be activated is 
+     * stepped at the next step
+     * 
+     * @param ppsim	The current simulation state
+     * @return	The index of the step
+     */
+    private long nextWakeStep(PPatchSim ppsim)
+    {
+    	// THE CELL CHECKS WHETHER TO DIVIDE EACH TIME THE ACTIVE TIME REACHES A MULTIPLE OF THE DIVISION TIME
+    	int divisionPeriod = this.lToDivisionTime*60;
+    	long wake = this.activeTimeStep+(divisionPeriod-this.activeTime%divisionPeriod)%divisionPeriod;
+    	
+    	if(this.cellState==0)
+    	{
+    		if(this.imLToCellContactCount>this.numContactsActivateLTo)
+    		{
+    			wake = Math.min(wake,this.activeTimeStep);
+    		}
+    		
+    		// THE FIRST ACTIVE TIME ABOVE THE IMMATURE ACTIVE TIME, AT WHICH AN IMMATURE CELL IS REMOVED
+    		long expiryTime = (long)Math.floor((this.immatureActiveTime*60)*60)+1;
+    		wake = Math.min(wake,this.activeTimeStep+Math.max(0,expiryTime-this.activeTime));
+    	}
+    	
+    	return wake;
+    }
+    
     /**
 	 * Used to simulate cell division.  This method deals with the creation of the divided cell, while ensuring
 	 * this is not placed over an LTo cell that already exists
@@ -511,9 +575,7 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
 						if(stromalCell!=null)
 						{
 							// Get the state of this cell object
-							Field cellState = stromalCell.getClass().getDeclaredField("cellState");
-							
-							if(cellState.getInt(stromalCell)==0)
+							if(((StromalCell)stromalCell).getCellState()==0)
 							{
 								this.makeNewLTo(stromalCell, ppsim);
 								convertDone = true;
@@ -556,11 +618,11 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
 					//Field cellSize = cellDividing.getClass().getDeclaredField("cell_diameter");
 					// work out the size of each grid square
 					// get current environment dimensions
-					double currentGridLength = ppsim.intestine_env.getClass().getDeclaredField("currentGridLength").getDouble(ppsim.intestine_env);
-					double currentGridHeight = ppsim.intestine_env.getClass().getDeclaredField("currentGridHeight").getDouble(ppsim.intestine_env);
+					double currentGridLength = ppsim.intestine_env.getCurrentGridLength();
+					double currentGridHeight = ppsim.intestine_env.getCurrentGridHeight();
 					// get the original when the boxes were set
-					double initialGridLength = ppsim.intestine_env.getClass().getDeclaredField("initialGridLength").getDouble(ppsim.intestine_env);
-					double initialGridHeight = ppsim.intestine_env.getClass().getDeclaredField("initialGridHeight").getDouble(ppsim.intestine_env);
+					double initialGridLength = ppsim.intestine_env.getInitialGridLength();
+					double initialGridHeight = ppsim.intestine_env.getInitialGridHeight();
 					
 					double xAdj = currentGridLength / ((int)(initialGridLength/this.cell_diameter));
 					double yAdj = currentGridHeight / ((int)(initialGridHeight/this.cell_diameter));
@@ -572,8 +634,7 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
 					// Get the expressors to send to the cell creator
 					//ArrayList<String> expressors = (ArrayList<String>)this.expressors;
 					
-					Constructor<?> con = this.getClass().getConstructor(new Class[]{Double2D.class, Int2D.class,int.class,Boolean.class,double.class,ArrayList.class,Boolean.class});
-					Object newCellObject = con.newInstance(location,blankSpace,ppsim.ltoCellsBag.size(),true,this.immatureActiveTime,this.expressorNames,true);
+					Object newCellObject = PluginRegistry.get(this.getClass()).newReplicateStromalCell(location,blankSpace,ppsim.ltoCellsBag.size(),true,this.immatureActiveTime,this.expressorNames);
 					
 					// copy the properties of the dividing LTo cell to the new cell
 					this.makeNewLTo(newCellObject, ppsim);
@@ -583,14 +644,11 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
 					
 					ppsim.surfaceCellsGrid.set(blankSpace.x,blankSpace.y, newCellObject);
 					
-					// Add to the environment tract (using reflection)
-					Class<?> environmentClass = ppsim.intestine_env.getClass();
-					Method setLoc = environmentClass.getMethod("setLocation",new Class[]{Object.class,Double2D.class});
-					setLoc.invoke(ppsim.intestine_env,newCellObject,location);
+					// Add to its site on the environment
+					ppsim.intestine_env.placeStromalCell(newCellObject,blankSpace,location);
 					//ppsim.intestine_env.tract.setObjectLocation(ltoCell,location);
 					
-					Method setStopperMeth = newCellObject.getClass().getMethod("setStopper",new Class[]{PPatchSim.class});
-					setStopperMeth.invoke(newCellObject,ppsim);
+					PluginRegistry.get(newCellObject.getClass()).setStopper(newCellObject,ppsim);
 					//ltoCell.setStopper(ppsim.schedule.scheduleRepeating(ltoCell));		
 				}
 				catch(Exception e)
@@ -655,7 +713,12 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
     
     public void setStopper(PPatchSim ppsim)
     {
-    	ppsim.schedule.scheduleRepeating(this);
+    	this.timer = new StromalCellTimer(ppsim.schedule,this);
+    	this.setStopper(this.timer);
+    	
+    	// THE ACTIVE TIME THE CELL STARTS WITH IS THAT AT THE FIRST STEP IT IS STEPPED IN
+    	this.activeTimeStep = this.timer.nextStep();
+    	this.timer.wakeNextStep();
     }
     
     /**
@@ -674,11 +737,17 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
 			
 			// The new LTo cell needs to have all the properties of the original, so copy these over
 			
-			newCell.getClass().getDeclaredField("cellState").setInt(newCell, this.cellState);
+			PluginBinding newCellClass = PluginRegistry.get(newCell.getClass());
+
+			newCellClass.setField(newCell,"cellState",this.cellState);
+
+			newCellClass.setField(newCell,"expressors",this.expressors);
 			
-			newCell.getClass().getDeclaredField("expressors").set(newCell,this.expressors);
+			newCellClass.setField(newCell,"expressorCapabilities",this.expressorCapabilities);
+
+			newCellClass.setField(newCell,"activeTime",this.activeTime+1);
 			
-			newCell.getClass().getDeclaredField("activeTime").set(newCell,this.activeTime+1);
+			newCellClass.setField(newCell,"activeTimeStep",ppsim.schedule.getSteps()+1);
 			
 			//newCell.getClass().getDeclaredField("chemoLinearAdjust").setDouble(newCell, dividingCell.getClass().getDeclaredField("chemoLinearAdjust").getDouble(dividingCell));
 			//newCell.getClass().getDeclaredField("chemoSigThreshold").setDouble(newCell, dividingCell.getClass().getDeclaredField("chemoSigThreshold").getDouble(dividingCell));
@@ -691,11 +760,17 @@ public class LTo extends SimplePortrayal2D implements Steppable,Stoppable
 			//newCell.startingChemoLinearAdjust = dividingCell.chemoLinearAdjust;
 			//newCell.startingVCAMExpressionLevel = dividingCell.vcamAdhesionEffect.vcamExpressionLevel;
 			
-			if(this.cellState>0)  // an activeexpressing LTo
-			{
-				// add to the bag used to do patch size
-				ppsim.activelToCellsBag.add(newCell);
-			}
+						if(this.cellState>0)  // an activeexpressing LTo
+						{
+							// add to the bag used to do patch size
+							ppsim.activelToCellsBag.add(newCell);
+						}
+			
+						// the new cell takes the state of this one, so may now be expressing chemokine
+						ppsim.chemoGrid.updateExpressingCell((StromalCell)newCell);
+						
+						// a converted cell now divides with this one, so must be woken to work out when
+						((StromalCell)newCell).wakeNextStep();
 		}
 		catch(Exception e)
 		{
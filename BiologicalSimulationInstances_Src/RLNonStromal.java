@@ -1,14 +1,16 @@
 
 
 import java.awt.*;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import sim.engine.*;
 import sim.portrayal.*;
 import sim.util.*;
+import sim_platform.CapabilityIndex;
 import sim_platform.PPatchSim;
+import sim_platform.PluginBinding;
+import sim_platform.PluginRegistry;
+import sim_platform.StromalCell;
+import sim_platform.StromalCellTimer;
   
 /**
  * Class which defines the behaviour and attributes of the 'Decoy' Cell.  This is a cell which is on the 
@@ -19,7 +21,7 @@ import sim_platform.PPatchSim;
  * @author Kieran Alden
  *
  */
-public class RLNonStromal extends SimplePortrayal2D implements Steppable,Stoppable
+public class RLNonStromal extends SimplePortrayal2D implements Steppable,Stoppable,StromalCell
 {	
 	/**
 	 * <a name = "LTO_DIAMETER"></a>
@@ -76,6 +78,21 @@ public class RLNonStromal extends SimplePortrayal2D implements Steppable,Stoppab
 	 */
     public int cellState;          // Colour Code - will show cell state
     
+    /**
+	 * <a name = "stableBindProbability"></a>
+	 * <b>Description:<br></b> 
+	 * The probability that when an LTin/LTi cell comes into contact with this decoy, there will be a stable bind
+	 * <br><br>
+	 * <b>Restrictions:<br></b>
+	 * Must be numeric and above 0, yet less than or equal to 100
+	 * <br><br>
+	 * <b>Units & Representation:<br></b>
+	 * Probability
+	 * <br><br>
+	 * <b>Link to Domain and Platform Models:</b>
+	 */
+	public double stableBindProbability = 50;
+    
     /**
      * Method to stop the class where necessary
      */
@@ -92,14 +109,19 @@ public class RLNonStromal extends SimplePortrayal2D implements Steppable,Stoppab
 	 */
     public void setStopper(Stoppable stopper)   {this.stopper = stopper;}
     
-    public void addToSchedule(Schedule sch)
-	{
-		this.setStopper(sch.scheduleRepeating(this));
-	}
+    /**
+     * Wakes the cell at the steps where it has something to do, rather than it being stepped every step
+     */
+    private StromalCellTimer timer = null;
 	
     public void setStopper(PPatchSim ppsim)
     {
-    	ppsim.schedule.scheduleRepeating(this);
+    	this.timer = new StromalCellTimer(ppsim.schedule,this);
+    	this.setStopper(this.timer);
+    	
+    	// THE ACTIVE TIME THE CELL STARTS WITH IS THAT AT THE FIRST STEP IT IS STEPPED IN
+    	this.activeTimeStep = this.timer.nextStep();
+    	this.timer.wakeNextStep();
     }
     
     public ArrayList<Object> returnExpressors()
@@ -111,11 +133,30 @@ public class RLNonStromal extends SimplePortrayal2D implements Steppable,Stoppab
     
     public ArrayList<String> expressorNames = new ArrayList<String>();
     
+    /**
+     * Capability descriptors for the expressors of this cell, built when the cell is created
+     */
+    public CapabilityIndex expressorCapabilities = CapabilityIndex.EMPTY;
+    
+    /* (non-Javadoc)
+     * @see sim_platform.StromalCell#returnExpressorCapabilities()
+     */
+    public CapabilityIndex returnExpressorCapabilities()
+    {
+    	return this.expressorCapabilities;
+    }
+    
 	/**
 	 * Number of steps the LTo has been active - used to delete immature stromal cells after a set period
 	 */
 	public int activeTime;
 	
+	/**
+	 * The step at which the cell has been active for activeTime steps - the active time is only brought up to date when the
+	 * cell is stepped
+	 */
+	public long activeTimeStep;
+	
 	/**
 	 * Flag to show that the decoy has been removed (not implemented but may be necessary)
 	 */
@@ -144,10 +185,9 @@ public class RLNonStromal extends SimplePortrayal2D implements Steppable,Stoppab
     			// get the receptor
     			ArrayList<String> expressorDetail = cellExpressors.get(i);
     			
-    			Class<?> receptorType = Class.forName(expressorDetail.get(0));
+    			PluginBinding receptorType = PluginRegistry.get(expressorDetail.get(0));
     			this.expressorNames.add(expressorDetail.get(0));
-    			Constructor<?> con = receptorType.getConstructor(new Class[]{ArrayList.class});
-    			Object receptorObj = con.newInstance(expressorDetail);
+    			Object receptorObj = receptorType.newComponent(expressorDetail);
     			this.expressors.add(receptorObj);
 
     		}
@@ -156,6 +196,9 @@ public class RLNonStromal extends SimplePortrayal2D implements Steppable,Stoppab
     	{
     		e.printStackTrace();
     	}
+    	
+    	// describe the expressors, so the right one can be used directly when needed
+    	this.expressorCapabilities = new CapabilityIndex(this.expressors);
 
           
         // 6 used to represent this cell is a decoy in initial state
@@ -166,25 +209,74 @@ public class RLNonStromal extends SimplePortrayal2D implements Steppable,Stoppab
     
     public String getType() { return "Decoy"; }
     
+    /* (non-Javadoc)
+     * @see sim_platform.StromalCell#getLocation()
+     */
+    public Double2D getLocation()
+    {
+    	return this.agentLocation;
+    }
+    
+    /* (non-Javadoc)
+     * @see sim_platform.StromalCell#getCellState()
+     */
+    public int getCellState()
+    {
+    	return this.cellState;
+    }
+    
+    /* (non-Javadoc)
+     * @see sim_platform.StromalCell#getStableBindProbability()
+     */
+    public double getStableBindProbability()
+    {
+    	return this.stableBindProbability;
+    }
+    
+    /* (non-Javadoc)
+     * @see sim_platform.StromalCell#isStopped()
+     */
+    public boolean isStopped()
+    {
+    	return this.stopped;
+    }
+    
+    /**
+     * Decoy cells do not change state on stable contact with an LTin/LTi cell
+     * 
+     * @see sim_platform.StromalCell#stableContact(java.lang.Object, int)
+     */
+    public void stableContact(Object contactCell, int timeStep)
+    {
+    }
+    
+    /**
+     * Decoy cells are not activated through contact with LTi cells
+     * 
+     * @see sim_platform.StromalCell#incImLToCellContactCount()
+     */
+    public void incImLToCellContactCount()
+    {
+    }
+    
+    /* (non-Javadoc)
+     * @see sim_platform.StromalCell#wakeNextStep()
+     */
+    public void wakeNextStep()
+    {
+    	if(this.timer!=null)
+    	{
+    		this.timer.wakeNextStep();
+    	}
+    }
+    
     public void removeRETLigandDecoys(PPatchSim ppsim)
     {
     	this.stopped=true;
 		//System.out.println(this+" Stopped");
     	
-    	// REMOVE USING ENVIRONMENT JAVA REFLECTION
-		try
-		{
-			Class<?> environmentClass = ppsim.intestine_env.getClass();
-			Method meth = environmentClass.getMethod("remove",new Class[]{Object.class});
-			meth.invoke(ppsim.intestine_env,this);
-			//ppsim.intestine_env.tract.remove(this);
-		}
-		catch(Exception e)
-		{
-			e.printStackTrace();
-		}
-    	
-		this.stop();
+    	// REMOVE FROM THE ENVIRONMENT AND THE SCHEDULE
+    	ppsim.cellLifecycle.remove(ppsim,this);
     }
 
     
@@ -197,27 +289,23 @@ public class RLNonStromal extends SimplePortrayal2D implements Steppable,Stoppab
     	
     	if(ppsim.schedule.getSteps()*ppsim.simulationSpec.secondsPerStep < ((ppsim.simulationSpec.simulationTime*60)*60))
 		{
-    		if(!this.stopped)
+    		if(!this.stopped && ppsim.schedule.getSteps()<this.activeTimeStep)
+    		{
+    			// CONVERTED BY A CELL DIVIDING EARLIER IN THIS STEP - THE ACTIVE TIME IT WAS GIVEN STARTS AT THE NEXT STEP
+    			this.timer.wakeAt(this.activeTimeStep);
+    		}
+    		else if(!this.stopped)
     		{
+    			// BRING THE ACTIVE TIME UP TO THIS STEP - IT COUNTS EVERY STEP, NOT ONLY THOSE THE CELL IS WOKEN AT
+    			this.activeTime += (int)(ppsim.schedule.getSteps()-this.activeTimeStep);
+    			
     			// Determine if the cell needs to be removed from the system
     			if(this.activeTime>((this.immatureActiveTime*60)*60))
     			{
     				this.stopped=true;
     				
-    				// REMOVE USING ENVIRONMENT JAVA REFLECTION
-    				try
-    				{
-    					Class<?> environmentClass = ppsim.intestine_env.getClass();
-    					Method meth = environmentClass.getMethod("remove",new Class[]{Object.class});
-    					meth.invoke(ppsim.intestine_env,this);
-    					//ppsim.intestine_env.tract.remove(this);
-    				}
-    				catch(Exception e)
-    				{
-    					e.printStackTrace();
-    				}
-    				
-    				this.stop();
+    				// REMOVE FROM THE ENVIRONMENT AND THE SCHEDULE
+    				ppsim.cellLifecycle.remove(ppsim,this);
     			}
     			else if(activeTime%(this.lToDivisionTime*60)*60==0)
     			{
@@ -236,6 +324,13 @@ public class RLNonStromal extends SimplePortrayal2D implements Steppable,Stoppab
     				// carry on as cell is active - increasing steps has been active for
     				activeTime++;
     			}
+    			
+    			// THE ACTIVE TIME NOW HELD IS THAT AT THE NEXT STEP - SLEEP UNTIL THE CELL NEXT HAS SOMETHING TO DO
+    			if(!this.stopped)
+    			{
+    				this.activeTimeStep = ppsim.schedule.getSteps()+1;
+    				this.timer.wakeAt(this.nextWakeStep(ppsim));
+    			}
     		}
 		}
     	else
@@ -244,6 +339,26 @@ public class RLNonStromal extends SimplePortrayal2D implements Steppable,Stoppab
 		}
     }
     
+    /**
+     * Works out the next step at which the cell needs stepping: the next step at which it checks whether to divide, or the step at 
+     * which it is removed
+     * 
+     * @param ppsim	The current simulation state
+     * @return	The index of the step
+     */
+    private long nextWakeStep(PPatchSim ppsim)
+    {
+    	// THE CELL CHECKS WHETHER TO DIVIDE EACH TIME THE ACTIVE TIME REACHES A MULTIPLE OF THE DIVISION TIME
+    	int divisionPeriod = this.lToDivisionTime*60;
+    	long wake = this.activeTimeStep+(divisionPeriod-this.activeTime%divisionPeriod)%divisionPeriod;
+    	
+    	// THE FIRST ACTIVE TIME ABOVE THE ACTIVE TIME ALLOWED, AT WHICH THE CELL IS REMOVED
+    	long expiryTime = (long)Math.floor((this.immatureActiveTime*60)*60)+1;
+    	wake = Math.min(wake,this.activeTimeStep+Math.max(0,expiryTime-this.activeTime));
+    	
+    	return wake;
+    }
+    
     /**
 	 * Used to simulate cell division.  This method deals with the creation of the divided cell, while ensuring
 	 * this is not placed over an LTo cell that already exists
@@ -296,9 +411,7 @@ public class RLNonStromal extends SimplePortrayal2D implements Steppable,Stoppab
 						if(stromalCell!=null)
 						{
 							// Get the state of this cell object
-							Field cellState = stromalCell.getClass().getDeclaredField("cellState");
-							
-							if(cellState.getInt(stromalCell)==0)
+							if(((StromalCell)stromalCell).getCellState()==0)
 							{
 								this.makeNewLTo(stromalCell, ppsim);
 								convertDone = true;
@@ -341,11 +454,11 @@ public class RLNonStromal extends SimplePortrayal2D implements Steppable,Stoppab
 					//Field cellSize = cellDividing.getClass().getDeclaredField("cell_diameter");
 					// work out the size of each grid square
 					// get current environment dimensions
-					double currentGridLength = ppsim.intestine_env.getClass().getDeclaredField("currentGridLength").getDouble(ppsim.intestine_env);
-					double currentGridHeight = ppsim.intestine_env.getClass().getDeclaredField("currentGridHeight").getDouble(ppsim.intestine_env);
+					double currentGridLength = ppsim.intestine_env.getCurrentGridLength();
+					double currentGridHeight = ppsim.intestine_env.getCurrentGridHeight();
 					// get the original when the boxes were set
-					double initialGridLength = ppsim.intestine_env.getClass().getDeclaredField("initialGridLength").getDouble(ppsim.intestine_env);
-					double initialGridHeight = ppsim.intestine_env.getClass().getDeclaredField("initialGridHeight").getDouble(ppsim.intestine_env);
+					double initialGridLength = ppsim.intestine_env.getInitialGridLength();
+					double initialGridHeight = ppsim.intestine_env.getInitialGridHeight();
 					
 					double xAdj = currentGridLength / ((int)(initialGridLength/this.cell_diameter));
 					double yAdj = currentGridHeight / ((int)(initialGridHeight/this.cell_diameter));
@@ -357,8 +470,7 @@ public class RLNonStromal extends SimplePortrayal2D implements Steppable,Stoppab
 					// Get the expressors to send to the cell creator
 					//ArrayList<String> expressors = (ArrayList<String>)this.expressors;
 					
-					Constructor<?> con = this.getClass().getConstructor(new Class[]{Double2D.class,Int2D.class,int.class,Boolean.class,int.class,ArrayList.class});
-					Object newCellObject = con.newInstance(location,blankSpace,ppsim.ltoCellsBag.size(),true,this.immatureActiveTime,this.expressorNames);
+					Object newCellObject = PluginRegistry.get(this.getClass()).newStromalCell(location,blankSpace,ppsim.ltoCellsBag.size(),true,this.immatureActiveTime,this.expressorNames);
 					
 					// copy the properties of the dividing LTo cell to the new cell
 					this.makeNewLTo(newCellObject, ppsim);
@@ -368,14 +480,11 @@ public class RLNonStromal extends SimplePortrayal2D implements Steppable,Stoppab
 					
 					ppsim.surfaceCellsGrid.set(blankSpace.x,blankSpace.y, newCellObject);
 					
-					// Add to the environment tract (using reflection)
-					Class<?> environmentClass = ppsim.intestine_env.getClass();
-					Method setLoc = environmentClass.getMethod("setLocation",new Class[]{Object.class,Double2D.class});
-					setLoc.invoke(ppsim.intestine_env,newCellObject,location);
+					// Add to its site on the environment
+					ppsim.intestine_env.placeStromalCell(newCellObject,blankSpace,location);
 					//ppsim.intestine_env.tract.setObjectLocation(ltoCell,location);
 					
-					Method setStopperMeth = newCellObject.getClass().getMethod("setStopper",new Class[]{PPatchSim.class});
-					setStopperMeth.invoke(newCellObject,ppsim);
+					PluginRegistry.get(newCellObject.getClass()).setStopper(newCellObject,ppsim);
 					//ltoCell.setStopper(ppsim.schedule.scheduleRepeating(ltoCell));		
 				}
 				catch(Exception e)
@@ -454,11 +563,17 @@ public class RLNonStromal extends SimplePortrayal2D implements Steppable,Stoppab
 			
 			// The new LTo cell needs to have all the properties of the original, so copy these over
 			
-			newCell.getClass().getDeclaredField("cellState").setInt(newCell, this.cellState);
+			PluginBinding newCellClass = PluginRegistry.get(newCell.getClass());
+
+			newCellClass.setField(newCell,"cellState",this.cellState);
+
+			newCellClass.setField(newCell,"expressors",this.expressors);
 			
-			newCell.getClass().getDeclaredField("expressors").set(newCell,this.expressors);
+			newCellClass.setField(newCell,"expressorCapabilities",this.expressorCapabilities);
+
+			newCellClass.setField(newCell,"activeTime",this.activeTime+1);
 			
-			newCell.getClass().getDeclaredField("activeTime").set(newCell,this.activeTime+1);
+			newCellClass.setField(newCell,"activeTimeStep",ppsim.schedule.getSteps()+1);
 			
 			//newCell.getClass().getDeclaredField("chemoLinearAdjust").setDouble(newCell, dividingCell.getClass().getDeclaredField("chemoLinearAdjust").getDouble(dividingCell));
 			//newCell.getClass().getDeclaredField("chemoSigThreshold").setDouble(newCell, dividingCell.getClass().getDeclaredField("chemoSigThreshold").getDouble(dividingCell));
@@ -476,6 +591,9 @@ public class RLNonStromal extends SimplePortrayal2D implements Steppable,Stoppab
 				// add to the bag used to do patch size
 				ppsim.activelToCellsBag.add(newCell);
 			}
+			
+			// a converted cell now divides with this one, so must be woken to work out when
+			((StromalCell)newCell).wakeNextStep();
 		}
 		catch(Exception e)
 		{
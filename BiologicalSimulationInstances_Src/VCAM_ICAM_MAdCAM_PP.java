@@ -2,7 +2,9 @@
 
 import java.util.ArrayList;
 
-public class VCAM_ICAM_MAdCAM_PP 
+import sim_platform.AdhesionExpressor;
+
+public class VCAM_ICAM_MAdCAM_PP implements AdhesionExpressor
 {
 	/**
 	 * Level of adhesion factor expressed by this LTo cell
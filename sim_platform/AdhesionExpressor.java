@@ -0,0 +1,25 @@
+package sim_platform;
+
+/**
+ * Interface implemented by expressors through which a stromal cell expresses adhesion factors
+ * 
+ * @author Kieran Alden
+ *
+ */
+public interface AdhesionExpressor 
+{
+	/**
+	 * @return	The current level of adhesion factor expression
+	 */
+	public double returnAdhesionExpressionLevel();
+	
+	/**
+	 * @return	The slope which determines the probability that the expression level holds a cell in contact
+	 */
+	public double returnAdhesionSlope();
+	
+	/**
+	 * Increases the level of expression following a stable contact
+	 */
+	public void incrementAdhesionExpression();
+}
@@ -0,0 +1,19 @@
+package sim_platform;
+
+/**
+ * Interface implemented by receptors that determine whether a cell is held in contact by adhesion factors expressed on a stromal cell
+ * 
+ * @author Kieran Alden
+ *
+ */
+public interface AdhesionReceptor 
+{
+	/**
+	 * Determine if the level of adhesion factor expression holds the cell in place
+	 * 
+	 * @param expressor	The adhesion factor expressor of the contacted stromal cell
+	 * @param random	The random number stream of the cell expressing this receptor
+	 * @return	Whether the cell stays put (true) or moves away (false)
+	 */
+	public boolean examineVCAMEffect(AdhesionExpressor expressor, RandomStream random);
+}
@@ -0,0 +1,56 @@
+package sim_platform;
+
+import java.util.EnumSet;
+
+/**
+ * The roles a receptor or expressor can play in the simulation.  Each receptor and expressor is described by the set of 
+ * capabilities it has, worked out once when the cell creating it is constructed, so that at each step a cell can go 
+ * straight to the component it needs
+ * 
+ * @author Kieran Alden
+ *
+ */
+public enum Capability 
+{
+	/**
+	 * The receptor moves the cell in response to chemokine (see ChemokineReceptor)
+	 */
+	CHEMOTAXIS,
+	
+	/**
+	 * The receptor determines whether the cell is held by adhesion factors (see AdhesionReceptor)
+	 */
+	ADHESION,
+	
+	/**
+	 * The expressor expresses adhesion factors (see AdhesionExpressor)
+	 */
+	ADHESION_EXPRESSION,
+	
+	/**
+	 * The expressor expresses chemokine (see ChemokineExpressor)
+	 */
+	CHEMOKINE_EXPRESSION;
+	
+	/**
+	 * Works out the capabilities of a receptor or expressor from the platform interfaces it implements
+	 * 
+	 * @param component	The receptor or expressor
+	 * @return	The set of capabilities of this component (empty if none)
+	 */
+	public static EnumSet<Capability> of(Object component)
+	{
+		EnumSet<Capability> capabilities = EnumSet.noneOf(Capability.class);
+		
+		if(component instanceof ChemokineReceptor)
+			capabilities.add(CHEMOTAXIS);
+		if(component instanceof AdhesionReceptor)
+			capabilities.add(ADHESION);
+		if(component instanceof AdhesionExpressor)
+			capabilities.add(ADHESION_EXPRESSION);
+		if(component instanceof ChemokineExpressor)
+			capabilities.add(CHEMOKINE_EXPRESSION);
+		
+		return capabilities;
+	}
+}
@@ -0,0 +1,111 @@
+package sim_platform;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Capability descriptors for the receptors or expressors of one cell.  Built once from the cell's list of components, this 
+ * records the capabilities of each component, and for each capability, the components that provide it.  Cells use this to 
+ * dispatch directly to the right receptor or expressor rather than searching the list at every step
+ * 
+ * @author Kieran Alden
+ *
+ */
+public class CapabilityIndex 
+{
+	/**
+	 * An index with no components, used where a cell has none
+	 */
+	public static final CapabilityIndex EMPTY = new CapabilityIndex(new ArrayList<Object>());
+	
+	/**
+	 * The capability descriptor of each component, in the order of the list the index was built from
+	 */
+	private final List<EnumSet<Capability>> descriptors;
+	
+	/**
+	 * For each capability (by ordinal), the components providing it, in list order
+	 */
+	private final Object[][] providers;
+	
+	/**
+	 * Builds the index for the given receptors or expressors
+	 * 
+	 * @param components	The receptors or expressors of a cell
+	 */
+	public CapabilityIndex(ArrayList<?> components)
+	{
+		Capability[] capabilities = Capability.values();
+		
+		this.descriptors = new ArrayList<EnumSet<Capability>>(components.size());
+		this.providers = new Object[capabilities.length][];
+		
+		int[] counts = new int[capabilities.length];
+		for(int i=0;i<components.size();i++)
+		{
+			this.descriptors.add(Capability.of(components.get(i)));
+			for(Capability c : this.descriptors.get(i))
+				counts[c.ordinal()]++;
+		}
+		
+		for(int c=0;c<capabilities.length;c++)
+		{
+			this.providers[c] = new Object[counts[c]];
+			counts[c] = 0;
+		}
+		
+		for(int i=0;i<components.size();i++)
+		{
+			for(Capability c : this.descriptors.get(i))
+				this.providers[c.ordinal()][counts[c.ordinal()]++] = components.get(i);
+		}
+	}
+	
+	/**
+	 * @param i	Position of the component in the list the index was built from
+	 * @return	The capability descriptor of that component
+	 */
+	public EnumSet<Capability> descriptor(int i)
+	{
+		return this.descriptors.get(i);
+	}
+	
+	/**
+	 * @param capability	The capability required
+	 * @return	Whether any component provides it
+	 */
+	public boolean has(Capability capability)
+	{
+		return this.providers[capability.ordinal()].length > 0;
+	}
+	
+	/**
+	 * @param capability	The capability required
+	 * @return	The first component (in list order) providing it, or null if none do
+	 */
+	public Object first(Capability capability)
+	{
+		Object[] p = this.providers[capability.ordinal()];
+		return p.length > 0 ? p[0] : null;
+	}
+	
+	/**
+	 * @param capability	The capability required
+	 * @return	The last component (in list order) providing it, or null if none do
+	 */
+	public Object last(Capability capability)
+	{
+		Object[] p = this.providers[capability.ordinal()];
+		return p.length > 0 ? p[p.length-1] : null;
+	}
+	
+	/**
+	 * @param capability	The capability required
+	 * @return	All components providing it, in list order.  The array is shared, so must not be changed
+	 */
+	public Object[] all(Capability capability)
+	{
+		return this.providers[capability.ordinal()];
+	}
+}
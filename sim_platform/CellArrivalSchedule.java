@@ -0,0 +1,201 @@
+package sim_platform;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SortedMap;
+
+/**
+ * The number of each migratory cell type entering the tract at each step of the run, compiled once as the run starts from the
+ * input rate graph, input delay and input time of each type.  The input rate curves, and the fractions of a cell they give
+ * at each step, are worked through once here, so adding the cells at a step is only a read of the number to add.  The
+ * fraction of a cell left over at each step is carried per cell type, so the input of one type does not bring forward the
+ * input of another.  A schedule is not changed once compiled, so one compiled for a run can be passed to further replicates
+ * with the same parameters, in the same thread or not, and is reused by them
+ *
+ * @author Kieran Alden
+ *
+ */
+public class CellArrivalSchedule
+{
+	/**
+	 * The input parameters of one cell type, as parsed from the XML - compared to decide whether a schedule can be reused
+	 */
+	private static final class CellInput
+	{
+		final String cellClass;
+		final double inputRate;
+		final int inputDelayHours;
+		final int inputHours;
+		final String graphType;
+		final double graphConstant;
+
+		/**
+		 * Parses the input parameters of a cell type
+		 *
+		 * @param cellInfo	Details of the cell type, as given in the XML
+		 * @param inputRates	The constant input rate of each cell type, in cells per step, keyed by class name
+		 */
+		CellInput(ArrayList<Object> cellInfo,SortedMap<String,Double> inputRates)
+		{
+			this.cellClass = cellInfo.get(0).toString();
+			this.inputRate = inputRates.get(this.cellClass);
+
+			// Input delay and input time are parameters 2 and 3 in the list, the graph type and its constant 4 and 5
+			this.inputDelayHours = Integer.parseInt(cellInfo.get(2).toString());
+			this.inputHours = Integer.parseInt(cellInfo.get(3).toString());
+			this.graphType = cellInfo.get(4).toString().toLowerCase();
+
+			// THE CONSTANT IS ONLY GIVEN FOR THE CURVED GRAPHS
+			if(this.graphType.equals("exp") || this.graphType.equals("sqrt"))
+				this.graphConstant = Double.parseDouble(cellInfo.get(5).toString());
+			else
+				this.graphConstant = 0;
+		}
+
+		public boolean equals(Object other)
+		{
+			if(!(other instanceof CellInput))
+				return false;
+
+			CellInput input = (CellInput)other;
+			return this.cellClass.equals(input.cellClass) && this.inputRate==input.inputRate &&
+					this.inputDelayHours==input.inputDelayHours && this.inputHours==input.inputHours &&
+					this.graphType.equals(input.graphType) && this.graphConstant==input.graphConstant;
+		}
+
+		public int hashCode()
+		{
+			return this.cellClass.hashCode()*31+Double.valueOf(this.inputRate).hashCode();
+		}
+	}
+
+	/**
+	 * Length of each step, in seconds, the schedule was compiled for
+	 */
+	private final double secondsPerStep;
+
+	/**
+	 * Number of steps the schedule covers - up to the step at which the simulation time ends
+	 */
+	private final int numSteps;
+
+	/**
+	 * Input parameters of each cell type the schedule was compiled from
+	 */
+	private final CellInput[] inputs;
+
+	/**
+	 * Number of cells of each type (indexed as in the list of cells in the simulation) to add at each step
+	 */
+	private final int[][] arrivals;
+
+	/**
+	 * Returns the arrival schedule for the cells in the simulation - the schedule given if it was compiled for the same
+	 * parameters, else a schedule compiled for them
+	 *
+	 * @param ppsim	The current simulation state
+	 * @param cellsInSimulation	Details of each migratory cell type, as given in the XML
+	 * @param inputRates	The constant input rate of each cell type, in cells per step, keyed by class name
+	 * @param previous	A schedule compiled for an earlier run, or null
+	 * @return	The arrival schedule
+	 */
+	public static CellArrivalSchedule forSimulation(PPatchSim ppsim,ArrayList<ArrayList<Object>> cellsInSimulation,SortedMap<String,Double> inputRates,CellArrivalSchedule previous)
+	{
+		CellInput[] inputs = new CellInput[cellsInSimulation.size()];
+		for(int i=0;i<cellsInSimulation.size();i++)
+		{
+			inputs[i] = new CellInput(cellsInSimulation.get(i),inputRates);
+		}
+
+		// CELLS ARE ADDED UNTIL THE STEP AT WHICH THE SIMULATION TIME ENDS
+		int numSteps = (int)ObservationScheduler.endStep(ppsim);
+
+		if(previous != null && previous.secondsPerStep==ppsim.simulationSpec.secondsPerStep && previous.numSteps==numSteps &&
+				Arrays.equals(previous.inputs,inputs))
+			return previous;
+
+		return new CellArrivalSchedule(ppsim.simulationSpec.secondsPerStep,numSteps,inputs);
+	}
+
+	/**
+	 * Compiles the schedule - working through the input rate of each cell type at each step the type enters at
+	 */
+	private CellArrivalSchedule(double secondsPerStep,int numSteps,CellInput[] inputs)
+	{
+		this.secondsPerStep = secondsPerStep;
+		this.numSteps = numSteps;
+		this.inputs = inputs;
+		this.arrivals = new int[inputs.length][numSteps];
+
+		for(int i=0;i<inputs.length;i++)
+		{
+			CellInput input = inputs[i];
+
+			// Fraction of a cell carried from step to step, for this cell type only
+			double remainder = 0;
+
+			for(int step=0;step<numSteps;step++)
+			{
+				// Only enter between the end of the input delay and the input time
+				if(step*secondsPerStep<=((input.inputDelayHours*60)*60) || step*secondsPerStep>=((input.inputHours*60)*60))
+					continue;
+
+				double inputRate = input.inputRate;
+
+				if(input.graphType.equals("exp"))
+				{
+					//exponential graphs - from equation: y=1.00345^x to get 168 cells at 24 hours.
+					inputRate = Math.pow(input.graphConstant,step)-Math.pow(input.graphConstant,(step-1));
+				}
+				else if(input.graphType.equals("sqrt"))
+				{
+					// inverse exponentials using square root - from equation: y=sqrt(20.5x) to get 168 cells at 24 hours.
+					inputRate = Math.pow(input.graphConstant*step,0.5)-Math.pow(input.graphConstant*(step-1),0.5);
+				}
+
+				// if the graphType is not either of these, the input rate will remain the default constant rate.
+
+				// add the whole cells of the rate
+				this.arrivals[i][step] = (int)inputRate;
+
+				// deal with decimal input rates - add the remainder to the fraction carried, and when one is reached, add that cell
+				if(inputRate%1 > 0)
+				{
+					remainder = remainder+(inputRate%1);
+					if(remainder>=1)
+					{
+						this.arrivals[i][step]++;
+						remainder = remainder-1;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param cellType	Index of the cell type, in the list of cells in the simulation
+	 * @param step	Index of the step
+	 * @return	Number of cells of that type to add at that step
+	 */
+	public int getNumArrivals(int cellType,long step)
+	{
+		if(step<0 || step>=this.numSteps)
+			return 0;
+
+		return this.arrivals[cellType][(int)step];
+	}
+
+	/**
+	 * @param cellType	Index of the cell type, in the list of cells in the simulation
+	 * @return	Total number of cells of that type added over the run
+	 */
+	public int getTotalArrivals(int cellType)
+	{
+		int total = 0;
+		for(int step=0;step<this.numSteps;step++)
+		{
+			total += this.arrivals[cellType][step];
+		}
+		return total;
+	}
+}
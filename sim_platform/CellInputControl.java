@@ -1,7 +1,5 @@
 package sim_platform;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -9,7 +7,6 @@ import sim.engine.Schedule;
 import sim.engine.SimState;
 import sim.engine.Steppable;
 import sim.engine.Stoppable;
-import sim.field.continuous.Continuous2D;
 import sim.util.Double2D;
 
 /**
@@ -39,14 +36,44 @@ public class CellInputControl implements Steppable,Stoppable
 	Schedule sch;
 	
 	/**
-	 * Flag which counts the 'parts' of LTi cells created by the input rate at each step, when 1 is reached that cell is also created
+	 * <a name = "arrivalSchedule"></a>
+	 * <b>Description:<br></b> 
+	 * Number of cells of each type to add at each step, compiled from the input rates as the run starts
+	 * <br><br>
+	 * <b>Restrictions:<br></b>
+	 * None
+	 * <br><br>
+	 * <b>Units & Representation:<br></b>
+	 * Object of CellArrivalSchedule
+	 * <br><br>
+	 */
+	public CellArrivalSchedule arrivalSchedule;
+	
+	/**
+	 * <a name = "MAX_PLACEMENT_ATTEMPTS"></a>
+	 * <b>Description:<br></b> 
+	 * Most random positions tested when placing a new cell, before the cell is held back to the next step as the tract is 
+	 * too full
+	 * <br><br>
+	 * <b>Restrictions:<br></b>
+	 * Greater than 0
+	 * <br><br>
+	 * <b>Units & Representation:<br></b>
+	 * Number of positions
+	 * <br><br>
+	 */
+	public static final int MAX_PLACEMENT_ATTEMPTS = 100;
+	
+	/**
+	 * Number of cells of each type held back from earlier steps, as no free position was found for them
 	 */
-	double ltiInFlag = 0;
+	private int[] deferredCells;
 	
 	/**
-	 * Flag which counts the 'parts' of LTin cells created by the input rate at each step, when 1 is reached that cell is also created
+	 * Number of times a cell has been held back to the next step as no free position was found for it - a cell held back
+	 * over several steps is counted in each
 	 */
-	double ltinInFlag = 0;
+	private long numDeferredPlacements = 0;
 	
 	/**
 	 * <a name = "cellSpeedMinLowBound"></a>
@@ -132,6 +159,12 @@ public class CellInputControl implements Steppable,Stoppable
 		ppsim.simulatedCellCellularity = new TreeMap();
 		
 		this.calculateCellPopulationFigures(ppsim);
+		
+		// WORK THROUGH THE INPUT RATES ONCE, SO EACH STEP ONLY READS THE NUMBER OF CELLS TO ADD - THE SCHEDULE OF AN EARLIER RUN
+		// IS REUSED WHERE THE PARAMETERS ARE THE SAME
+		this.arrivalSchedule = CellArrivalSchedule.forSimulation(ppsim,this.cellsInSimulation,this.simulatedCellInputRates,ppsim.cellArrivalSchedule);
+		ppsim.cellArrivalSchedule = this.arrivalSchedule;
+		this.deferredCells = new int[this.cellsInSimulation.size()];
 
 	}
 	
@@ -152,15 +185,14 @@ public class CellInputControl implements Steppable,Stoppable
 				// Get the information about the cell (in another arraylist)
 				ArrayList<Object> cellInfo = this.cellsInSimulation.get(i);
 				// Now get the class of that cell
-				Class<?> cellClass = Class.forName(cellInfo.get(0).toString());
-				
+				PluginBinding cellClass = PluginRegistry.get(cellInfo.get(0).toString());
+
 				// CELL SIZE SHOULD BE A STATIC FIELD SO IT CAN BE ACCESSED WITHOUT HAVING TO EXPLICITLY CREATE AN OBJECT
-				Double cellSize = cellClass.getDeclaredField("cell_diameter").getDouble(null);
+				Double cellSize = cellClass.cellDiameter;
 				
 				// Now work out the total number of cells the environment grid could hold
-				double totalCells = ((((int)(ppsim.intestine_env.getClass().getDeclaredField("initialGridLength").getDouble(ppsim.intestine_env)
-						/ cellSize) * (int)(ppsim.intestine_env.getClass().getDeclaredField("initialGridHeight").getDouble(ppsim.intestine_env) / 
-								cellSize))));
+				double totalCells = ((((int)(ppsim.intestine_env.getInitialGridLength() / cellSize) * 
+						(int)(ppsim.intestine_env.getInitialGridHeight() / cellSize))));
 				
 				// Now work out the required number of these cells
 				// Now get the percentage of the area of this cell (sent in as parameter 2 of the arraylist for the cell details
@@ -169,10 +201,10 @@ public class CellInputControl implements Steppable,Stoppable
 				Double cellInputRate = numOfCellsRequired/(((24*60)*60)/ppsim.simulationSpec.secondsPerStep);
 				
 				// Add the input rate to the cell info map, as required later
-				this.simulatedCellInputRates.put(cellClass.getName(),cellInputRate);
+				this.simulatedCellInputRates.put(cellClass.pluginClass.getName(),cellInputRate);
 				
 				// Add to the map that contains a count for each cell - useful for cellularity and input rates
-				ppsim.simulatedCellCellularity.put(cellClass.getName(), 0);
+				ppsim.simulatedCellCellularity.put(cellClass.pluginClass.getName(), 0);
 				
 				// Work out the cell speeds for this simulation
 				// Calculate the upper and lower cell speed bounds for this run (from the number of seconds represented by each step)
@@ -190,72 +222,107 @@ public class CellInputControl implements Steppable,Stoppable
 	
 	
 	/**
-	 * Adds the required number of LTin or LTi cells to the simulation in this step as set by the input rate
+	 * Works out the largest diameter of the migratory cells in the simulation - the furthest apart two can be and be in contact
 	 * 
-	 * @param ppsim	The current simulation
+	 * @return	The largest cell diameter
+	 */
+	public double getLargestCellDiameter()
+	{
+		double largest = 0;
+		for(int i=0;i<this.cellsInSimulation.size();i++)
+		{
+			largest = Math.max(largest,PluginRegistry.get(this.cellsInSimulation.get(i).get(0).toString()).cellDiameter);
+		}
+		return largest;
+	}
+	
+	/**
+	 * Finds a random position on the tract that is not in contact with another migratory cell, testing each position drawn 
+	 * against the cells already on the tract before any cell is created.  Positions are drawn at random over the whole 
+	 * tract until one is free, up to MAX_PLACEMENT_ATTEMPTS - so the cost of placing a cell is bounded however full the tract
 	 * 
+	 * @param ppsim	The current simulation
+	 * @param cellDiameter	Diameter of the cell to place
+	 * @return	The free position, or null if none was found within the attempts allowed
 	 */
-	public void createCellObject(PPatchSim ppsim,ArrayList<Object> cellInfo)
+	public Double2D findFreeLocation(PPatchSim ppsim,double cellDiameter)
 	{
-		Object agent = null;
-		boolean collision = true;
-		Double2D loc = null;
-			
-		try
+		// get current environment dimensions
+		double currentGridLength = ppsim.intestine_env.getCurrentGridLength();
+		double currentGridHeight = ppsim.intestine_env.getCurrentGridHeight();
+		
+		for(int attempt=0;attempt<MAX_PLACEMENT_ATTEMPTS;attempt++)
 		{
-			// get current environment dimensions
-			double currentGridLength = ppsim.intestine_env.getClass().getDeclaredField("currentGridLength").getDouble(ppsim.intestine_env);
-			double currentGridHeight = ppsim.intestine_env.getClass().getDeclaredField("currentGridHeight").getDouble(ppsim.intestine_env);
+			// Just work out random position in whole environment
+			double x = ppsim.random.nextDouble()*currentGridLength;
+			double y = ppsim.random.nextDouble()*currentGridHeight;
 		
+			// Test against the cells on the tract - held as columns or as objects
+			boolean collision;
+			if(ppsim.migratoryCells != null)
+				collision = ppsim.migratoryCells.inContact(x,y,cellDiameter);
+			else
+				collision = ppsim.intestine_env.getTract().anyWithinDistance(x,y,cellDiameter,MigratoryCell.class);
+			
+			if(!collision)
+				return new Double2D(x,y);
+		}
 		
-			while(collision)
-			{
-				Double x,y;
-					
-				// Just work out random position in whole environment
-				x = ppsim.random.nextDouble()*currentGridLength;
-				y = ppsim.random.nextDouble()*currentGridHeight;
+		return null;
+	}
+	
+	/**
+	 * Adds an LTin or LTi cell to the simulation at a random position that is not in contact with another migratory cell
+	 * 
+	 * @param ppsim	The current simulation
+	 * @param cellInfo	Details of the cell type, as given in the XML
+	 * @return	Whether the cell was added - false if no free position was found, the tract being too full, or the cell could 
+	 * not be created
+	 */
+	public boolean createCellObject(PPatchSim ppsim,ArrayList<Object> cellInfo)
+	{
+		MigratoryCell agent = null;
+		boolean onTract = false;
+		boolean added = false;
+		
+		try
+		{
+			PluginBinding cellType = PluginRegistry.get(cellInfo.get(0).toString());
 					
-				// Set the location of the cell to these coordinates
-				loc = new Double2D(x,y);
+			// The position is found before the cell is created, so only a cell that will be placed is created
+			Double2D loc = this.findFreeLocation(ppsim,cellType.cellDiameter);
+			if(loc == null)
+				return false;
 					
-				// Make the cell at this location 
-				agent = this.declareCellObject(ppsim, loc, cellInfo);
-				
-				Class<?> cellClass = agent.getClass();
-				Method ltiltinCollision = cellClass.getMethod("ltiltinCollision",new Class[]{Continuous2D.class});
-				collision = (Boolean)ltiltinCollision.invoke(agent,(Continuous2D)ppsim.intestine_env.getClass().getDeclaredField("tract").get(ppsim.intestine_env));
-				
-				//collision = agent.ltiltinCollision((Continuous2D)ppsim.intestine_env.getClass().getDeclaredField("tract").get(ppsim.intestine_env));
+			// Where the migratory cells are held as columns, a row is added rather than an object created
+			if(ppsim.migratoryCells != null)
+			{
+				return this.createCellRow(ppsim,cellInfo,loc);
 			}
+					
+			// Make the cell at this location 
+			agent = (MigratoryCell)this.declareCellObject(ppsim,loc,cellInfo);
 			
-			Class newCellClass = agent.getClass();
-				
-			// Now there are guarantees as to no collisions, add this cell to the tract and to the scheduler
-			// Do this using reflection as the example is dynamic
-			
-			Class<?> environmentClass = ppsim.intestine_env.getClass();
-			Method meth = environmentClass.getMethod("setLocation",new Class[]{Object.class,Double2D.class});
-			meth.invoke(ppsim.intestine_env,agent,loc);
-			//ppsim.intestine_env.tract.setObjectLocation(agent,loc);
-			
-			
-			Method setStopperMeth = newCellClass.getMethod("addToSchedule",new Class[]{Schedule.class});
-			setStopperMeth.invoke(agent,sch);
+			// Now there are guarantees as to no collisions, add this cell to the tract and to the population of its type
+			ppsim.intestine_env.setLocation(agent,loc);
+			onTract = true;
+
+			agent.addToPopulation(ppsim.populationOf(agent));
 			
-			//agent.setStopper(sch.scheduleRepeating(agent));
+			// increase the cellularity for this cell, now it has been added
+			ppsim.simulatedCellCellularity.put(cellInfo.get(0).toString(),ppsim.simulatedCellCellularity.get(cellInfo.get(0))+1);
+			added = true;
 			
 			// add this cell to the list of those being tracked if tracking has started and is enabled
 			// The cell tracking class removes any which have been tracked for over than an hour
 			
 			if(ppsim.simulationSpec.cellTrackingEnabled)
 			{
-				if(ppsim.schedule.getSteps()*ppsim.simulationSpec.secondsPerStep < ((ppsim.cellTrackStats.trackingSnapStartHr*60)*60) 
+				if(ppsim.schedule.getSteps() < ObservationScheduler.stepAtHour(ppsim,ppsim.cellTrackStats.trackingSnapStartHr) 
 					&& ppsim.simulationSpec.cellTrackingEnabled)	// no point adding the cell if tracking has ended
 				{
 					// Set Track Start Location
-					Method setAgentTrackStartLocation = newCellClass.getMethod("setAgentTrackStartLocation", new Class[]{});
-					setAgentTrackStartLocation.invoke(agent);
+					agent.setAgentTrackStartLocation();
 					
 					//agent.agentTrackStartLocation = agent.agentLocation;
 					// Add the cell to the list
@@ -266,9 +333,54 @@ public class CellInputControl implements Steppable,Stoppable
 		catch(Exception e)
 		{
 			e.printStackTrace();
+			
+			// A CELL NOT FULLY ADDED IS TAKEN BACK OFF THE TRACT - IT IS NOT COUNTED AS PLACED, SO IS TRIED AGAIN NEXT STEP
+			if(onTract && !added)
+				ppsim.intestine_env.remove(agent);
+			
+			return added;
 		}
+		return true;
 	}
 	
+	
+	/**
+	 * Adds an LTin or LTi cell to the population holding the migratory cells as columns
+	 * 
+	 * @param ppsim	The current simulation
+	 * @param cellInfo	Details of the cell type, as given in the XML
+	 * @param loc	Position to add the cell at, not in contact with another migratory cell
+	 * @return	Whether the cell was added - false if the row could not be added
+	 */
+	public boolean createCellRow(PPatchSim ppsim,ArrayList<Object> cellInfo,Double2D loc)
+	{
+		boolean added = false;
+		
+		try
+		{
+			PluginBinding cellType = PluginRegistry.get(cellInfo.get(0).toString());
+			
+			int row = ppsim.migratoryCells.addCell(ppsim,cellType,loc.x,loc.y);
+			
+			// increase the cellularity for this cell
+			ppsim.simulatedCellCellularity.put(cellInfo.get(0).toString(),ppsim.simulatedCellCellularity.get(cellInfo.get(0))+1);
+			added = true;
+			
+			// add this cell to the list of those being tracked if tracking is yet to start
+			if(ppsim.simulationSpec.cellTrackingEnabled)
+			{
+				if(ppsim.schedule.getSteps() < ObservationScheduler.stepAtHour(ppsim,ppsim.cellTrackStats.trackingSnapStartHr))
+				{
+					ppsim.migratoryCells.beginTracking(row);
+				}
+			}
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+		return added;
+	}
 			
 	public Object declareCellObject(PPatchSim ppsim,Double2D loc,ArrayList<Object> cellInfo)
 	{
@@ -276,20 +388,10 @@ public class CellInputControl implements Steppable,Stoppable
 		
 		try
 		{	
-			Class<?> cellType = Class.forName(cellInfo.get(0).toString());
-			Constructor<?> con = cellType.getConstructor(new Class[]{PPatchSim.class,Double2D.class,ArrayList.class});
-			cell = con.newInstance(ppsim,loc,cellInfo.get(6));
-			
-			// get the current cellularity for this cell from the map
-			int cellCount = ppsim.simulatedCellCellularity.get(cellInfo.get(0));
-			// increase by one
-			cellCount++;
-			// remove the count from the map
-			ppsim.simulatedCellCellularity.remove(cellInfo.get(0));
-			// add the new count back in
-			ppsim.simulatedCellCellularity.put(cellInfo.get(0).toString(),cellCount);
-			
+			PluginBinding cellType = PluginRegistry.get(cellInfo.get(0).toString());
+			cell = cellType.newMigratoryCell(ppsim,loc,(ArrayList<?>)cellInfo.get(6));
 			
+			// THE CELLULARITY IS INCREASED BY THE CALLER ONCE THE CELL HAS BEEN ADDED TO THE TRACT
 		}
 		catch(Exception e)
 		{
@@ -299,71 +401,41 @@ public class CellInputControl implements Steppable,Stoppable
 		return cell;
 	}
 	
-	public void addCells(PPatchSim ppsim,ArrayList<Object> cellInfo)
+	/**
+	 * Adds the cells of one type entering the tract in this step, as set by the arrival schedule.  Where the tract is too full
+	 * to place a cell, or the cell could not be created, it and the others of its type yet to be placed are held back to the 
+	 * next step
+	 * 
+	 * @param ppsim	The current simulation
+	 * @param cellType	Index of the cell type, in the list of cells in the simulation
+	 */
+	public void addCells(PPatchSim ppsim,int cellType)
 	{
-		double reqCells =0; //required number of cells at point in time as predicted by graph
-		double cellsPrev = 0; //number of cells one step previous
-		double steps = 0;
-		steps = ppsim.schedule.getSteps();	
+		// CELLS THAT COULD NOT BE PLACED IN EARLIER STEPS ARE ADDED FIRST
+		int numArrivals = this.arrivalSchedule.getNumArrivals(cellType,ppsim.schedule.getSteps())+this.deferredCells[cellType];
+		this.deferredCells[cellType] = 0;
 	
-		// Get the cell input rate graph type parameter from the cell info arraylist sent in - this is at index 4 in the cell parameter list
-		
-		if (cellInfo.get(4).toString().equalsIgnoreCase("exp"))
-		{
-			//exponential graphs
-			// this requires a constant, set at cell parameter index 5
-			
-			reqCells = Math.pow(Double.parseDouble(cellInfo.get(5).toString()),steps); //from equation: y=1.00345^x to get 168 cells at 24 hours.
-			cellsPrev = Math.pow(Double.parseDouble(cellInfo.get(5).toString()),(steps-1)); //work out the required number of cells by getting the number at one previous step
-			
-			// Have to change the input rate of this cell in the map
-			// Remove the original entry from the map
-			this.simulatedCellInputRates.remove(cellInfo.get(0));
-			// Put new input rate into map
-			this.simulatedCellInputRates.put(cellInfo.get(0).toString(), reqCells-cellsPrev);
-			
-		}
-		else if (cellInfo.get(4).toString().equalsIgnoreCase("sqrt"))
+		for(int i=0;i<numArrivals;i++)
 		{
-			// inverse exponentials using square root
-			reqCells = Math.pow(Double.parseDouble(cellInfo.get(5).toString())*steps, 0.5); //from equation: y=sqrt(20.5x) to get 168 cells at 24 hours.
-			cellsPrev = Math.pow(Double.parseDouble(cellInfo.get(5).toString())*(steps-1), 0.5); //work out the required number of cells by getting the number at one previous step
-			
-			// Have to change the input rate of this cell in the map
-			// Remove the original entry from the map
-			this.simulatedCellInputRates.remove(cellInfo.get(0));
-			// Put new input rate into map
-			this.simulatedCellInputRates.put(cellInfo.get(0).toString(), reqCells-cellsPrev);
-			
-		}
-		
-		// if the graphType is not either of these, the lTiInputRate will remain the default constant rate.
-		
-		// NOW THE INPUT RATE IS CORRECT, CREATE THE CELL OBJECT
-		
-		// add the cell if rate is a whole number
-		
-		for(int i=0;i<(int)(this.simulatedCellInputRates.get(cellInfo.get(0)).intValue());i++)
-		{
-			this.createCellObject(ppsim,cellInfo);
-		}
-		
-		// deal with decimal input rates
-		if(this.simulatedCellInputRates.get(cellInfo.get(0)) %1 > 0)
-		{
-			// add the decimal/remainder to the flag, and when one is reached, add that cell
-			ltinInFlag = ltinInFlag+(this.simulatedCellInputRates.get(cellInfo.get(0)) %1);
-			//System.out.println(ltinInFlag);
-			if(ltinInFlag>=1)
+			if(!this.createCellObject(ppsim,this.cellsInSimulation.get(cellType)))
 			{
-				this.createCellObject(ppsim,cellInfo);
-				// take the cell from the flag
-				ltinInFlag = ltinInFlag-1;
+				// THE TRACT IS TOO FULL TO PLACE THIS CELL - IT AND THE REST OF THIS TYPE WAIT FOR THE NEXT STEP
+				this.deferredCells[cellType] = numArrivals-i;
+				this.numDeferredPlacements += numArrivals-i;
+				return;
 			}
 		}
 	}
 	
 
+	/**
+	 * @return	Number of times a cell has been held back to the next step as the tract was too full to place it
+	 */
+	public long getNumDeferredPlacements()
+	{
+		return this.numDeferredPlacements;
+	}
+
 	/**
 	 * Adds the required number of cells (LTin and LTi) per step, adjusts the input rates if required, takes twelve our snaps if necessary, triggers LTo cell
 	 * division, and resizes the tract if necessary. All done for every simulation step
@@ -377,44 +449,17 @@ public class CellInputControl implements Steppable,Stoppable
 			// The simulation is running
 			try
 			{
-				// Examine each of the cell types that the user wants in this simulation
+				// Examine each of the cell types that the user wants in this simulation - the schedule holds no cells for a type 
+				// before its input delay or after its input time
 				for(int i=0;i<this.cellsInSimulation.size();i++)
 				{
-					// Get the information about the cell (in another arraylist
-					ArrayList<Object> cellInfo = this.cellsInSimulation.get(i);
-					// Now get the class of that cell
-					Class<?> cellClass = Class.forName(cellInfo.get(0).toString());
-					
-					// Now get the input time so can determine if cells still need to be added to the simulation - cell input time is parameter 4 in the list
-					int cellInputHours = Integer.parseInt(cellInfo.get(3).toString());
-					
-					// Now get the input delay time and check that cell should be entering
-					int cellInputDelayHours = Integer.parseInt(cellInfo.get(2).toString());
-					
-					// Now do the checks
-					if(ppsim.schedule.getSteps()*ppsim.simulationSpec.secondsPerStep>((cellInputDelayHours*60)*60))
-					{
-						if(ppsim.schedule.getSteps()*ppsim.simulationSpec.secondsPerStep<((cellInputHours*60)*60))
-						{
-							this.addCells(ppsim,cellInfo);
-						}
-					}
+					this.addCells(ppsim,i);
 				}
 			}
 			catch(Exception e)
 			{
 				e.printStackTrace();
 			}
-			
-			
-			// Take a snap of the tract if required (could have been done elsewhere, but saves an extra steppable class
-			if(ppsim.simulationSpec.twelveHourSnaps)
-				ppsim.captureTrackImage.takeDisplaySnaps(ppsim);	
-			
-			// Take a snap if within a period where each step is being imaged
-			if(ppsim.simulationSpec.stepBystepTrackingImages)
-				ppsim.captureTrackImage.timePeriodImaging(ppsim);
-			
 		}
 		else
 		{	
@@ -0,0 +1,155 @@
+package sim_platform;
+
+import java.util.IdentityHashMap;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.engine.Stoppable;
+import sim.util.Bag;
+
+/**
+ * Removes cells from the simulation - those that leave the tract, and stromal cells that die.  A cell removed is taken off
+ * the tract (or its stromal site) and out of the population stepping it at once, so no other cell can find it.  The bags
+ * holding cells by type and the tracking bags are then compacted at the end of the step, in one pass over each bag rather than
+ * a search of each bag for each cell.  Counts of the cells removed are kept, so the number of live and removed cells can be
+ * reported over long runs
+ *
+ * @author Kieran Alden
+ *
+ */
+public class CellLifecycle implements Steppable
+{
+	/**
+	 * Ordering the lifecycle is scheduled at - after the cells and the other steppables, so the bags are compacted once every
+	 * cell removed in the step has been removed
+	 */
+	public static final int COMPACTION_ORDERING = 1;
+
+	/**
+	 * Cells removed in the current step, yet to be taken out of the bags
+	 */
+	private IdentityHashMap<Object,Boolean> removedThisStep = new IdentityHashMap<Object,Boolean>();
+
+	/**
+	 * Number of cells removed since the run started
+	 */
+	private long numRemoved = 0;
+
+	/**
+	 * Creates the lifecycle, and schedules the compaction of the bags at the end of each step
+	 *
+	 * @param ppsim	The current simulation state
+	 */
+	public CellLifecycle(PPatchSim ppsim)
+	{
+		ppsim.schedule.scheduleRepeating(0,COMPACTION_ORDERING,this,1.0);
+	}
+
+	/**
+	 * Removes a cell from the simulation.  The cell is taken off the tract, stopped, no longer expresses chemokine, and is no
+	 * longer counted in the cellularity of its type.  It is taken out of the bags at the end of the step
+	 *
+	 * @param ppsim	The current simulation state
+	 * @param cell	The cell to remove
+	 */
+	public void remove(PPatchSim ppsim,Object cell)
+	{
+		if(this.removedThisStep.containsKey(cell))
+			return;
+
+		ppsim.intestine_env.remove(cell);
+
+		if(cell instanceof Stoppable)
+			((Stoppable)cell).stop();
+
+		if(cell instanceof StromalCell)
+			ppsim.chemoGrid.updateExpressingCell((StromalCell)cell);
+
+		// ONLY THE MIGRATORY CELLS ARE COUNTED IN THE CELLULARITY
+		String type = cell.getClass().getName();
+		Integer cellCount = ppsim.simulatedCellCellularity.get(type);
+		if(cellCount != null)
+			ppsim.simulatedCellCellularity.put(type,cellCount-1);
+
+		this.removedThisStep.put(cell,Boolean.TRUE);
+		this.numRemoved++;
+	}
+
+	/**
+	 * Counts a cell removed by a population holding its cells as columns, which removes the cell from its own columns
+	 */
+	public void countRemoved()
+	{
+		this.numRemoved++;
+	}
+
+	/**
+	 * @return	Number of cells removed since the run started
+	 */
+	public long getNumRemoved()
+	{
+		return this.numRemoved;
+	}
+
+	/**
+	 * @param ppsim	The current simulation state
+	 * @return	Number of cells held by the populations that have not been removed, and the number of stromal cells
+	 */
+	public int getNumLive(PPatchSim ppsim)
+	{
+		int numLive = 0;
+		for(CellPopulation population : ppsim.cellPopulations.values())
+		{
+			numLive += population.liveCount();
+		}
+		if(ppsim.migratoryCells != null)
+			numLive += ppsim.migratoryCells.size();
+		// STROMAL CELLS ARE WOKEN BY THEIR OWN TIMERS, SO ARE COUNTED FROM THE BAG HOLDING THEM
+		numLive += ppsim.ltoCellsBag.numObjs;
+		return numLive;
+	}
+
+	/**
+	 * Takes the cells removed this step out of the bags holding cells by type and the tracking bags
+	 *
+	 * @see sim.engine.Steppable#step(sim.engine.SimState)
+	 */
+	public void step(SimState state)
+	{
+		if(this.removedThisStep.isEmpty())
+			return;
+
+		PPatchSim ppsim = (PPatchSim)state;
+
+		this.compact(ppsim.ltoCellsBag);
+		this.compact(ppsim.activelToCellsBag);
+		this.compact(ppsim.RETLigandNonStromalCellsBag);
+		this.compact(ppsim.allLTis);
+
+		if(ppsim.simulationSpec.cellTrackingEnabled)
+		{
+			this.compact(ppsim.cellTrackStats.trackedCells_Away);
+			this.compact(ppsim.cellTrackStats.trackedCells_Close);
+		}
+
+		this.removedThisStep.clear();
+	}
+
+	/**
+	 * Takes the cells removed this step out of a bag, keeping the rest in order
+	 */
+	private void compact(Bag bag)
+	{
+		Object[] objs = bag.objs;
+		int kept = 0;
+		for(int i=0;i<bag.numObjs;i++)
+		{
+			if(!this.removedThisStep.containsKey(objs[i]))
+				objs[kept++] = objs[i];
+		}
+		for(int i=kept;i<bag.numObjs;i++)
+			objs[i] = null;
+
+		bag.numObjs = kept;
+	}
+}
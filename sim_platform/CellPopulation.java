@@ -0,0 +1,185 @@
+package sim_platform;
+
+import ec.util.MersenneTwisterFast;
+import sim.engine.Schedule;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.engine.Stoppable;
+import sim.util.Bag;
+
+/**
+ * Steps every cell of one type, in place of scheduling each cell itself.  The population is scheduled once, and each step
+ * steps its cells in turn - shuffled each step where the simulation asks for a random order, as the schedule does for the
+ * cells it holds, else in the order they were added.  A cell added is stepped from the step after it was added, as it would
+ * be had it been scheduled itself, and a cell is stopped through the Stoppable it is given when added
+ *
+ * @author Kieran Alden
+ *
+ */
+public class CellPopulation implements Steppable,Stoppable
+{
+	/**
+	 * A cell held by the population - stopping it takes it out of the population at the end of the step
+	 */
+	private class Member implements Stoppable
+	{
+		Steppable cell;
+
+		/**
+		 * Schedule time of the first step the cell is stepped in
+		 */
+		double firstTime;
+
+		boolean stopped = false;
+
+		public void stop()
+		{
+			if(!this.stopped)
+			{
+				this.stopped = true;
+				numStopped++;
+			}
+		}
+	}
+
+	/**
+	 * The cells held, in the order they are stepped
+	 */
+	private Bag members = new Bag();
+
+	/**
+	 * Number of cells stopped since the population was last compacted
+	 */
+	private int numStopped = 0;
+
+	/**
+	 * Schedule the population is stepped by
+	 */
+	private Schedule schedule;
+
+	/**
+	 * Generator the order of the cells is shuffled with, or null if they are stepped in the order they were added
+	 */
+	private MersenneTwisterFast random;
+
+	/**
+	 * Flag to show if this class has been stopped (when no longer needed)
+	 */
+	private Stoppable stopper = null;
+
+	/**
+	 * Method to change the value of the stopper
+	 * @param stopper	Whether the class should be stopped or not
+	 */
+	public void setStopper(Stoppable stopper)   {this.stopper = stopper;}
+
+	/**
+	 * Method to stop the class where necessary
+	 */
+	public void stop(){stopper.stop();}
+
+	/**
+	 * Creates an empty population, and schedules it
+	 *
+	 * @param schedule	The simulation schedule
+	 * @param random	Generator used to shuffle the cells each step, or null to step them in the order they were added
+	 */
+	public CellPopulation(Schedule schedule,MersenneTwisterFast random)
+	{
+		this.schedule = schedule;
+		this.random = random;
+		this.setStopper(schedule.scheduleRepeating(this));
+	}
+
+	/**
+	 * Adds a cell to the population
+	 *
+	 * @param cell	The cell to add
+	 * @return	Stoppable taking the cell out of the population
+	 */
+	public Stoppable add(Steppable cell)
+	{
+		Member member = new Member();
+		member.cell = cell;
+		// AS THE SCHEDULE WOULD, BEGIN STEPPING THE CELL A STEP AFTER NOW - OR AT THE FIRST STEP IF NOT YET STARTED
+		member.firstTime = this.schedule.getTime()+1.0;
+		this.members.add(member);
+		return member;
+	}
+
+	/**
+	 * @return	Number of cells held, including any stopped during the current step
+	 */
+	public int size()
+	{
+		return this.members.numObjs;
+	}
+
+	/**
+	 * @return	Number of cells held that have not been stopped
+	 */
+	public int liveCount()
+	{
+		return this.members.numObjs-this.numStopped;
+	}
+
+	/**
+	 * @return	The cells held that have not been stopped
+	 */
+	public Bag liveCells()
+	{
+		Bag cells = new Bag();
+		for(int i=0;i<this.members.numObjs;i++)
+		{
+			Member member = (Member)this.members.objs[i];
+			if(!member.stopped)
+				cells.add(member.cell);
+		}
+		return cells;
+	}
+
+	/**
+	 * Steps each cell held, then removes those that have been stopped
+	 *
+	 * @see sim.engine.Steppable#step(sim.engine.SimState)
+	 */
+	public void step(SimState state)
+	{
+		if(this.random != null)
+			this.members.shuffle(this.random);
+
+		double time = this.schedule.getTime();
+
+		// CELLS ADDED AS THIS LOOP RUNS ARE ADDED TO THE END, AND FIRST STEPPED IN THE NEXT STEP
+		Object[] objs = this.members.objs;
+		int numMembers = this.members.numObjs;
+		for(int i=0;i<numMembers;i++)
+		{
+			Member member = (Member)objs[i];
+			if(!member.stopped && member.firstTime<=time)
+				member.cell.step(state);
+		}
+
+		if(this.numStopped>0)
+			this.compact();
+	}
+
+	/**
+	 * Removes the stopped cells, keeping the rest in order
+	 */
+	private void compact()
+	{
+		Object[] objs = this.members.objs;
+		int kept = 0;
+		for(int i=0;i<this.members.numObjs;i++)
+		{
+			if(!((Member)objs[i]).stopped)
+				objs[kept++] = objs[i];
+		}
+		for(int i=kept;i<this.members.numObjs;i++)
+			objs[i] = null;
+
+		this.members.numObjs = kept;
+		this.numStopped = 0;
+	}
+}
@@ -17,9 +17,6 @@ import org.w3c.dom.Element;
 
 
 
-import sim.engine.SimState;
-import sim.engine.Steppable;
-import sim.engine.Stoppable;
 import sim.util.Bag;
 import sim.util.Double2D;
 
@@ -28,7 +25,7 @@ import sim.util.Double2D;
  * @author kieran
  *
  */
-public class CellTracking implements Steppable,Stoppable
+public class CellTracking
 {
 	
 	
@@ -434,8 +431,8 @@ public class CellTracking implements Steppable,Stoppable
 		try
 		{
 		
-			Double2D agentTrackEndLocation = (Double2D)trackedCell.getClass().getDeclaredField("agentTrackEndLocation").get(trackedCell);
-			Double2D agentTrackStartLocation = (Double2D)trackedCell.getClass().getDeclaredField("agentTrackStartLocation").get(trackedCell);
+			Double2D agentTrackEndLocation = ((MigratoryCell)trackedCell).getTrackEndLocation();
+			Double2D agentTrackStartLocation = ((MigratoryCell)trackedCell).getTrackStartLocation();
 			
 			trackDisplacement = distanceBetweenTwoPoints(agentTrackEndLocation,agentTrackStartLocation,0);
 		
@@ -527,7 +524,7 @@ public class CellTracking implements Steppable,Stoppable
 					closeCell.appendChild(cellSpeed);
 			
 					// append the locations of where the cell started
-					Double2D trackedCellStart = (Double2D)trackedCell.getClass().getDeclaredField("agentTrackStartLocation").get(trackedCell);
+					Double2D trackedCellStart = ((MigratoryCell)trackedCell).getTrackStartLocation();
 					outputTrackStatsWriter.append(Double.toString(trackedCellStart.x)+",");
 					Element cellStartPositionX = docWriting.createElement("CellStartPositionX");
 					cellStartPositionX.appendChild(docWriting.createTextNode(Double.toString(trackedCellStart.x)));
@@ -539,7 +536,7 @@ public class CellTracking implements Steppable,Stoppable
 					closeCell.appendChild(cellStartPositionY);
 				
 					// append the locations of where the cell ended up
-					Double2D trackedCellEnd = (Double2D)trackedCell.getClass().getDeclaredField("agentTrackEndLocation").get(trackedCell);
+					Double2D trackedCellEnd = ((MigratoryCell)trackedCell).getTrackEndLocation();
 					outputTrackStatsWriter.append(Double.toString(trackedCellEnd.x)+",");
 					Element cellEndPositionX = docWriting.createElement("CellEndPositionX");
 					cellEndPositionX.appendChild(docWriting.createTextNode(Double.toString(trackedCellEnd.x)));
@@ -651,6 +648,9 @@ public class CellTracking implements Steppable,Stoppable
 		double closestLTo= Double.POSITIVE_INFINITY;
 		double distance;
 		
+		// Get the location of the tracked cell
+		Double2D trackedCellLocation = ((MigratoryCell)trackedCell).getLocation();
+		
 		for(int l=0;l<ppsim.ltoCellsBag.size();l++)
 		{
 			try
@@ -662,10 +662,6 @@ public class CellTracking implements Steppable,Stoppable
 				
 				if(cellState>=1)
 				{
-					// Get the locations of the tracked cell
-					// this is a bit of a hack and will need sorting propertly later (as this should no longer be accepting Cells)
-					Double2D trackedCellLocation = (Double2D)trackedCell.getClass().getDeclaredField("agentLocation").get(trackedCell);
-					
 					// Get the location of this LTo cell
 					Double2D lToCellLocation = (Double2D)ltoCell.getClass().getDeclaredField("agentLocation").get(ltoCell);
 					
@@ -724,9 +720,19 @@ public class CellTracking implements Steppable,Stoppable
 			Element rootElementAway = docWritingAway.createElement("SimulationResult");
 			docWritingAway.appendChild(rootElementAway);
 				
+			// CELLS HELD AS COLUMNS ARE ONLY MADE INTO OBJECTS HERE, FOR THE OUTPUT
+			Bag closeCells = this.trackedCells_Close;
+			Bag awayCells = this.trackedCells_Away;
+			if(ppsim.migratoryCells != null)
+			{
+				closeCells = new Bag(closeCells);
+				awayCells = new Bag(awayCells);
+				ppsim.migratoryCells.addTrackedCells(closeCells,awayCells);
+			}
+				
 			// RUN THE OUTPUT CELL TRACKS WHETHER WRITING TO FILE OR NOT - USED BY BOTH THE WEB AND NON WEB VERSIONS
 			// write the tracks of cells close to the stromal cells
-			this.outputTrackCellsResults(ppsim,this.trackedCells_Close,trackedCells_Close_Writer,docWritingClose,rootElementClose);
+			this.outputTrackCellsResults(ppsim,closeCells,trackedCells_Close_Writer,docWritingClose,rootElementClose);
 			
 			// WRITE OUT THE CLOSE XML FILE, FORMATTED CORRECTLY
 			docWritingClose.normalizeDocument();
@@ -745,7 +751,7 @@ public class CellTracking implements Steppable,Stoppable
 			this.lengthsNear = this.lengths;
 			
 			// write the tracks of the cells away from the stromal cell
-			this.outputTrackCellsResults(ppsim,this.trackedCells_Away,trackedCells_Away_Writer,docWritingAway,rootElementAway);
+			this.outputTrackCellsResults(ppsim,awayCells,trackedCells_Away_Writer,docWritingAway,rootElementAway);
 			// IN XML FORMAT:
 			docWritingAway.normalizeDocument();
 			source = new DOMSource(docWritingAway);
@@ -772,134 +778,145 @@ public class CellTracking implements Steppable,Stoppable
 	
 
 	/**
-	 * Performed each step in the simulation - monitors the two tracked bags during cell tracking, moving cells between them as necessary
+	 * Starts the current tracking range - scheduled by the ObservationScheduler at the step the range starts.  Every migratory 
+	 * cell records where it is as the start of its track, and the cells already in the two tracked bags begin their tracks again
+	 * 
+	 * @param ppsim	The current simulation state
 	 */
-	public void step(final SimState state)
+	public void startTrackingRange(PPatchSim ppsim)
 	{
-		PPatchSim ppsim = (PPatchSim)state;
+		Bag cells = this.migratoryCellObjects(ppsim);
+		for(int k=0;k<cells.size();k++)
+		{
+			((MigratoryCell)cells.get(k)).setAgentTrackStartLocation();
+		}
 		
-		// while the simulation is running
-		if(ppsim.schedule.getSteps()*ppsim.simulationSpec.secondsPerStep <= ((ppsim.simulationSpec.simulationTime*60)*60))
+		// THERE WILL BE CELLS IN THE BAG BEING TRACKED, THOUGH TRACKING IS YET TO START
+		// SET THE TRACK START LOCATION OF ALL OF THESE CELLS NOW THE TIME HAS COMMENCED
+		// IF MULTIPLE TRACKING RANGES ARE USED, BOTH BAGS WILL NEED TO BE RESET
+		for(int k=0;k<this.trackedCells_Away.size();k++)
 		{
-			if(ppsim.simulationSpec.cellTrackingEnabled)
-			{
-				// THERE WILL BE CELLS IN THE BAG BEING TRACKED, THOUGH TRACKING IS YET TO START
-				// SET THE TRACK START LOCATION OF ALL OF THESE CELLS NOW THE TIME HAS COMMENCED
-				// IF MULTIPLE TRACKING RANGES ARE USED, BOTH BAGS WILL NEED TO BE RESET
-				if(ppsim.schedule.getSteps()*ppsim.simulationSpec.secondsPerStep == ((this.trackingSnapStartHr*60)*60))
-				{	
-					for(int k=0;k<this.trackedCells_Away.size();k++)
-					{
-						Object trackedCell = this.trackedCells_Away.get(k);
+			Object trackedCell = this.trackedCells_Away.get(k);
 						
-						try
-						{
-							trackedCell.getClass().getDeclaredField("agentTrackStartLocation").set(trackedCell, trackedCell.getClass().getDeclaredField("agentLocation").get(trackedCell));
-							trackedCell.getClass().getDeclaredField("agentTrackEndLocation").set(trackedCell,null);
-							trackedCell.getClass().getDeclaredField("timeTracked").setInt(trackedCell,0);
-							trackedCell.getClass().getDeclaredField("trackLength").setInt(trackedCell,0);
-						}
-						catch(Exception e)
-						{
-							e.printStackTrace();
-						}
-					}
+			try
+			{
+				((MigratoryCell)trackedCell).setAgentTrackStartLocation();
+				((MigratoryCell)trackedCell).clearAgentTrackEndLocation();
+				trackedCell.getClass().getDeclaredField("timeTracked").setInt(trackedCell,0);
+				trackedCell.getClass().getDeclaredField("trackLength").setInt(trackedCell,0);
+			}
+			catch(Exception e)
+			{
+				e.printStackTrace();
+			}
+		}
 					
-					for(int k=0;k<this.trackedCells_Close.size();k++)
-					{
-						Object trackedCell = this.trackedCells_Close.get(k);
+		for(int k=0;k<this.trackedCells_Close.size();k++)
+		{
+			Object trackedCell = this.trackedCells_Close.get(k);
 						
-						try
-						{
-							trackedCell.getClass().getDeclaredField("agentTrackStartLocation").set(trackedCell, trackedCell.getClass().getDeclaredField("agentLocation").get(trackedCell));
-							trackedCell.getClass().getDeclaredField("agentTrackEndLocation").set(trackedCell,null);
-							trackedCell.getClass().getDeclaredField("timeTracked").setInt(trackedCell,0);
-							trackedCell.getClass().getDeclaredField("trackLength").setInt(trackedCell,0);
-						}
-						catch(Exception e)
-						{
-							e.printStackTrace();
-						}
+			try
+			{
+				((MigratoryCell)trackedCell).setAgentTrackStartLocation();
+				((MigratoryCell)trackedCell).clearAgentTrackEndLocation();
+				trackedCell.getClass().getDeclaredField("timeTracked").setInt(trackedCell,0);
+				trackedCell.getClass().getDeclaredField("trackLength").setInt(trackedCell,0);
+			}
+			catch(Exception e)
+			{
+				e.printStackTrace();
+			}
 
-					}
-				}
+		}
+					
+		if(ppsim.migratoryCells != null)
+			ppsim.migratoryCells.startTrackingPeriod();
+	}
 				
+	/**
+	 * Ends the current tracking range - scheduled by the ObservationScheduler at the step the range ends.  Every migratory cell 
+	 * records where it is as the end of its track, the tracked cells are output, and the next range (if any) becomes current
+	 * 
+	 * @param ppsim	The current simulation state
+	 */
+	public void endTrackingRange(PPatchSim ppsim)
+	{
+		Bag cells = this.migratoryCellObjects(ppsim);
+		for(int k=0;k<cells.size();k++)
+		{
+			((MigratoryCell)cells.get(k)).setAgentTrackEndLocation();
+		}
 				
-				// TRACKING HAS NOW ENDED - ADD THE END LOCATION FOR ALL CELLS THAT ARE STILL BEING TRACKED
-				else if(ppsim.schedule.getSteps()*ppsim.simulationSpec.secondsPerStep == ((this.trackingSnapEndHr*60)*60))
-				{
-					for(int k=0;k<this.trackedCells_Away.size();k++)
-					{
-						try
-						{
-							Object trackedCell = this.trackedCells_Away.get(k);
+		// TRACKING HAS NOW ENDED - ADD THE END LOCATION FOR ALL CELLS THAT ARE STILL BEING TRACKED
+		for(int k=0;k<this.trackedCells_Away.size();k++)
+		{
+			try
+			{
+				Object trackedCell = this.trackedCells_Away.get(k);
 							
-							if(trackedCell.getClass().getDeclaredField("agentTrackEndLocation").get(trackedCell) == null)
-							{
-								trackedCell.getClass().getDeclaredField("agentTrackEndLocation").set(trackedCell,trackedCell.getClass().getDeclaredField("agentLocation").get(trackedCell));
-							}
-						}
-						catch(Exception e)
-						{
-							e.printStackTrace();
-						}
-						
-					}
+				if(((MigratoryCell)trackedCell).getTrackEndLocation() == null)
+				{
+					((MigratoryCell)trackedCell).setAgentTrackEndLocation();
+				}
+			}
+			catch(Exception e)
+			{
+				e.printStackTrace();
+			}
+		}
 					
-					for(int k=0;k<this.trackedCells_Close.size();k++)
-					{
-						try
-						{
-							Object trackedCell = this.trackedCells_Close.get(k);
+		for(int k=0;k<this.trackedCells_Close.size();k++)
+		{
+			try
+			{
+				Object trackedCell = this.trackedCells_Close.get(k);
 							
-							if(trackedCell.getClass().getDeclaredField("agentTrackEndLocation").get(trackedCell) == null)
-							{
-								trackedCell.getClass().getDeclaredField("agentTrackEndLocation").set(trackedCell,trackedCell.getClass().getDeclaredField("agentLocation").get(trackedCell));
-							}
-						}
-						catch(Exception e)
-						{
-							e.printStackTrace();
-						}
-	
-					}
-					
-					// NOW TRACKING HAS ENDED, PREPARE FOR THE NEXT TRACKING RANGE
-					// FIRSTLY OUTPUT THE CURRENT TRACKED RANGE
-					this.generateStatsAtRunEnd(ppsim);
-					
-					// delete this tracked range from those being done
-					this.trackingStartHours.remove(0);
-					this.trackingEndHours.remove(0);
-					// set the next range (if there is one)
-					if(!this.trackingStartHours.isEmpty())
-					{
-						this.trackingSnapStartHr = this.trackingStartHours.get(0);
-						this.trackingSnapEndHr = this.trackingEndHours.get(0);
-					}
+				if(((MigratoryCell)trackedCell).getTrackEndLocation() == null)
+				{
+					((MigratoryCell)trackedCell).setAgentTrackEndLocation();
 				}
 			}
+			catch(Exception e)
+			{
+				e.printStackTrace();
+			}
 		}
-		else
+					
+		if(ppsim.migratoryCells != null)
+			ppsim.migratoryCells.endTrackingPeriod();
+					
+		// NOW TRACKING HAS ENDED, PREPARE FOR THE NEXT TRACKING RANGE
+		// FIRSTLY OUTPUT THE CURRENT TRACKED RANGE
+		this.generateStatsAtRunEnd(ppsim);
+					
+		// delete this tracked range from those being done
+		this.trackingStartHours.remove(0);
+		this.trackingEndHours.remove(0);
+		// set the next range (if there is one)
+		if(!this.trackingStartHours.isEmpty())
 		{
-			this.stop();
+			this.trackingSnapStartHr = this.trackingStartHours.get(0);
+			this.trackingSnapEndHr = this.trackingEndHours.get(0);
 		}
-		
 	}
 	
 	/**
-	 * Flag to show if this class has been stopped (when no longer needed)
-	 */
-	private Stoppable stopper = null;
-	
-	/**
-	 * Method to change the value of the stopper
-	 * @param stopper	Whether the class should be stopped or not
+	 * @param ppsim	The current simulation state
+	 * @return	Every migratory cell stepped as an object
 	 */
-    public void setStopper(Stoppable stopper)   {this.stopper = stopper;}
-    
-    /**
-     * Method to stop the class where necessary
-     */
-    public void stop(){stopper.stop();}
+	private Bag migratoryCellObjects(PPatchSim ppsim)
+	{
+		Bag cells = new Bag();
+		for(CellPopulation population : ppsim.cellPopulations.values())
+		{
+			Bag members = population.liveCells();
+			for(int k=0;k<members.size();k++)
+			{
+				if(members.get(k) instanceof MigratoryCell)
+					cells.add(members.get(k));
+			}
+		}
+		return cells;
+	}
 }
+		
\ No newline at end of file
@@ -0,0 +1,43 @@
+package sim_platform;
+
+/**
+ * Interface implemented by expressors through which a stromal cell expresses chemokine.  The level of chemokine at a distance from
+ * the cell is determined by a sigmoid function, adjusted by the parameters returned here
+ * 
+ * @author Kieran Alden
+ *
+ */
+public interface ChemokineExpressor 
+{
+	/**
+	 * @return	The threshold used in the sigmoid function which determines chemokine diffusion
+	 */
+	public double getChemoSigThreshold();
+	
+	/**
+	 * @return	The linear adjustment to the sigmoid curve, which determines the level of expression
+	 */
+	public double getChemoLinearAdjust();
+	
+	/**
+	 * Increases the level of chemokine expressed, following a stable contact
+	 */
+	public void increaseChemokineExpression();
+	
+	/**
+	 * Calculates the level of chemokine felt at a given distance from the expressing cell
+	 * 
+	 * @param distance	The distance from the expressing cell
+	 * @return	The level of chemokine at that distance
+	 */
+	public double chemokineLevel(double distance);
+	
+	/**
+	 * Calculates the distance out to which the level of chemokine is at or above a threshold.  Used to limit the area of the 
+	 * chemokine grid that the cell needs to be stamped onto
+	 * 
+	 * @param threshold	The lowest level of interest
+	 * @return	The distance, negative if the level never reaches the threshold, or infinity if it does not drop below it
+	 */
+	public double expressionRadius(double threshold);
+}
@@ -1,15 +1,22 @@
 package sim_platform;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
 
+import sim.field.grid.DoubleGrid2D;
 import sim.field.grid.IntGrid2D;
+import sim.util.Bag;
+import sim.util.Double2D;
 import sim.util.IntBag;
 
 /**
  * Class to create a grid space which overlays the Continuous grid on which the cells move.  This grid is used
- * when calculating chemokine levels around a cell.  Though no values are actually stored on the grid, the methods 
- * that are made available by the IntGrid2D class do come in useful for calculating neighbourhoods around a cell and 
- * chemokine diffusion.
+ * when calculating chemokine levels around a cell.  The methods that are made available by the IntGrid2D class are used
+ * for calculating neighbourhoods around a cell, and the highest chemokine level felt in each square is stored in a
+ * DoubleGrid2D of the same size.  Each stromal cell expressing chemokine is 'stamped' onto this field when it starts
+ * expressing, and re-stamped only when its expression changes or it stops, so a cell reading the level in a square
+ * does not need to calculate the effect of every stromal cell in the environment.
  * 
  * Note that this may determine a grid space at which a cell moves into, but this does not stop the cell from moving at 
  * any angle to get into this grid square.  This allows for a little randomness alongside controlled movement
@@ -24,6 +31,56 @@ public class ChemokineGrid
 	 */
 	public IntGrid2D chemoGrid;
 	
+	/**
+	 * Highest level of chemokine felt in each square of the grid, across all the stromal cells currently expressing chemokine
+	 */
+	public DoubleGrid2D chemokineField;
+	
+	/**
+	 * Marks a square of the Moore's Neighbourhood stencil that has rolled around the left or right of the grid
+	 */
+	public static final int ROLLED_AROUND = -1;
+	
+	/**
+	 * The footprint stamped onto the field for each stromal cell currently expressing chemokine
+	 */
+	private HashMap<StromalCell,ExpressionStamp> stamps = new HashMap<StromalCell,ExpressionStamp>();
+	
+	/**
+	 * Spatial index of the cells currently expressing chemokine, bucketed by how far their chemokine reaches, so that
+	 * only the cells that can contribute to an area need to be looked at
+	 */
+	public ExpressingCellIndex expressingCells;
+	
+	/**
+	 * Bag reused to gather the cells reaching an area being redrawn
+	 */
+	private Bag reachingCells = new Bag();
+	
+	/**
+	 * Lowest receptor threshold the field has been read with.  Each cell is stamped out to the distance at which its level 
+	 * drops below this, as any lower level would be ignored by the receptor anyway
+	 */
+	private double stampThreshold = Double.POSITIVE_INFINITY;
+	
+	/**
+	 * Records where an expressing stromal cell has been stamped onto the field, and the expression parameters used, so a 
+	 * change in expression can be detected
+	 */
+	private static class ExpressionStamp
+	{
+		StromalCell cell;
+		ChemokineExpressor expressor;
+		double x;
+		double y;
+		double chemoLinearAdjust;
+		double chemoSigThreshold;
+		int minX;
+		int maxX;
+		int minY;
+		int maxY;
+	}
+	
 	/**
 	 * Constructs the grid at the required length and width
 	 * @param gridLength	Length of the grid
@@ -32,6 +89,278 @@ public class ChemokineGrid
 	public ChemokineGrid(double gridLength,double gridHeight)
 	{
 		chemoGrid = new IntGrid2D((int)gridLength,(int)gridHeight);
+		chemokineField = new DoubleGrid2D((int)gridLength,(int)gridHeight);
+		expressingCells = new ExpressingCellIndex((int)gridLength,(int)gridHeight,1);
+	}
+	
+	/**
+	 * Calculates the level of chemokine at any point on the tract, as felt by a receptor with the given threshold, from the 
+	 * cells expressing chemokine.  Unlike getChemokineLevel this does not need to be on a square of the grid, but only the 
+	 * cells whose chemokine reaches the point are looked at
+	 * 
+	 * @param x	The x coordinate of the point
+	 * @param y	The y coordinate of the point
+	 * @param threshold	The threshold at which the chemokine affects the receptor
+	 * @return	The highest chemokine level at that point, or 0 where this is below the threshold
+	 */
+	public double calculateChemokineLevel(double x,double y,double threshold)
+	{
+		if(threshold<this.stampThreshold)
+		{
+			this.stampThreshold = threshold;
+			this.restampAll();
+		}
+		
+		Bag reaching = this.expressingCells.getCellsReaching(x,y,new Bag());
+		double chemoHighEffect = 0.0;
+		
+		for(int i=0;i<reaching.numObjs;i++)
+		{
+			ExpressionStamp stamp = this.stamps.get(reaching.objs[i]);
+			double distance = (Math.sqrt((Math.pow(x-stamp.x,2)+Math.pow(y-stamp.y,2))));
+			double chemoEffect = stamp.expressor.chemokineLevel(distance);
+			
+			if(chemoEffect>chemoHighEffect)
+				chemoHighEffect = chemoEffect;
+		}
+		
+		if(chemoHighEffect<threshold)
+			return 0;
+		else
+			return chemoHighEffect;
+	}
+	
+	/**
+	 * Returns the level of chemokine in a square of the grid, as felt by a receptor with the given threshold.  This is the highest 
+	 * level expressed by any stromal cell, or 0 where this is below the threshold
+	 * 
+	 * @param x	The x coordinate of the square
+	 * @param y	The y coordinate of the square
+	 * @param threshold	The threshold at which the chemokine affects the receptor
+	 * @return	The chemokine level in that square
+	 */
+	public double getChemokineLevel(int x,int y,double threshold)
+	{
+		this.stampToThreshold(threshold);
+		
+		double chemoEffect = this.chemokineField.field[x][y];
+		
+		if(chemoEffect<threshold)
+			return 0;
+		else
+			return chemoEffect;
+	}
+	
+	/**
+	 * Makes sure the footprints on the field are drawn out to a threshold, so the levels read for a receptor with that threshold
+	 * are complete.  After this, reads at that threshold do not change the field, so can be made on several threads at once
+	 * 
+	 * @param threshold	The threshold at which the chemokine affects the receptor
+	 */
+	public void stampToThreshold(double threshold)
+	{
+		// A receptor more sensitive than any seen so far - each footprint needs to be stamped further out
+		if(threshold<this.stampThreshold)
+		{
+			this.stampThreshold = threshold;
+			this.restampAll();
+		}
+	}
+	
+	/**
+	 * Brings the field up to date for a stromal cell whose state or chemokine expression may have changed.  A cell that has 
+	 * started expressing chemokine (state 3 or 9) is stamped onto the field, a cell that has stopped is removed, and where the 
+	 * level of expression has changed every cell sharing that expressor is re-stamped
+	 * 
+	 * @param cell	The stromal cell to check
+	 */
+	public void updateExpressingCell(StromalCell cell)
+	{
+		ChemokineExpressor expressor = (ChemokineExpressor)cell.returnExpressorCapabilities().first(Capability.CHEMOKINE_EXPRESSION);
+		int cellState = cell.getCellState();
+		boolean expressing = (cellState==3 || cellState==9) && !cell.isStopped() && expressor!=null;
+		
+		ExpressionStamp stamp = this.stamps.get(cell);
+		
+		if(!expressing)
+		{
+			if(stamp!=null)
+			{
+				// REMOVE THIS CELL AND REDRAW THE AREA IT COVERED FROM ANY OTHER CELLS
+				this.stamps.remove(cell);
+				this.expressingCells.remove(cell);
+				this.redraw(stamp.minX,stamp.maxX,stamp.minY,stamp.maxY);
+			}
+		}
+		else if(stamp==null || stamp.expressor!=expressor)
+		{
+			if(stamp!=null)
+			{
+				this.stamps.remove(cell);
+				this.expressingCells.remove(cell);
+				this.redraw(stamp.minX,stamp.maxX,stamp.minY,stamp.maxY);
+			}
+			
+			// NEW EXPRESSING CELL - STAMP ITS FOOTPRINT
+			stamp = new ExpressionStamp();
+			stamp.cell = cell;
+			stamp.expressor = expressor;
+			Double2D location = cell.getLocation();
+			stamp.x = location.x;
+			stamp.y = location.y;
+			this.stamps.put(cell,stamp);
+			this.setFootprint(stamp);
+			this.applyStamp(stamp,stamp.minX,stamp.maxX,stamp.minY,stamp.maxY);
+		}
+		
+		if(expressor!=null)
+		{
+			// EXPRESSION MAY HAVE CHANGED - EXPRESSORS ARE SHARED BETWEEN A CELL AND THOSE IT DIVIDED INTO, SO ALL OF THESE NEED RE-STAMPING
+			this.restampExpressor(expressor);
+		}
+	}
+	
+	/**
+	 * Re-stamps every cell sharing an expressor whose level of expression has changed since the cell was stamped.  The expressor
+	 * may have been changed through contact with any of the cells sharing it, including one not yet expressing.  Where the level
+	 * has only increased at every distance, the new footprint covers the old one and can be stamped straight over it.  Otherwise
+	 * the area covered by the old footprint is redrawn
+	 * 
+	 * @param expressor	The expressor that may have changed
+	 */
+	private void restampExpressor(ChemokineExpressor expressor)
+	{
+		double chemoLinearAdjust = expressor.getChemoLinearAdjust();
+		double chemoSigThreshold = expressor.getChemoSigThreshold();
+		
+		ArrayList<ExpressionStamp> changed = new ArrayList<ExpressionStamp>();
+		for(ExpressionStamp stamp : this.stamps.values())
+		{
+			if(stamp.expressor==expressor && (stamp.chemoLinearAdjust!=chemoLinearAdjust || stamp.chemoSigThreshold!=chemoSigThreshold))
+				changed.add(stamp);
+		}
+		
+		for(int i=0;i<changed.size();i++)
+		{
+			ExpressionStamp stamp = changed.get(i);
+			
+			// The sigmoid only rises at every distance if the curve is made shallower and not moved in
+			boolean increased = chemoLinearAdjust<=stamp.chemoLinearAdjust && chemoSigThreshold>=stamp.chemoSigThreshold && chemoLinearAdjust>=0;
+			
+			int oldMinX = stamp.minX;
+			int oldMaxX = stamp.maxX;
+			int oldMinY = stamp.minY;
+			int oldMaxY = stamp.maxY;
+			this.setFootprint(stamp);
+			
+			if(increased)
+			{
+				this.applyStamp(stamp,stamp.minX,stamp.maxX,stamp.minY,stamp.maxY);
+			}
+			else
+			{
+				this.redraw(oldMinX,oldMaxX,oldMinY,oldMaxY);
+				this.redraw(stamp.minX,stamp.maxX,stamp.minY,stamp.maxY);
+			}
+		}
+	}
+	
+	/**
+	 * Clears the field and stamps every expressing cell again - needed when the threshold the footprints are drawn to changes
+	 */
+	private void restampAll()
+	{
+		for(ExpressionStamp stamp : this.stamps.values())
+		{
+			this.setFootprint(stamp);
+		}
+		this.redraw(0,this.chemokineField.getWidth()-1,0,this.chemokineField.getHeight()-1);
+	}
+	
+	/**
+	 * Clears a rectangle of the field and stamps back onto it every expressing cell whose footprint overlaps it.  The index
+	 * gives the cells that may reach the rectangle, and each is clipped to its own footprint
+	 */
+	private void redraw(int minX,int maxX,int minY,int maxY)
+	{
+		double[][] field = this.chemokineField.field;
+		for(int x=minX;x<=maxX;x++)
+		{
+			for(int y=minY;y<=maxY;y++)
+			{
+				field[x][y] = 0.0;
+			}
+		}
+		
+		Bag reaching = this.expressingCells.getCellsReaching(minX,maxX,minY,maxY,this.reachingCells);
+		for(int i=0;i<reaching.numObjs;i++)
+		{
+			ExpressionStamp stamp = this.stamps.get(reaching.objs[i]);
+			this.applyStamp(stamp,Math.max(minX,stamp.minX),Math.min(maxX,stamp.maxX),Math.max(minY,stamp.minY),Math.min(maxY,stamp.maxY));
+		}
+	}
+	
+	/**
+	 * Works out the rectangle of the field covered by a cell, from the distance at which its chemokine level drops below the 
+	 * threshold.  A square is added either side of this to cover any rounding in that distance.  Also records the expression 
+	 * parameters the footprint was drawn with, and places the cell in the index at a radius covering the footprint
+	 */
+	private void setFootprint(ExpressionStamp stamp)
+	{
+		stamp.chemoLinearAdjust = stamp.expressor.getChemoLinearAdjust();
+		stamp.chemoSigThreshold = stamp.expressor.getChemoSigThreshold();
+		
+		int width = this.chemokineField.getWidth();
+		int height = this.chemokineField.getHeight();
+		double radius = stamp.expressor.expressionRadius(this.stampThreshold);
+		
+		if(radius<0)
+		{
+			// Never reaches the threshold - empty footprint
+			stamp.minX = 0;
+			stamp.maxX = -1;
+			stamp.minY = 0;
+			stamp.maxY = -1;
+			this.expressingCells.put(stamp.cell,-1);
+		}
+		else if(radius>width+height)
+		{
+			stamp.minX = 0;
+			stamp.maxX = width-1;
+			stamp.minY = 0;
+			stamp.maxY = height-1;
+			this.expressingCells.put(stamp.cell,Double.POSITIVE_INFINITY);
+		}
+		else
+		{
+			int reach = (int)Math.ceil(radius)+1;
+			stamp.minX = Math.max(0,(int)Math.floor(stamp.x)-reach);
+			stamp.maxX = Math.min(width-1,(int)Math.ceil(stamp.x)+reach);
+			stamp.minY = Math.max(0,(int)Math.floor(stamp.y)-reach);
+			stamp.maxY = Math.min(height-1,(int)Math.ceil(stamp.y)+reach);
+			this.expressingCells.put(stamp.cell,reach+1);
+		}
+	}
+	
+	/**
+	 * Stamps the chemokine level of a cell onto a rectangle of the field, keeping the highest level in each square.  The distance
+	 * is calculated in the same way as when the level was calculated for each square directly, so the values are identical
+	 */
+	private void applyStamp(ExpressionStamp stamp,int minX,int maxX,int minY,int maxY)
+	{
+		double[][] field = this.chemokineField.field;
+		for(int x=minX;x<=maxX;x++)
+		{
+			double[] column = field[x];
+			for(int y=minY;y<=maxY;y++)
+			{
+				double distance = (Math.sqrt((Math.pow(x-stamp.x,2)+Math.pow(y-stamp.y,2))));
+				double chemoEffect = stamp.expressor.chemokineLevel(distance);
+				
+				if(chemoEffect>column[y])
+					column[y] = chemoEffect;
+			}
+		}
 	}
 	
 	
@@ -42,7 +371,7 @@ public class ChemokineGrid
 	 * @param ppsim	The current state of the simulation
 	 * @return int roundedX	An rounded integer value of the coordinate
 	 */
-	public int roundX(double x,Double environmentLength)
+	public int roundX(double x,double environmentLength)
 	{
 		int roundedX;
 		// Get the Current Length of the Environment
@@ -97,4 +426,72 @@ public class ChemokineGrid
 		else
 			return yPos;
 	}
+	
+	/**
+	 * Fills caller-owned arrays with both coordinates of the 3x3 Moore's Neighbourhood around a cell, in the same order as 
+	 * generateMooresN (column by column, so square 4 is the centre).  The neighbourhood wraps top to bottom, as the tract does. 
+	 * Squares that have wrapped round the left or right edge of the grid cannot be moved into, so are marked with an x of 
+	 * ROLLED_AROUND.  As nothing is allocated this can be called for every cell at every step
+	 * 
+	 * @param x	The x coordinate of the cell around which to generate the neighbourhood
+	 * @param y	The y coordinate of the cell around which to generate the neighbourhood
+	 * @param environmentLength	The current length of the environment
+	 * @param environmentHeight	The current height of the environment
+	 * @param rollAroundWidth	Width used to detect squares wrapped left to right (the width of the stromal cell grid)
+	 * @param stencilX	Array of at least 9 to fill with the x coordinate of each square
+	 * @param stencilY	Array of at least 9 to fill with the y coordinate of each square
+	 * @return	The index of the square the cell is in, or -1 if this has been wrapped
+	 */
+	public int generateMooresStencil(double x,double y,double environmentLength,double environmentHeight,int rollAroundWidth,int[] stencilX,int[] stencilY)
+	{
+		int roundX = roundX(x,environmentLength);
+		int roundY = roundY(y,environmentHeight);
+		int width = this.chemoGrid.getWidth();
+		int height = this.chemoGrid.getHeight();
+		int centre = -1;
+		
+		// WHETHER THE CELL IS ON THE LEFT OR RIGHT OF THE TRACT DETERMINES WHICH WAY A WRAPPED SQUARE IS DETECTED
+		boolean onLeft = roundX < rollAroundWidth/2;
+		
+		int k=0;
+		for(int x0=roundX-1;x0<=roundX+1;x0++)
+		{
+			// wrap once, as the toroidal neighbourhood does
+			int wrappedX = x0;
+			if(wrappedX<0)
+				wrappedX+=width;
+			else if(wrappedX>=width)
+				wrappedX-=width;
+			
+			// THE TRACT IS NOT OPEN LEFT TO RIGHT - A SQUARE THAT HAS ROLLED AROUND CANNOT BE MOVED INTO
+			boolean moveOk;
+			if(onLeft)
+				moveOk = (wrappedX-roundX)+1 < rollAroundWidth;
+			else
+				moveOk = (roundX-wrappedX)+1 < rollAroundWidth;
+			
+			for(int y0=roundY-1;y0<=roundY+1;y0++)
+			{
+				int wrappedY = y0;
+				if(wrappedY<0)
+					wrappedY+=height;
+				else if(wrappedY>=height)
+					wrappedY-=height;
+				
+				if(moveOk)
+				{
+					stencilX[k] = wrappedX;
+					if(wrappedX==roundX && wrappedY==roundY)
+						centre = k;
+				}
+				else
+				{
+					stencilX[k] = ROLLED_AROUND;
+				}
+				stencilY[k] = wrappedY;
+				k++;
+			}
+		}
+		return centre;
+	}
 }
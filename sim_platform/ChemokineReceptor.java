@@ -0,0 +1,54 @@
+package sim_platform;
+
+/**
+ * Interface implemented by receptors that direct the movement of a cell through the chemokine expressed in the environment
+ * 
+ * @author Kieran Alden
+ *
+ */
+public interface ChemokineReceptor 
+{
+	/**
+	 * Examines the chemokine levels around a cell and generates the angle at which that cell should move
+	 * 
+	 * @param ppsim	The current simulation state
+	 * @param cellX	The x coordinate of the cell expressing this receptor
+	 * @param cellY	The y coordinate of the cell expressing this receptor
+	 * @param random	The random number stream of the cell expressing this receptor
+	 * @return	The angle (in radians) at which the cell should move
+	 */
+	public double generateAngleThroughChemokineExpression(PPatchSim ppsim, double cellX, double cellY, RandomStream random);
+	
+	/**
+	 * Brings up to date anything shared that senseChemokine reads, so that senseChemokine can then be called for many cells on
+	 * several threads at once (so long as nothing changes the chemokine in the environment in the meantime)
+	 * 
+	 * @param ppsim	The current simulation state
+	 */
+	public void prepareSensing(PPatchSim ppsim);
+	
+	/**
+	 * Examines the chemokine levels around a cell, without making any random choice.  Only reads the simulation state, and
+	 * holds nothing in the receptor, so can be called on several threads at once after prepareSensing.  The angle is then
+	 * generated from the reading by generateAngleFromReading - together the two give the same result as
+	 * generateAngleThroughChemokineExpression
+	 * 
+	 * @param ppsim	The current simulation state
+	 * @param cellX	The x coordinate of the cell expressing this receptor
+	 * @param cellY	The y coordinate of the cell expressing this receptor
+	 * @param stencilX	Working array of at least 9, owned by the caller
+	 * @param stencilY	Working array of at least 9, owned by the caller
+	 * @return	The reading, to be passed to generateAngleFromReading
+	 */
+	public int senseChemokine(PPatchSim ppsim, double cellX, double cellY, int[] stencilX, int[] stencilY);
+	
+	/**
+	 * Generates the angle at which a cell should move from a reading taken by senseChemokine
+	 * 
+	 * @param ppsim	The current simulation state
+	 * @param reading	The reading returned by senseChemokine
+	 * @param random	The random number stream of the cell expressing this receptor
+	 * @return	The angle (in radians) at which the cell should move
+	 */
+	public double generateAngleFromReading(PPatchSim ppsim, int reading, RandomStream random);
+}
@@ -0,0 +1,292 @@
+package sim_platform;
+
+import java.util.HashMap;
+
+import sim.util.Bag;
+import sim.util.Double2D;
+
+/**
+ * Spatial index of the stromal cells that are currently expressing chemokine.  Each cell is held with the distance out to
+ * which its chemokine level is at or above the receptor threshold - solved in closed form by its expressor - and is bucketed
+ * on a grid whose buckets are as wide as the largest of these distances.  A query at a point then only needs to look at the
+ * buckets around it, and returns only the cells that can contribute chemokine there, rather than every stromal cell on the
+ * tract (most of which, at the densities used, are immature and not expressing)
+ *
+ * @author Kieran Alden
+ *
+ */
+public class ExpressingCellIndex
+{
+	/**
+	 * The location and effective radius of one indexed cell
+	 */
+	private static class IndexEntry
+	{
+		StromalCell cell;
+		double x;
+		double y;
+		double radius;
+		int bucketX;
+		int bucketY;
+	}
+
+	/**
+	 * Entry for each indexed cell
+	 */
+	private HashMap<StromalCell,IndexEntry> entries = new HashMap<StromalCell,IndexEntry>();
+
+	/**
+	 * Buckets of entries, each covering a square of side bucketSize
+	 */
+	private Bag[][] buckets;
+
+	/**
+	 * Entries whose radius cannot be bounded (the level never drops below the threshold), checked by every query
+	 */
+	private Bag unbounded = new Bag();
+
+	/**
+	 * Width of each bucket - at least the largest bounded radius held in the index
+	 */
+	private double bucketSize;
+
+	/**
+	 * Width of the area indexed
+	 */
+	private double width;
+
+	/**
+	 * Height of the area indexed
+	 */
+	private double height;
+
+	/**
+	 * Creates an empty index over an area of the given size
+	 *
+	 * @param width	Width of the area
+	 * @param height	Height of the area
+	 * @param bucketSize	Initial bucket width - grows to fit the largest radius added
+	 */
+	public ExpressingCellIndex(double width,double height,double bucketSize)
+	{
+		this.width = width;
+		this.height = height;
+		this.rebuild(Math.max(1,bucketSize));
+	}
+
+	/**
+	 * Adds a cell to the index, or updates its radius if already held
+	 *
+	 * @param cell	The expressing cell
+	 * @param radius	Distance out to which the cell's chemokine level is at or above the threshold.  Negative if it never
+	 * reaches the threshold, infinite if it never drops below it
+	 */
+	public void put(StromalCell cell,double radius)
+	{
+		IndexEntry entry = this.entries.get(cell);
+
+		if(entry==null)
+		{
+			entry = new IndexEntry();
+			entry.cell = cell;
+			Double2D location = cell.getLocation();
+			entry.x = location.x;
+			entry.y = location.y;
+			entry.radius = radius;
+			this.entries.put(cell,entry);
+		}
+		else
+		{
+			this.unlink(entry);
+			entry.radius = radius;
+		}
+
+		if(radius>this.bucketSize && !Double.isInfinite(radius))
+		{
+			// Buckets need to be widened so a query only has to look at its neighbouring buckets
+			this.rebuild(radius);
+		}
+		else
+		{
+			this.link(entry);
+		}
+	}
+
+	/**
+	 * Removes a cell from the index
+	 *
+	 * @param cell	The cell that has stopped expressing
+	 */
+	public void remove(StromalCell cell)
+	{
+		IndexEntry entry = this.entries.remove(cell);
+		if(entry!=null)
+		{
+			this.unlink(entry);
+		}
+	}
+
+	/**
+	 * Finds the cells whose chemokine reaches a point - i.e. those within their radius of it
+	 *
+	 * @param x	The x coordinate of the point
+	 * @param y	The y coordinate of the point
+	 * @param result	Bag to fill with the cells found (cleared first)
+	 * @return	The result bag
+	 */
+	public Bag getCellsReaching(double x,double y,Bag result)
+	{
+		result.clear();
+
+		int bx = this.bucketX(x);
+		int by = this.bucketY(y);
+
+		for(int i=Math.max(0,bx-1);i<=Math.min(this.buckets.length-1,bx+1);i++)
+		{
+			for(int j=Math.max(0,by-1);j<=Math.min(this.buckets[i].length-1,by+1);j++)
+			{
+				Bag bucket = this.buckets[i][j];
+				for(int k=0;k<bucket.numObjs;k++)
+				{
+					IndexEntry entry = (IndexEntry)bucket.objs[k];
+					double dx = x-entry.x;
+					double dy = y-entry.y;
+					if(Math.sqrt(dx*dx+dy*dy)<=entry.radius)
+						result.add(entry.cell);
+				}
+			}
+		}
+
+		for(int k=0;k<this.unbounded.numObjs;k++)
+		{
+			result.add(((IndexEntry)this.unbounded.objs[k]).cell);
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the cells whose chemokine may reach into a rectangle - those within their radius of its edges.  This can include
+	 * a few cells just outside, so callers should clip to the area each cell actually covers
+	 *
+	 * @param minX	Left edge of the rectangle
+	 * @param maxX	Right edge of the rectangle
+	 * @param minY	Bottom edge of the rectangle
+	 * @param maxY	Top edge of the rectangle
+	 * @param result	Bag to fill with the cells found (cleared first)
+	 * @return	The result bag
+	 */
+	public Bag getCellsReaching(double minX,double maxX,double minY,double maxY,Bag result)
+	{
+		result.clear();
+
+		for(int i=Math.max(0,this.bucketX(minX)-1);i<=Math.min(this.buckets.length-1,this.bucketX(maxX)+1);i++)
+		{
+			for(int j=Math.max(0,this.bucketY(minY)-1);j<=Math.min(this.buckets[i].length-1,this.bucketY(maxY)+1);j++)
+			{
+				Bag bucket = this.buckets[i][j];
+				for(int k=0;k<bucket.numObjs;k++)
+				{
+					IndexEntry entry = (IndexEntry)bucket.objs[k];
+					if(entry.x+entry.radius>=minX && entry.x-entry.radius<=maxX && entry.y+entry.radius>=minY && entry.y-entry.radius<=maxY)
+						result.add(entry.cell);
+				}
+			}
+		}
+
+		for(int k=0;k<this.unbounded.numObjs;k++)
+		{
+			result.add(((IndexEntry)this.unbounded.objs[k]).cell);
+		}
+		return result;
+	}
+
+	/**
+	 * @return	The number of cells held in the index
+	 */
+	public int size()
+	{
+		return this.entries.size();
+	}
+
+	/**
+	 * Adds an entry to the bucket its location falls in (or to the unbounded entries)
+	 */
+	private void link(IndexEntry entry)
+	{
+		if(entry.radius<0)
+		{
+			// Never reaches the threshold, so will never be returned
+			return;
+		}
+		else if(Double.isInfinite(entry.radius))
+		{
+			this.unbounded.add(entry);
+		}
+		else
+		{
+			entry.bucketX = this.bucketX(entry.x);
+			entry.bucketY = this.bucketY(entry.y);
+			this.buckets[entry.bucketX][entry.bucketY].add(entry);
+		}
+	}
+
+	/**
+	 * Takes an entry out of whichever bucket it is held in
+	 */
+	private void unlink(IndexEntry entry)
+	{
+		if(entry.radius<0)
+		{
+			return;
+		}
+		else if(Double.isInfinite(entry.radius))
+		{
+			this.unbounded.remove(entry);
+		}
+		else
+		{
+			this.buckets[entry.bucketX][entry.bucketY].remove(entry);
+		}
+	}
+
+	/**
+	 * Recreates the buckets at a new width and places every entry back into them
+	 */
+	private void rebuild(double newBucketSize)
+	{
+		this.bucketSize = newBucketSize;
+		int columns = (int)Math.ceil(this.width/this.bucketSize)+1;
+		int rows = (int)Math.ceil(this.height/this.bucketSize)+1;
+
+		this.buckets = new Bag[columns][rows];
+		for(int i=0;i<columns;i++)
+		{
+			for(int j=0;j<rows;j++)
+			{
+				this.buckets[i][j] = new Bag();
+			}
+		}
+
+		this.unbounded.clear();
+		for(IndexEntry entry : this.entries.values())
+		{
+			this.link(entry);
+		}
+	}
+
+	/**
+	 * Bucket column for an x coordinate, clamped to the indexed area
+	 */
+	private int bucketX(double x)
+	{
+		return Math.max(0,Math.min(this.buckets.length-1,(int)Math.floor(x/this.bucketSize)));
+	}
+
+	/**
+	 * Bucket row for a y coordinate, clamped to the indexed area
+	 */
+	private int bucketY(double y)
+	{
+		return Math.max(0,Math.min(this.buckets[0].length-1,(int)Math.floor(y/this.bucketSize)));
+	}
+}
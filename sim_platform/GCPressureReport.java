@@ -0,0 +1,239 @@
+package sim_platform;
+
+import java.io.FileWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.engine.Stoppable;
+
+/**
+ * Class to report the pressure the simulation puts on the garbage collector.  For each step, the bytes allocated by the
+ * threads running the simulation, and the number and duration of young and old generation collections, are written to a
+ * CSV file in the results folder, followed by the totals for the run.  Used to check that the simulation is not
+ * creating objects it does not need to over long runs
+ *
+ * @author Kieran Alden
+ *
+ */
+public class GCPressureReport implements Steppable,Stoppable
+{
+	/**
+	 * Writer to output the per-step figures to a CSV file
+	 */
+	public FileWriter gcWriter;
+	
+	/**
+	 * Flag to show if this class has been stopped (when no longer needed)
+	 */
+	private Stoppable stopper = null;
+	
+	/**
+	 * Method to change the value of the stopper
+	 * @param stopper	Whether the class should be stopped or not
+	 */
+    public void setStopper(Stoppable stopper)   {this.stopper = stopper;}
+
+    /**
+     * Method to stop the class where necessary
+     */
+    public void stop(){stopper.stop();}
+
+    /**
+     * Thread bean used to read the bytes allocated by each thread - null if the JVM cannot report this
+     */
+    private com.sun.management.ThreadMXBean threadBean;
+
+    /**
+     * Bytes allocated by each live thread (keyed by thread id) when last read.  Only the growth of each thread since then is
+     * added to the total, so a thread that ends (such as a retired fork-join worker) does not take its bytes off the total
+     */
+    private HashMap<Long,Long> threadAllocated = new HashMap<Long,Long>();
+
+    /**
+     * The garbage collectors of the JVM
+     */
+    private List<GarbageCollectorMXBean> collectors;
+
+    /**
+     * Figures as they stood at the last step, so the change over each step can be reported
+     */
+    private long lastAllocated;
+    private long lastYoungCount;
+    private long lastYoungTime;
+    private long lastOldCount;
+    private long lastOldTime;
+
+    /**
+     * Figures as they stood when the report began, so the run totals can be reported
+     */
+    private long startAllocated;
+    private long startYoungCount;
+    private long startYoungTime;
+    private long startOldCount;
+    private long startOldTime;
+
+    /**
+     * Number of steps reported
+     */
+    private long stepsReported = 0;
+	
+	/**
+	 * Opens the CSV file and records the figures at the start of the run
+	 *
+	 * @param ppsim	The current simulation state
+	 */
+	public GCPressureReport(PPatchSim ppsim)
+	{
+		try
+		{
+			java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if(bean instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported())
+			{
+				this.threadBean = (com.sun.management.ThreadMXBean)bean;
+				this.threadBean.setThreadAllocatedMemoryEnabled(true);
+			}
+			this.collectors = ManagementFactory.getGarbageCollectorMXBeans();
+			
+			gcWriter = new FileWriter(ppsim.simulationSpec.resultStoreFilePath+"/"+ppsim.simulationSpec.experimentDescription+"/Results/"+ppsim.simulationSpec.runReplicate+"/gcPressure.csv");
+			gcWriter.append("Step,AllocatedBytes,YoungCollections,YoungCollectionMs,OldCollections,OldCollectionMs,LiveCells,RemovedCells\n");
+			
+			this.readFigures();
+			this.startAllocated = this.lastAllocated;
+			this.startYoungCount = this.lastYoungCount;
+			this.startYoungTime = this.lastYoungTime;
+			this.startOldCount = this.lastOldCount;
+			this.startOldTime = this.lastOldTime;
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Writes the figures for the step just completed, and the run totals once the simulation has ended
+	 */
+	public void step(final SimState state)
+	{
+		PPatchSim ppsim = (PPatchSim)state;
+		
+		try
+		{
+			long allocated = this.lastAllocated;
+			long youngCount = this.lastYoungCount;
+			long youngTime = this.lastYoungTime;
+			long oldCount = this.lastOldCount;
+			long oldTime = this.lastOldTime;
+			
+			this.readFigures();
+			this.stepsReported++;
+			
+			gcWriter.append(ppsim.schedule.getSteps()+","+(this.lastAllocated-allocated)+","+(this.lastYoungCount-youngCount)+","+
+					(this.lastYoungTime-youngTime)+","+(this.lastOldCount-oldCount)+","+(this.lastOldTime-oldTime)+","+
+					ppsim.cellLifecycle.getNumLive(ppsim)+","+ppsim.cellLifecycle.getNumRemoved()+"\n");
+			
+			if(ppsim.schedule.getSteps()*ppsim.simulationSpec.secondsPerStep >= ((ppsim.simulationSpec.simulationTime*60)*60))
+			{
+				// SIMULATION HAS ENDED - OUTPUT THE TOTALS FOR THE RUN
+				this.close(ppsim);
+				
+				this.stop();
+			}
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Writes the totals for the run and closes the CSV file, if not already closed - so a run ended before the simulation 
+	 * time still has its totals written
+	 * 
+	 * @param ppsim	The current simulation state
+	 */
+	public void close(PPatchSim ppsim)
+	{
+		if(gcWriter == null)
+			return;
+		
+		try
+		{
+			gcWriter.append("Total("+this.stepsReported+" steps),"+(this.lastAllocated-this.startAllocated)+","+
+					(this.lastYoungCount-this.startYoungCount)+","+(this.lastYoungTime-this.startYoungTime)+","+
+					(this.lastOldCount-this.startOldCount)+","+(this.lastOldTime-this.startOldTime)+","+
+					ppsim.cellLifecycle.getNumLive(ppsim)+","+ppsim.cellLifecycle.getNumRemoved()+"\n");
+			gcWriter.close();
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+		gcWriter = null;
+	}
+	
+	/**
+	 * Reads the current allocation and collection figures from the JVM
+	 */
+	private void readFigures()
+	{
+		// BYTES ALLOCATED BY ALL LIVE THREADS - SO THIS ALSO COVERS ANY WORKER THREADS USED BY THE SIMULATION.  THE TOTAL ONLY
+		// EVER GROWS: EACH THREAD ADDS WHAT IT ALLOCATED SINCE THE LAST READ (ALL IT HAS ALLOCATED IF STARTED SINCE THEN), AND
+		// THREADS THAT HAVE ENDED ARE DROPPED WITHOUT TAKING OFF WHAT THEY ADDED.  BYTES A THREAD ALLOCATED BETWEEN THE LAST
+		// READ AND ITS END CANNOT BE READ, SO ARE NOT COUNTED
+		if(this.threadBean != null)
+		{
+			long[] ids = this.threadBean.getAllThreadIds();
+			long[] allocated = this.threadBean.getThreadAllocatedBytes(ids);
+			HashMap<Long,Long> liveThreads = new HashMap<Long,Long>();
+			for(int i=0;i<ids.length;i++)
+			{
+				if(allocated[i]<0)
+					continue;
+				
+				Long previous = this.threadAllocated.get(ids[i]);
+				if(previous == null)
+					this.lastAllocated += allocated[i];
+				else if(allocated[i]>previous)
+					this.lastAllocated += allocated[i]-previous;
+				
+				liveThreads.put(ids[i],Math.max(allocated[i],previous==null ? 0 : previous));
+			}
+			this.threadAllocated = liveThreads;
+		}
+		
+		this.lastYoungCount = 0;
+		this.lastYoungTime = 0;
+		this.lastOldCount = 0;
+		this.lastOldTime = 0;
+		
+		for(GarbageCollectorMXBean collector : this.collectors)
+		{
+			if(isYoungCollector(collector.getName()))
+			{
+				this.lastYoungCount += collector.getCollectionCount();
+				this.lastYoungTime += collector.getCollectionTime();
+			}
+			else
+			{
+				this.lastOldCount += collector.getCollectionCount();
+				this.lastOldTime += collector.getCollectionTime();
+			}
+		}
+	}
+	
+	/**
+	 * Determines from its name whether a garbage collector collects the young generation
+	 *
+	 * @param name	Name of the collector
+	 * @return	Whether the collector is a young generation collector
+	 */
+	private static boolean isYoungCollector(String name)
+	{
+		return name.contains("Young") || name.contains("Scavenge") || name.contains("ParNew") || name.equals("Copy");
+	}
+}
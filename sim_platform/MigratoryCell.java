@@ -0,0 +1,69 @@
+package sim_platform;
+
+import sim.engine.Steppable;
+import sim.util.Double2D;
+
+/**
+ * Interface implemented by cells that migrate across the tract (LTin and LTi cells in the Peyer's Patch simulation).  Allows 
+ * the platform, and other cells, to query and drive these cells without the use of reflection
+ * 
+ * @author Kieran Alden
+ *
+ */
+public interface MigratoryCell extends Steppable
+{
+	/**
+	 * @return	The current location of the cell (the cell holds its coordinates as primitives, so this is created on request)
+	 */
+	public Double2D getLocation();
+	
+	/**
+	 * @return	The current state of the cell (also used as a colour reference on the display)
+	 */
+	public int getCellState();
+	
+	/**
+	 * @return	Whether this cell is expressing RET Ligand (i.e. acting as a decoy)
+	 */
+	public boolean isExpressingRETLigand();
+	
+	/**
+	 * Determines whether this cell is in contact with another migratory cell
+	 * 
+	 * @param tract	The space on which the cells are placed
+	 * @return	Whether there is contact with another migratory cell
+	 */
+	public boolean ltiltinCollision(TractSpace tract);
+	
+	/**
+	 * Adds this cell to the population stepping the cells of its type
+	 * 
+	 * @param population	The population stepping cells of this type
+	 */
+	public void addToPopulation(CellPopulation population);
+	
+	/**
+	 * Sets the location at which tracking of this cell began to the current location
+	 */
+	public void setAgentTrackStartLocation();
+	
+	/**
+	 * Sets the location at which tracking of this cell ended to the current location
+	 */
+	public void setAgentTrackEndLocation();
+	
+	/**
+	 * Clears the location at which tracking of this cell ended, as a new tracking period begins
+	 */
+	public void clearAgentTrackEndLocation();
+	
+	/**
+	 * @return	The location at which tracking of this cell began
+	 */
+	public Double2D getTrackStartLocation();
+	
+	/**
+	 * @return	The location at which tracking of this cell ended, or null if not yet recorded
+	 */
+	public Double2D getTrackEndLocation();
+}
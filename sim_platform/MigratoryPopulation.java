@@ -0,0 +1,151 @@
+package sim_platform;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import sim.engine.Schedule;
+import sim.engine.Steppable;
+import sim.field.continuous.Continuous2D;
+import sim.util.Bag;
+
+/**
+ * Interface implemented by engines that hold a whole population of migratory cells as columns of primitive values (one row
+ * per cell) rather than as one object per cell, stepping every cell in one loop.  Allows the platform to add cells to the
+ * population, track them and display them without knowing which cell types the engine holds.  Objects for the cells are
+ * only made where something outside the engine needs one - the display, and the cell tracking output
+ *
+ * @author Kieran Alden
+ *
+ */
+public interface MigratoryPopulation extends Steppable
+{
+	/**
+	 * @param cellType	A migratory cell type named in the simulation XML
+	 * @return	Whether cells of this type can be held by the population
+	 */
+	public boolean holds(PluginBinding cellType);
+
+	/**
+	 * Adds a cell to the population
+	 *
+	 * @param ppsim	The current simulation state
+	 * @param cellType	The type of cell to add
+	 * @param x	The x coordinate of the cell
+	 * @param y	The y coordinate of the cell
+	 * @return	The row the cell is held in
+	 */
+	public int addCell(PPatchSim ppsim,PluginBinding cellType,double x,double y);
+
+	/**
+	 * @param x	The x coordinate of a point
+	 * @param y	The y coordinate of a point
+	 * @param distance	The contact distance
+	 * @return	Whether any cell of the population is within the distance of the point
+	 */
+	public boolean inContact(double x,double y,double distance);
+
+	/**
+	 * @return	The number of cells held in the population
+	 */
+	public int size();
+
+	/**
+	 * Adds a cell to those tracked away from the stroma, tracking from its current location
+	 *
+	 * @param row	The row the cell is held in
+	 */
+	public void beginTracking(int row);
+
+	/**
+	 * Sets the track start location of every cell still in the tract to its current location, as a new tracking period begins,
+	 * and starts the track of every tracked cell again
+	 */
+	public void startTrackingPeriod();
+
+	/**
+	 * Sets the track end location of every cell still in the tract, and of every tracked cell that has not yet recorded one, as
+	 * the tracking period ends
+	 */
+	public void endTrackingPeriod();
+
+	/**
+	 * Makes an object for each tracked cell, so the tracks can be output as for cells stepped as objects
+	 *
+	 * @param close	Bag to add the cells tracked close to the stroma to
+	 * @param away	Bag to add the cells tracked away from the stroma to
+	 */
+	public void addTrackedCells(Bag close,Bag away);
+
+	/**
+	 * Brings the Continuous2D used by the graphical display up to date with the cells of the population, and returns it.  An
+	 * object is made for each cell the first time this is called, so the cells can be drawn and inspected
+	 *
+	 * @return	Continuous2D holding an object for each cell at its current location
+	 */
+	public Continuous2D getDisplayField();
+
+	/**
+	 * Sets whether cells crossing each edge of the tract are handed to the process simulating the neighbouring strip of a
+	 * longer tract (see StripCoordinator), rather than leaving the tract
+	 *
+	 * @param left	Whether the left edge is open
+	 * @param right	Whether the right edge is open
+	 */
+	public void setOpenEdges(boolean left,boolean right);
+
+	/**
+	 * Writes each cell that crossed an open edge in the last step, and removes it from the population
+	 *
+	 * @param ppsim	The current simulation state
+	 * @param out	Stream to write the cells to
+	 * @param rightEdge	Whether to write the cells crossing the right edge (true) or the left (false)
+	 * @return	The number of cells written
+	 * @throws IOException	If the cells cannot be written
+	 */
+	public int writeCrossingCells(PPatchSim ppsim,DataOutput out,boolean rightEdge) throws IOException;
+
+	/**
+	 * Reads a cell written by writeCrossingCells in a neighbouring strip, and adds it to the population
+	 *
+	 * @param ppsim	The current simulation state
+	 * @param in	Stream to read the cell from
+	 * @param shiftX	Amount added to the x coordinate of the cell, taking it into the coordinates of this tract
+	 * @throws IOException	If the cell cannot be read
+	 */
+	public void readArrivingCell(PPatchSim ppsim,DataInput in,double shiftX) throws IOException;
+
+	/**
+	 * Writes the location of each cell within the halo of an open edge - the distance within which cells of the neighbouring
+	 * strip can contact it
+	 *
+	 * @param ppsim	The current simulation state
+	 * @param out	Stream to write the locations to
+	 * @param rightEdge	Whether to write the cells by the right edge (true) or the left (false)
+	 * @return	The number of cells written
+	 * @throws IOException	If the cells cannot be written
+	 */
+	public int writeHaloCells(PPatchSim ppsim,DataOutput out,boolean rightEdge) throws IOException;
+
+	/**
+	 * Removes the halo cells read from the neighbouring strips, before those of a new step are read
+	 */
+	public void clearHalo();
+
+	/**
+	 * Reads the location of a cell written by writeHaloCells in a neighbouring strip.  The cell is checked for contact with
+	 * the cells of the population until the halo is next cleared
+	 *
+	 * @param in	Stream to read the location from
+	 * @param shiftX	Amount added to the x coordinate of the cell, taking it into the coordinates of this tract
+	 * @throws IOException	If the location cannot be read
+	 */
+	public void readHaloCell(DataInput in,double shiftX) throws IOException;
+
+	/**
+	 * Adds the population to the simulation schedule
+	 *
+	 * @param sch	The simulation schedule
+	 */
+	public void addToSchedule(Schedule sch);
+}
@@ -0,0 +1,20 @@
+package sim_platform;
+
+/**
+ * Callback used to go through the cells found by a neighbour query on the tract, without the query having to gather them 
+ * into a new Bag.  Returning false from visit stops the query, so a search for the first cell of a type ends as soon as 
+ * it is found
+ * 
+ * @author Kieran Alden
+ *
+ */
+public interface NeighbourVisitor
+{
+	/**
+	 * Called for each cell found by the query, in the order the query finds them
+	 * 
+	 * @param cell	The cell found
+	 * @return	Whether the query should carry on to the next cell - false to stop at this one
+	 */
+	public boolean visit(Object cell);
+}
@@ -0,0 +1,162 @@
+package sim_platform;
+
+import sim.engine.SimState;
+import sim.engine.Steppable;
+
+/**
+ * Registers the observations made of the simulation - the cell tracking ranges, the patch statistics output hours, and the
+ * tract images - as events on the schedule when the run starts, rather than each being checked for on every step.  Each hour
+ * is turned into the index of the step it falls at, and an event scheduled once at that step.  The observation events run
+ * before the cells are stepped, so each observes the simulation as it was at the end of the step before: at the hour itself
+ *
+ * @author Kieran Alden
+ *
+ */
+public class ObservationScheduler
+{
+	/**
+	 * Ordering of the events ending a tracking range - before any other event of the step, so a range ending at the hour the
+	 * next starts is output before that range begins
+	 */
+	public static final int RANGE_END_ORDERING = -2;
+
+	/**
+	 * Ordering of the other observation events - before the cells and the other steppables, which are scheduled at 0
+	 */
+	public static final int OBSERVATION_ORDERING = -1;
+
+	/**
+	 * Turns an hour of the simulation into the index of the step at which it is reached - the first step at or after that
+	 * hour, so an hour that the step length does not divide falls at the step after it rather than never being reached
+	 *
+	 * @param ppsim	The current simulation state
+	 * @param hours	The hour of the simulation
+	 * @return	The index of the step, as returned by schedule.getSteps() while that step runs
+	 */
+	public static long stepAtHour(PPatchSim ppsim,double hours)
+	{
+		double step = (hours*60*60)/ppsim.simulationSpec.secondsPerStep;
+
+		// ALLOW FOR ROUNDING IN THE DIVISION, SO AN HOUR THE STEP LENGTH DOES DIVIDE IS NOT PUT BACK A STEP
+		long nearest = Math.round(step);
+		if(Math.abs(step-nearest)<1e-6)
+			return nearest;
+		else
+			return (long)Math.ceil(step);
+	}
+
+	/**
+	 * @param ppsim	The current simulation state
+	 * @return	The index of the step at which the simulation time ends
+	 */
+	public static long endStep(PPatchSim ppsim)
+	{
+		return stepAtHour(ppsim,ppsim.simulationSpec.simulationTime);
+	}
+
+	/**
+	 * Schedules every observation required by the simulation spec.  Called as the run starts, once the tracking and patch
+	 * statistics classes have been created
+	 *
+	 * @param ppsim	The current simulation state
+	 */
+	public static void scheduleObservations(final PPatchSim ppsim)
+	{
+		// 1: CELL TRACKING RANGES, AND THE IMAGES TAKEN EACH STEP WITHIN THEM
+		if(ppsim.simulationSpec.cellTrackingEnabled)
+		{
+			for(int i=0;i<ppsim.cellTrackStats.trackingStartHours.size();i++)
+			{
+				long startStep = stepAtHour(ppsim,ppsim.cellTrackStats.trackingStartHours.get(i));
+				long endStep = stepAtHour(ppsim,ppsim.cellTrackStats.trackingEndHours.get(i));
+
+				scheduleAt(ppsim,startStep,OBSERVATION_ORDERING,new Steppable()
+				{
+					public void step(SimState state)
+					{
+						ppsim.cellTrackStats.startTrackingRange(ppsim);
+					}
+				});
+
+				scheduleAt(ppsim,endStep,RANGE_END_ORDERING,new Steppable()
+				{
+					public void step(SimState state)
+					{
+						ppsim.cellTrackStats.endTrackingRange(ppsim);
+					}
+				});
+
+				if(ppsim.simulationSpec.stepBystepTrackingImages)
+				{
+					for(long step=startStep;step<endStep;step++)
+					{
+						scheduleSnap(ppsim,step,ppsim.simulationSpec.resultStoreFilePath+"/"+ppsim.simulationSpec.experimentDescription+"/"+step);
+					}
+				}
+			}
+		}
+
+		// 2: PATCH STATISTICS - AT EACH OUTPUT HOUR BEFORE THE END, THEN AT THE END
+		if(ppsim.patchStatsGeneration != null)
+		{
+			for(int i=0;i<ppsim.patchStatsGeneration.patchStatHours.size();i++)
+			{
+				if(stepAtHour(ppsim,ppsim.patchStatsGeneration.patchStatHours.get(i))<endStep(ppsim))
+				{
+					scheduleAt(ppsim,stepAtHour(ppsim,ppsim.patchStatsGeneration.patchStatHours.get(i)),OBSERVATION_ORDERING,new Steppable()
+					{
+						public void step(SimState state)
+						{
+							ppsim.patchStatsGeneration.outputPatchStatsHour(ppsim);
+						}
+					});
+				}
+			}
+
+			scheduleAt(ppsim,endStep(ppsim),OBSERVATION_ORDERING,new Steppable()
+			{
+				public void step(SimState state)
+				{
+					ppsim.patchStatsGeneration.outputPatchStats(ppsim);
+				}
+			});
+		}
+
+		// 3: IMAGES OF THE TRACT AT THE START, EVERY 12 HOURS, AND AT THE END
+		if(ppsim.simulationSpec.twelveHourSnaps)
+		{
+			String snapPath = ppsim.simulationSpec.resultStoreFilePath+ppsim.simulationSpec.experimentDescription;
+
+			scheduleSnap(ppsim,1,snapPath+"/Initial");
+			for(int hour=12;hour<=48;hour+=12)
+			{
+				if(stepAtHour(ppsim,hour)<endStep(ppsim))
+					scheduleSnap(ppsim,stepAtHour(ppsim,hour),snapPath+"/"+hour+"Hours");
+			}
+			scheduleSnap(ppsim,endStep(ppsim),ppsim.simulationSpec.resultStoreFilePath+"/"+ppsim.simulationSpec.experimentDescription+"/End Snapshot");
+		}
+	}
+
+	/**
+	 * Schedules an image of the tract to be taken at a step
+	 */
+	private static void scheduleSnap(final PPatchSim ppsim,long step,final String snapPath)
+	{
+		scheduleAt(ppsim,step,OBSERVATION_ORDERING,new Steppable()
+		{
+			public void step(SimState state)
+			{
+				ppsim.captureTrackImage.takeSnap(ppsim,snapPath);
+			}
+		});
+	}
+
+	/**
+	 * Schedules an event once at a step, if the simulation runs that far
+	 */
+	private static void scheduleAt(PPatchSim ppsim,long step,int ordering,Steppable event)
+	{
+		if(step<=endStep(ppsim))
+			ppsim.schedule.scheduleOnce(step,ordering,event);
+	}
+}
@@ -1,8 +1,10 @@
 package sim_platform;
 
 import java.awt.Color;
-import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.SortedMap;
 
 import sim.util.*;
@@ -48,13 +50,13 @@ public class PPatchSim extends SimState
 	 */
 	//public SimParameters simParams;
 	
-	public static String xmlFilePath;
+	public String xmlFilePath;
 	
 	/**
 	 * Short description of this run.
 	 * e.g. for a sensitivity analysis experiment, this could simply be a run number
 	 */
-	public static String runReplicate;
+	public String runReplicate;
 	
 	public Setup_Simulation simulationSpec;
 	
@@ -119,7 +121,7 @@ public class PPatchSim extends SimState
 	 * 												ENVIRONMENT 
 	 */
 	
-	public Object intestine_env;
+	public SimEnvironment intestine_env;
 	
 	
 	public SortedMap<String,Integer> simulatedCellCellularity;
@@ -156,7 +158,8 @@ public class PPatchSim extends SimState
 	/**
 	 * <a name = "cellColours"></a>
 	 * <b>Description:<br></b> 
-	 * Colour array be used to match a colour to the colourCode variable, representing cell state
+	 * Colour array be used to match a colour to the colourCode variable, representing cell state.  Filled once as the class 
+	 * is loaded and not changed after, so it is shared by every simulation in the JVM
 	 * <br><br>
 	 * <b>Restrictions:<br></b>
 	 * None
@@ -165,7 +168,7 @@ public class PPatchSim extends SimState
 	 * ArrayList
 	 * <br><br>
 	 */
-    public static ArrayList<Color> cellColours = new ArrayList<Color>();
+    public static final List<Color> cellColours = popColourArray();
 
     /**
 	 * <a name = "lToGrid"></a>
@@ -198,7 +201,7 @@ public class PPatchSim extends SimState
 	 * Number of Cells
 	 * <br><br>
 	 */
-	public static int numActiveLTo;
+	public int numActiveLTo;
 	
 	/**
 	 * <a name = "ltoCellsBag"></a>
@@ -240,7 +243,7 @@ public class PPatchSim extends SimState
 	 * Data Storage (Bag)
 	 * <br><br>
 	 */
-	public static Bag RETLigandNonStromalCellsBag;
+	public Bag RETLigandNonStromalCellsBag;
 	
 	
 	/***************************************************************************************************
@@ -261,6 +264,70 @@ public class PPatchSim extends SimState
 	 */
 	public PatchStatistics patchStatsGeneration;
 	
+	/**
+	 * <a name = "gcPressureReport"></a>
+	 * <b>Description:<br></b> 
+	 * Object used to report the memory allocated and garbage collection performed each step, if requested
+	 * <br><br>
+	 * <b>Restrictions:<br></b>
+	 * None
+	 * <br><br>
+	 * <b>Units & Representation:<br></b>
+	 * Object of GCPressureReport
+	 * <br><br>
+	 */
+	public GCPressureReport gcPressureReport;
+	
+	/**
+	 * <a name = "cellLifecycle"></a>
+	 * <b>Description:<br></b> 
+	 * Object used to remove cells from the simulation - from the tract, the schedule, the tracking and the bags of each type - 
+	 * and to count the cells removed
+	 * <br><br>
+	 * <b>Restrictions:<br></b>
+	 * None
+	 * <br><br>
+	 * <b>Units & Representation:<br></b>
+	 * Object of CellLifecycle
+	 * <br><br>
+	 */
+	public CellLifecycle cellLifecycle;
+	
+	/**
+	 * <a name = "runResult"></a>
+	 * <b>Description:<br></b> 
+	 * Summary of the run, recorded as the run ends - whether it reached the simulation time, and the state of the simulation 
+	 * at its end.  Null while the run is in progress
+	 * <br><br>
+	 * <b>Restrictions:<br></b>
+	 * None
+	 * <br><br>
+	 * <b>Units & Representation:<br></b>
+	 * Object of RunResult
+	 * <br><br>
+	 */
+	public RunResult runResult;
+	
+	/**
+	 * <a name = "RUN_END_ORDERING"></a>
+	 * <b>Description:<br></b> 
+	 * Ordering at which the run is ended in the last step - after the cells, the other steppables, and the compaction of the 
+	 * bags, so every event of that step has run
+	 * <br><br>
+	 * <b>Restrictions:<br></b>
+	 * Must be greater than the ordering of any other steppable
+	 * <br><br>
+	 * <b>Units & Representation:<br></b>
+	 * Schedule ordering
+	 * <br><br>
+	 */
+	public static final int RUN_END_ORDERING = CellLifecycle.COMPACTION_ORDERING+1;
+	
+	/**
+	 * Wall clock time the run started at, in nanoseconds
+	 */
+	private long runStartTime;
+	
 	/**
 	 * <a name = "cellTrackStats"></a>
 	 * <b>Description:<br></b> 
@@ -291,6 +358,67 @@ public class PPatchSim extends SimState
 	
 	public CellInputControl hemCells;
 	
+	/**
+	 * <a name = "cellArrivalSchedule"></a>
+	 * <b>Description:<br></b> 
+	 * Number of cells of each type to add at each step, compiled as the first run starts and kept for the runs after it on 
+	 * this instance while the parameters are unchanged.  A caller running replicates on other instances can set it on each 
+	 * before it starts, to share one schedule between them
+	 * <br><br>
+	 * <b>Restrictions:<br></b>
+	 * None
+	 * <br><br>
+	 * <b>Units & Representation:<br></b>
+	 * Object of CellArrivalSchedule
+	 * <br><br>
+	 */
+	public CellArrivalSchedule cellArrivalSchedule;
+	
+	/**
+	 * <a name = "migratoryCells"></a>
+	 * <b>Description:<br></b> 
+	 * Engine holding the migratory cells as columns, where one is named in the simulation XML.  Null if the migratory cells 
+	 * are stepped as objects
+	 * <br><br>
+	 * <b>Restrictions:<br></b>
+	 * None
+	 * <br><br>
+	 * <b>Units & Representation:<br></b>
+	 * Object implementing MigratoryPopulation
+	 * <br><br>
+	 */
+	public MigratoryPopulation migratoryCells;
+	
+	/**
+	 * <a name = "randomStreams"></a>
+	 * <b>Description:<br></b> 
+	 * Stream of random numbers for the run, seeded from the simulation's random number generator as the run starts.  Each 
+	 * migratory cell splits its own stream from this, and makes all of its random choices from that
+	 * <br><br>
+	 * <b>Restrictions:<br></b>
+	 * None
+	 * <br><br>
+	 * <b>Units & Representation:<br></b>
+	 * RandomStream
+	 * <br><br>
+	 */
+	public RandomStream randomStreams;
+	
+	/**
+	 * <a name = "cellPopulations"></a>
+	 * <b>Description:<br></b> 
+	 * Population stepping each type of cell stepped as an object, keyed by the class of cell.  Each population is scheduled 
+	 * once, as its first cell is added, rather than each cell being scheduled itself
+	 * <br><br>
+	 * <b>Restrictions:<br></b>
+	 * None
+	 * <br><br>
+	 * <b>Units & Representation:<br></b>
+	 * HashMap of Class to CellPopulation
+	 * <br><br>
+	 */
+	public HashMap<Class<?>,CellPopulation> cellPopulations;
+	
 	public Bag allLTis = new Bag();
 	
 	
@@ -313,18 +441,53 @@ public class PPatchSim extends SimState
 
 	}
 	
+	/**
+	 * @param seed
+	 * @param xmlFilePath	The simulation XML, read as the run starts
+	 * @param runReplicate	Short description of this run
+	 */
+	public PPatchSim(long seed,String xmlFilePath,String runReplicate)
+	{
+		super(new MersenneTwisterFast(seed),new Schedule());
+		this.xmlFilePath = xmlFilePath;
+		this.runReplicate = runReplicate;
+	}
+	
 	public PPatchSim(long seed,String[] args)
 	{
 		super(new MersenneTwisterFast(seed),new Schedule());
 		
 		// START THE RUN
-		doLoop(PPatchSim.class,args);
+		doLoop(simulationsFor(args[0],args[1]),args);
+	}
+	
+	/**
+	 * Creates the simulations doLoop runs - each one reading the given XML file as it starts
+	 * 
+	 * @param xmlFilePath	The simulation XML
+	 * @param runReplicate	Short description of the run
+	 * @return	Object doLoop creates each simulation with
+	 */
+	private static MakesSimState simulationsFor(final String xmlFilePath,final String runReplicate)
+	{
+		return new MakesSimState()
+		{
+			public SimState newInstance(long seed,String[] args)
+			{
+				return new PPatchSim(seed,xmlFilePath,runReplicate);
+			}
+			
+			public Class simulationClass()
+			{
+				return PPatchSim.class;
+			}
+		};
 	}
 	
 	
 	
 	/**
-	 * Begins the simulation by calling doLoop to run the start method until the simulation exits
+	 * Begins the simulation by calling doLoop to run the start method until the run ends
 	 * @param args
 	 */
 	public static void main(String[] args)
@@ -332,6 +495,9 @@ public class PPatchSim extends SimState
 		// Set up the simulation display & console
 		// Check whether running from the command line or eclipse
 		
+		String xmlFilePath;
+		String runReplicate;
+		
 		if(args.length > 0)
 		{
 			// Command line run (arguments should have been supplied!)
@@ -348,15 +514,63 @@ public class PPatchSim extends SimState
 		}
 		
 		// START THE RUN
-		doLoop(PPatchSim.class,args);		
+		doLoop(simulationsFor(xmlFilePath,runReplicate),args);		
 		
 	}
 	
 	/**
-	 * Ends the simulation after the 72 hour period - taking the final snapshot if image output is required
+	 * Runs the simulation from start to end in the calling thread, without a console, and returns the result of the run.  As 
+	 * the run ends without exiting the JVM, many replicates can be run one after another in the same JVM
+	 * 
+	 * @return	The result of the run
+	 */
+	public RunResult run()
+	{
+		this.start();
+		
+		// THE SCHEDULE IS EMPTIED AS THE RUN ENDS, SO STEPPING THEN RETURNS FALSE
+		while(this.schedule.step(this))
+		{
+		}
+		
+		this.finish();
+		return this.runResult;
+	}
+	
+	/**
+	 * Ends the run once the simulation time has been reached.  Scheduled at the end of the last step, once every other event 
+	 * of that step (including the final patch statistics and snapshot) has run.  The result of the run is recorded and the 
+	 * schedule emptied, so the loop stepping the simulation - doLoop, the console, or run() - returns
+	 */
+	public void endRun()
+	{
+		this.runResult = new RunResult(this,true,(System.nanoTime()-this.runStartTime)/1e9);
+		this.schedule.clear();
+	}
+	
+	/**
+	 * Ends the simulation after the 72 hour period - taking the final snapshot if image output is required.  Also called when 
+	 * the run is stopped before then, in which case the run is recorded as ended early
 	 */
 	public void finish()
 	{	
+		if(this.runResult==null && this.cellLifecycle!=null)
+		{
+			this.runResult = new RunResult(this,false,(System.nanoTime()-this.runStartTime)/1e9);
+		}
+		
+		// STOP THE MIGRATORY POPULATION, SHUTTING DOWN ANY THREADS IT STEPS THE CELLS WITH
+		if(this.migratoryCells instanceof Stoppable)
+		{
+			((Stoppable)this.migratoryCells).stop();
+		}
+		
+		// WRITE THE GARBAGE COLLECTION TOTALS IF THE RUN ENDED BEFORE THEY WERE WRITTEN
+		if(this.gcPressureReport!=null)
+		{
+			this.gcPressureReport.close(this);
+		}
+		
 		super.finish();
 		
 	}
@@ -367,6 +581,12 @@ public class PPatchSim extends SimState
 	 */
 	public void start()
 	{	
+		// ONLY SET BELOW WHERE THE SPEC ASKS FOR THEM, SO NONE ARE CARRIED OVER FROM AN EARLIER RUN ON THIS INSTANCE
+		this.migratoryCells = null;
+		this.gcPressureReport = null;
+		this.patchStatsGeneration = null;
+		this.cellTrackStats = null;
+		
 		// READ IN THE DETAILS TO BUILD THE SIMULATION IF LAUNCHED WITHOUT A GUI
 		if(this.simulationSpec==null)			// launched without a GUI or wrapper
 		{
@@ -412,43 +632,46 @@ public class PPatchSim extends SimState
 			}
 		}
 		
+		// THE STREAM THE CELLS SPLIT THEIR OWN RANDOM NUMBER STREAMS FROM - DERIVED FROM THE SEED OF THE RUN
+		this.randomStreams = new RandomStream(this.random.nextLong());
+		
+		// THE POPULATIONS OF EACH CELL TYPE ARE SCHEDULED AS THE FIRST CELL OF THAT TYPE IS ADDED
+		this.cellPopulations = new HashMap<Class<?>,CellPopulation>();
+		
+		// RESOLVE THE PLUGIN CLASSES NAMED IN THE XML ONCE, SO CELLS CAN BE CREATED WITHOUT REPEATING THE LOOKUP
+		PluginRegistry.bindAll(this.simulationSpec);
+
 		// Set up track imaging if required
 		captureTrackImage = new TrackImaging();
 		
-		// 1: Populate the colour array for use in the display class (If GUI on)
-		this.popColourArray();
-		
 		// 2: Declare the cell storage bags
 		ltoCellsBag = new Bag();
 		activelToCellsBag = new Bag();
 		RETLigandNonStromalCellsBag = new Bag();
 		
 		// SET UP THE ENVIRONMENT FROM EXTERNAL CLASS
+		// BUILT AFRESH FOR EACH RUN, SO A RUN STARTED AGAIN ON THE SAME INSTANCE (BY run() OR THE CONSOLE) BEGINS ON AN EMPTY TRACT
 		
-		if(this.intestine_env == null)
+		try
 		{
-			try
-			{
-				// Have read in the environment array earlier (simEnvironment)
-				Class<?> environment = Class.forName(simEnvironment.get(0).toString());
-				
-				// CONSTRUCTOR WITH INPUT SIZES
-				Constructor<?> con = environment.getConstructor(new Class[]{Double.class, Double.class, Double.class, Double.class, Double.class});
-				this.intestine_env = con.newInstance(Double.parseDouble(simEnvironment.get(1).toString()),
-						Double.parseDouble(simEnvironment.get(2).toString()),
-						Double.parseDouble(simEnvironment.get(3).toString()),
-						Double.parseDouble(simEnvironment.get(4).toString()),
-						Double.parseDouble(simEnvironment.get(5).toString()));
+			// Have read in the environment array earlier (simEnvironment)
+			PluginBinding environment = PluginRegistry.get(simEnvironment.get(0).toString());
+
+			// CONSTRUCTOR WITH INPUT SIZES
+			this.intestine_env = environment.newEnvironment(Double.parseDouble(simEnvironment.get(1).toString()),
+					Double.parseDouble(simEnvironment.get(2).toString()),
+					Double.parseDouble(simEnvironment.get(3).toString()),
+					Double.parseDouble(simEnvironment.get(4).toString()),
+					Double.parseDouble(simEnvironment.get(5).toString()));
 				
-				// CONSTRUCTORS WITHOUT
-				//Constructor<?> con = environment.getConstructor(new Class[]{});
-				//this.intestine_env = con.newInstance();
+			// CONSTRUCTORS WITHOUT
+			//Constructor<?> con = environment.getConstructor(new Class[]{});
+			//this.intestine_env = con.newInstance();
 				
-			}
-			catch(Exception e)
-			{
-				e.printStackTrace();
-			}
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
 		}
 	
 		
@@ -461,18 +684,15 @@ public class PPatchSim extends SimState
 		
 		// 6. Set up grid to use to calculate chemokine diffusion
 		
-		try
-		{
-			chemoGrid = new ChemokineGrid(this.intestine_env.getClass().getDeclaredField("initialGridLength").getDouble(this.intestine_env),
-				this.intestine_env.getClass().getDeclaredField("initialGridLength").getDouble(this.intestine_env));
-		}
-		catch(Exception e)
-		{
-			e.printStackTrace();
-		}
+		chemoGrid = new ChemokineGrid(this.intestine_env.getInitialGridLength(),this.intestine_env.getInitialGridLength());
 		
 		// B: Start the simulation back functions
 		super.start();
+		this.runResult = null;
+		this.runStartTime = System.nanoTime();
+		
+		// CREATED ONCE THE SCHEDULE HAS BEEN RESET, AS THIS SCHEDULES THE COMPACTION OF THE BAGS EACH STEP
+		this.cellLifecycle = new CellLifecycle(this);
 		
 		// C: Place the LTo and Decoy cells on the stroma
 		// GET THE SIZE OF AN LTO CELL (OR STROMAL CELL OBJECT)
@@ -482,45 +702,113 @@ public class PPatchSim extends SimState
 		if(this.simulationSpec.cellTrackingEnabled)
 		{
 			cellTrackStats = new CellTracking(this);
-			cellTrackStats.setStopper(schedule.scheduleRepeating(cellTrackStats));
 		}
 		
 		// D: Initialise Cell Input Control
 		hemCells = new CellInputControl(schedule,this,this.simulationSpec.cells);	
 		hemCells.setStopper(schedule.scheduleRepeating(hemCells));
 		
+		// Migratory cells held as columns, if an engine is named - it must be able to hold every migratory cell type
+		if(this.simulationSpec.migratoryCellPopulation != null)
+		{
+			this.migratoryCells = PluginRegistry.get(this.simulationSpec.migratoryCellPopulation).newPopulation(this,this.simulationSpec.cells);
+			
+			for(int i=0;i<this.simulationSpec.cells.size() && this.migratoryCells!=null;i++)
+			{
+				if(!this.migratoryCells.holds(PluginRegistry.get(this.simulationSpec.cells.get(i).get(0).toString())))
+				{
+					new IllegalArgumentException(this.simulationSpec.migratoryCellPopulation+" cannot hold "+this.simulationSpec.cells.get(i).get(0)+" cells - stepping the migratory cells as objects").printStackTrace();
+					this.migratoryCells = null;
+				}
+			}
+			
+			if(this.migratoryCells != null)
+				this.migratoryCells.addToSchedule(schedule);
+		}
+		
+		// Broad-phase contact list - built by the tract at the first contact check of each step, rather than scheduled, so the
+		// order the cells are stepped in is unchanged
+		if(this.simulationSpec.broadPhaseCollision)
+		{
+			this.intestine_env.getTract().enableBroadPhase(schedule,hemCells.getLargestCellDiameter(),hemCells.cellSpeedUpBound);
+		}
+		
 		// E: Initialise Patch Statistics collection
 		if(this.simulationSpec.patchStatsOutputHours != null)
 		{
 			patchStatsGeneration = new PatchStatistics(this);
-			patchStatsGeneration.setStopper(schedule.scheduleRepeating(patchStatsGeneration));
 		}
 		
+		// F: Initialise the garbage collection pressure report
+		if(this.simulationSpec.reportGCPressure)
+		{
+			gcPressureReport = new GCPressureReport(this);
+			gcPressureReport.setStopper(schedule.scheduleRepeating(gcPressureReport));
+		}
+		
+		// H: Schedule the cell tracking ranges, patch statistics and tract images at the steps they fall at
+		ObservationScheduler.scheduleObservations(this);
+		
+		// I: End the run at the last step, once everything else in that step has run
+		schedule.scheduleOnce(ObservationScheduler.endStep(this),RUN_END_ORDERING,new Steppable()
+		{
+			public void step(SimState state)
+			{
+				endRun();
+			}
+		});
+		
 		
 	}
 	
+	/**
+	 * Returns the population stepping cells of the same class as the given cell, creating and scheduling it if this is the 
+	 * first cell of that class
+	 * 
+	 * @param cell	The cell to be stepped
+	 * @return	The population stepping cells of this class
+	 */
+	public CellPopulation populationOf(Object cell)
+	{
+		CellPopulation population = this.cellPopulations.get(cell.getClass());
+		
+		if(population == null)
+		{
+			population = new CellPopulation(this.schedule,this.simulationSpec.shuffleCellOrder ? this.random : null);
+			this.cellPopulations.put(cell.getClass(),population);
+		}
+		
+		return population;
+	}
+	
 	/**
 	 * Creates an array of cell colours to use for the on screen display
+	 * 
+	 * @return	The colours, indexed by cell state
 	 */
-	public void popColourArray()
+	private static List<Color> popColourArray()
     {
-    	PPatchSim.cellColours.add(Color.black);
+    	ArrayList<Color> cellColours = new ArrayList<Color>();
     	
-    	PPatchSim.cellColours.add(Color.LIGHT_GRAY);   // lighter blue
-    	PPatchSim.cellColours.add(Color.LIGHT_GRAY);   // lighter blue
-    	PPatchSim.cellColours.add(Color.LIGHT_GRAY);   // lighter blue
+    	cellColours.add(Color.black);
+    	
+    	cellColours.add(Color.LIGHT_GRAY);   // lighter blue
+    	cellColours.add(Color.LIGHT_GRAY);   // lighter blue
+    	cellColours.add(Color.LIGHT_GRAY);   // lighter blue
 		
     	// LTIN COLOURS
-    	PPatchSim.cellColours.add(new Color(255,0,0));   // red
-    	PPatchSim.cellColours.add(new Color(255,165,0));   // orange
-    	PPatchSim.cellColours.add(Color.orange);
+    	cellColours.add(new Color(255,0,0));   // red
+    	cellColours.add(new Color(255,165,0));   // orange
+    	cellColours.add(Color.orange);
     	    	
     	// LTI COLOURS
-    	PPatchSim.cellColours.add(new Color(0,255,0));   // green
-    	PPatchSim.cellColours.add(new Color(0,255,0));   // green
+    	cellColours.add(new Color(0,255,0));   // green
+    	cellColours.add(new Color(0,255,0));   // green
     	
     	// red in twice as LTi changes state, yet no need to demonstrate this
-    	PPatchSim.cellColours.add(Color.black);
+    	cellColours.add(Color.black);
+    	
+    	return Collections.unmodifiableList(cellColours);
     }
 	
 	
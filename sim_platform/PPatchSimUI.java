@@ -1,10 +1,7 @@
 package sim_platform;
 
-import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Toolkit;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 
 import javax.swing.JFrame;
@@ -13,6 +10,7 @@ import sim.display.Controller;
 import sim.display.Display2D;
 import sim.display.GUIState;
 import sim.engine.SimState;
+import sim.engine.Steppable;
 import sim.portrayal.Inspector;
 import sim.portrayal.continuous.ContinuousPortrayal2D;
 
@@ -48,6 +46,11 @@ public class PPatchSimUI extends GUIState
 	 */
     public static ContinuousPortrayal2D tractPortrayal = new ContinuousPortrayal2D();
     
+    /**
+	 * If run with a GUI, this forms the Continuous grid onto which the stromal cells will be mapped, drawn beneath the migratory cells
+	 */
+    public static ContinuousPortrayal2D stromaPortrayal = new ContinuousPortrayal2D();
+    
     /**
 	 * If run with a GUI, this is the frame used within the display to contain the intestine tract 
 	 */
@@ -180,8 +183,25 @@ public class PPatchSimUI extends GUIState
 		{
 			PPatchSim ppsim = (PPatchSim)state;
 			//tractPortrayal.setField(ppsim.intestine_env.tract);
-			Field environment = ppsim.intestine_env.getClass().getDeclaredField("tract");
-			tractPortrayal.setField(environment.get(ppsim.intestine_env));
+			// Migratory cells held as columns are drawn from the population, as the tract then holds none
+			if(ppsim.migratoryCells!=null)
+				tractPortrayal.setField(ppsim.migratoryCells.getDisplayField());
+			else
+				tractPortrayal.setField(ppsim.intestine_env.getTract().getDisplayField());
+			if(ppsim.intestine_env.getStromalLayer()!=null)
+				stromaPortrayal.setField(ppsim.intestine_env.getStromalLayer().getDisplayField());
+			
+			// The display field is only a copy of the tract, so bring it up to date after each step
+			scheduleRepeatingImmediatelyAfter(new Steppable()
+			{
+				public void step(SimState state)
+				{
+					if(((PPatchSim)state).migratoryCells!=null)
+						((PPatchSim)state).migratoryCells.getDisplayField();
+					else
+						((PPatchSim)state).intestine_env.getTract().getDisplayField();
+				}
+			});
 			ppsim.display.reset();
 			ppsim.display.repaint();
 		}
@@ -210,11 +230,10 @@ public class PPatchSimUI extends GUIState
 			
 			ArrayList<Object> simEnvironment = ppsim.simulationSpec.envInfo.get(0);
 			
-			Class<?> environment = Class.forName(simEnvironment.get(0).toString());
-			
-			// CONSTRUCTOR WITH INPUT SIZES
-			Constructor<?> con = environment.getConstructor(new Class[]{Double.class, Double.class, Double.class, Double.class, Double.class});
-			ppsim.intestine_env = con.newInstance(Double.parseDouble(simEnvironment.get(1).toString()),
+			PluginBinding environment = PluginRegistry.get(simEnvironment.get(0).toString());
+
+			// CONSTRUCTOR WITH INPUT SIZES - ONLY USED TO SIZE THE DISPLAY, AS EACH RUN BUILDS ITS OWN ENVIRONMENT AS IT STARTS
+			ppsim.intestine_env = environment.newEnvironment(Double.parseDouble(simEnvironment.get(1).toString()),
 					Double.parseDouble(simEnvironment.get(2).toString()),
 					Double.parseDouble(simEnvironment.get(3).toString()),
 					Double.parseDouble(simEnvironment.get(4).toString()),
@@ -232,8 +251,7 @@ public class PPatchSimUI extends GUIState
 		try
 		{
 			//ppsim.display = new Display2D(ppsim.simParams.initialGridLength,ppsim.simParams.initialGridHeight,this,1);
-			ppsim.display = new Display2D(ppsim.intestine_env.getClass().getDeclaredField("initialGridLength").getDouble(ppsim.intestine_env),
-					ppsim.intestine_env.getClass().getDeclaredField("initialGridHeight").getDouble(ppsim.intestine_env),this,1);
+			ppsim.display = new Display2D(ppsim.intestine_env.getInitialGridLength(),ppsim.intestine_env.getInitialGridHeight(),this,1);
 		
 		
 			// create the display frame to hold it
@@ -248,10 +266,11 @@ public class PPatchSimUI extends GUIState
 			c.registerFrame(displayFrame);
 	
 			// attach all representations of the environment & cells
+			ppsim.display.attach(stromaPortrayal,"Stroma");
 			ppsim.display.attach(tractPortrayal,"Agents");
 			
 			// Get the colour from the environment class
-			ppsim.display.setBackdrop((Color)ppsim.intestine_env.getClass().getDeclaredField("backdrop").get(ppsim.intestine_env));
+			ppsim.display.setBackdrop(ppsim.intestine_env.getBackdrop());
 			//ppsim.display.setBackdrop(Color.DARK_GRAY);
 			displayFrame.setTitle("Intestine Tract Display");
 			
@@ -2,7 +2,6 @@ package sim_platform;
 
 import java.io.File;
 import java.io.FileWriter;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.StringTokenizer;
 
@@ -18,10 +17,6 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 
-import sim.engine.SimState;
-import sim.engine.Steppable;
-import sim.engine.Stoppable;
-import sim.util.Bag;
 import sim.util.Double2D;
 
 /**
@@ -29,7 +24,7 @@ import sim.util.Double2D;
  * @author kieran
  *
  */
-public class PatchStatistics implements Steppable,Stoppable
+public class PatchStatistics
 {
 	/**
 	 * Writer to output just the LTi cells that are in a patch to a CSV file
@@ -40,22 +35,17 @@ public class PatchStatistics implements Steppable,Stoppable
 	 * Writer to output the positions of all LTi cells to a CSV file
 	 */
 	public FileWriter patchWriter2;
-	
-	/**
-	 * Flag to show if this class has been stopped (when no longer needed)
-	 */
-	private Stoppable stopper = null;
-	
-	/**
-	 * Method to change the value of the stopper
-	 * @param stopper	Whether the class should be stopped or not
-	 */
-    public void setStopper(Stoppable stopper)   {this.stopper = stopper;}
     
     /**
-     * Method to stop the class where necessary
+     * Stops a neighbour search at the first cell found
      */
-    public void stop(){stopper.stop();}
+    private static final NeighbourVisitor FIRST_CELL = new NeighbourVisitor()
+    {
+    	public boolean visit(Object cell)
+    	{
+    		return false;
+    	}
+    };
     
     
 	
@@ -206,138 +196,85 @@ public class PatchStatistics implements Steppable,Stoppable
 	}
 	
 	/**
-	 * Gathers the stats for each timestep
+	 * Outputs the stats at the next output hour - scheduled by the ObservationScheduler at the step of each output hour before
+	 * the end of the simulation.  The stats at the end are output by outputPatchStats, scheduled at the last step
+	 * 
+	 * @param ppsim	The current simulation state
 	 */
-	public void step(final SimState state)
+	public void outputPatchStatsHour(PPatchSim ppsim)
 	{
-		PPatchSim ppsim = (PPatchSim)state;
-		
-		// while the simulation is running
-		if(ppsim.schedule.getSteps()*ppsim.simulationSpec.secondsPerStep < ((ppsim.simulationSpec.simulationTime*60)*60))
-		{
-			if(ppsim.schedule.getSteps()*ppsim.simulationSpec.secondsPerStep == ((this.nextPatchOutputHour*60)*60))
-			{	
-				// OUTPUT THE LTO AND LTI POSITIONS AT THIS TIMEPOINT
-				this.outputPatchStats(ppsim);
+		// OUTPUT THE LTO AND LTI POSITIONS AT THIS TIMEPOINT
+		this.outputPatchStats(ppsim);
 				
-				// NOW THIS OUTPUT TIME HAS ENDED, PREPARE FOR THE NEXT HOUR (IF APPLICABLE)
-				// delete this hour from those being done
-				this.patchStatHours.remove(0);
-				// set the next range (if there is one)
-				if(!this.patchStatHours.isEmpty())
-				{
-					this.nextPatchOutputHour = this.patchStatHours.get(0);
+		// NOW THIS OUTPUT TIME HAS ENDED, PREPARE FOR THE NEXT HOUR (IF APPLICABLE)
+		// delete this hour from those being done
+		this.patchStatHours.remove(0);
+		// set the next range (if there is one)
+		if(!this.patchStatHours.isEmpty())
+		{
+			this.nextPatchOutputHour = this.patchStatHours.get(0);
 					
-				}
-				else
-				{
-					// Register the end hour - thus when the simulation ends and the produce stat function is called, 
-					// the file will have an hour to be labelled with
-					this.nextPatchOutputHour = ppsim.simulationSpec.simulationTime;
-				}
-			}
 		}
 		else
 		{
-			// Simulation has ended - output the end stats
-			this.outputPatchStats(ppsim);
-			
-			this.stop();
+			// Register the end hour - thus when the simulation ends and the produce stat function is called, 
+			// the file will have an hour to be labelled with
+			this.nextPatchOutputHour = ppsim.simulationSpec.simulationTime;
 		}
 	}
 
 	
 	public void outputLTiPositions(PPatchSim ppsim,Document docWritingProcessed,Document docWritingAll,Element rootElementProcessed,Element rootElementAll)
 	{
+		final SimEnvironment env = ppsim.intestine_env;
+		final Class<?> ltiClass = PluginRegistry.get("LTi").pluginClass;
+		final Class<?> ltoClass = PluginRegistry.get("LTo").pluginClass;
+		
 		for(int i=0;i<ppsim.allLTis.size();i++)
 		{
-			Object ltiCell = ppsim.allLTis.get(i);
+			final Object ltiCell = ppsim.allLTis.get(i);
 			
 			try
 			{
 				// find out what is around the LTi cell
 				// Get the cell location & cell size
-				Double2D agentLocation = (Double2D)ltiCell.getClass().getDeclaredField("agentLocation").get(ltiCell);
-				Double cellSize = ltiCell.getClass().getDeclaredField("cell_diameter").getDouble(ltiCell);
-				
-				Bag nearCells = null;
+				final Double2D agentLocation = ((MigratoryCell)ltiCell).getLocation();
+				final Double cellSize = ltiCell.getClass().getDeclaredField("cell_diameter").getDouble(ltiCell);
 				
-				try
+				// if there is an LTi near, it is possible that this cell could be in a patch - however, then check that
+				// there is an LTo within a range.  The search stops at the first LTi for which this is the case
+				boolean inPatch = env.visitObjectsExactlyWithinDistance(agentLocation,cellSize*2,true,ltiClass,new NeighbourVisitor()
 				{
-					Class<?> environmentClass = ppsim.intestine_env.getClass();
-					Method getBagOfCells = environmentClass.getMethod("getObjectsExactlyWithinDistanceWithFlag",new Class[]{Double2D.class,double.class,boolean.class});
-					nearCells = (Bag)getBagOfCells.invoke(ppsim.intestine_env,agentLocation,cellSize*2,true);
-				}
-				catch(Exception e)
-				{
-					e.printStackTrace();
-				}
-				
-				Object temp = null;
-				Boolean ltiFound = false;
-				
-				if( nearCells != null )
-				{
-					for( int j = 0 ; j < nearCells.numObjs && !ltiFound; j++ )
+					public boolean visit(Object temp)
 					{
-						temp = nearCells.get(j);
-						// check cell is not null, not itself, is an LTi
-						if(temp!=null && temp!=ltiCell && temp.getClass().getName().equals("LTi"))
-						{
-							// there is an LTi near, so it is possible that it could be in a patch
-							// however, now check that there is an LTo within a range
-							Boolean ltoFound = false;
-							Object ltoSeek = null;
-							
-							Bag nearCells2 = null;
-							
-							try
-							{
-								Class<?> environmentClass = ppsim.intestine_env.getClass();
-								Method getBagOfCells = environmentClass.getMethod("getObjectsExactlyWithinDistanceWithFlag",new Class[]{Double2D.class,double.class,boolean.class});
-								nearCells2 = (Bag)getBagOfCells.invoke(ppsim.intestine_env,agentLocation,cellSize*4,true);
-							}
-							catch(Exception e)
-							{
-								e.printStackTrace();
-							}
+						if(temp==ltiCell || ((MigratoryCell)temp).getCellState()<=0)
+							return true;
 						
-							
-							for( int k=0;k<nearCells2.numObjs && !ltoFound;k++)
-							{
-								ltoSeek = nearCells2.get(k);
-							
-								// Get the cell state of the cell found in the bag
-								Double cellState = temp.getClass().getDeclaredField("cellState").getDouble(temp);
-								
-								if(ltoSeek!=null && ltoSeek.getClass().getName().equals("LTo") && cellState>0)
-								{
-									// Write to CSV file
-									patchWriter.append(agentLocation.x+","+agentLocation.y+"\n");
-									// Write to XML file
-									// Make the subroot 'cell' node
-									Element cell = docWritingProcessed.createElement("cell");
-									rootElementProcessed.appendChild(cell);
-									
-									// X position 
-									Element cellX = docWritingProcessed.createElement("LTi_X");
-									cellX.appendChild(docWritingProcessed.createTextNode(Double.toString(agentLocation.x)));
-									cell.appendChild(cellX);
-									
-									// Y position
-									Element cellY = docWritingProcessed.createElement("LTi_Y");
-									cellY.appendChild(docWritingProcessed.createTextNode(Double.toString(agentLocation.y)));
-									cell.appendChild(cellY);
-									
-									ltoFound=true;
-									ltiFound=true;
-								}
-								
-							}
-							
-						}
+						// stop at the first LTo found within range
+						return !env.visitObjectsExactlyWithinDistance(agentLocation,cellSize*4,true,ltoClass,PatchStatistics.FIRST_CELL);
 					}
+				});
+				
+				if(inPatch)
+				{
+					// Write to CSV file
+					patchWriter.append(agentLocation.x+","+agentLocation.y+"\n");
+					// Write to XML file
+					// Make the subroot 'cell' node
+					Element cell = docWritingProcessed.createElement("cell");
+					rootElementProcessed.appendChild(cell);
+					
+					// X position 
+					Element cellX = docWritingProcessed.createElement("LTi_X");
+					cellX.appendChild(docWritingProcessed.createTextNode(Double.toString(agentLocation.x)));
+					cell.appendChild(cellX);
+					
+					// Y position
+					Element cellY = docWritingProcessed.createElement("LTi_Y");
+					cellY.appendChild(docWritingProcessed.createTextNode(Double.toString(agentLocation.y)));
+					cell.appendChild(cellY);
 				}
+				
 				// Write to CSV file
 				patchWriter2.append(agentLocation.x+","+agentLocation.y+"\n");
 				// Write to XML file
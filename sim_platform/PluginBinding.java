@@ -0,0 +1,407 @@
+package sim_platform;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import sim.util.Double2D;
+import sim.util.Int2D;
+
+/**
+ * Holds the resolved constructors, hooks and fields of one plugin class named in the simulation XML (a cell, receptor, expressor,
+ * environment or migratory population engine).  The lookups are done once when the binding is created, and stored as method handles, so that creating
+ * cells during the run does not repeat the reflective search every time.  Plugin classes do not need to know about this class -
+ * any constructor or hook a class does not declare is simply left unbound
+ *
+ * @author Kieran Alden
+ *
+ */
+public class PluginBinding
+{
+	/**
+	 * The plugin class this binding describes
+	 */
+	public final Class<?> pluginClass;
+
+	/**
+	 * Constructor used for cells that migrate onto the tract (PPatchSim, Double2D, ArrayList)
+	 */
+	private MethodHandle migratoryConstructor;
+
+	/**
+	 * Constructor used for cells placed on the stroma (Double2D, Int2D, int, Boolean, double, ArrayList)
+	 */
+	private MethodHandle stromalConstructor;
+
+	/**
+	 * Constructor used when a stromal cell divides, sharing the expressors of the parent (as stromal constructor, plus a Boolean flag)
+	 */
+	private MethodHandle replicateConstructor;
+
+	/**
+	 * Constructor used for receptors and expressors, which take their parameter list from the XML (ArrayList)
+	 */
+	private MethodHandle componentConstructor;
+
+	/**
+	 * Constructor used for the environment, which takes its five dimensions from the XML (Double x 5)
+	 */
+	private MethodHandle environmentConstructor;
+
+	/**
+	 * Constructor used for engines holding a population of migratory cells as columns (PPatchSim, ArrayList)
+	 */
+	private MethodHandle populationConstructor;
+
+	/**
+	 * Hook used to add the object to the population stepping its type - addToPopulation(CellPopulation)
+	 */
+	private MethodHandle addToPopulationHook;
+
+	/**
+	 * Hook used to schedule a stromal cell, as it is placed or divides - setStopper(PPatchSim)
+	 */
+	private MethodHandle setStopperHook;
+
+	/**
+	 * Setters for each instance field the class declares, keyed by field name
+	 */
+	private HashMap<String,MethodHandle> fieldSetters = new HashMap<String,MethodHandle>();
+
+	/**
+	 * Getters for each instance field the class declares, keyed by field name
+	 */
+	private HashMap<String,MethodHandle> fieldGetters = new HashMap<String,MethodHandle>();
+
+	/**
+	 * Value of the static cell_diameter field, if the class declares one (NaN if not)
+	 */
+	public final double cellDiameter;
+
+	/**
+	 * Resolves the constructors, hooks and fields of the given class
+	 *
+	 * @param pluginClass	The class named in the simulation XML
+	 */
+	public PluginBinding(Class<?> pluginClass)
+	{
+		this.pluginClass = pluginClass;
+
+		MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+
+		// CONSTRUCTORS - CAST TO A GENERIC SHAPE SO THEY CAN BE CALLED WITH invokeExact
+		this.migratoryConstructor = findConstructor(lookup,new Class<?>[]{PPatchSim.class,Double2D.class,ArrayList.class});
+		this.stromalConstructor = findConstructor(lookup,new Class<?>[]{Double2D.class,Int2D.class,int.class,Boolean.class,double.class,ArrayList.class});
+		this.replicateConstructor = findConstructor(lookup,new Class<?>[]{Double2D.class,Int2D.class,int.class,Boolean.class,double.class,ArrayList.class,Boolean.class});
+		this.componentConstructor = findConstructor(lookup,new Class<?>[]{ArrayList.class});
+		this.environmentConstructor = findConstructor(lookup,new Class<?>[]{Double.class,Double.class,Double.class,Double.class,Double.class});
+		this.populationConstructor = findConstructor(lookup,new Class<?>[]{PPatchSim.class,ArrayList.class});
+
+		// HOOKS
+		this.addToPopulationHook = findHook(lookup,"addToPopulation",CellPopulation.class);
+		this.setStopperHook = findHook(lookup,"setStopper",PPatchSim.class);
+
+		// FIELDS
+		double diameter = Double.NaN;
+		for(Field field : pluginClass.getFields())
+		{
+			try
+			{
+				if(Modifier.isStatic(field.getModifiers()))
+				{
+					if(field.getName().equals("cell_diameter"))
+					{
+						diameter = field.getDouble(null);
+					}
+				}
+				else
+				{
+					this.fieldGetters.put(field.getName(),lookup.unreflectGetter(field).asType(MethodType.methodType(Object.class,Object.class)));
+					if(!Modifier.isFinal(field.getModifiers()))
+					{
+						this.fieldSetters.put(field.getName(),lookup.unreflectSetter(field).asType(MethodType.methodType(void.class,Object.class,Object.class)));
+					}
+				}
+			}
+			catch(Exception e)
+			{
+				e.printStackTrace();
+			}
+		}
+		this.cellDiameter = diameter;
+	}
+
+	/**
+	 * Looks for a public constructor with the given parameter types, returning null if the class does not declare one
+	 */
+	private MethodHandle findConstructor(MethodHandles.Lookup lookup,Class<?>[] parameterTypes)
+	{
+		try
+		{
+			MethodHandle con = lookup.findConstructor(this.pluginClass,MethodType.methodType(void.class,parameterTypes));
+			return con.asType(con.type().changeReturnType(Object.class));
+		}
+		catch(NoSuchMethodException e)
+		{
+			// This class is not built this way - leave unbound
+			return null;
+		}
+		catch(IllegalAccessException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Looks for a public void method taking a single parameter, returning null if the class does not declare one
+	 */
+	private MethodHandle findHook(MethodHandles.Lookup lookup,String name,Class<?> parameterType)
+	{
+		try
+		{
+			MethodHandle hook = lookup.findVirtual(this.pluginClass,name,MethodType.methodType(void.class,parameterType));
+			return hook.asType(MethodType.methodType(void.class,Object.class,parameterType));
+		}
+		catch(NoSuchMethodException e)
+		{
+			return null;
+		}
+		catch(IllegalAccessException e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Reports a constructor or hook that the XML requires but the class does not declare
+	 */
+	private void unbound(String what)
+	{
+		new NoSuchMethodException(this.pluginClass.getName()+" does not declare "+what).printStackTrace();
+	}
+
+	/**
+	 * Creates a cell that migrates onto the tract
+	 *
+	 * @return	The new cell, or null if the class cannot be built this way
+	 */
+	public Object newMigratoryCell(PPatchSim ppsim,Double2D location,ArrayList<?> receptors)
+	{
+		if(this.migratoryConstructor == null)
+		{
+			unbound("a (PPatchSim,Double2D,ArrayList) constructor");
+			return null;
+		}
+		try
+		{
+			return (Object)this.migratoryConstructor.invokeExact(ppsim,location,receptors);
+		}
+		catch(Throwable e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a cell that is placed on the stroma
+	 *
+	 * @return	The new cell, or null if the class cannot be built this way
+	 */
+	public Object newStromalCell(Double2D location,Int2D gridLocation,int cellNum,Boolean retLigandExpression,double cellActiveTime,ArrayList<?> expressors)
+	{
+		if(this.stromalConstructor == null)
+		{
+			unbound("a (Double2D,Int2D,int,Boolean,double,ArrayList) constructor");
+			return null;
+		}
+		try
+		{
+			return (Object)this.stromalConstructor.invokeExact(location,gridLocation,cellNum,retLigandExpression,cellActiveTime,expressors);
+		}
+		catch(Throwable e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a stromal cell that is the product of cell division
+	 *
+	 * @return	The new cell, or null if the class cannot be built this way
+	 */
+	public Object newReplicateStromalCell(Double2D location,Int2D gridLocation,int cellNum,Boolean retLigandExpression,double cellActiveTime,ArrayList<?> expressors)
+	{
+		if(this.replicateConstructor == null)
+		{
+			unbound("a (Double2D,Int2D,int,Boolean,double,ArrayList,Boolean) constructor");
+			return null;
+		}
+		try
+		{
+			return (Object)this.replicateConstructor.invokeExact(location,gridLocation,cellNum,retLigandExpression,cellActiveTime,expressors,Boolean.TRUE);
+		}
+		catch(Throwable e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Creates a receptor or expressor from its XML parameter list
+	 *
+	 * @return	The new receptor or expressor, or null if the class cannot be built this way
+	 */
+	public Object newComponent(ArrayList<?> details)
+	{
+		if(this.componentConstructor == null)
+		{
+			unbound("an (ArrayList) constructor");
+			return null;
+		}
+		try
+		{
+			return (Object)this.componentConstructor.invokeExact(details);
+		}
+		catch(Throwable e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Creates the environment from the five dimensions given in the XML
+	 *
+	 * @return	The new environment, or null if the class cannot be built this way
+	 */
+	public SimEnvironment newEnvironment(Double a,Double b,Double c,Double d,Double e)
+	{
+		if(this.environmentConstructor == null)
+		{
+			unbound("a (Double,Double,Double,Double,Double) constructor");
+			return null;
+		}
+		try
+		{
+			return (SimEnvironment)(Object)this.environmentConstructor.invokeExact(a,b,c,d,e);
+		}
+		catch(Throwable t)
+		{
+			t.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Creates an engine holding a population of migratory cells as columns, for the migratory cells given in the XML
+	 *
+	 * @return	The new population, or null if the class cannot be built this way
+	 */
+	public MigratoryPopulation newPopulation(PPatchSim ppsim,ArrayList<?> cells)
+	{
+		if(this.populationConstructor == null)
+		{
+			unbound("a (PPatchSim,ArrayList) constructor");
+			return null;
+		}
+		try
+		{
+			return (MigratoryPopulation)(Object)this.populationConstructor.invokeExact(ppsim,cells);
+		}
+		catch(Throwable t)
+		{
+			t.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Calls the addToPopulation hook of the given object
+	 */
+	public void addToPopulation(Object obj,CellPopulation population)
+	{
+		if(this.addToPopulationHook == null)
+		{
+			unbound("addToPopulation(CellPopulation)");
+			return;
+		}
+		try
+		{
+			this.addToPopulationHook.invokeExact(obj,population);
+		}
+		catch(Throwable e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Calls the setStopper(PPatchSim) hook of the given object
+	 */
+	public void setStopper(Object obj,PPatchSim ppsim)
+	{
+		if(this.setStopperHook == null)
+		{
+			unbound("setStopper(PPatchSim)");
+			return;
+		}
+		try
+		{
+			this.setStopperHook.invokeExact(obj,ppsim);
+		}
+		catch(Throwable e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Sets the value of a public instance field on an object of this class
+	 */
+	public void setField(Object obj,String fieldName,Object value)
+	{
+		MethodHandle setter = this.fieldSetters.get(fieldName);
+		if(setter == null)
+		{
+			new NoSuchFieldException(this.pluginClass.getName()+"."+fieldName).printStackTrace();
+			return;
+		}
+		try
+		{
+			setter.invokeExact(obj,value);
+		}
+		catch(Throwable e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Gets the value of a public instance field from an object of this class
+	 */
+	public Object getField(Object obj,String fieldName)
+	{
+		MethodHandle getter = this.fieldGetters.get(fieldName);
+		if(getter == null)
+		{
+			new NoSuchFieldException(this.pluginClass.getName()+"."+fieldName).printStackTrace();
+			return null;
+		}
+		try
+		{
+			return (Object)getter.invokeExact(obj);
+		}
+		catch(Throwable e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package sim_platform;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the plugin classes named in the simulation XML (cells, their receptors and expressors, and the environment).
+ * Each class is resolved to a PluginBinding once, when the simulation is started, so that the places in the platform and
+ * the cell classes that create objects by class name do not repeat the reflective lookup every time they are called
+ *
+ * @author Kieran Alden
+ *
+ */
+public class PluginRegistry
+{
+	/**
+	 * Bindings for each plugin class, keyed by the class name as given in the XML
+	 */
+	private static ConcurrentHashMap<String,PluginBinding> bindings = new ConcurrentHashMap<String,PluginBinding>();
+
+	/**
+	 * Resolves every class listed in the simulation specification - the cells (including any receptors or expressors they
+	 * declare) and the environment compartments.  Called once from PPatchSim.start
+	 *
+	 * @param simulationSpec	The specification read in from the XML file
+	 */
+	public static void bindAll(Setup_Simulation simulationSpec)
+	{
+		bindCells(simulationSpec.cells);
+		bindCells(simulationSpec.enviromentCells);
+
+		for(int i=0;i<simulationSpec.envInfo.size();i++)
+		{
+			// The environment class is the first item of each compartment
+			get(simulationSpec.envInfo.get(i).get(0).toString());
+		}
+	}
+
+	/**
+	 * Binds each cell class in the list, along with the receptors or expressors given as the last item of its details
+	 */
+	private static void bindCells(ArrayList<?> cells)
+	{
+		for(int i=0;i<cells.size();i++)
+		{
+			ArrayList<?> cellInfo = (ArrayList<?>)cells.get(i);
+			get(cellInfo.get(0).toString());
+
+			Object components = cellInfo.get(cellInfo.size()-1);
+			if(components instanceof ArrayList)
+			{
+				ArrayList<?> componentList = (ArrayList<?>)components;
+				for(int j=0;j<componentList.size();j++)
+				{
+					if(componentList.get(j) instanceof ArrayList)
+					{
+						get(((ArrayList<?>)componentList.get(j)).get(0).toString());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the binding for the named class, resolving it now if it was not listed in the XML
+	 *
+	 * @param className	Fully qualified name of the plugin class
+	 * @return	The binding, or null if the class cannot be found
+	 */
+	public static PluginBinding get(String className)
+	{
+		PluginBinding binding = bindings.get(className);
+
+		if(binding == null)
+		{
+			try
+			{
+				binding = new PluginBinding(Class.forName(className));
+				PluginBinding existing = bindings.putIfAbsent(className,binding);
+				if(existing != null)
+				{
+					binding = existing;
+				}
+			}
+			catch(ClassNotFoundException e)
+			{
+				e.printStackTrace();
+			}
+		}
+		return binding;
+	}
+
+	/**
+	 * Returns the binding for the given class
+	 *
+	 * @param pluginClass	The plugin class
+	 * @return	The binding
+	 */
+	public static PluginBinding get(Class<?> pluginClass)
+	{
+		return get(pluginClass.getName());
+	}
+}
@@ -0,0 +1,127 @@
+package sim_platform;
+
+/**
+ * Splittable stream of random numbers (the SplitMix64 generator).  The simulation holds one stream for the run, seeded from
+ * the simulation's own random number generator, and each migratory cell splits a stream of its own from this when it is
+ * created.  A cell then makes every random choice from its own stream, so the choices a cell makes depend only on the seed
+ * and the order the cells were created in - not on the order the cells are stepped, or on which thread steps them.  Each
+ * stream is held in a single long, so a stream is cheap to create and to hold for every cell
+ *
+ * @author Kieran Alden
+ *
+ */
+public class RandomStream
+{
+	/**
+	 * Amount the state is advanced by on each draw - the odd integer closest to 2^64 divided by the golden ratio
+	 */
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	/**
+	 * Scale taking the top 53 bits of a long to a double between 0 (inclusive) and 1 (exclusive)
+	 */
+	private static final double DOUBLE_UNIT = 1.0/(1L<<53);
+
+	/**
+	 * Current state of the stream
+	 */
+	private long state;
+
+	/**
+	 * Creates a stream from a seed
+	 *
+	 * @param seed	The seed of the stream
+	 */
+	public RandomStream(long seed)
+	{
+		this.state = seed;
+	}
+
+	/**
+	 * Creates a new stream from this one.  The new stream is seeded with the next draw from this stream, so the streams split
+	 * from a stream are the same in every run from the same seed
+	 *
+	 * @return	The new stream
+	 */
+	public RandomStream split()
+	{
+		return new RandomStream(mix64(this.nextLong()));
+	}
+
+	/**
+	 * @return	The current state of the stream - a stream created with this as its seed continues from this one, so a stream
+	 * can be carried to another process
+	 */
+	public long getState()
+	{
+		return this.state;
+	}
+
+	/**
+	 * @return	The next random long
+	 */
+	public long nextLong()
+	{
+		this.state += GOLDEN_GAMMA;
+		return mix64(this.state);
+	}
+
+	/**
+	 * @return	The next random double, between 0 (inclusive) and 1 (exclusive)
+	 */
+	public double nextDouble()
+	{
+		return (this.nextLong()>>>11)*DOUBLE_UNIT;
+	}
+
+	/**
+	 * @param n	The bound on the number returned - must be positive
+	 * @return	The next random int, between 0 (inclusive) and n (exclusive)
+	 */
+	public int nextInt(int n)
+	{
+		// REJECT THE DRAWS THAT WOULD MAKE SOME NUMBERS MORE LIKELY THAN OTHERS
+		long bits;
+		long value;
+		do
+		{
+			bits = this.nextLong()>>>33;
+			value = bits%n;
+		}
+		while(bits-value+(n-1)>=(1L<<31));
+
+		return (int)value;
+	}
+
+	/**
+	 * Next random number from a gaussian distribution with mean 0 and standard deviation 1, generated by the polar method.  The
+	 * second number the method generates is not kept, so the stream remains a single long
+	 *
+	 * @return	The next random gaussian
+	 */
+	public double nextGaussian()
+	{
+		double v1;
+		double v2;
+		double s;
+		do
+		{
+			v1 = 2*this.nextDouble()-1;
+			v2 = 2*this.nextDouble()-1;
+			s = v1*v1+v2*v2;
+		}
+		while(s>=1 || s==0);
+
+		return v1*Math.sqrt(-2*Math.log(s)/s);
+	}
+
+	/**
+	 * Scrambles the bits of a long - the output function of SplitMix64
+	 */
+	private static long mix64(long z)
+	{
+		z = (z^(z>>>30))*0xBF58476D1CE4E5B9L;
+		z = (z^(z>>>27))*0x94D049BB133111EBL;
+		return z^(z>>>31);
+	}
+}
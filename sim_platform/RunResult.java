@@ -0,0 +1,159 @@
+package sim_platform;
+
+import java.util.HashMap;
+
+/**
+ * Summary of a simulation run, returned to whatever started the run once it has ended.  The results themselves are written
+ * to the result files as the run progresses - this records how far the run got and the state of the simulation at its end,
+ * so a caller running many replicates in one JVM can check each without reading the files back
+ *
+ * @author Kieran Alden
+ *
+ */
+public class RunResult
+{
+	/**
+	 * Whether the run reached the simulation time set in the XML, rather than being ended early
+	 */
+	private boolean completed;
+
+	/**
+	 * Number of steps run
+	 */
+	private long steps;
+
+	/**
+	 * Simulated time the run reached, in hours
+	 */
+	private double hoursSimulated;
+
+	/**
+	 * Number of each migratory cell type on the tract at the end of the run, keyed by class name
+	 */
+	private HashMap<String,Integer> cellularity;
+
+	/**
+	 * Number of stromal cells, and of those expressing, at the end of the run
+	 */
+	private int numStromalCells;
+	private int numActiveStromalCells;
+
+	/**
+	 * Number of cells removed from the simulation during the run
+	 */
+	private long numRemovedCells;
+
+	/**
+	 * Number of times a new cell was held back to the next step as the tract was too full to place it
+	 */
+	private long numDeferredPlacements;
+
+	/**
+	 * Wall clock time from the start of the run to its end, in seconds
+	 */
+	private double wallSeconds;
+
+	/**
+	 * Records the state of the simulation as the run ends
+	 *
+	 * @param ppsim	The current simulation state
+	 * @param completed	Whether the run reached the simulation time
+	 * @param wallSeconds	Wall clock time the run took, in seconds
+	 */
+	public RunResult(PPatchSim ppsim,boolean completed,double wallSeconds)
+	{
+		this.completed = completed;
+		this.steps = ppsim.schedule.getSteps();
+		this.hoursSimulated = (this.steps*ppsim.simulationSpec.secondsPerStep)/(60*60);
+		this.cellularity = new HashMap<String,Integer>(ppsim.simulatedCellCellularity);
+		this.numStromalCells = ppsim.ltoCellsBag.numObjs;
+		this.numActiveStromalCells = ppsim.activelToCellsBag.numObjs;
+		this.numRemovedCells = ppsim.cellLifecycle.getNumRemoved();
+		// NO CELLS ARE PLACED WHERE THE RUN ENDED BEFORE THE CELL INPUT WAS SET UP
+		if(ppsim.hemCells != null)
+			this.numDeferredPlacements = ppsim.hemCells.getNumDeferredPlacements();
+		this.wallSeconds = wallSeconds;
+	}
+
+	/**
+	 * @return	Whether the run reached the simulation time set in the XML
+	 */
+	public boolean isCompleted()
+	{
+		return this.completed;
+	}
+
+	/**
+	 * @return	Number of steps run
+	 */
+	public long getSteps()
+	{
+		return this.steps;
+	}
+
+	/**
+	 * @return	Simulated time the run reached, in hours
+	 */
+	public double getHoursSimulated()
+	{
+		return this.hoursSimulated;
+	}
+
+	/**
+	 * @return	Number of each migratory cell type on the tract at the end of the run, keyed by class name
+	 */
+	public HashMap<String,Integer> getCellularity()
+	{
+		return this.cellularity;
+	}
+
+	/**
+	 * @return	Number of stromal cells at the end of the run
+	 */
+	public int getNumStromalCells()
+	{
+		return this.numStromalCells;
+	}
+
+	/**
+	 * @return	Number of expressing stromal cells at the end of the run
+	 */
+	public int getNumActiveStromalCells()
+	{
+		return this.numActiveStromalCells;
+	}
+
+	/**
+	 * @return	Number of cells removed from the simulation during the run
+	 */
+	public long getNumRemovedCells()
+	{
+		return this.numRemovedCells;
+	}
+
+	/**
+	 * @return	Number of times a new cell was held back to the next step as the tract was too full to place it
+	 */
+	public long getNumDeferredPlacements()
+	{
+		return this.numDeferredPlacements;
+	}
+
+	/**
+	 * @return	Wall clock time from the start of the run to its end, in seconds
+	 */
+	public double getWallSeconds()
+	{
+		return this.wallSeconds;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString()
+	{
+		return (this.completed ? "Completed" : "Ended early")+" after "+this.steps+" steps ("+String.format("%.2f",this.hoursSimulated)+
+				" hours): cellularity "+this.cellularity+", "+this.numStromalCells+" stromal cells ("+this.numActiveStromalCells+
+				" active), "+this.numRemovedCells+" cells removed, "+this.numDeferredPlacements+" placements deferred, "+String.format("%.2f",this.wallSeconds)+"s";
+	}
+}
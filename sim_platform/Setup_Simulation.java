@@ -185,6 +185,127 @@ public class Setup_Simulation
 	 */
 	public String patchStatsOutputHours;
 	
+	/**
+	 * <a name = "sweptCollisionDetection"></a>
+	 * <b>Description:<br></b> 
+	 * Flag determining whether migratory cells detect collisions along their path using a swept circle (one environment query
+	 * per path, solving where contact can first happen) rather than querying the environment after every 0.1 sub-step.  Both
+	 * produce the same contacts, so this can be switched to check the results are equivalent
+	 * <br><br>
+	 * <b>Restrictions:<br></b>
+	 * Must be true or false.  Optional - sub-stepped detection is used if not specified
+	 * <br><br>
+	 * <b>Units & Representation:<br></b>
+	 * n/a
+	 * <br><br>
+	 * <b>Link to Domain and Platform Models:</b>
+	 */
+	public Boolean sweptCollisionDetection = false;
+	
+	/**
+	 * <a name = "reportGCPressure"></a>
+	 * <b>Description:<br></b> 
+	 * Flag determining whether the memory allocated and garbage collection performed each step is written to gcPressure.csv
+	 * in the results folder, so that allocation in the per-step code can be monitored over long runs
+	 * <br><br>
+	 * <b>Restrictions:<br></b>
+	 * Must be true or false.  Optional - no report is produced if not specified
+	 * <br><br>
+	 * <b>Units & Representation:<br></b>
+	 * n/a
+	 * <br><br>
+	 * <b>Link to Domain and Platform Models:</b>
+	 */
+	public Boolean reportGCPressure = false;
+	
+	/**
+	 * <a name = "broadPhaseCollision"></a>
+	 * <b>Description:<br></b> 
+	 * Flag determining whether the candidate contacts between migratory cells are listed once at the start of each step, so 
+	 * each LTi/LTin contact check only looks at the cell's candidates rather than searching the tract.  Both produce the same 
+	 * contacts, so this can be switched to check the results are equivalent
+	 * <br><br>
+	 * <b>Restrictions:<br></b>
+	 * Must be true or false.  Optional - each contact check searches the tract if not specified
+	 * <br><br>
+	 * <b>Units & Representation:<br></b>
+	 * n/a
+	 * <br><br>
+	 * <b>Link to Domain and Platform Models:</b>
+	 */
+	public Boolean broadPhaseCollision = false;
+	
+	/**
+	 * <a name = "migratoryCellPopulation"></a>
+	 * <b>Description:<br></b> 
+	 * Name of the class used to hold the migratory cells as a population of columns (one row per cell, stepped in a single
+	 * loop) rather than as one scheduled object per cell.  The population must be able to hold every migratory cell type in
+	 * the simulation, else the cells are stepped as objects
+	 * <br><br>
+	 * <b>Restrictions:<br></b>
+	 * Class name, or NULL.  Optional - the cells are stepped as objects if not specified
+	 * <br><br>
+	 * <b>Units & Representation:<br></b>
+	 * n/a
+	 * <br><br>
+	 * <b>Link to Domain and Platform Models:</b>
+	 */
+	public String migratoryCellPopulation = null;
+	
+	/**
+	 * <a name = "parallelThreads"></a>
+	 * <b>Description:<br></b> 
+	 * Number of threads used to step the cells of a migratory cell population.  Where set, each step is split into a propose 
+	 * phase, where every cell senses the chemokine around it in parallel against the state at the start of the step, and a 
+	 * commit phase, where the moves and contacts are resolved one cell at a time in the order the cells are stepped.  The 
+	 * results do not depend on the number of threads - a run with 1 thread is the same as a run with 32 from the same seed
+	 * <br><br>
+	 * <b>Restrictions:<br></b>
+	 * Whole number of 1 or more, or 0.  Optional - if not specified (or 0) the cells are stepped one at a time, each sensing 
+	 * the chemokine as the cells before it have left it.  Only used with a migratoryCellPopulation
+	 * <br><br>
+	 * <b>Units & Representation:<br></b>
+	 * Threads
+	 * <br><br>
+	 * <b>Link to Domain and Platform Models:</b>
+	 */
+	public int parallelThreads = 0;
+	
+	/**
+	 * <a name = "stripDecomposition"></a>
+	 * <b>Description:<br></b> 
+	 * Number of vertical strips the tract is split into when moving the cells of a migratory cell population.  Each strip 
+	 * owns the cells within it, and alternate strips are moved at once on the parallelThreads, each reading the cells of its 
+	 * neighbours within a halo of the contact distance.  Contacts change the stroma once every strip has moved.  Fewer strips 
+	 * are used where the tract is too short for strips of twice the halo width
+	 * <br><br>
+	 * <b>Restrictions:<br></b>
+	 * Whole number of 1 or more, or 0.  Optional - if not specified (or 0) the tract is not split.  Only used with a 
+	 * migratoryCellPopulation
+	 * <br><br>
+	 * <b>Units & Representation:<br></b>
+	 * Strips
+	 * <br><br>
+	 * <b>Link to Domain and Platform Models:</b>
+	 */
+	public int stripDecomposition = 0;
+	
+	/**
+	 * <a name = "shuffleCellOrder"></a>
+	 * <b>Description:<br></b> 
+	 * Flag determining whether the cells of each type stepped as objects are stepped in a new random order each step, as the 
+	 * schedule steps the objects it holds, or in the order the cells entered the simulation
+	 * <br><br>
+	 * <b>Restrictions:<br></b>
+	 * Must be true or false.  Optional - the order is shuffled each step if not specified
+	 * <br><br>
+	 * <b>Units & Representation:<br></b>
+	 * n/a
+	 * <br><br>
+	 * <b>Link to Domain and Platform Models:</b>
+	 */
+	public Boolean shuffleCellOrder = true;
+	
 	/**
 	 * Constructor - reads in the XML file and processes the classes that will be part of this 
 	 * simulation
@@ -279,6 +400,34 @@ public class Setup_Simulation
 		this.generateLToStats = Boolean.parseBoolean(simSpecificParams.item(6).getTextContent());
 		this.patchStatsOutputHours = simSpecificParams.item(7).getTextContent();
 		
+		// Swept collision detection is optional, so older parameter files can still be read
+		if(simSpecificParams.getLength()>8)
+			this.sweptCollisionDetection = Boolean.parseBoolean(simSpecificParams.item(8).getTextContent());
+		
+		// As is the garbage collection pressure report
+		if(simSpecificParams.getLength()>9)
+			this.reportGCPressure = Boolean.parseBoolean(simSpecificParams.item(9).getTextContent());
+		
+		// And the broad-phase contact list
+		if(simSpecificParams.getLength()>10)
+			this.broadPhaseCollision = Boolean.parseBoolean(simSpecificParams.item(10).getTextContent());
+		
+		// And the engine holding the migratory cells as columns
+		if(simSpecificParams.getLength()>11 && !simSpecificParams.item(11).getTextContent().equals("NULL"))
+			this.migratoryCellPopulation = simSpecificParams.item(11).getTextContent();
+		
+		// And the number of threads stepping the population
+		if(simSpecificParams.getLength()>12)
+			this.parallelThreads = Integer.parseInt(simSpecificParams.item(12).getTextContent());
+		
+		// And the number of strips the tract is split into
+		if(simSpecificParams.getLength()>13)
+			this.stripDecomposition = Integer.parseInt(simSpecificParams.item(13).getTextContent());
+		
+		// And whether the cells of each type are stepped in a random order
+		if(simSpecificParams.getLength()>14)
+			this.shuffleCellOrder = Boolean.parseBoolean(simSpecificParams.item(14).getTextContent());
+		
 		if(this.patchStatsOutputHours.equals("NULL"))
 			this.patchStatsOutputHours = null;
 
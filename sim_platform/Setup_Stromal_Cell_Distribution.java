@@ -1,10 +1,7 @@
 package sim_platform;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 
-import sim.engine.Schedule;
 import sim.field.grid.ObjectGrid2D;
 import sim.util.Double2D;
 import sim.util.Int2D;
@@ -43,7 +40,7 @@ public class Setup_Stromal_Cell_Distribution
 				
 			
 				// Get the class of cells that will be on this grid - Name is at location zero
-				Class<?> cls = Class.forName(stromalTypeCell.get(0).toString());
+				PluginBinding cls = PluginRegistry.get(stromalTypeCell.get(0).toString());
 				
 				// Second is the stromal cell density (i.e. percentage of area occupied by this cell type (in this case)
 				double stromalCellDensity = Double.parseDouble(stromalTypeCell.get(1));
@@ -52,14 +49,17 @@ public class Setup_Stromal_Cell_Distribution
 				
 				
 				// Get the size of this cell
-				Double cellSize = cls.getDeclaredField("cell_diameter").getDouble(null);
+				Double cellSize = cls.cellDiameter;
 				
 				
 				
 				// Set up the grid
-				double currentGridLength = ppsim.intestine_env.getClass().getDeclaredField("currentGridLength").getDouble(ppsim.intestine_env);
-				double currentGridHeight = ppsim.intestine_env.getClass().getDeclaredField("currentGridHeight").getDouble(ppsim.intestine_env);
+				double currentGridLength = ppsim.intestine_env.getCurrentGridLength();
+				double currentGridHeight = ppsim.intestine_env.getCurrentGridHeight();
 				ppsim.surfaceCellsGrid = new ObjectGrid2D((int)(currentGridLength/cellSize),(int)(currentGridHeight/cellSize));
+				
+				// The stromal cells are looked up through the sites of this grid, rather than alongside the migratory cells
+				ppsim.intestine_env.setStromalLayer(new StromalLayer(ppsim.surfaceCellsGrid,cellSize,currentGridLength,currentGridHeight));
 				//ppsim.lToGrid = new ObjectGrid2D((int)(simParams.initialGridLength/cellSize),(int)(simParams.initialGridHeight/cellSize));
 				
 			
@@ -154,8 +154,12 @@ public class Setup_Stromal_Cell_Distribution
 		
 		try
 		{
-			double currentGridLength = ppsim.intestine_env.getClass().getDeclaredField("currentGridLength").getDouble(ppsim.intestine_env);
-			double currentGridHeight = ppsim.intestine_env.getClass().getDeclaredField("currentGridHeight").getDouble(ppsim.intestine_env);
+			double currentGridLength = ppsim.intestine_env.getCurrentGridLength();
+			double currentGridHeight = ppsim.intestine_env.getCurrentGridHeight();
+			
+			// get the binding resolved for this class at startup, and the expressors each cell is created with
+			PluginBinding cls = PluginRegistry.get(stromalTypeCell.get(0).toString());
+			ArrayList<?> cellExpressors = (ArrayList<?>)((ArrayList<?>)stromalTypeCell).get(4);
 			
 			for(int k=0;k<numActiveLTo;k++)   // if the percentage is a decimal, this will be rounded up
 			{	
@@ -175,59 +179,41 @@ public class Setup_Stromal_Cell_Distribution
 						// else draws on edge of screen
 						Double2D location = new Double2D((xLoc*cellSize)+cellSize/2,(yLoc*cellSize)+cellSize/2);
 						
+						// try to create an LTo
 						try
 						{
-							Class<?> cls = Class.forName(stromalTypeCell.get(0).toString());
-							
-							// try to create an LTo
-							try
-							{
-								
-								// A random number of these cells need to express RET ligand - thus two different constructors
-								Object obj;
-								if(numCellsARTNActivated<numARTNActive)
-								{
-									Constructor<?> con = cls.getConstructor(new Class[]{Double2D.class,Int2D.class,int.class,Boolean.class,double.class,ArrayList.class});
-									obj = con.newInstance(location,gridLocation,k,true,Double.parseDouble(stromalTypeCell.get(3)),stromalTypeCell.get(4));
 	
-									numCellsARTNActivated++;
-									ppsim.activelToCellsBag.add(obj);
-								}
-								else
-								{
-									Constructor<?> con = cls.getConstructor(new Class[]{Double2D.class,Int2D.class,int.class,Boolean.class,double.class,ArrayList.class});
-									obj = con.newInstance(location,gridLocation,k,false,Double.parseDouble(stromalTypeCell.get(3)),stromalTypeCell.get(4));
-									
-								}
-								ppsim.ltoCellsBag.add(obj);
-								
-								// set the grid to show the cell has been placed here
-								ppsim.surfaceCellsGrid.set(xLoc, yLoc, obj);
-								
-								//ppsim.intestine_env.tract.setObjectLocation(obj,location);
-								
-								// SET THE OBJECT LOCATION ON DYANMIC TRACT
-								Class<?> environmentClass = ppsim.intestine_env.getClass();
-								Method meth = environmentClass.getMethod("setLocation",new Class[]{Object.class,Double2D.class});
-								meth.invoke(ppsim.intestine_env,obj,location);
-								
-								Method setStopperMeth = cls.getMethod("addToSchedule",new Class[]{Schedule.class});
-								setStopperMeth.invoke(obj,ppsim.schedule);
-								
-								//Method setStopperMeth = cls.getMethod("setStopper",new Class[]{PPatchSim.class});
-								//setStopperMeth.invoke(obj,ppsim);
-								
-								//obj.setStopper(ppsim.schedule.scheduleRepeating(obj));
-								
+							// A random number of these cells need to express RET ligand - thus two different constructors
+							Object obj;
+							if(numCellsARTNActivated<numARTNActive)
+							{
+								obj = cls.newStromalCell(location,gridLocation,k,true,Double.parseDouble(stromalTypeCell.get(3)),cellExpressors);
+
+								numCellsARTNActivated++;
+								ppsim.activelToCellsBag.add(obj);
 							}
-							catch(Exception e)
+							else
 							{
-								e.printStackTrace();
+								obj = cls.newStromalCell(location,gridLocation,k,false,Double.parseDouble(stromalTypeCell.get(3)),cellExpressors);
+		
 							}
-							
-						
+							ppsim.ltoCellsBag.add(obj);
+	
+							// set the grid to show the cell has been placed here
+							ppsim.surfaceCellsGrid.set(xLoc, yLoc, obj);
+	
+							//ppsim.intestine_env.tract.setObjectLocation(obj,location);
+	
+							// SET THE OBJECT LOCATION ON DYANMIC TRACT
+							ppsim.intestine_env.placeStromalCell(obj,gridLocation,location);
+	
+							// THE CELL IS WOKEN BY ITS OWN TIMER, RATHER THAN STEPPED EVERY STEP
+							cls.setStopper(obj,ppsim);
+	
+							//obj.setStopper(ppsim.schedule.scheduleRepeating(obj));
+	
 						}
-						catch(ClassNotFoundException e)
+						catch(Exception e)
 						{
 							e.printStackTrace();
 						}
@@ -0,0 +1,161 @@
+package sim_platform;
+
+import java.awt.Color;
+
+import sim.util.Bag;
+import sim.util.Double2D;
+import sim.util.Int2D;
+
+/**
+ * Interface that any environment class named in the XML file must implement.  The platform and the cells talk to the 
+ * environment through these methods rather than looking fields and methods up by name at each step, while the class 
+ * itself is still chosen (and loaded) by the name given in the XML file
+ * 
+ * @author Kieran Alden
+ *
+ */
+public interface SimEnvironment 
+{
+	/**
+	 * Returns the space on which the migratory cells are placed (used by the cell collision checks, and by the display through
+	 * its display field)
+	 * @return	The tract
+	 */
+	public TractSpace getTract();
+	
+	/**
+	 * Returns the lookup of the stromal cells on the tract surface, or null if no stromal cells have been placed yet
+	 * @return	The stromal layer
+	 */
+	public StromalLayer getStromalLayer();
+	
+	/**
+	 * Sets the lookup of the stromal cells on the tract surface, once the lattice the cells are placed on has been set up
+	 * @param stromalLayer	The stromal layer
+	 */
+	public void setStromalLayer(StromalLayer stromalLayer);
+	
+	/**
+	 * @return	The length of the environment when the simulation began
+	 */
+	public double getInitialGridLength();
+	
+	/**
+	 * @return	The height of the environment when the simulation began
+	 */
+	public double getInitialGridHeight();
+	
+	/**
+	 * @return	The current length of the environment
+	 */
+	public double getCurrentGridLength();
+	
+	/**
+	 * @return	The current height of the environment
+	 */
+	public double getCurrentGridHeight();
+	
+	/**
+	 * @return	The colour used as the display backdrop for this environment
+	 */
+	public Color getBackdrop();
+	
+	/**
+	 * Sets (or moves) the location of a migratory cell in the environment
+	 * 
+	 * @param cellObject	The cell being placed
+	 * @param location	Where the cell should be placed
+	 */
+	public void setLocation(Object cellObject,Double2D location);
+	
+	/**
+	 * Sets (or moves) the location of a migratory cell in the environment, from coordinates held by the cell, so no Double2D
+	 * is needed
+	 * 
+	 * @param cellObject	The cell being placed
+	 * @param x	The x coordinate the cell should be placed at
+	 * @param y	The y coordinate the cell should be placed at
+	 */
+	public void setLocation(Object cellObject,double x,double y);
+	
+	/**
+	 * Places a stromal cell on a site of the lattice the stromal cells sit on
+	 * 
+	 * @param cellObject	The cell being placed
+	 * @param gridLocation	The site the cell occupies
+	 * @param location	Where the cell is on the tract
+	 */
+	public void placeStromalCell(Object cellObject,Int2D gridLocation,Double2D location);
+	
+	/**
+	 * Returns the cells within a set distance of a position (non-toroidal)
+	 * 
+	 * @param position	The position to search around
+	 * @param distanceToCheck	The distance from that position to search
+	 * @return	Bag of cells within that distance
+	 */
+	public Bag getObjectsExactlyWithinDistance(Double2D position,double distanceToCheck);
+	
+	/**
+	 * Returns the cells within a set distance of a position, where the search can be toroidal
+	 * 
+	 * @param position	The position to search around
+	 * @param distanceToCheck	The distance from that position to search
+	 * @param tor	Whether the search is toroidal
+	 * @return	Bag of cells within that distance
+	 */
+	public Bag getObjectsExactlyWithinDistanceWithFlag(Double2D position,double distanceToCheck,boolean tor);
+	
+	/**
+	 * Fills a Bag supplied by the caller with the cells within a set distance of a position, so no Bag is created
+	 * 
+	 * @param position	The position to search around
+	 * @param distanceToCheck	The distance from that position to search
+	 * @param result	Bag to fill (cleared first)
+	 * @return	The result Bag
+	 */
+	public Bag getObjectsExactlyWithinDistance(Double2D position,double distanceToCheck,Bag result);
+	
+	/**
+	 * Fills a Bag supplied by the caller with the stromal cells within a set distance of a position (non-toroidal)
+	 * 
+	 * @param x	The x coordinate of the position to search around
+	 * @param y	The y coordinate of the position to search around
+	 * @param distanceToCheck	The distance from that position to search
+	 * @param result	Bag to fill (cleared first)
+	 * @return	The result Bag
+	 */
+	public Bag getStromalCellsExactlyWithinDistance(double x,double y,double distanceToCheck,Bag result);
+	
+	/**
+	 * Passes each cell within a set distance of a position to a visitor, until the visitor asks to stop
+	 * 
+	 * @param position	The position to search around
+	 * @param distanceToCheck	The distance from that position to search
+	 * @param tor	Whether the search is toroidal
+	 * @param cellType	Only cells of this type (class or interface) are visited - null for all cells
+	 * @param visitor	The visitor to pass each cell to
+	 * @return	Whether the visitor stopped the search
+	 */
+	public boolean visitObjectsExactlyWithinDistance(Double2D position,double distanceToCheck,boolean tor,Class<?> cellType,NeighbourVisitor visitor);
+	
+	/**
+	 * Passes each cell within a set distance of a position to a visitor, until the visitor asks to stop
+	 * 
+	 * @param x	The x coordinate of the position to search around
+	 * @param y	The y coordinate of the position to search around
+	 * @param distanceToCheck	The distance from that position to search
+	 * @param tor	Whether the search is toroidal
+	 * @param cellType	Only cells of this type (class or interface) are visited - null for all cells
+	 * @param visitor	The visitor to pass each cell to
+	 * @return	Whether the visitor stopped the search
+	 */
+	public boolean visitObjectsExactlyWithinDistance(double x,double y,double distanceToCheck,boolean tor,Class<?> cellType,NeighbourVisitor visitor);
+	
+	/**
+	 * Removes a cell from the environment
+	 * 
+	 * @param objToRemove	The cell to remove
+	 */
+	public void remove(Object objToRemove);
+}
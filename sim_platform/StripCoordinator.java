@@ -0,0 +1,334 @@
+package sim_platform;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a tract too large for one process as a row of strips, each simulated by a StripWorker process on the same machine.
+ * Each strip is a whole simulation of the tract given in the XML (with its migratory cells held as a population), so a run
+ * with N workers simulates a tract N times as long.  The coordinator keeps the workers in lockstep over loopback sockets: each
+ * step it sends every worker the cells that crossed into it from its neighbours in the last step, and its neighbours' halo
+ * cells, then waits for every worker to step and reply before starting the next.
+ *
+ * The protocol is binary.  The coordinator sends a command byte - STEP or END.  A STEP is followed by four blocks: the cells
+ * arriving from the left neighbour, those arriving from the right, then the halo cells of the left neighbour and of the right.
+ * The worker replies with four blocks: the cells that crossed its left edge, its right edge, then its halo cells by its left
+ * edge and by its right, followed by the number of cells it holds.  Each block is the number of cells, the number of bytes,
+ * then the cells as written by the population - the coordinator passes them on without reading them
+ *
+ * A worker that ends before connecting, or before replying to a step, fails the run: the workers still running are stopped
+ * and the coordinator exits with a failure status, rather than waiting for a reply that will never come
+ *
+ * Arguments: XML file path, run replicate, seed, number of workers, number of steps
+ *
+ * @author Kieran Alden
+ *
+ */
+public class StripCoordinator
+{
+	/**
+	 * Command asking a worker to step its strip
+	 */
+	public static final byte STEP = 1;
+
+	/**
+	 * Command asking a worker to finish its simulation and end
+	 */
+	public static final byte END = 0;
+
+	/**
+	 * Time waited for a connection before checking the workers are still running, in milliseconds
+	 */
+	private static final int ACCEPT_POLL_MILLIS = 500;
+
+	/**
+	 * Longest time waited for every worker to connect, and for each to end once asked, in seconds
+	 */
+	private static final int WORKER_TIMEOUT_SECONDS = 300;
+
+	/**
+	 * A block of cells received from a worker, waiting to be passed to its neighbour
+	 */
+	private static class Block
+	{
+		int count = 0;
+		byte[] bytes = new byte[0];
+	}
+
+	/**
+	 * Number of workers, each simulating one strip
+	 */
+	private int numWorkers;
+
+	/**
+	 * The worker processes, in strip order
+	 */
+	private Process[] workers;
+
+	/**
+	 * Connections to each worker, in strip order
+	 */
+	private DataInputStream[] in;
+	private DataOutputStream[] out;
+
+	/**
+	 * Blocks from each worker's last reply: cells crossing left and right, and halo cells by the left and right edges
+	 */
+	private Block[] crossingLeft;
+	private Block[] crossingRight;
+	private Block[] haloLeft;
+	private Block[] haloRight;
+
+	/**
+	 * Total number of cells held by the workers after the last step
+	 */
+	private int totalCells = 0;
+
+	/**
+	 * Starts the workers and steps them the given number of steps, reporting the time taken
+	 *
+	 * @param args	XML file path, run replicate, seed, number of workers, number of steps
+	 */
+	public static void main(String[] args)
+	{
+		StripCoordinator coordinator = null;
+		try
+		{
+			String xmlFilePath = args[0];
+			String runReplicate = args[1];
+			long seed = Long.parseLong(args[2]);
+			int numWorkers = Integer.parseInt(args[3]);
+			long steps = Long.parseLong(args[4]);
+
+			coordinator = new StripCoordinator(xmlFilePath,runReplicate,seed,numWorkers);
+
+			long startTime = System.nanoTime();
+			for(long step=0;step<steps;step++)
+			{
+				coordinator.step();
+			}
+			double seconds = (System.nanoTime()-startTime)/1e9;
+
+			coordinator.end();
+
+			System.out.println("STRIP RUN: "+numWorkers+" workers, "+steps+" steps, "+coordinator.totalCells+" migratory cells, "
+					+String.format("%.2f",seconds)+"s ("+String.format("%.2f",seconds*1000/steps)+"ms per step)");
+		}
+		catch(Exception e)
+		{
+			// A FAILED STRIP RUN MUST NOT REPORT SUCCESS - STOP ANY WORKERS LEFT AND EXIT WITH A FAILURE STATUS
+			e.printStackTrace();
+			if(coordinator != null)
+				coordinator.destroyWorkers();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Starts a worker process for each strip and waits for each to connect
+	 *
+	 * @param xmlFilePath	The simulation XML, used by every strip
+	 * @param runReplicate	The run replicate - each strip outputs to its own replicate, suffixed by its index
+	 * @param seed	The seed - strip i is seeded with seed+i
+	 * @param numWorkers	The number of strips
+	 */
+	public StripCoordinator(String xmlFilePath,String runReplicate,long seed,int numWorkers) throws Exception
+	{
+		this.numWorkers = numWorkers;
+		this.workers = new Process[numWorkers];
+		this.in = new DataInputStream[numWorkers];
+		this.out = new DataOutputStream[numWorkers];
+		this.crossingLeft = new Block[numWorkers];
+		this.crossingRight = new Block[numWorkers];
+		this.haloLeft = new Block[numWorkers];
+		this.haloRight = new Block[numWorkers];
+		for(int i=0;i<numWorkers;i++)
+		{
+			this.crossingLeft[i] = new Block();
+			this.crossingRight[i] = new Block();
+			this.haloLeft[i] = new Block();
+			this.haloRight[i] = new Block();
+		}
+
+		ServerSocket server = new ServerSocket(0,numWorkers,InetAddress.getLoopbackAddress());
+
+		// EACH WORKER IS A NEW JVM ON THE SAME CLASSPATH, SO HAS A HEAP OF ITS OWN
+		String java = System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+		for(int i=0;i<numWorkers;i++)
+		{
+			ArrayList<String> command = new ArrayList<String>();
+			command.add(java);
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(StripWorker.class.getName());
+			command.add(xmlFilePath);
+			command.add(runReplicate+"_strip"+i);
+			command.add(Long.toString(seed+i));
+			command.add(Integer.toString(i));
+			command.add(Integer.toString(numWorkers));
+			command.add(Integer.toString(server.getLocalPort()));
+
+			ProcessBuilder builder = new ProcessBuilder(command);
+			builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+			builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+			this.workers[i] = builder.start();
+		}
+
+		try
+		{
+			// THE WORKERS MAY CONNECT IN ANY ORDER - EACH STARTS BY SENDING ITS INDEX.  THE WAIT FOR EACH CONNECTION IS CUT INTO
+			// SHORT POLLS, SO A WORKER THAT HAS ENDED IS NOTICED RATHER THAN WAITED FOR
+			server.setSoTimeout(ACCEPT_POLL_MILLIS);
+			long deadline = System.nanoTime()+TimeUnit.SECONDS.toNanos(WORKER_TIMEOUT_SECONDS);
+			int connected = 0;
+			while(connected<numWorkers)
+			{
+				Socket socket;
+				try
+				{
+					socket = server.accept();
+				}
+				catch(SocketTimeoutException e)
+				{
+					this.checkWorkersRunning();
+					if(System.nanoTime()>deadline)
+						throw new IllegalStateException("Only "+connected+" of "+numWorkers+" strip workers connected within "+WORKER_TIMEOUT_SECONDS+"s");
+					continue;
+				}
+
+				socket.setTcpNoDelay(true);
+				DataInputStream workerIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				int index = workerIn.readInt();
+				this.in[index] = workerIn;
+				this.out[index] = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+				connected++;
+			}
+		}
+		catch(Exception e)
+		{
+			this.destroyWorkers();
+			throw e;
+		}
+		finally
+		{
+			server.close();
+		}
+	}
+
+	/**
+	 * Checks every worker is still running
+	 *
+	 * @throws IllegalStateException	If a worker has ended
+	 */
+	private void checkWorkersRunning()
+	{
+		for(int i=0;i<this.numWorkers;i++)
+		{
+			if(!this.workers[i].isAlive())
+				throw new IllegalStateException("Strip worker "+i+" ended with status "+this.workers[i].exitValue());
+		}
+	}
+
+	/**
+	 * Stops any worker still running - used when the run has failed
+	 */
+	public void destroyWorkers()
+	{
+		for(int i=0;i<this.numWorkers;i++)
+		{
+			if(this.workers[i]!=null && this.workers[i].isAlive())
+				this.workers[i].destroy();
+		}
+	}
+
+	/**
+	 * Steps every strip once, passing each the cells from its neighbours' last replies, and waits for them all to reply
+	 */
+	public void step() throws Exception
+	{
+		Block empty = new Block();
+
+		for(int i=0;i<this.numWorkers;i++)
+		{
+			// CELLS ARRIVE FROM THE LEFT NEIGHBOUR'S RIGHT EDGE, AND FROM THE RIGHT NEIGHBOUR'S LEFT EDGE
+			Block fromLeft = (i>0) ? this.crossingRight[i-1] : empty;
+			Block fromRight = (i<this.numWorkers-1) ? this.crossingLeft[i+1] : empty;
+			Block leftHalo = (i>0) ? this.haloRight[i-1] : empty;
+			Block rightHalo = (i<this.numWorkers-1) ? this.haloLeft[i+1] : empty;
+
+			this.out[i].writeByte(STEP);
+			this.writeBlock(this.out[i],fromLeft);
+			this.writeBlock(this.out[i],fromRight);
+			this.writeBlock(this.out[i],leftHalo);
+			this.writeBlock(this.out[i],rightHalo);
+			this.out[i].flush();
+		}
+
+		// THE WORKERS STEP AT THE SAME TIME - THE NEXT STEP ONLY STARTS ONCE ALL HAVE REPLIED
+		this.totalCells = 0;
+		for(int i=0;i<this.numWorkers;i++)
+		{
+			try
+			{
+				this.readBlock(this.in[i],this.crossingLeft[i]);
+				this.readBlock(this.in[i],this.crossingRight[i]);
+				this.readBlock(this.in[i],this.haloLeft[i]);
+				this.readBlock(this.in[i],this.haloRight[i]);
+				this.totalCells += this.in[i].readInt();
+			}
+			catch(EOFException e)
+			{
+				// THE WORKER CLOSED ITS CONNECTION PART WAY THROUGH THE RUN - IT HAS FAILED
+				throw new IllegalStateException("Strip worker "+i+" ended without replying to the step",e);
+			}
+		}
+	}
+
+	/**
+	 * Asks every worker to finish its simulation and end, and waits for each to do so
+	 *
+	 * @throws IllegalStateException	If a worker does not end, or ends with a failure status
+	 */
+	public void end() throws Exception
+	{
+		for(int i=0;i<this.numWorkers;i++)
+		{
+			this.out[i].writeByte(END);
+			this.out[i].flush();
+		}
+
+		for(int i=0;i<this.numWorkers;i++)
+		{
+			if(!this.workers[i].waitFor(WORKER_TIMEOUT_SECONDS,TimeUnit.SECONDS))
+				throw new IllegalStateException("Strip worker "+i+" did not end within "+WORKER_TIMEOUT_SECONDS+"s");
+			if(this.workers[i].exitValue()!=0)
+				throw new IllegalStateException("Strip worker "+i+" ended with status "+this.workers[i].exitValue());
+		}
+	}
+
+	private void writeBlock(DataOutputStream stream,Block block) throws Exception
+	{
+		stream.writeInt(block.count);
+		stream.writeInt(block.bytes.length);
+		stream.write(block.bytes);
+	}
+
+	private void readBlock(DataInputStream stream,Block block) throws Exception
+	{
+		block.count = stream.readInt();
+		int length = stream.readInt();
+		if(block.bytes.length!=length)
+			block.bytes = new byte[length];
+		stream.readFully(block.bytes);
+	}
+}
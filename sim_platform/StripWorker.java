@@ -0,0 +1,169 @@
+package sim_platform;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * Simulates one strip of a tract split across several processes by a StripCoordinator.  The strip is a whole simulation of
+ * the tract given in the XML, run with its migratory cells held as a population, where the edges shared with the neighbouring
+ * strips are open: a cell crossing one is sent to the coordinator to be passed to the neighbour, rather than leaving the
+ * tract.  Each step, the worker reads the cells arriving from its neighbours and their halo cells, steps the simulation once,
+ * then writes the cells crossing its edges and its own halo cells back
+ *
+ * Launched by the coordinator with the arguments: XML file path, run replicate, seed, strip index, number of strips, and
+ * the loopback port the coordinator is listening on
+ *
+ * @author Kieran Alden
+ *
+ */
+public class StripWorker
+{
+	/**
+	 * The simulation of this strip
+	 */
+	private PPatchSim ppsim;
+
+	/**
+	 * Buffers each block of a reply is written to before sending, so its size can be sent ahead of it
+	 */
+	private ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+	private DataOutputStream block = new DataOutputStream(blockBytes);
+
+	/**
+	 * Starts the simulation of a strip, connects to the coordinator, and steps the strip as the coordinator asks
+	 *
+	 * @param args	XML file path, run replicate, seed, strip index, number of strips, coordinator port
+	 */
+	public static void main(String[] args)
+	{
+		try
+		{
+			long seed = Long.parseLong(args[2]);
+			int index = Integer.parseInt(args[3]);
+			int numStrips = Integer.parseInt(args[4]);
+			int port = Integer.parseInt(args[5]);
+
+			StripWorker worker = new StripWorker(args[0],args[1],seed,index,numStrips);
+
+			Socket socket = new Socket(InetAddress.getLoopbackAddress(),port);
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+			// INTRODUCE THIS WORKER, SO THE COORDINATOR KNOWS WHICH STRIP THE CONNECTION IS FOR
+			out.writeInt(index);
+			out.flush();
+
+			worker.run(in,out);
+
+			socket.close();
+		}
+		catch(Exception e)
+		{
+			// EXIT WITH A FAILURE STATUS, SO A WORKER THAT FAILED CAN BE TOLD APART FROM ONE THAT FINISHED ITS STRIP
+			e.printStackTrace();
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Starts the simulation of a strip
+	 *
+	 * @param xmlFilePath	The simulation XML
+	 * @param runReplicate	The run replicate of this strip
+	 * @param seed	Seed of the simulation of this strip
+	 * @param index	Index of this strip, from the left of the tract
+	 * @param numStrips	Number of strips the tract is split into
+	 */
+	public StripWorker(String xmlFilePath,String runReplicate,long seed,int index,int numStrips)
+	{
+		this.ppsim = new PPatchSim(seed,xmlFilePath,runReplicate);
+		this.ppsim.start();
+
+		if(this.ppsim.migratoryCells==null)
+		{
+			throw new IllegalStateException("A strip of a tract split across processes needs a migratoryCellPopulation");
+		}
+
+		// ONLY THE EDGES SHARED WITH ANOTHER STRIP ARE OPEN - CELLS STILL LEAVE THE ENDS OF THE WHOLE TRACT
+		this.ppsim.migratoryCells.setOpenEdges(index>0,index<numStrips-1);
+	}
+
+	/**
+	 * Steps the strip each time the coordinator asks, until it asks the worker to end
+	 *
+	 * @param in	Stream from the coordinator
+	 * @param out	Stream to the coordinator
+	 * @throws IOException	If the connection to the coordinator fails
+	 */
+	public void run(DataInputStream in,DataOutputStream out) throws IOException
+	{
+		MigratoryPopulation population = this.ppsim.migratoryCells;
+
+		while(in.readByte()==StripCoordinator.STEP)
+		{
+			double tractLength = this.ppsim.intestine_env.getCurrentGridLength();
+
+			// CELLS FROM THE LEFT CROSSED ITS RIGHT EDGE, SO ARE SHIFTED BACK BY A TRACT LENGTH - THOSE FROM THE RIGHT FORWARD
+			int fromLeft = this.readBlockHeader(in);
+			for(int i=0;i<fromLeft;i++)
+				population.readArrivingCell(this.ppsim,in,-tractLength);
+
+			int fromRight = this.readBlockHeader(in);
+			for(int i=0;i<fromRight;i++)
+				population.readArrivingCell(this.ppsim,in,tractLength);
+
+			population.clearHalo();
+			int haloLeft = this.readBlockHeader(in);
+			for(int i=0;i<haloLeft;i++)
+				population.readHaloCell(in,-tractLength);
+
+			int haloRight = this.readBlockHeader(in);
+			for(int i=0;i<haloRight;i++)
+				population.readHaloCell(in,tractLength);
+
+			this.ppsim.schedule.step(this.ppsim);
+
+			// REPLY WITH THE CELLS THAT CROSSED EACH EDGE, THEN THOSE IN THE HALO OF EACH EDGE
+			this.writeBlock(out,population.writeCrossingCells(this.ppsim,this.block,false));
+			this.writeBlock(out,population.writeCrossingCells(this.ppsim,this.block,true));
+			this.writeBlock(out,population.writeHaloCells(this.ppsim,this.block,false));
+			this.writeBlock(out,population.writeHaloCells(this.ppsim,this.block,true));
+			out.writeInt(population.size());
+			out.flush();
+		}
+
+		this.ppsim.finish();
+	}
+
+	/**
+	 * Reads the header of a block of cells - the number of cells and the number of bytes they take
+	 *
+	 * @return	The number of cells in the block
+	 */
+	private int readBlockHeader(DataInputStream in) throws IOException
+	{
+		int count = in.readInt();
+		in.readInt();
+		return count;
+	}
+
+	/**
+	 * Sends the cells written to the block buffer, headed by their number and size, and empties the buffer
+	 */
+	private void writeBlock(DataOutputStream out,int count) throws IOException
+	{
+		this.block.flush();
+		out.writeInt(count);
+		out.writeInt(this.blockBytes.size());
+		this.blockBytes.writeTo(out);
+		this.blockBytes.reset();
+	}
+}
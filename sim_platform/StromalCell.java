@@ -0,0 +1,64 @@
+package sim_platform;
+
+import java.util.ArrayList;
+
+import sim.engine.Steppable;
+import sim.util.Double2D;
+
+/**
+ * Interface implemented by cells that sit on the stroma (LTo and RLNonStromal cells in the Peyer's Patch simulation).  Used by the 
+ * migratory cells and chemokine receptors to examine and signal to the stromal cells without the use of reflection
+ * 
+ * @author Kieran Alden
+ *
+ */
+public interface StromalCell extends Steppable
+{
+	/**
+	 * @return	The location of the cell on the tract
+	 */
+	public Double2D getLocation();
+	
+	/**
+	 * @return	The current state of the cell (also used as a colour reference on the display)
+	 */
+	public int getCellState();
+	
+	/**
+	 * @return	The probability (out of 100) that contact with this cell results in a stable bind
+	 */
+	public double getStableBindProbability();
+	
+	/**
+	 * @return	Whether the cell has been stopped and removed from the simulation
+	 */
+	public boolean isStopped();
+	
+	/**
+	 * @return	The expressor objects (adhesion factors, chemokines) attached to this cell
+	 */
+	public ArrayList<Object> returnExpressors();
+	
+	/**
+	 * @return	The capability descriptors of this cell's expressors, built when the cell was created
+	 */
+	public CapabilityIndex returnExpressorCapabilities();
+	
+	/**
+	 * Deals with a stable contact made by a migratory cell
+	 * 
+	 * @param contactedCell	The cell that has made contact
+	 * @param timeStep	The step at which contact was made
+	 */
+	public void stableContact(Object contactedCell,int timeStep);
+	
+	/**
+	 * Increases the count of contacts made with this cell while in an immature state
+	 */
+	public void incImLToCellContactCount();
+	
+	/**
+	 * Wakes the cell at the next step, where another cell has changed its state or the time it has been active
+	 */
+	public void wakeNextStep();
+}
@@ -0,0 +1,104 @@
+package sim_platform;
+
+import sim.engine.Schedule;
+import sim.engine.SimState;
+import sim.engine.Steppable;
+import sim.engine.Stoppable;
+
+/**
+ * Steps a stromal cell only at the steps where it has something to do, in place of stepping it every step.  A stromal cell
+ * spends most steps only counting the time it has been active, so instead the cell works out the next step at which its
+ * state can change - when it is due to divide, or when it would be removed as immature - and asks to be woken then.  Wakes
+ * falling after the end of the run are cleared with the rest of the schedule as the run ends.  A cell can also be woken for
+ * the next step when another cell changes it, such as on contact.  Each wake is an event scheduled once, and only the
+ * earliest wake asked for is acted on, so a cell is never stepped twice in a step
+ *
+ * @author Kieran Alden
+ *
+ */
+public class StromalCellTimer implements Stoppable
+{
+	/**
+	 * Schedule the wakes are placed on
+	 */
+	private Schedule schedule;
+
+	/**
+	 * The cell woken
+	 */
+	private Steppable cell;
+
+	/**
+	 * Step the cell is next woken at, or Long.MAX_VALUE if no wake is due
+	 */
+	private long nextWake = Long.MAX_VALUE;
+
+	/**
+	 * Flag to show the cell has been stopped, and is not to be woken again
+	 */
+	private boolean stopped = false;
+
+	/**
+	 * Creates the timer of a cell.  The cell is not woken until a wake is asked for
+	 *
+	 * @param schedule	The simulation schedule
+	 * @param cell	The cell to wake
+	 */
+	public StromalCellTimer(Schedule schedule,Steppable cell)
+	{
+		this.schedule = schedule;
+		this.cell = cell;
+	}
+
+	/**
+	 * @return	The index of the next step to run - the first step where the run has not yet started
+	 */
+	public long nextStep()
+	{
+		// AS THE SCHEDULE STARTS BEFORE THE FIRST STEP, THIS IS STEP 0 UNTIL THE RUN BEGINS
+		return (long)this.schedule.getTime()+1;
+	}
+
+	/**
+	 * Wakes the cell at a step, unless it is already to be woken at or before that step
+	 *
+	 * @param step	Index of the step, as returned by schedule.getSteps() while that step runs - after the current step
+	 */
+	public void wakeAt(final long step)
+	{
+		if(this.stopped || step>=this.nextWake)
+			return;
+
+		this.nextWake = step;
+		this.schedule.scheduleOnce(step,new Steppable()
+		{
+			public void step(SimState state)
+			{
+				// A WAKE BROUGHT FORWARD LEAVES THE LATER ONE ON THE SCHEDULE - ONLY THE WAKE STILL DUE IS ACTED ON
+				if(!stopped && nextWake==step)
+				{
+					nextWake = Long.MAX_VALUE;
+					cell.step(state);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Wakes the cell at the next step
+	 */
+	public void wakeNextStep()
+	{
+		this.wakeAt(this.nextStep());
+	}
+
+	/**
+	 * Stops the cell being woken again
+	 *
+	 * @see sim.engine.Stoppable#stop()
+	 */
+	public void stop()
+	{
+		this.stopped = true;
+	}
+}
@@ -0,0 +1,340 @@
+package sim_platform;
+
+import java.util.Arrays;
+
+import sim.field.continuous.Continuous2D;
+import sim.field.grid.ObjectGrid2D;
+import sim.util.Bag;
+import sim.util.Double2D;
+import sim.util.IntBag;
+
+/**
+ * Lookup of the stromal cells (LTo and RET Ligand expressing non-stromal cells) on the tract surface.  These cells do not move,
+ * and each sits on one site of the lattice held in ppsim.surfaceCellsGrid, so rather than searching through them alongside the
+ * migratory cells, a query looks only at the few lattice sites a disc around the query point can overlap, reading each cell
+ * straight from the grid.  The exact location of the cell on each site is held in primitive arrays, so the distance test is
+ * the same as that used for the migratory cells on the TractSpace.
+ *
+ * A cell is not always placed at the centre of its site - cells created by division are placed using the current size of
+ * the tract, so can sit slightly away from it.  The largest such offset seen is recorded, and the sites searched are widened
+ * by it, so no cell is ever missed.  Sites are searched column by column, so cells are returned in site order
+ *
+ * @author Kieran Alden
+ *
+ */
+public class StromalLayer
+{
+	/**
+	 * The lattice of sites the stromal cells are placed on
+	 */
+	private ObjectGrid2D sites;
+	
+	/**
+	 * Width of each site (the diameter of the stromal cells)
+	 */
+	public final double siteSize;
+	
+	/**
+	 * Number of site columns and rows
+	 */
+	private int columns;
+	private int rows;
+	
+	/**
+	 * Circumference of the tract, for queries that wrap around it
+	 */
+	private double height;
+	
+	/**
+	 * Exact location of the cell on each site, indexed by column*rows+row
+	 */
+	private double[] siteX;
+	private double[] siteY;
+	private Double2D[] siteLocations;
+	
+	/**
+	 * Largest distance any cell has been placed from the centre of its site, in x and y
+	 */
+	private double maxOffsetX = 0;
+	private double maxOffsetY = 0;
+	
+	/**
+	 * Sites found by the current object query, reused between queries
+	 */
+	private IntBag querySites = new IntBag();
+	
+	/**
+	 * Sites found by visiting queries, one IntBag for each level of queries made from within a visitor
+	 */
+	private IntBag[] visitSites = new IntBag[0];
+	
+	/**
+	 * Number of visiting queries currently in progress
+	 */
+	private int visitDepth = 0;
+	
+	/**
+	 * Continuous2D holding the stromal cells, for use by the graphical display
+	 */
+	private Continuous2D displayField;
+	
+	/**
+	 * Creates a lookup over a lattice of stromal cell sites
+	 *
+	 * @param sites	The lattice the stromal cells are placed on
+	 * @param siteSize	Width of each site
+	 * @param width	Length of the tract
+	 * @param height	Circumference of the tract
+	 */
+	public StromalLayer(ObjectGrid2D sites,double siteSize,double width,double height)
+	{
+		this.sites = sites;
+		this.siteSize = siteSize;
+		this.columns = sites.getWidth();
+		this.rows = sites.getHeight();
+		this.height = height;
+		
+		this.siteX = new double[this.columns*this.rows];
+		this.siteY = new double[this.columns*this.rows];
+		this.siteLocations = new Double2D[this.columns*this.rows];
+		
+		this.displayField = new Continuous2D(siteSize,width,height);
+	}
+	
+	/**
+	 * Places a stromal cell on a site
+	 *
+	 * @param cell	The cell
+	 * @param column	Column of the site
+	 * @param row	Row of the site
+	 * @param location	Location of the cell on the tract
+	 */
+	public void place(Object cell,int column,int row,Double2D location)
+	{
+		int site = column*this.rows+row;
+		
+		this.sites.field[column][row] = cell;
+		this.siteX[site] = location.x;
+		this.siteY[site] = location.y;
+		this.siteLocations[site] = location;
+		
+		this.maxOffsetX = Math.max(this.maxOffsetX,Math.abs(location.x-(column*this.siteSize+this.siteSize/2)));
+		this.maxOffsetY = Math.max(this.maxOffsetY,Math.abs(location.y-(row*this.siteSize+this.siteSize/2)));
+		
+		this.displayField.setObjectLocation(cell,location);
+	}
+	
+	/**
+	 * Removes a stromal cell from its site, leaving the site free
+	 *
+	 * @param cell	The cell
+	 */
+	public void remove(Object cell)
+	{
+		Double2D location = this.displayField.getObjectLocation(cell);
+		if(location==null)
+			return;
+		
+		IntBag found = this.getSitesExactlyWithinDistance(location.x,location.y,this.siteSize/2,false,new IntBag());
+		for(int i=0;i<found.numObjs;i++)
+		{
+			int site = found.objs[i];
+			if(this.getCell(site)==cell)
+				this.sites.field[site/this.rows][site%this.rows] = null;
+		}
+		
+		this.displayField.remove(cell);
+	}
+	
+	/**
+	 * @param site	A site returned by a query
+	 * @return	The cell on that site
+	 */
+	public Object getCell(int site)
+	{
+		return this.sites.field[site/this.rows][site%this.rows];
+	}
+	
+	/**
+	 * @param site	A site returned by a query
+	 * @return	The x coordinate of the cell on that site
+	 */
+	public double getX(int site)
+	{
+		return this.siteX[site];
+	}
+	
+	/**
+	 * @param site	A site returned by a query
+	 * @return	The y coordinate of the cell on that site
+	 */
+	public double getY(int site)
+	{
+		return this.siteY[site];
+	}
+	
+	/**
+	 * @param site	A site returned by a query
+	 * @return	The location of the cell on that site
+	 */
+	public Double2D getLocation(int site)
+	{
+		return this.siteLocations[site];
+	}
+	
+	/**
+	 * Finds the occupied sites whose cell is within (or exactly at) a distance of a point
+	 *
+	 * @param x	The x coordinate of the point
+	 * @param y	The y coordinate of the point
+	 * @param distance	The distance to search
+	 * @param toroidal	Whether the search should wrap around the top and bottom of the tract
+	 * @param result	IntBag to fill with the sites found (cleared first)
+	 * @return	The result IntBag
+	 */
+	public IntBag getSitesExactlyWithinDistance(double x,double y,double distance,boolean toroidal,IntBag result)
+	{
+		result.clear();
+		
+		double distanceSq = distance*distance;
+		double reachX = distance+this.maxOffsetX;
+		double reachY = distance+this.maxOffsetY;
+		
+		// ONLY THE COLUMNS WHOSE CELLS CAN BE WITHIN THE DISTANCE
+		int minColumn = Math.max(0,(int)Math.floor((x-reachX)/this.siteSize));
+		int maxColumn = Math.min(this.columns-1,(int)Math.floor((x+reachX)/this.siteSize));
+		int minRow = 0;
+		int maxRow = this.rows-1;
+		if(!toroidal)
+		{
+			minRow = Math.max(0,(int)Math.floor((y-reachY)/this.siteSize));
+			maxRow = Math.min(this.rows-1,(int)Math.floor((y+reachY)/this.siteSize));
+		}
+		
+		Object[][] field = this.sites.field;
+		for(int column=minColumn;column<=maxColumn;column++)
+		{
+			Object[] columnSites = field[column];
+			for(int row=minRow;row<=maxRow;row++)
+			{
+				if(columnSites[row]==null || (toroidal && !this.rowReachable(row,y,reachY)))
+					continue;
+				
+				int site = column*this.rows+row;
+				double dx = x - this.siteX[site];
+				double dy = y - this.siteY[site];
+				if(toroidal)
+				{
+					if(dy>this.height/2)
+						dy -= this.height;
+					else if(dy<-this.height/2)
+						dy += this.height;
+				}
+				if(dx*dx+dy*dy<=distanceSq)
+					result.add(site);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Finds the stromal cells within (or exactly at) a distance of a point
+	 *
+	 * @param position	The point
+	 * @param distance	The distance to search
+	 * @param toroidal	Whether the search should wrap around the top and bottom of the tract
+	 * @param result	Bag to add the cells found to (not cleared, so can already hold the migratory cells found)
+	 * @return	The result Bag
+	 */
+	public Bag getObjectsExactlyWithinDistance(Double2D position,double distance,boolean toroidal,Bag result)
+	{
+		return this.getObjectsExactlyWithinDistance(position.x,position.y,distance,toroidal,result);
+	}
+	
+	/**
+	 * Finds the stromal cells within (or exactly at) a distance of a point
+	 *
+	 * @param x	The x coordinate of the point
+	 * @param y	The y coordinate of the point
+	 * @param distance	The distance to search
+	 * @param toroidal	Whether the search should wrap around the top and bottom of the tract
+	 * @param result	Bag to add the cells found to (not cleared, so can already hold the migratory cells found)
+	 * @return	The result Bag
+	 */
+	public Bag getObjectsExactlyWithinDistance(double x,double y,double distance,boolean toroidal,Bag result)
+	{
+		this.getSitesExactlyWithinDistance(x,y,distance,toroidal,this.querySites);
+		
+		for(int i=0;i<this.querySites.numObjs;i++)
+		{
+			result.add(this.getCell(this.querySites.objs[i]));
+		}
+		return result;
+	}
+	
+	/**
+	 * Passes each stromal cell within (or exactly at) a distance of a point to a visitor, until the visitor asks to stop.
+	 * Nothing is allocated, and the visitor may itself query the layer
+	 *
+	 * @param x	The x coordinate of the point
+	 * @param y	The y coordinate of the point
+	 * @param distance	The distance to search
+	 * @param toroidal	Whether the search should wrap around the top and bottom of the tract
+	 * @param cellType	Only cells of this type (class or interface) are passed to the visitor - null for all cells
+	 * @param visitor	The visitor to pass each cell to
+	 * @return	Whether the visitor stopped the query
+	 */
+	public boolean visitExactlyWithinDistance(double x,double y,double distance,boolean toroidal,Class<?> cellType,NeighbourVisitor visitor)
+	{
+		if(this.visitDepth==this.visitSites.length)
+		{
+			this.visitSites = Arrays.copyOf(this.visitSites,this.visitDepth+1);
+			this.visitSites[this.visitDepth] = new IntBag();
+		}
+		IntBag found = this.getSitesExactlyWithinDistance(x,y,distance,toroidal,this.visitSites[this.visitDepth]);
+		this.visitDepth++;
+		
+		try
+		{
+			for(int i=0;i<found.numObjs;i++)
+			{
+				Object cell = this.getCell(found.objs[i]);
+				if(cellType==null || cellType.isInstance(cell))
+				{
+					if(!visitor.visit(cell))
+						return true;
+				}
+			}
+			return false;
+		}
+		finally
+		{
+			this.visitDepth--;
+		}
+	}
+	
+	/**
+	 * @return	Continuous2D holding each stromal cell at its location, for use by the graphical display
+	 */
+	public Continuous2D getDisplayField()
+	{
+		return this.displayField;
+	}
+	
+	/**
+	 * Whether a cell on a row of sites could be within a distance of a y coordinate, wrapping around the tract
+	 */
+	private boolean rowReachable(int row,double y,double distance)
+	{
+		double rowMin = row*this.siteSize;
+		double rowMax = rowMin+this.siteSize;
+		
+		for(int wrap=-1;wrap<=1;wrap++)
+		{
+			double wrappedY = y+wrap*this.height;
+			if(wrappedY+distance>=rowMin && wrappedY-distance<=rowMax)
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,280 @@
+package sim_platform;
+
+import java.util.Arrays;
+
+import sim.util.IntBag;
+
+/**
+ * Swept-circle collision detection for a migratory cell moving along a straight path.  Rather than querying the environment
+ * after every 0.1 sub-step of a move, the cells the moving cell could come into range of anywhere along the path are fetched
+ * with one query, and the distance along the path at which each can first be reached is solved analytically (the entry point
+ * of the path into a circle of the contact range around the cell).  Until the moving cell has travelled that far there can
+ * be no contact, so the sub-steps need no collision checks at all.  From that point, each sub-step is tested against the
+ * candidate cells using exactly the same distance test as the environment's queries, so the full collision
+ * check (and its contact logic) is only run at the sub-steps where the sub-stepped version would have found a cell in range
+ *
+ * @author Kieran Alden
+ *
+ */
+public class SweptCollisionPath
+{
+	/**
+	 * Allowance for the rounding that builds up as the sub-step positions are added together, so a cell that the sub-stepped
+	 * positions reach is never missed by the analytic solution
+	 */
+	private static final double SLACK = 1e-6;
+	
+	/**
+	 * Locations of the stromal cells that can be reached along the path
+	 */
+	private double[] stromalX = new double[16];
+	private double[] stromalY = new double[16];
+	private int numStromal;
+	
+	/**
+	 * Locations of the migratory cells (other than the moving cell) that can be reached along the path
+	 */
+	private double[] migratoryX = new double[16];
+	private double[] migratoryY = new double[16];
+	private int numMigratory;
+	
+	/**
+	 * Distance along the path at which the first stromal cell / migratory cell can be in range
+	 */
+	private double firstStromalContact;
+	private double firstMigratoryContact;
+	
+	/**
+	 * Contact ranges used for each type of cell
+	 */
+	private double stromalRange;
+	private double migratoryRange;
+	
+	/**
+	 * Distance travelled along the path so far, and the cell's position after the last sub-step
+	 */
+	private double travelled;
+	private double positionX;
+	private double positionY;
+	
+	/**
+	 * Whether a path is currently planned
+	 */
+	private boolean planned = false;
+	
+	/**
+	 * IDs found by the candidate query, reused between paths
+	 */
+	private IntBag candidates = new IntBag();
+	
+	/**
+	 * Works out the cells that can be contacted along a straight path, and how far along the path contact with each type of
+	 * cell can first happen.  Paths that would roll around the top or bottom of the tract are not planned, as the sub-step
+	 * positions are then not on a straight line - the caller should fall back to checking every sub-step
+	 *
+	 * @param env	The environment the cells are placed in
+	 * @param movingCell	The cell that is moving, ignored as a candidate
+	 * @param startX	x coordinate the path starts from
+	 * @param startY	y coordinate the path starts from
+	 * @param angle	Angle (in Radians) of the path
+	 * @param distance	Length of the path
+	 * @param stromalRange	Distance within which a stromal cell is checked for contact
+	 * @param migratoryRange	Distance within which another migratory cell is checked for contact
+	 * @return	Whether the path could be planned
+	 */
+	public boolean plan(SimEnvironment env,Object movingCell,double startX,double startY,double angle,double distance,double stromalRange,double migratoryRange)
+	{
+		this.planned = false;
+		
+		double dirX = Math.cos(angle);
+		double dirY = Math.sin(angle);
+		double endY = startY + distance*dirY;
+		
+		if(Math.min(startY,endY)<SLACK || Math.max(startY,endY)>env.getCurrentGridHeight()-SLACK)
+		{
+			// THE CELL MAY ROLL AROUND, SO THE PATH IS NOT A STRAIGHT LINE
+			return false;
+		}
+		
+		this.stromalRange = stromalRange;
+		this.migratoryRange = migratoryRange;
+		this.numStromal = 0;
+		this.numMigratory = 0;
+		this.firstStromalContact = Double.POSITIVE_INFINITY;
+		this.firstMigratoryContact = Double.POSITIVE_INFINITY;
+		this.travelled = 0;
+		this.positionX = startX;
+		this.positionY = startY;
+		
+		// ONE QUERY AROUND THE MIDDLE OF THE PATH COVERS EVERY CELL THAT CAN BE REACHED FROM ANY POINT ON IT - THE STROMAL CELLS
+		// ARE FOUND FROM THE STROMAL LAYER, THE MIGRATORY CELLS FROM THE TRACT
+		double middleX = startX+(distance/2)*dirX;
+		double middleY = startY+(distance/2)*dirY;
+		
+		StromalLayer stroma = env.getStromalLayer();
+		if(stroma!=null)
+		{
+			stroma.getSitesExactlyWithinDistance(middleX,middleY,(distance/2)+stromalRange+SLACK,false,this.candidates);
+			
+			for(int i=0;i<this.candidates.numObjs;i++)
+			{
+				int site = this.candidates.objs[i];
+				double cellX = stroma.getX(site);
+				double cellY = stroma.getY(site);
+				
+				double contact = this.firstContact(startX,startY,dirX,dirY,cellX,cellY,stromalRange);
+				if(contact<=distance+SLACK)
+				{
+					this.ensureStromalCapacity(this.numStromal+1);
+					this.stromalX[this.numStromal] = cellX;
+					this.stromalY[this.numStromal] = cellY;
+					this.numStromal++;
+					this.firstStromalContact = Math.min(this.firstStromalContact,contact);
+				}
+			}
+		}
+		
+		TractSpace tract = env.getTract();
+		tract.getIdsExactlyWithinDistance(middleX,middleY,(distance/2)+migratoryRange+SLACK,false,this.candidates);
+		
+		for(int i=0;i<this.candidates.numObjs;i++)
+		{
+			int id = this.candidates.objs[i];
+			
+			if(tract.getAgent(id)==movingCell)
+				continue;
+			
+			double cellX = tract.getX(id);
+			double cellY = tract.getY(id);
+			
+			double contact = this.firstContact(startX,startY,dirX,dirY,cellX,cellY,migratoryRange);
+			if(contact<=distance+SLACK)
+			{
+				this.ensureMigratoryCapacity(this.numMigratory+1);
+				this.migratoryX[this.numMigratory] = cellX;
+				this.migratoryY[this.numMigratory] = cellY;
+				this.numMigratory++;
+				this.firstMigratoryContact = Math.min(this.firstMigratoryContact,contact);
+			}
+		}
+		
+		this.planned = true;
+		return true;
+	}
+	
+	/**
+	 * @return	Whether a path is currently planned
+	 */
+	public boolean isPlanned()
+	{
+		return this.planned;
+	}
+	
+	/**
+	 * Discards the planned path - called when the cell changes direction or its contacts change
+	 */
+	public void clear()
+	{
+		this.planned = false;
+	}
+	
+	/**
+	 * Records a sub-step taken along the planned path
+	 *
+	 * @param x	x coordinate of the cell after the sub-step
+	 * @param y	y coordinate of the cell after the sub-step
+	 * @param stepLength	Length of the sub-step
+	 */
+	public void advance(double x,double y,double stepLength)
+	{
+		this.positionX = x;
+		this.positionY = y;
+		this.travelled += stepLength;
+	}
+	
+	/**
+	 * @return	Whether any stromal cell is within the stromal contact range of the cell's current position
+	 */
+	public boolean stromalCellInRange()
+	{
+		if(this.travelled<this.firstStromalContact-SLACK)
+			return false;
+		
+		return this.anyInRange(this.stromalX,this.stromalY,this.numStromal,this.stromalRange);
+	}
+	
+	/**
+	 * @return	Whether any other migratory cell is within the migratory contact range of the cell's current position
+	 */
+	public boolean migratoryCellInRange()
+	{
+		if(this.travelled<this.firstMigratoryContact-SLACK)
+			return false;
+		
+		return this.anyInRange(this.migratoryX,this.migratoryY,this.numMigratory,this.migratoryRange);
+	}
+	
+	/**
+	 * Same test as used by the TractSpace and StromalLayer queries, so agrees exactly with the environment queries
+	 */
+	private boolean anyInRange(double[] x,double[] y,int count,double range)
+	{
+		double rangeSq = range*range;
+		for(int i=0;i<count;i++)
+		{
+			double dx = this.positionX - x[i];
+			double dy = this.positionY - y[i];
+			if(dx*dx+dy*dy<=rangeSq)
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Solves for the distance along the path at which it first comes within range of a cell (the entry point of the path
+	 * into the circle of that radius around the cell).  Zero if the path starts within range, infinite if never reached
+	 */
+	private double firstContact(double startX,double startY,double dirX,double dirY,double cellX,double cellY,double range)
+	{
+		double radius = range+SLACK;
+		double offsetX = startX-cellX;
+		double offsetY = startY-cellY;
+		double b = offsetX*dirX+offsetY*dirY;
+		double c = offsetX*offsetX+offsetY*offsetY-radius*radius;
+		
+		if(c<=0)
+			return 0;
+		
+		double discriminant = b*b-c;
+		if(discriminant<0 || b>=0)
+		{
+			// PATH MISSES THE CIRCLE, OR IS HEADING AWAY FROM IT
+			return Double.POSITIVE_INFINITY;
+		}
+		return -b-Math.sqrt(discriminant);
+	}
+	
+	/**
+	 * Grows the stromal candidate arrays to hold at least the given number of cells
+	 */
+	private void ensureStromalCapacity(int size)
+	{
+		if(size>this.stromalX.length)
+		{
+			this.stromalX = Arrays.copyOf(this.stromalX,size*2);
+			this.stromalY = Arrays.copyOf(this.stromalY,size*2);
+		}
+	}
+	
+	/**
+	 * Grows the migratory candidate arrays to hold at least the given number of cells
+	 */
+	private void ensureMigratoryCapacity(int size)
+	{
+		if(size>this.migratoryX.length)
+		{
+			this.migratoryX = Arrays.copyOf(this.migratoryX,size*2);
+			this.migratoryY = Arrays.copyOf(this.migratoryY,size*2);
+		}
+	}
+}
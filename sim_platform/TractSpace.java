@@ -0,0 +1,958 @@
+package sim_platform;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import sim.engine.Schedule;
+import sim.field.continuous.Continuous2D;
+import sim.util.Bag;
+import sim.util.Double2D;
+import sim.util.IntBag;
+
+/**
+ * Spatial structure holding the cells on the intestine tract, built for the geometry of the tract rather than as a general
+ * purpose continuous field.  The tract is split into a uniform grid of square buckets, and each cell is given an integer ID
+ * on being added, its coordinates and bucket held in flat primitive arrays indexed by that ID.  Each bucket holds the IDs of
+ * the cells within it in a primitive array.  The y axis is the circumference of the intestine, so queries can wrap around it,
+ * but the x axis is open - a cell that moves off the left or right of the tract has left the simulation and is removed.
+ *
+ * Within a bucket, cells are held (and returned by queries) in the order the MASON Continuous2D this replaces would have
+ * returned them, so simulation runs are unchanged.  As the graphical display uses a MASON portrayal, a Continuous2D mirroring
+ * this space is kept for the display, brought up to date only when the display asks for it
+ *
+ * @author Kieran Alden
+ *
+ */
+public class TractSpace
+{
+	/**
+	 * Width of each bucket
+	 */
+	public final double discretization;
+	
+	/**
+	 * Length of the tract (the open x axis)
+	 */
+	private double width;
+	
+	/**
+	 * Circumference of the tract (the toroidal y axis)
+	 */
+	private double height;
+	
+	/**
+	 * Number of bucket columns and rows
+	 */
+	private int columns;
+	private int rows;
+	
+	/**
+	 * IDs of the cells in each bucket, indexed by column*rows+row, and the number held in each
+	 */
+	private int[][] bucketMembers;
+	private int[] bucketCounts;
+	
+	/**
+	 * Per-ID details of each cell held - the cell itself, its coordinates, its bucket, and its position in that bucket.  No
+	 * Double2D is held, one is only created when a caller asks for the location of a cell
+	 */
+	private Object[] agents = new Object[64];
+	private double[] agentX = new double[64];
+	private double[] agentY = new double[64];
+	private int[] agentBucket = new int[64];
+	private int[] agentSlot = new int[64];
+	
+	/**
+	 * ID given to each cell held
+	 */
+	private HashMap<Object,Integer> ids = new HashMap<Object,Integer>();
+	
+	/**
+	 * IDs freed by removed cells, reused before new IDs are issued
+	 */
+	private IntBag freeIds = new IntBag();
+	
+	/**
+	 * Next ID to issue once no freed IDs remain
+	 */
+	private int nextId = 0;
+	
+	/**
+	 * IDs found by the current object query, reused between queries
+	 */
+	private IntBag queryIds = new IntBag();
+	
+	/**
+	 * IDs found by visiting queries, one IntBag for each level of queries made from within a visitor
+	 */
+	private IntBag[] visitIds = new IntBag[0];
+	
+	/**
+	 * Number of visiting queries currently in progress
+	 */
+	private int visitDepth = 0;
+	
+	/**
+	 * Continuous2D mirroring this space, for use by the graphical display
+	 */
+	private Continuous2D displayField;
+	
+	/**
+	 * Most escaped cells the broad phase will check on each contact query - beyond this, the full query is cheaper
+	 */
+	private static final int MAX_ESCAPED = 16;
+	
+	/**
+	 * Allowance for rounding in the positions of cells that have moved exactly the margin
+	 */
+	private static final double MARGIN_SLACK = 1e-9;
+	
+	/**
+	 * Whether a broad-phase list of candidate contacts has been built for the current step
+	 */
+	private boolean broadPhase = false;
+	
+	/**
+	 * Schedule of the simulation, where the broad phase has been enabled - a new list is built in each step it is used, and
+	 * the step it was last built in
+	 */
+	private Schedule broadPhaseSchedule = null;
+	private long broadPhaseStep = -1;
+	
+	/**
+	 * Largest contact distance the broad phase answers, and the distance a cell can move from where it was when the broad phase
+	 * was built before its candidates can no longer be relied upon
+	 */
+	private double broadPhaseContact;
+	private double broadPhaseMargin;
+	
+	/**
+	 * Number of IDs issued when the broad phase was built, and each cell's coordinates at that time
+	 */
+	private int broadPhaseIds = 0;
+	private double[] startX = new double[0];
+	private double[] startY = new double[0];
+	
+	/**
+	 * Candidate contacts of each cell - those of cell i are held in candidateIds from candidateStart[i] to candidateStart[i+1]
+	 */
+	private int[] candidateStart = new int[1];
+	private int[] candidateIds = new int[0];
+	
+	/**
+	 * Next free place in each cell's share of the candidate array, used while filling it
+	 */
+	private int[] candidateFill = new int[0];
+	
+	/**
+	 * Cells added, or moved further than the margin, since the broad phase was built - checked by every contact query
+	 */
+	private IntBag escapedIds = new IntBag();
+	private boolean[] escaped = new boolean[0];
+	
+	/**
+	 * Pairs found while building the broad phase, reused between steps
+	 */
+	private IntBag pairs = new IntBag();
+	
+	/**
+	 * Last cell to make a contact query, and its ID - each cell makes its contact queries one after another as it moves
+	 */
+	private Object lastQueryAgent = null;
+	private int lastQueryId = -1;
+	
+	/**
+	 * Creates an empty tract
+	 *
+	 * @param discretization	Width of each bucket
+	 * @param width	Length of the tract
+	 * @param height	Circumference of the tract
+	 */
+	public TractSpace(double discretization,double width,double height)
+	{
+		this.discretization = discretization;
+		this.width = width;
+		this.height = height;
+		
+		// one extra column and row so a cell sitting exactly on the far edge has a bucket
+		this.columns = (int)Math.floor(width/discretization)+1;
+		this.rows = (int)Math.floor(height/discretization)+1;
+		this.bucketMembers = new int[this.columns*this.rows][];
+		this.bucketCounts = new int[this.columns*this.rows];
+		
+		this.displayField = new Continuous2D(discretization,width,height);
+	}
+	
+	/**
+	 * @return	Length of the tract
+	 */
+	public double getWidth()
+	{
+		return this.width;
+	}
+	
+	/**
+	 * @return	Circumference of the tract
+	 */
+	public double getHeight()
+	{
+		return this.height;
+	}
+	
+	/**
+	 * @return	The number of cells on the tract
+	 */
+	public int size()
+	{
+		return this.ids.size();
+	}
+	
+	/**
+	 * Adds a cell to the tract
+	 *
+	 * @param agent	The cell to add
+	 * @param location	Where to place it
+	 * @return	The ID given to the cell, or -1 if the location is off the left or right of the tract
+	 */
+	public int insert(Object agent,Double2D location)
+	{
+		return this.insert(agent,location.x,location.y);
+	}
+	
+	/**
+	 * Adds a cell to the tract
+	 *
+	 * @param agent	The cell to add
+	 * @param x	The x coordinate to place it at
+	 * @param y	The y coordinate to place it at
+	 * @return	The ID given to the cell, or -1 if the location is off the left or right of the tract
+	 */
+	public int insert(Object agent,double x,double y)
+	{
+		if(x<0 || x>this.width)
+			return -1;
+		
+		int id;
+		if(this.freeIds.numObjs>0)
+		{
+			id = this.freeIds.pop();
+		}
+		else
+		{
+			id = this.nextId++;
+			this.ensureCapacity(id+1);
+		}
+		
+		this.ids.put(agent,id);
+		if(agent==this.lastQueryAgent)
+			this.lastQueryId = id;
+		this.agents[id] = agent;
+		this.agentX[id] = x;
+		this.agentY[id] = y;
+		this.link(id,this.bucketOf(x,y));
+		
+		if(this.broadPhase)
+			this.escape(id);
+		return id;
+	}
+	
+	/**
+	 * Moves a cell already on the tract.  A cell moved off the left or right of the tract is removed
+	 *
+	 * @param id	ID of the cell
+	 * @param location	The new location
+	 * @return	Whether the cell remains on the tract
+	 */
+	public boolean move(int id,Double2D location)
+	{
+		return this.move(id,location.x,location.y);
+	}
+	
+	/**
+	 * Moves a cell already on the tract.  A cell moved off the left or right of the tract is removed
+	 *
+	 * @param id	ID of the cell
+	 * @param x	The new x coordinate
+	 * @param y	The new y coordinate
+	 * @return	Whether the cell remains on the tract
+	 */
+	public boolean move(int id,double x,double y)
+	{
+		if(x<0 || x>this.width)
+		{
+			this.remove(id);
+			return false;
+		}
+		
+		this.agentX[id] = x;
+		this.agentY[id] = y;
+		
+		if(this.broadPhase && !this.escaped(id) && !this.withinMargin(id,x,y))
+			this.escape(id);
+		
+		int bucket = this.bucketOf(x,y);
+		if(bucket!=this.agentBucket[id])
+		{
+			this.unlink(id);
+			this.link(id,bucket);
+		}
+		return true;
+	}
+	
+	/**
+	 * Removes a cell from the tract, freeing its ID
+	 *
+	 * @param id	ID of the cell
+	 */
+	public void remove(int id)
+	{
+		this.unlink(id);
+		this.ids.remove(this.agents[id]);
+		if(this.agents[id]==this.lastQueryAgent)
+			this.lastQueryAgent = null;
+		this.agents[id] = null;
+		this.freeIds.add(id);
+	}
+	
+	/**
+	 * Removes a cell from the tract
+	 *
+	 * @param agent	The cell to remove
+	 * @return	The cell's last location, or null if it was not on the tract
+	 */
+	public Double2D remove(Object agent)
+	{
+		Integer id = this.ids.get(agent);
+		if(id==null)
+			return null;
+		
+		Double2D location = new Double2D(this.agentX[id],this.agentY[id]);
+		this.remove(id.intValue());
+		return location;
+	}
+	
+	/**
+	 * Places a cell on the tract, adding it if not already there, or moving it if it is.  As with insert and move, a cell
+	 * placed off the left or right of the tract is not held
+	 *
+	 * @param agent	The cell
+	 * @param location	The location of the cell
+	 * @return	Whether the cell is on the tract
+	 */
+	public boolean setObjectLocation(Object agent,Double2D location)
+	{
+		return this.setObjectLocation(agent,location.x,location.y);
+	}
+	
+	/**
+	 * Places a cell on the tract, adding it if not already there, or moving it if it is.  As with insert and move, a cell
+	 * placed off the left or right of the tract is not held
+	 *
+	 * @param agent	The cell
+	 * @param x	The x coordinate of the cell
+	 * @param y	The y coordinate of the cell
+	 * @return	Whether the cell is on the tract
+	 */
+	public boolean setObjectLocation(Object agent,double x,double y)
+	{
+		Integer id = this.ids.get(agent);
+		if(id==null)
+			return this.insert(agent,x,y)>=0;
+		return this.move(id.intValue(),x,y);
+	}
+	
+	/**
+	 * @param agent	A cell
+	 * @return	Its ID, or -1 if it is not on the tract
+	 */
+	public int getId(Object agent)
+	{
+		Integer id = this.ids.get(agent);
+		return (id==null) ? -1 : id.intValue();
+	}
+	
+	/**
+	 * @param id	ID of a cell on the tract
+	 * @return	The cell
+	 */
+	public Object getAgent(int id)
+	{
+		return this.agents[id];
+	}
+	
+	/**
+	 * @param id	ID of a cell on the tract
+	 * @return	The x coordinate of the cell
+	 */
+	public double getX(int id)
+	{
+		return this.agentX[id];
+	}
+	
+	/**
+	 * @param id	ID of a cell on the tract
+	 * @return	The y coordinate of the cell
+	 */
+	public double getY(int id)
+	{
+		return this.agentY[id];
+	}
+	
+	/**
+	 * @param agent	A cell
+	 * @return	The location of the cell, or null if it is not on the tract
+	 */
+	public Double2D getObjectLocation(Object agent)
+	{
+		Integer id = this.ids.get(agent);
+		return (id==null) ? null : new Double2D(this.agentX[id],this.agentY[id]);
+	}
+	
+	/**
+	 * Finds the IDs of the cells within (or exactly at) a distance of a point.  The IDs are returned in the order the MASON
+	 * Continuous2D would have returned the cells
+	 *
+	 * @param x	The x coordinate of the point
+	 * @param y	The y coordinate of the point
+	 * @param distance	The distance to search
+	 * @param toroidal	Whether the search should wrap around the top and bottom of the tract
+	 * @param result	IntBag to fill with the IDs found (cleared first)
+	 * @return	The result IntBag
+	 */
+	public IntBag getIdsExactlyWithinDistance(double x,double y,double distance,boolean toroidal,IntBag result)
+	{
+		result.clear();
+		
+		int minColumn = Math.max(0,(int)Math.floor((x-distance)/this.discretization));
+		int maxColumn = Math.min(this.columns-1,(int)Math.floor((x+distance)/this.discretization));
+		
+		// GATHER THE CELLS IN EACH BUCKET THE SEARCH CAN REACH, COLUMN BY COLUMN
+		for(int column=minColumn;column<=maxColumn;column++)
+		{
+			if(toroidal)
+			{
+				for(int row=0;row<this.rows;row++)
+				{
+					if(this.rowReachable(row,y,distance))
+						this.gather(column*this.rows+row,result);
+				}
+			}
+			else
+			{
+				int minRow = Math.max(0,(int)Math.floor((y-distance)/this.discretization));
+				int maxRow = Math.min(this.rows-1,(int)Math.floor((y+distance)/this.discretization));
+				for(int row=minRow;row<=maxRow;row++)
+				{
+					this.gather(column*this.rows+row,result);
+				}
+			}
+		}
+		
+		// NOW KEEP ONLY THOSE WITHIN THE DISTANCE - SWAPPING THE LAST CELL INTO THE PLACE OF ANY REMOVED, AS MASON DOES
+		double distanceSq = distance*distance;
+		int[] found = result.objs;
+		int numFound = result.numObjs;
+		for(int i=0;i<numFound;i++)
+		{
+			int id = found[i];
+			double dx = x - this.agentX[id];
+			double dy = y - this.agentY[id];
+			if(toroidal)
+			{
+				if(dy>this.height/2)
+					dy -= this.height;
+				else if(dy<-this.height/2)
+					dy += this.height;
+			}
+			if(dx*dx+dy*dy>distanceSq)
+			{
+				found[i] = found[numFound-1];
+				numFound--;
+				i--;
+			}
+		}
+		result.numObjs = numFound;
+		return result;
+	}
+	
+	/**
+	 * Finds the cells within (or exactly at) a distance of a point
+	 *
+	 * @param position	The point
+	 * @param distance	The distance to search
+	 * @return	A new Bag of the cells found
+	 */
+	public Bag getObjectsExactlyWithinDistance(Double2D position,double distance)
+	{
+		return this.getObjectsExactlyWithinDistance(position,distance,false,null);
+	}
+	
+	/**
+	 * Finds the cells within (or exactly at) a distance of a point
+	 *
+	 * @param position	The point
+	 * @param distance	The distance to search
+	 * @param toroidal	Whether the search should wrap around the top and bottom of the tract
+	 * @return	A new Bag of the cells found
+	 */
+	public Bag getObjectsExactlyWithinDistance(Double2D position,double distance,boolean toroidal)
+	{
+		return this.getObjectsExactlyWithinDistance(position,distance,toroidal,null);
+	}
+	
+	/**
+	 * Finds the cells within (or exactly at) a distance of a point
+	 *
+	 * @param position	The point
+	 * @param distance	The distance to search
+	 * @param toroidal	Whether the search should wrap around the top and bottom of the tract
+	 * @param result	Bag to fill with the cells found (cleared first), or null to create a new Bag
+	 * @return	The result Bag
+	 */
+	public Bag getObjectsExactlyWithinDistance(Double2D position,double distance,boolean toroidal,Bag result)
+	{
+		this.getIdsExactlyWithinDistance(position.x,position.y,distance,toroidal,this.queryIds);
+		
+		if(result==null)
+			result = new Bag(Math.max(1,this.queryIds.numObjs));
+		else
+			result.clear();
+		
+		for(int i=0;i<this.queryIds.numObjs;i++)
+		{
+			result.add(this.agents[this.queryIds.objs[i]]);
+		}
+		return result;
+	}
+	
+	/**
+	 * Passes each cell within (or exactly at) a distance of a point to a visitor, in the order they would be returned by 
+	 * getObjectsExactlyWithinDistance, until the visitor asks to stop.  Nothing is allocated, and the visitor may itself 
+	 * query the tract
+	 * 
+	 * @param x	The x coordinate of the point
+	 * @param y	The y coordinate of the point
+	 * @param distance	The distance to search
+	 * @param toroidal	Whether the search should wrap around the top and bottom of the tract
+	 * @param cellType	Only cells of this type (class or interface) are passed to the visitor - null for all cells
+	 * @param visitor	The visitor to pass each cell to
+	 * @return	Whether the visitor stopped the query
+	 */
+	public boolean visitExactlyWithinDistance(double x,double y,double distance,boolean toroidal,Class<?> cellType,NeighbourVisitor visitor)
+	{
+		if(this.visitDepth==this.visitIds.length)
+		{
+			this.visitIds = Arrays.copyOf(this.visitIds,this.visitDepth+1);
+			this.visitIds[this.visitDepth] = new IntBag();
+		}
+		IntBag found = this.getIdsExactlyWithinDistance(x,y,distance,toroidal,this.visitIds[this.visitDepth]);
+		this.visitDepth++;
+		
+		try
+		{
+			for(int i=0;i<found.numObjs;i++)
+			{
+				Object agent = this.agents[found.objs[i]];
+				
+				// a visitor may have moved a cell off the tract since it was found
+				if(agent!=null && (cellType==null || cellType.isInstance(agent)))
+				{
+					if(!visitor.visit(agent))
+						return true;
+				}
+			}
+			return false;
+		}
+		finally
+		{
+			this.visitDepth--;
+		}
+	}
+	
+	/**
+	 * Whether any cell of a type is within (or exactly at) a distance of a point - used to test a position before a cell is 
+	 * created there, so no cell needs creating to check it
+	 * 
+	 * @param x	The x coordinate of the point
+	 * @param y	The y coordinate of the point
+	 * @param distance	The distance to search
+	 * @param cellType	Only cells of this type (class or interface) are counted - null for all cells
+	 * @return	Whether a cell was found
+	 */
+	public boolean anyWithinDistance(double x,double y,double distance,Class<?> cellType)
+	{
+		return this.visitExactlyWithinDistance(x,y,distance,false,cellType,STOP_AT_FIRST);
+	}
+	
+	/**
+	 * Stops a search at the first cell found
+	 */
+	private static final NeighbourVisitor STOP_AT_FIRST = new NeighbourVisitor()
+	{
+		public boolean visit(Object cell)
+		{
+			return false;
+		}
+	};
+	
+	/**
+	 * Enables the broad phase - from then on, the list of candidate contacts is built at the first visitContactsOf of each step
+	 * of the schedule.  As the list is only used while cells remain within the margin of where they were when it was built, it
+	 * does not matter whether some cells have already moved in the step when it is built
+	 *
+	 * @param schedule	Schedule of the simulation
+	 * @param contact	Largest contact distance that will be queried with visitContactsOf
+	 * @param margin	Distance a cell is expected to move at most during the step
+	 */
+	public void enableBroadPhase(Schedule schedule,double contact,double margin)
+	{
+		this.broadPhaseSchedule = schedule;
+		this.broadPhaseContact = contact;
+		this.broadPhaseMargin = margin;
+	}
+	
+	/**
+	 * Builds the broad-phase list of candidate contacts for a step.  In one sweep of the buckets, every pair of cells within
+	 * the contact distance plus twice the margin of each other is found, and each cell is given the list of its candidates.
+	 * While neither cell of a pair has moved further than the margin, they can only come into contact if they are candidates
+	 * of each other.  Cells that do move further, or are added during the step, are recorded as escaped and checked by every
+	 * contact query, so no contact is missed
+	 *
+	 * @param contact	Largest contact distance that will be queried with visitContactsOf
+	 * @param margin	Distance a cell is expected to move at most during the step
+	 */
+	private void buildBroadPhase(double contact,double margin)
+	{
+		this.broadPhase = true;
+		this.broadPhaseContact = contact;
+		this.broadPhaseMargin = margin;
+		this.broadPhaseIds = this.nextId;
+		
+		if(this.startX.length<this.nextId)
+		{
+			this.startX = new double[this.agents.length];
+			this.startY = new double[this.agents.length];
+			this.escaped = new boolean[this.agents.length];
+			this.candidateStart = new int[this.agents.length+1];
+			this.candidateFill = new int[this.agents.length];
+		}
+		System.arraycopy(this.agentX,0,this.startX,0,this.nextId);
+		System.arraycopy(this.agentY,0,this.startY,0,this.nextId);
+		Arrays.fill(this.escaped,0,this.nextId,false);
+		this.escapedIds.clear();
+		
+		// FIND EACH PAIR ONCE - CELLS LATER IN THE SAME BUCKET, THEN THE BUCKETS ABOVE IN THE SAME COLUMN AND ALL THOSE IN 
+		// THE COLUMNS TO THE RIGHT THAT THE RANGE CAN REACH
+		double range = contact+2*(margin+MARGIN_SLACK);
+		double rangeSq = range*range;
+		int reach = (int)Math.ceil(range/this.discretization);
+		this.pairs.clear();
+		
+		for(int column=0;column<this.columns;column++)
+		{
+			for(int row=0;row<this.rows;row++)
+			{
+				int bucket = column*this.rows+row;
+				int count = this.bucketCounts[bucket];
+				int[] members = this.bucketMembers[bucket];
+				
+				for(int i=0;i<count;i++)
+				{
+					int id = members[i];
+					double x = this.agentX[id];
+					double y = this.agentY[id];
+					
+					for(int j=i+1;j<count;j++)
+						this.pairIfInRange(id,x,y,members[j],rangeSq);
+					
+					for(int otherColumn=column;otherColumn<=Math.min(this.columns-1,column+reach);otherColumn++)
+					{
+						int firstRow = (otherColumn==column) ? row+1 : Math.max(0,row-reach);
+						int lastRow = Math.min(this.rows-1,row+reach);
+						for(int otherRow=firstRow;otherRow<=lastRow;otherRow++)
+						{
+							int otherBucket = otherColumn*this.rows+otherRow;
+							int[] others = this.bucketMembers[otherBucket];
+							for(int j=0;j<this.bucketCounts[otherBucket];j++)
+								this.pairIfInRange(id,x,y,others[j],rangeSq);
+						}
+					}
+				}
+			}
+		}
+		
+		// COUNT THE CANDIDATES OF EACH CELL, THEN FILL EACH CELL'S SHARE OF THE CANDIDATE ARRAY
+		Arrays.fill(this.candidateStart,0,this.nextId+1,0);
+		for(int i=0;i<this.pairs.numObjs;i++)
+			this.candidateStart[this.pairs.objs[i]+1]++;
+		for(int id=0;id<this.nextId;id++)
+			this.candidateStart[id+1] += this.candidateStart[id];
+		
+		if(this.candidateIds.length<this.pairs.numObjs)
+			this.candidateIds = new int[this.pairs.numObjs*2];
+		
+		int[] filled = this.candidateFill;
+		System.arraycopy(this.candidateStart,0,filled,0,this.nextId);
+		for(int i=0;i<this.pairs.numObjs;i+=2)
+		{
+			int a = this.pairs.objs[i];
+			int b = this.pairs.objs[i+1];
+			this.candidateIds[filled[a]++] = b;
+			this.candidateIds[filled[b]++] = a;
+		}
+	}
+	
+	/**
+	 * Passes to a visitor the cell in contact with (within or exactly at a distance of) a cell on the tract - the first such
+	 * cell getObjectsExactlyWithinDistance would return, excluding the cell itself.  Where the broad phase is enabled, only
+	 * the cell's candidates and any escaped cells are checked.  Where more than one cell is in contact, or the broad phase
+	 * cannot answer (the cell has moved further than the margin, was added during the step, too many cells have escaped, or
+	 * the distance is larger than that the broad phase was built for), the full non-toroidal query is used, so the result is
+	 * always the same
+	 *
+	 * @param agent	The cell looking for contacts (it need not yet be on the tract)
+	 * @param x	The x coordinate of the cell
+	 * @param y	The y coordinate of the cell
+	 * @param distance	The contact distance
+	 * @param cellType	Only cells of this type (class or interface) are passed to the visitor - null for all cells
+	 * @param visitor	The visitor to pass each cell to
+	 * @return	Whether the visitor stopped the query
+	 */
+	public boolean visitContactsOf(Object agent,double x,double y,double distance,Class<?> cellType,NeighbourVisitor visitor)
+	{
+		if(agent!=this.lastQueryAgent)
+		{
+			// A DIFFERENT CELL IS QUERYING - IF THIS IS THE FIRST QUERY OF A NEW STEP, BUILD THE CANDIDATES FOR THE STEP
+			if(this.broadPhaseSchedule!=null && this.broadPhaseSchedule.getSteps()!=this.broadPhaseStep)
+			{
+				this.broadPhaseStep = this.broadPhaseSchedule.getSteps();
+				this.buildBroadPhase(this.broadPhaseContact,this.broadPhaseMargin);
+			}
+			this.lastQueryAgent = agent;
+			this.lastQueryId = this.getId(agent);
+		}
+		
+		int id = this.broadPhase ? this.lastQueryId : -1;
+		
+		if(id<0 || id>=this.broadPhaseIds || this.escaped[id] || distance>this.broadPhaseContact || !this.withinMargin(id,x,y) ||
+				this.escapedIds.numObjs>MAX_ESCAPED)
+			return this.visitExactlyWithinDistance(x,y,distance,false,cellType,visitor);
+		
+		double distanceSq = distance*distance;
+		int found = -1;
+		
+		for(int i=this.candidateStart[id];i<this.candidateStart[id+1];i++)
+		{
+			int other = this.candidateIds[i];
+			
+			// ESCAPED CELLS (INCLUDING ANY NOW GIVEN A FREED ID) ARE CHECKED BELOW
+			if(this.escaped[other] || !this.inContact(other,x,y,distanceSq,cellType))
+				continue;
+			if(found>=0)
+				return this.visitExactlyWithinDistance(x,y,distance,false,cellType,visitor);
+			found = other;
+		}
+		for(int i=0;i<this.escapedIds.numObjs;i++)
+		{
+			int other = this.escapedIds.objs[i];
+			if(other==id || !this.inContact(other,x,y,distanceSq,cellType))
+				continue;
+			if(found>=0)
+				return this.visitExactlyWithinDistance(x,y,distance,false,cellType,visitor);
+			found = other;
+		}
+		
+		return found>=0 && !visitor.visit(this.agents[found]);
+	}
+	
+	/**
+	 * Brings the Continuous2D used by the graphical display up to date with the cells on the tract, and returns it.  This is
+	 * only needed for display, so is not kept up to date as cells move
+	 *
+	 * @return	Continuous2D holding each cell on the tract at its current location
+	 */
+	public Continuous2D getDisplayField()
+	{
+		// TAKE OFF ANY CELL THAT HAS SINCE LEFT THE TRACT
+		Bag displayed = new Bag(this.displayField.getAllObjects());
+		for(int i=0;i<displayed.numObjs;i++)
+		{
+			if(!this.ids.containsKey(displayed.objs[i]))
+				this.displayField.remove(displayed.objs[i]);
+		}
+		
+		for(int id=0;id<this.nextId;id++)
+		{
+			if(this.agents[id]!=null)
+				this.displayField.setObjectLocation(this.agents[id],new Double2D(this.agentX[id],this.agentY[id]));
+		}
+		return this.displayField;
+	}
+	
+	/**
+	 * Records a pair of cells as candidate contacts if within range of each other
+	 */
+	private void pairIfInRange(int id,double x,double y,int other,double rangeSq)
+	{
+		double dx = x - this.agentX[other];
+		double dy = y - this.agentY[other];
+		if(dx*dx+dy*dy<=rangeSq)
+		{
+			this.pairs.add(id);
+			this.pairs.add(other);
+		}
+	}
+	
+	/**
+	 * Whether a cell is on the tract, of the type wanted, and within a distance of a point - the same test as 
+	 * getIdsExactlyWithinDistance
+	 */
+	private boolean inContact(int id,double x,double y,double distanceSq,Class<?> cellType)
+	{
+		if(this.agents[id]==null || (cellType!=null && !cellType.isInstance(this.agents[id])))
+			return false;
+		
+		double dx = x - this.agentX[id];
+		double dy = y - this.agentY[id];
+		return dx*dx+dy*dy<=distanceSq;
+	}
+	
+	/**
+	 * Whether a point is within the broad-phase margin of where a cell was when the broad phase was built
+	 */
+	private boolean withinMargin(int id,double x,double y)
+	{
+		double dx = x - this.startX[id];
+		double dy = y - this.startY[id];
+		double margin = this.broadPhaseMargin+MARGIN_SLACK;
+		return dx*dx+dy*dy<=margin*margin;
+	}
+	
+	/**
+	 * Whether a cell has escaped the broad phase (a cell given an ID after it was built always has)
+	 */
+	private boolean escaped(int id)
+	{
+		return id>=this.broadPhaseIds || this.escaped[id];
+	}
+	
+	/**
+	 * Records that a cell can no longer be found through the candidate lists
+	 */
+	private void escape(int id)
+	{
+		if(id<this.broadPhaseIds)
+		{
+			if(this.escaped[id])
+				return;
+			this.escaped[id] = true;
+		}
+		else
+		{
+			for(int i=0;i<this.escapedIds.numObjs;i++)
+			{
+				if(this.escapedIds.objs[i]==id)
+					return;
+			}
+		}
+		this.escapedIds.add(id);
+	}
+	
+	/**
+	 * Bucket for a location.  The same truncation as MASON is used, with rows clamped to the tract
+	 */
+	private int bucketOf(double x,double y)
+	{
+		int column = Math.min(this.columns-1,(int)(x/this.discretization));
+		int row = Math.max(0,Math.min(this.rows-1,(int)(y/this.discretization)));
+		return column*this.rows+row;
+	}
+	
+	/**
+	 * Whether any point of a row of buckets is within a distance of a y coordinate, wrapping around the tract
+	 */
+	private boolean rowReachable(int row,double y,double distance)
+	{
+		double rowMin = row*this.discretization;
+		double rowMax = rowMin+this.discretization;
+		
+		for(int wrap=-1;wrap<=1;wrap++)
+		{
+			double wrappedY = y+wrap*this.height;
+			if(wrappedY+distance>=rowMin && wrappedY-distance<=rowMax)
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Adds the IDs held in a bucket to a result
+	 */
+	private void gather(int bucket,IntBag result)
+	{
+		int count = this.bucketCounts[bucket];
+		if(count>0)
+		{
+			if(result.numObjs+count>result.objs.length)
+				result.resize((result.numObjs+count)*2);
+			System.arraycopy(this.bucketMembers[bucket],0,result.objs,result.numObjs,count);
+			result.numObjs += count;
+		}
+	}
+	
+	/**
+	 * Adds a cell to the end of a bucket
+	 */
+	private void link(int id,int bucket)
+	{
+		int[] members = this.bucketMembers[bucket];
+		int count = this.bucketCounts[bucket];
+		
+		if(members==null)
+		{
+			members = new int[4];
+			this.bucketMembers[bucket] = members;
+		}
+		else if(count==members.length)
+		{
+			members = Arrays.copyOf(members,count*2);
+			this.bucketMembers[bucket] = members;
+		}
+		
+		members[count] = id;
+		this.bucketCounts[bucket] = count+1;
+		this.agentBucket[id] = bucket;
+		this.agentSlot[id] = count;
+	}
+	
+	/**
+	 * Takes a cell out of its bucket, moving the last cell in the bucket into its place
+	 */
+	private void unlink(int id)
+	{
+		int bucket = this.agentBucket[id];
+		int[] members = this.bucketMembers[bucket];
+		int last = this.bucketCounts[bucket]-1;
+		int slot = this.agentSlot[id];
+		
+		members[slot] = members[last];
+		this.agentSlot[members[slot]] = slot;
+		this.bucketCounts[bucket] = last;
+	}
+	
+	/**
+	 * Grows the per-ID arrays to hold at least the given number of cells
+	 */
+	private void ensureCapacity(int size)
+	{
+		if(size>this.agents.length)
+		{
+			int newSize = Math.max(size,this.agents.length*2);
+			this.agents = Arrays.copyOf(this.agents,newSize);
+			this.agentX = Arrays.copyOf(this.agentX,newSize);
+			this.agentY = Arrays.copyOf(this.agentY,newSize);
+			this.agentBucket = Arrays.copyOf(this.agentBucket,newSize);
+			this.agentSlot = Arrays.copyOf(this.agentSlot,newSize);
+		}
+	}
+}